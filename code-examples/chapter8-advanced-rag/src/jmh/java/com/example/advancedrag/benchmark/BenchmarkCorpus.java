@@ -0,0 +1,164 @@
+package com.example.advancedrag.benchmark;
+
+import com.example.advancedrag.model.RetrievalContext;
+import com.example.advancedrag.model.ScoredDocument;
+import com.example.advancedrag.properties.EmbeddingProperties;
+import org.springframework.ai.document.Document;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * 基準測試用的合成語料（固定種子，結果可重現）
+ *
+ * 提供英文與中文兩種語言的文檔、查詢、向量，所有基準共用，
+ * 不依賴向量資料庫或 Embedding API。
+ */
+public final class BenchmarkCorpus {
+
+    /**
+     * 固定隨機種子
+     */
+    public static final long SEED = 20251017L;
+
+    /**
+     * 向量維度（與應用默認的 Embedding 維度及 PgVector 資料表一致）
+     */
+    public static final int DIMENSIONS = new EmbeddingProperties().getDefaultDimensions();
+
+    private static final String[] ENGLISH_WORDS = {
+            "spring", "vector", "retrieval", "embedding", "ranking", "context", "query", "document",
+            "model", "search", "index", "score", "latency", "cache", "token", "prompt", "answer",
+            "semantic", "keyword", "hybrid", "database", "pipeline", "service", "request", "response",
+            "the", "a", "of", "and", "to", "in", "is", "for", "with", "on", "that", "by", "from"
+    };
+
+    private static final String[] CJK_WORDS = {
+            "向量", "檢索", "嵌入", "排序", "上下文", "查詢", "文檔", "模型", "搜尋", "索引", "分數",
+            "延遲", "快取", "提示", "答案", "語義", "關鍵詞", "混合", "資料庫", "管線", "服務", "請求",
+            "的", "是", "在", "和", "了", "與", "及", "對", "於", "中", "為", "可以", "使用", "系統"
+    };
+
+    /**
+     * 語言
+     */
+    public enum Language {
+        ENGLISH, CJK
+    }
+
+    private final Random random;
+    private final Language language;
+
+    public BenchmarkCorpus(Language language) {
+        this.language = language;
+        this.random = new Random(SEED + language.ordinal());
+    }
+
+    /**
+     * 生成一段文本
+     *
+     * @param words 詞數
+     * @return 文本
+     */
+    public String text(int words) {
+        String[] vocabulary = language == Language.ENGLISH ? ENGLISH_WORDS : CJK_WORDS;
+        String separator = language == Language.ENGLISH ? " " : "";
+        StringBuilder builder = new StringBuilder(words * 8);
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                builder.append(separator);
+            }
+            // 偏態分佈：常用詞出現更頻繁，接近真實語料
+            int index = (int) Math.min(vocabulary.length - 1, Math.abs(random.nextGaussian()) * vocabulary.length / 3);
+            builder.append(vocabulary[index]);
+            if (i % 15 == 14) {
+                builder.append(language == Language.ENGLISH ? ". " : "。");
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 生成查詢（短文本）
+     */
+    public String query() {
+        return text(6);
+    }
+
+    /**
+     * 生成文檔（含品質與時間元數據）
+     *
+     * @param count 文檔數
+     * @param words 每個文檔詞數
+     * @return 文檔列表
+     */
+    public List<Document> documents(int count, int words) {
+        List<Document> documents = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> metadata = new HashMap<>();
+            metadata.put("title", "doc-" + i);
+            metadata.put("source", "benchmark");
+            metadata.put("distance", random.nextDouble() * 0.5);
+            metadata.put("updated_at", LocalDateTime.of(2025, 1, 1, 0, 0).plusDays(random.nextInt(300)).toString());
+            documents.add(new Document("doc-" + language.name().toLowerCase() + "-" + i, text(words), metadata));
+        }
+        return documents;
+    }
+
+    /**
+     * 將文檔包裝為評分文檔（分數遞減），並按 duplicateRatio 的比例插入重複文檔
+     *
+     * @param documents 文檔
+     * @param duplicateRatio 重複文檔比例（0-1）
+     * @return 評分文檔列表
+     */
+    public List<ScoredDocument> scoredDocuments(List<Document> documents, double duplicateRatio) {
+        List<ScoredDocument> scored = new ArrayList<>(documents.size());
+        for (int i = 0; i < documents.size(); i++) {
+            Document document = documents.get(i);
+            if (i > 0 && random.nextDouble() < duplicateRatio) {
+                Document original = documents.get(random.nextInt(i));
+                document = new Document(document.getId(), original.getText(), document.getMetadata());
+            }
+            double score = 1.0 - (double) i / documents.size();
+            scored.add(ScoredDocument.builder()
+                    .document(document)
+                    .score(score)
+                    .semanticScore(score)
+                    .build());
+        }
+        return scored;
+    }
+
+    /**
+     * 生成隨機向量
+     */
+    public float[] vector() {
+        float[] vector = new float[DIMENSIONS];
+        for (int i = 0; i < DIMENSIONS; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+
+    /**
+     * 生成已填入查詢向量與文檔向量的檢索上下文
+     *
+     * @param query 查詢
+     * @param documents 文檔
+     * @return 檢索上下文
+     */
+    public RetrievalContext retrievalContext(String query, List<Document> documents) {
+        RetrievalContext context = new RetrievalContext();
+        float[] queryVector = vector();
+        context.queryVector(query, text -> queryVector);
+        for (Document document : documents) {
+            context.putDocumentVector(document.getId(), vector());
+        }
+        return context;
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.advancedrag.benchmark;
+
+import com.example.advancedrag.properties.RAGProperties;
+import com.example.advancedrag.service.BM25Service;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+
+/**
+ * 基準測試共用的服務建構（不啟動 Spring 上下文）
+ */
+public final class BenchmarkSupport {
+
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * 建立 BM25Service 並以給定文檔建立倒排索引（不連接資料庫）
+     *
+     * @param documents 文檔
+     * @return BM25Service
+     */
+    public static BM25Service bm25Service(List<Document> documents) {
+        BM25Service service = new BM25Service(new RAGProperties(),
+                new StaticListableBeanFactory().getBeanProvider(JdbcTemplate.class),
+                "vector_store");
+        service.indexDocuments(documents);
+        return service;
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.advancedrag.reranking;
+
+import com.example.advancedrag.benchmark.BenchmarkCorpus;
+import com.example.advancedrag.benchmark.BenchmarkSupport;
+import com.example.advancedrag.model.RetrievalContext;
+import com.example.advancedrag.properties.RAGProperties;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.ai.document.Document;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LocalRerankingProvider 基準測試（20 / 50 / 200 個候選）
+ *
+ * - metadataScores：語義分數來自元數據 distance
+ * - vectorScores：語義分數由檢索上下文中的向量計算
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Benchmark)
+public class LocalRerankingProviderBenchmark {
+
+    @Param({"ENGLISH", "CJK"})
+    public BenchmarkCorpus.Language language;
+
+    @Param({"20", "50", "200"})
+    public int candidates;
+
+    private LocalRerankingProvider provider;
+    private List<Document> documents;
+    private RetrievalContext context;
+    private String query;
+
+    @Setup
+    public void setUp() {
+        BenchmarkCorpus corpus = new BenchmarkCorpus(language);
+        List<Document> indexed = corpus.documents(1000, 200);
+        documents = indexed.subList(0, candidates);
+        provider = new LocalRerankingProvider(BenchmarkSupport.bm25Service(indexed), new RAGProperties());
+        query = corpus.query();
+        context = corpus.retrievalContext(query, documents);
+    }
+
+    @Benchmark
+    public List<RerankResult> metadataScores() {
+        return provider.rerank(query, documents, 5);
+    }
+
+    @Benchmark
+    public List<RerankResult> vectorScores() {
+        return provider.rerank(query, documents, 5, context);
+    }
+}
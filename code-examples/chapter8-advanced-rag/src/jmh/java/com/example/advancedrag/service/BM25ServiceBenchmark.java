@@ -0,0 +1,70 @@
+package com.example.advancedrag.service;
+
+import com.example.advancedrag.benchmark.BenchmarkCorpus;
+import com.example.advancedrag.benchmark.BenchmarkSupport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.ai.document.Document;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BM25Service 基準測試
+ *
+ * - indexed：文檔已在倒排索引中（查索引統計）
+ * - adHoc：文檔不在索引中（每次分詞後評分，Re-ranking 常見情況）
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Benchmark)
+public class BM25ServiceBenchmark {
+
+    @Param({"ENGLISH", "CJK"})
+    public BenchmarkCorpus.Language language;
+
+    private BM25Service bm25Service;
+    private List<Document> indexedDocuments;
+    private List<Document> adHocDocuments;
+    private String query;
+    private List<String> keywords;
+
+    @Setup
+    public void setUp() {
+        BenchmarkCorpus corpus = new BenchmarkCorpus(language);
+        indexedDocuments = corpus.documents(1000, 200);
+        adHocDocuments = corpus.documents(50, 200).stream()
+                .map(document -> new Document("adhoc-" + document.getId(), document.getText(), document.getMetadata()))
+                .toList();
+        bm25Service = BenchmarkSupport.bm25Service(indexedDocuments);
+        query = corpus.query();
+        keywords = List.of(corpus.text(1), corpus.text(1));
+    }
+
+    @Benchmark
+    public void indexed(Blackhole blackhole) {
+        for (int i = 0; i < 50; i++) {
+            blackhole.consume(bm25Service.calculateBM25Score(indexedDocuments.get(i), query, keywords));
+        }
+    }
+
+    @Benchmark
+    public void adHoc(Blackhole blackhole) {
+        for (Document document : adHocDocuments) {
+            blackhole.consume(bm25Service.calculateBM25Score(document, query, keywords));
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.advancedrag.service;
+
+import com.example.advancedrag.benchmark.BenchmarkCorpus;
+import com.example.advancedrag.model.RAGQueryOptions;
+import com.example.advancedrag.model.RetrievalContext;
+import com.example.advancedrag.model.ScoredDocument;
+import com.example.advancedrag.properties.RAGProperties;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.ai.document.Document;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ContextOptimizationService 基準測試（去重與完整上下文優化，約 20% 重複文檔）
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Benchmark)
+public class ContextOptimizationServiceBenchmark {
+
+    @Param({"ENGLISH", "CJK"})
+    public BenchmarkCorpus.Language language;
+
+    @Param({"30", "100"})
+    public int documentCount;
+
+    private ContextOptimizationService service;
+    private List<ScoredDocument> documents;
+    private RetrievalContext context;
+    private RAGQueryOptions options;
+
+    @Setup
+    public void setUp() {
+        BenchmarkCorpus corpus = new BenchmarkCorpus(language);
+        List<Document> raw = corpus.documents(documentCount, 300);
+        documents = corpus.scoredDocuments(raw, 0.2);
+        context = corpus.retrievalContext(corpus.query(), raw);
+        RAGProperties properties = new RAGProperties();
+        service = new ContextOptimizationService(properties, new TokenCounter(properties), null);
+        options = RAGQueryOptions.builder().build();
+    }
+
+    @Benchmark
+    public List<ScoredDocument> deduplicateText() {
+        return service.deduplicateDocuments(documents, null);
+    }
+
+    @Benchmark
+    public List<ScoredDocument> deduplicateVectors() {
+        return service.deduplicateDocuments(documents, context);
+    }
+
+    @Benchmark
+    public String optimizeContext() {
+        return service.optimizeContext(documents, options, context);
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.advancedrag.service;
+
+import com.example.advancedrag.benchmark.BenchmarkCorpus;
+import com.example.advancedrag.dto.ModerationResult;
+import com.example.advancedrag.properties.ModerationProperties;
+import com.example.advancedrag.properties.RAGProperties;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.DefaultResourceLoader;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CustomRuleModerationService 基準測試（短查詢與長答案，內建詞典與 5000 詞的大詞典）
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Benchmark)
+public class CustomRuleModerationServiceBenchmark {
+
+    @Param({"ENGLISH", "CJK"})
+    public BenchmarkCorpus.Language language;
+
+    @Param({"20", "500"})
+    public int words;
+
+    @Param({"0", "5000"})
+    public int extraTerms;
+
+    private CustomRuleModerationService service;
+    private String content;
+
+    @Setup
+    public void setUp() {
+        BenchmarkCorpus corpus = new BenchmarkCorpus(language);
+        ModerationProperties moderationProperties = new ModerationProperties();
+        List<String> terms = new ArrayList<>(extraTerms);
+        for (int i = 0; i < extraTerms; i++) {
+            terms.add("詞" + i + corpus.text(1));
+        }
+        moderationProperties.setSensitiveWords(terms);
+
+        service = new CustomRuleModerationService(new RAGProperties(), moderationProperties, new DefaultResourceLoader());
+        service.reloadDictionary();
+        content = corpus.text(words);
+    }
+
+    @Benchmark
+    public ModerationResult moderate() {
+        return service.moderateContent(content);
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.advancedrag.util;
+
+import com.example.advancedrag.benchmark.BenchmarkCorpus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TextUtil 基準測試（分詞與詞頻）
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Benchmark)
+public class TextUtilBenchmark {
+
+    @Param({"ENGLISH", "CJK"})
+    public BenchmarkCorpus.Language language;
+
+    private String text;
+    private String term;
+
+    @Setup
+    public void setUp() {
+        BenchmarkCorpus corpus = new BenchmarkCorpus(language);
+        text = corpus.text(500);
+        term = corpus.text(1);
+    }
+
+    @Benchmark
+    public List<String> tokenize() {
+        return TextUtil.tokenize(text);
+    }
+
+    @Benchmark
+    public int termFrequency() {
+        return TextUtil.termFrequency(text, term);
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.advancedrag.util;
+
+import com.example.advancedrag.benchmark.BenchmarkCorpus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * VectorUtil 基準測試（1024 維）
+ *
+ * 對比裝箱 List&lt;Double&gt;、float[] 單次計算與一對多批次計算，
+ * 並分別測量 SIMD 與標量核心。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Benchmark)
+public class VectorUtilBenchmark {
+
+    private static final int CANDIDATES = 50;
+
+    private final VectorKernel scalarKernel = new ScalarVectorKernel();
+
+    private float[] query;
+    private float[] document;
+    private List<Double> boxedQuery;
+    private List<Double> boxedDocument;
+    private List<float[]> candidates;
+    private float[] scores;
+
+    @Setup
+    public void setUp() {
+        BenchmarkCorpus corpus = new BenchmarkCorpus(BenchmarkCorpus.Language.ENGLISH);
+        query = corpus.vector();
+        document = corpus.vector();
+        boxedQuery = box(query);
+        boxedDocument = box(document);
+        candidates = new ArrayList<>(CANDIDATES);
+        for (int i = 0; i < CANDIDATES; i++) {
+            candidates.add(corpus.vector());
+        }
+        scores = new float[CANDIDATES];
+    }
+
+    @Benchmark
+    @SuppressWarnings("deprecation")
+    public double cosineBoxed() {
+        return VectorUtil.cosineSimilarity(boxedQuery, boxedDocument);
+    }
+
+    @Benchmark
+    public double cosine() {
+        return VectorUtil.cosineSimilarity(query, document);
+    }
+
+    @Benchmark
+    public double cosineScalar() {
+        return scalarKernel.cosine(query, 0, document, 0, query.length);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public float[] cosineOneVsMany() {
+        VectorUtil.cosineSimilarities(query, candidates, scores);
+        return scores;
+    }
+
+    private static List<Double> box(float[] vector) {
+        List<Double> boxed = new ArrayList<>(vector.length);
+        for (float v : vector) {
+            boxed.add((double) v);
+        }
+        return boxed;
+    }
+}
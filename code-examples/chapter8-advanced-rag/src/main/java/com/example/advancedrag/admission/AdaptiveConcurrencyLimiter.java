@@ -0,0 +1,164 @@
+package com.example.advancedrag.admission;
+
+import java.time.Duration;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * AIMD 自適應並發限制器
+ *
+ * 並發上限隨下游表現調整：
+ * - 請求在延遲目標內成功完成且上限已被用滿一半以上時，上限加性增長（每個完整窗口 +1）
+ * - 請求超過延遲目標或被下游拒絕（dropped）時，上限乘性收縮
+ *
+ * 長連線的串流請求以 {@link #releaseUnsampled} 釋放：耗時取決於答案長度而非下游負載，不作為延遲樣本，
+ * 只有被拒絕時收縮。
+ *
+ * 超過上限的請求最多排隊 maxQueueDelay；排隊數已達當前上限或等待超時即拒絕，
+ * 避免在 LLM 變慢時所有 Tomcat 線程都阻塞在排隊上。
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long latencyTargetNanos;
+    private final double backoffRatio;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+
+    private double limit;
+    private int inFlight;
+    private int waiting;
+
+    /**
+     * @param initialLimit 初始上限
+     * @param minLimit 最小上限
+     * @param maxLimit 最大上限
+     * @param latencyTarget 延遲目標（超過視為過載信號）
+     * @param backoffRatio 收縮比例（0-1）
+     */
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit,
+                                      Duration latencyTarget, double backoffRatio) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.latencyTargetNanos = latencyTarget.toNanos();
+        this.backoffRatio = backoffRatio;
+        this.limit = Math.clamp(initialLimit, this.minLimit, this.maxLimit);
+    }
+
+    /**
+     * 嘗試獲取許可
+     *
+     * @param maxQueueDelay 最長排隊時間
+     * @return 是否獲得許可（獲得後必須調用 {@link #release}）
+     * @throws InterruptedException 排隊時被中斷
+     */
+    public boolean tryAcquire(Duration maxQueueDelay) throws InterruptedException {
+        lock.lock();
+        try {
+            if (inFlight < (int) limit) {
+                inFlight++;
+                return true;
+            }
+            if (waiting >= (int) limit) {
+                return false;
+            }
+
+            long remaining = maxQueueDelay.toNanos();
+            waiting++;
+            try {
+                while (inFlight >= (int) limit) {
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    remaining = available.awaitNanos(remaining);
+                }
+                inFlight++;
+                return true;
+            } finally {
+                waiting--;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 釋放許可並以本次請求的結果調整上限
+     *
+     * @param latencyNanos 請求耗時（奈秒）
+     * @param dropped 是否因過載被拒絕或失敗
+     */
+    public void release(long latencyNanos, boolean dropped) {
+        release(dropped, latencyNanos > latencyTargetNanos, true);
+    }
+
+    /**
+     * 釋放許可，不以耗時調整上限（被拒絕時仍收縮）
+     *
+     * @param dropped 是否因過載被拒絕或失敗
+     */
+    public void releaseUnsampled(boolean dropped) {
+        release(dropped, false, false);
+    }
+
+    private void release(boolean dropped, boolean slow, boolean sampled) {
+        lock.lock();
+        try {
+            int previousInFlight = inFlight;
+            inFlight = Math.max(0, inFlight - 1);
+
+            int previousLimit = (int) limit;
+            if (dropped || slow) {
+                limit = Math.max(minLimit, limit * backoffRatio);
+            } else if (sampled && previousInFlight * 2 >= previousLimit) {
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+            }
+
+            if ((int) limit > previousLimit) {
+                available.signalAll();
+            } else {
+                available.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 當前並發上限
+     */
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 當前排隊數
+     */
+    public int getWaiting() {
+        lock.lock();
+        try {
+            return waiting;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 當前執行中的請求數
+     */
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
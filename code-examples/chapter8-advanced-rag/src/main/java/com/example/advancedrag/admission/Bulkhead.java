@@ -0,0 +1,99 @@
+package com.example.advancedrag.admission;
+
+import com.example.advancedrag.exception.OverloadException;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 下游依賴隔艙
+ *
+ * 以信號量限制對單一下游（Embedding API、向量庫、Re-ranking、Chat 模型）的並發調用數，
+ * 等待超過 maxWait 即拋出 {@link OverloadException}：某個依賴變慢時只會耗盡自己的配額，
+ * 不會拖住其他依賴與整個請求線程池。
+ */
+public class Bulkhead {
+
+    private final String name;
+    private final int maxConcurrent;
+    private final Duration maxWait;
+    private final Semaphore permits;
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * @param name 依賴名稱
+     * @param maxConcurrent 最大並發數
+     * @param maxWait 獲取許可的最長等待時間
+     */
+    public Bulkhead(String name, int maxConcurrent, Duration maxWait) {
+        this.name = name;
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.maxWait = maxWait;
+        this.permits = new Semaphore(this.maxConcurrent, true);
+    }
+
+    /**
+     * 在隔艙內執行調用
+     *
+     * @param call 下游調用
+     * @return 調用結果
+     * @throws OverloadException 等待許可超時
+     */
+    public <T> T call(Supplier<T> call) {
+        acquire();
+        try {
+            return call.get();
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * 獲取許可（調用方負責 {@link #release()}）
+     *
+     * @throws OverloadException 等待許可超時
+     */
+    public void acquire() {
+        try {
+            if (!permits.tryAcquire(maxWait.toMillis(), TimeUnit.MILLISECONDS)) {
+                rejected.incrementAndGet();
+                throw new OverloadException(name, "下游依賴繁忙: " + name);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OverloadException(name, "等待下游依賴許可時被中斷: " + name);
+        }
+    }
+
+    /**
+     * 釋放許可
+     */
+    public void release() {
+        permits.release();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    /**
+     * 執行中的調用數
+     */
+    public int getActive() {
+        return maxConcurrent - permits.availablePermits();
+    }
+
+    /**
+     * 累計拒絕次數
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+}
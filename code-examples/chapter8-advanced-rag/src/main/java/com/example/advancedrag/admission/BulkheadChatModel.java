@@ -0,0 +1,47 @@
+package com.example.advancedrag.admission;
+
+import com.example.advancedrag.service.AdmissionControlService;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import reactor.core.publisher.Flux;
+
+/**
+ * 以 chat 隔艙限制並發的 ChatModel 裝飾器
+ *
+ * 所有 ChatClient（生成、查詢重寫、評估）共用同一個隔艙；
+ * 串流調用在訂閱時獲取許可，串流結束、出錯或取消時釋放。
+ */
+public class BulkheadChatModel implements ChatModel {
+
+    private final ChatModel delegate;
+    private final AdmissionControlService admissionControlService;
+
+    public BulkheadChatModel(ChatModel delegate, AdmissionControlService admissionControlService) {
+        this.delegate = delegate;
+        this.admissionControlService = admissionControlService;
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        return admissionControlService.call(AdmissionControlService.CHAT, () -> delegate.call(prompt));
+    }
+
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        Bulkhead bulkhead = admissionControlService.bulkhead(AdmissionControlService.CHAT);
+        if (bulkhead == null) {
+            return delegate.stream(prompt);
+        }
+        return Flux.using(() -> {
+            bulkhead.acquire();
+            return bulkhead;
+        }, acquired -> delegate.stream(prompt), Bulkhead::release);
+    }
+
+    @Override
+    public ChatOptions getDefaultOptions() {
+        return delegate.getDefaultOptions();
+    }
+}
@@ -0,0 +1,180 @@
+package com.example.advancedrag.admission;
+
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+/**
+ * 下游依賴熔斷器
+ *
+ * 以最近 slidingWindowSize 次調用的失敗率判斷依賴是否劣化（超時也計為失敗）：
+ * - CLOSED：正常放行，窗口內調用數達到 minimumCalls 且失敗率不低於閾值時轉為 OPEN
+ * - OPEN：直接拒絕，經過 openDuration 後轉為 HALF_OPEN
+ * - HALF_OPEN：只放行一個探測調用，成功則 CLOSED（清空窗口），失敗則重新 OPEN；
+ *   探測沒有結果（如調用方被中斷）時釋放探測名額，由下一個調用重新探測
+ *
+ * 與 {@link Bulkhead} 互補：隔艙限制並發，熔斷器在依賴持續變慢或出錯時停止調用它。
+ */
+public class CircuitBreaker {
+
+    /**
+     * 熔斷器狀態
+     */
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+    private final double failureRateThreshold;
+    private final int minimumCalls;
+    private final long openNanos;
+    private final LongSupplier clock;
+
+    /**
+     * 環形窗口：true 表示失敗
+     */
+    private final boolean[] outcomes;
+    private int next;
+    private int recorded;
+    private int failures;
+
+    private State state = State.CLOSED;
+    private long openedAt;
+    private boolean probeInFlight;
+
+    /**
+     * @param name 依賴名稱
+     * @param failureRateThreshold 失敗率閾值（0-1）
+     * @param minimumCalls 判斷失敗率所需的最少調用數
+     * @param slidingWindowSize 滑動窗口調用數
+     * @param openDuration 熔斷持續時間
+     */
+    public CircuitBreaker(String name, double failureRateThreshold, int minimumCalls,
+                          int slidingWindowSize, Duration openDuration) {
+        this(name, failureRateThreshold, minimumCalls, slidingWindowSize, openDuration, System::nanoTime);
+    }
+
+    /**
+     * @param name 依賴名稱
+     * @param failureRateThreshold 失敗率閾值（0-1）
+     * @param minimumCalls 判斷失敗率所需的最少調用數
+     * @param slidingWindowSize 滑動窗口調用數
+     * @param openDuration 熔斷持續時間
+     * @param clock 單調時鐘（納秒，測試時可注入）
+     */
+    public CircuitBreaker(String name, double failureRateThreshold, int minimumCalls,
+                          int slidingWindowSize, Duration openDuration, LongSupplier clock) {
+        this.name = name;
+        this.failureRateThreshold = failureRateThreshold;
+        this.outcomes = new boolean[Math.max(1, slidingWindowSize)];
+        this.minimumCalls = Math.max(1, Math.min(minimumCalls, outcomes.length));
+        this.openNanos = openDuration.toNanos();
+        this.clock = clock;
+    }
+
+    /**
+     * 是否允許調用（允許後必須以 {@link #onSuccess()}、{@link #onFailure()} 或 {@link #onIgnored()} 回報結果）
+     *
+     * @return 是否允許
+     */
+    public synchronized boolean tryAcquire() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (clock.getAsLong() - openedAt < openNanos) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                probeInFlight = false;
+                // fall through
+            case HALF_OPEN:
+            default:
+                if (probeInFlight) {
+                    return false;
+                }
+                probeInFlight = true;
+                return true;
+        }
+    }
+
+    /**
+     * 回報調用成功
+     */
+    public synchronized void onSuccess() {
+        if (state == State.HALF_OPEN) {
+            reset();
+            return;
+        }
+        record(false);
+    }
+
+    /**
+     * 回報調用失敗（含超時）
+     */
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            open();
+            return;
+        }
+        record(true);
+        if (recorded >= minimumCalls && (double) failures / recorded >= failureRateThreshold) {
+            open();
+        }
+    }
+
+    /**
+     * 回報調用沒有結果（如調用方被中斷），不計入失敗率；HALF_OPEN 時釋放探測名額
+     */
+    public synchronized void onIgnored() {
+        if (state == State.HALF_OPEN) {
+            probeInFlight = false;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * 當前窗口失敗率（0-1）
+     */
+    public synchronized double getFailureRate() {
+        return recorded == 0 ? 0.0 : (double) failures / recorded;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    private void record(boolean failure) {
+        if (state != State.CLOSED) {
+            return;
+        }
+        if (recorded == outcomes.length) {
+            if (outcomes[next]) {
+                failures--;
+            }
+        } else {
+            recorded++;
+        }
+        outcomes[next] = failure;
+        if (failure) {
+            failures++;
+        }
+        next = (next + 1) % outcomes.length;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = clock.getAsLong();
+        probeInFlight = false;
+    }
+
+    private void reset() {
+        state = State.CLOSED;
+        probeInFlight = false;
+        next = 0;
+        recorded = 0;
+        failures = 0;
+    }
+}
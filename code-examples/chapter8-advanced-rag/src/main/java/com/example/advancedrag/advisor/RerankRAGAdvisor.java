@@ -1,8 +1,16 @@
 package com.example.advancedrag.advisor;
 
+import com.example.advancedrag.model.DepthDecision;
+import com.example.advancedrag.model.EmbeddingContext;
+import com.example.advancedrag.model.RetrievalContext;
 import com.example.advancedrag.properties.RAGProperties;
 import com.example.advancedrag.reranking.RerankResult;
 import com.example.advancedrag.reranking.RerankingProvider;
+import com.example.advancedrag.service.AdaptiveDepthService;
+import com.example.advancedrag.service.MetadataFilterService;
+import com.example.advancedrag.service.RerankResultCache;
+import com.example.advancedrag.service.SmartEmbeddingService;
+import com.example.advancedrag.service.VectorSearchService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.client.ChatClientRequest;
 import org.springframework.ai.chat.client.ChatClientResponse;
@@ -20,6 +28,7 @@ import org.springframework.util.StringUtils;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
@@ -35,6 +44,11 @@ import java.util.stream.Collectors;
  * - 支援多種 Re-ranking 提供者（Voyage AI、本地算法等）
  * - 自動透過 ChatClient 調用
  * - 配置靈活
+ * - 可選的 Re-ranking 結果快取：相同查詢與相同候選時不再調用提供者（遠端提供者即省去一次付費 API 調用）
+ * - 請求參數 {@value #FILTER_EXPRESSION} 的元數據過濾表達式下推到粗檢索的 SearchRequest
+ * - 可選的自適應檢索深度：粗檢索分頁取回，依分數分佈提前停止（firstStageTopK 只作為最大深度的下限）
+ * - 可選的預計算向量檢索：查詢向量只生成一次（與檢索上下文共享），分頁以偏移查詢；
+ *   未設定或不可用時回退到 VectorStore，一次取回最大深度後在記憶體中分頁
  */
 @Slf4j
 public class RerankRAGAdvisor implements BaseAdvisor {
@@ -63,63 +77,83 @@ public class RerankRAGAdvisor implements BaseAdvisor {
     public static final String RERANKED_RESULTS = "rag_reranked_results";
 
     /**
-     * 元數據鍵：過濾表達式
+     * 元數據鍵：粗檢索的深度決策
+     */
+    public static final String DEPTH_DECISION = "rag_depth_decision";
+
+    /**
+     * 請求參數鍵：元數據過濾表達式（{@link Filter.Expression} 或 Spring AI 過濾語法字串，
+     * 只能引用 app.rag.metadata-filter.allowed-keys 中的鍵）
      */
     public static final String FILTER_EXPRESSION = "rag_filter_expression";
 
+    /**
+     * 請求參數鍵：跳過檢索（Prompt 已包含上下文，或為查詢改寫、評估等輔助調用）
+     */
+    public static final String SKIP_RETRIEVAL = "rag_skip_retrieval";
+
+    /**
+     * 請求參數鍵：檢索上下文（{@link RetrievalContext}，Re-ranking 時重用已生成的向量）
+     */
+    public static final String RETRIEVAL_CONTEXT = "rag_retrieval_context";
+
     private final VectorStore vectorStore;
     private final RerankingProvider rerankingProvider;
     private final RAGProperties ragProperties;
+    private final RerankResultCache rerankResultCache;
+    private final AdaptiveDepthService adaptiveDepthService;
+    private final SmartEmbeddingService embeddingService;
+    private final VectorSearchService vectorSearchService;
     private final String userTextAdvise;
     private final SearchRequest defaultSearchRequest;
     private int order = 0;
 
-    /**
-     * 構造函數
-     *
-     * @param vectorStore 向量存儲
-     * @param rerankingProvider Re-ranking 提供者
-     * @param ragProperties RAG 配置
-     */
-    public RerankRAGAdvisor(VectorStore vectorStore,
-                            RerankingProvider rerankingProvider,
-                            RAGProperties ragProperties) {
-        this(vectorStore, rerankingProvider, ragProperties,
-                SearchRequest.builder().build(), DEFAULT_USER_TEXT_ADVISE);
+    private RerankRAGAdvisor(Builder builder) {
+        Assert.notNull(builder.vectorStore, "VectorStore 不能為 null");
+        Assert.notNull(builder.rerankingProvider, "RerankingProvider 不能為 null");
+        Assert.notNull(builder.ragProperties, "RAGProperties 不能為 null");
+        Assert.notNull(builder.searchRequest, "SearchRequest 不能為 null");
+        Assert.hasText(builder.userTextAdvise, "UserTextAdvise 不能為空");
+
+        this.vectorStore = builder.vectorStore;
+        this.rerankingProvider = builder.rerankingProvider;
+        this.ragProperties = builder.ragProperties;
+        this.rerankResultCache = builder.rerankResultCache;
+        this.adaptiveDepthService = builder.adaptiveDepthService;
+        this.embeddingService = builder.embeddingService;
+        this.vectorSearchService = builder.vectorSearchService;
+        this.defaultSearchRequest = builder.searchRequest;
+        this.userTextAdvise = builder.userTextAdvise;
+
+        log.info("RerankRAGAdvisor 初始化完成，Re-ranking 提供者: {}",
+                rerankingProvider.getProviderName());
     }
 
     /**
-     * 完整構造函數
+     * 建立構建器
      *
      * @param vectorStore 向量存儲
      * @param rerankingProvider Re-ranking 提供者
      * @param ragProperties RAG 配置
-     * @param searchRequest 搜索請求配置
-     * @param userTextAdvise 用戶文本建議
+     * @return 構建器
      */
-    public RerankRAGAdvisor(VectorStore vectorStore,
-                            RerankingProvider rerankingProvider,
-                            RAGProperties ragProperties,
-                            SearchRequest searchRequest,
-                            String userTextAdvise) {
-        Assert.notNull(vectorStore, "VectorStore 不能為 null");
-        Assert.notNull(rerankingProvider, "RerankingProvider 不能為 null");
-        Assert.notNull(ragProperties, "RAGProperties 不能為 null");
-        Assert.notNull(searchRequest, "SearchRequest 不能為 null");
-        Assert.hasText(userTextAdvise, "UserTextAdvise 不能為空");
-
-        this.vectorStore = vectorStore;
-        this.rerankingProvider = rerankingProvider;
-        this.ragProperties = ragProperties;
-        this.defaultSearchRequest = searchRequest;
-        this.userTextAdvise = userTextAdvise;
-
-        log.info("RerankRAGAdvisor 初始化完成，Re-ranking 提供者: {}",
-                rerankingProvider.getProviderName());
+    public static Builder builder(VectorStore vectorStore,
+                                  RerankingProvider rerankingProvider,
+                                  RAGProperties ragProperties) {
+        return new Builder(vectorStore, rerankingProvider, ragProperties);
     }
 
     @Override
     public ChatClientRequest before(ChatClientRequest request, AdvisorChain chain) {
+        // 上下文已由調用方準備好時不再檢索（避免重複生成查詢 Embedding）
+        if (Boolean.TRUE.equals(request.context().get(SKIP_RETRIEVAL))) {
+            log.debug("請求已標記跳過檢索");
+            return request;
+        }
+
+        // 過濾條件不合法時直接拋出，不可忽略條件而擴大檢索範圍
+        Filter.Expression filterExpression = resolveFilterExpression(request.context().get(FILTER_EXPRESSION));
+
         // 獲取 adviseContext
         Map<String, Object> context = new HashMap<>();
 
@@ -128,26 +162,38 @@ public class RerankRAGAdvisor implements BaseAdvisor {
             String userQuery = request.prompt().getUserMessage().getText();
             log.info("開始 RAG 處理，查詢: {}", userQuery);
 
-            // 第一階段：向量粗檢索
+            // 第一階段：向量粗檢索（過濾條件下推到向量庫）
             int firstStageTopK = ragProperties.getReranking().getFirstStageTopK();
-            SearchRequest searchRequest = SearchRequest.builder()
-                    .query(userQuery)
-                    .topK(firstStageTopK)
-                    .build();
+            int finalTopK = ragProperties.getReranking().getFinalTopK();
+            RetrievalContext retrievalContext = request.context().get(RETRIEVAL_CONTEXT) instanceof RetrievalContext rc ? rc : null;
 
-            log.debug("執行粗檢索，topK: {}", firstStageTopK);
-            List<Document> retrievedDocuments = vectorStore.similaritySearch(searchRequest);
+            log.debug("執行粗檢索，topK: {}，過濾: {}", firstStageTopK, MetadataFilterService.describe(filterExpression));
+            List<Document> retrievedDocuments;
+            if (adaptiveDepthService != null && adaptiveDepthService.isEnabled()) {
+                AdaptiveDepthService.PageFetcher fetcher = pageFetcher(userQuery, filterExpression, retrievalContext,
+                        adaptiveDepthService.maxDepth(firstStageTopK));
+                AdaptiveDepthService.Result result = adaptiveDepthService.retrieve(AdaptiveDepthService.ROUTE_ADVISOR,
+                        finalTopK, firstStageTopK, fetcher);
+                retrievedDocuments = result.documents();
+                DepthDecision decision = result.decision();
+                context.put(DEPTH_DECISION, decision);
+                if (retrievalContext != null) {
+                    retrievalContext.addDepthDecision(decision);
+                }
+            } else {
+                retrievedDocuments = pageFetcher(userQuery, filterExpression, retrievalContext, firstStageTopK)
+                        .fetch(0, firstStageTopK);
+            }
             context.put(RETRIEVED_DOCUMENTS, retrievedDocuments);
             log.info("粗檢索完成，檢索到 {} 個文檔", retrievedDocuments.size());
 
             // 第二階段：Re-ranking 精排
-            int finalTopK = ragProperties.getReranking().getFinalTopK();
             log.debug("執行 Re-ranking，提供者: {}, finalTopK: {}",
                     rerankingProvider.getProviderName(), finalTopK);
 
             List<RerankResult> rerankedResults;
             try {
-                rerankedResults = rerankingProvider.rerank(userQuery, retrievedDocuments, finalTopK);
+                rerankedResults = rerank(userQuery, retrievedDocuments, finalTopK, retrievalContext);
                 context.put(RERANKED_RESULTS, rerankedResults);
                 log.info("Re-ranking 完成，返回 {} 個文檔", rerankedResults.size());
             } catch (Exception e) {
@@ -189,6 +235,115 @@ public class RerankRAGAdvisor implements BaseAdvisor {
         }
     }
 
+    /**
+     * 粗檢索分頁取回：查詢向量只生成一次，以預計算向量逐頁查詢；
+     * 預計算向量檢索不可用或失敗時回退到 VectorStore（每次查詢都重新生成查詢向量且不支援偏移，
+     * 因此一次取回 depth 個候選，之後的頁在記憶體中切片）
+     */
+    private AdaptiveDepthService.PageFetcher pageFetcher(String query, Filter.Expression filterExpression,
+                                                         RetrievalContext retrievalContext, int depth) {
+        AdaptiveDepthService.PageFetcher fallback = AdaptiveDepthService.prefetching(depth,
+                topK -> vectorStoreSearch(query, filterExpression, topK));
+        if (embeddingService == null || vectorSearchService == null || !vectorSearchService.isAvailable()) {
+            return fallback;
+        }
+        float[] queryVector = embedQuery(query, retrievalContext);
+        if (queryVector == null) {
+            return fallback;
+        }
+        double similarityThreshold = defaultSearchRequest.getSimilarityThreshold();
+        return (offset, limit) -> {
+            try {
+                return vectorSearchService.search(queryVector, offset, limit, similarityThreshold,
+                        filterExpression, retrievalContext);
+            } catch (Exception e) {
+                log.warn("預計算向量檢索失敗，回退到 VectorStore: {}", e.getMessage());
+                return fallback.fetch(offset, limit);
+            }
+        };
+    }
+
+    /**
+     * 生成查詢向量（有檢索上下文時與其共享，同一查詢只生成一次），失敗時返回 null
+     */
+    private float[] embedQuery(String query, RetrievalContext retrievalContext) {
+        Function<String, float[]> loader = text -> embeddingService.embed(text, EmbeddingContext.highAccuracy());
+        try {
+            return retrievalContext != null ? retrievalContext.queryVector(query, loader) : loader.apply(query);
+        } catch (Exception e) {
+            log.warn("查詢向量生成失敗，回退到 VectorStore: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 以 VectorStore 取回前 topK 個候選
+     */
+    private List<Document> vectorStoreSearch(String query, Filter.Expression filterExpression, int topK) {
+        SearchRequest.Builder searchRequest = SearchRequest.builder()
+                .query(query)
+                .topK(topK)
+                .similarityThreshold(defaultSearchRequest.getSimilarityThreshold());
+        if (filterExpression != null) {
+            searchRequest.filterExpression(filterExpression);
+        }
+        return vectorStore.similaritySearch(searchRequest.build());
+    }
+
+    /**
+     * 解析並驗證請求的過濾表達式
+     *
+     * @param value 請求參數值（Filter.Expression、過濾語法字串或 null）
+     * @return 過濾表達式，沒有過濾時返回 null
+     * @throws IllegalArgumentException 過濾表達式不合法
+     */
+    private Filter.Expression resolveFilterExpression(Object value) {
+        Filter.Expression expression;
+        if (value instanceof Filter.Expression filter) {
+            expression = filter;
+        } else if (value instanceof String text && StringUtils.hasText(text)) {
+            try {
+                expression = new FilterExpressionTextParser().parse(text);
+            } catch (Exception e) {
+                throw new IllegalArgumentException("過濾表達式語法錯誤: " + text, e);
+            }
+        } else {
+            return null;
+        }
+        RAGProperties.MetadataFilter config = ragProperties.getMetadataFilter();
+        MetadataFilterService.validate(expression, config.getAllowedKeys(), config.getMaxValues());
+        return expression;
+    }
+
+    /**
+     * 調用 Re-ranking 提供者（先查結果快取，未命中時調用並寫入）
+     */
+    private List<RerankResult> rerank(String query, List<Document> candidates, int topK,
+                                      RetrievalContext retrievalContext) {
+        if (rerankResultCache == null || !rerankResultCache.isEnabled() || candidates.isEmpty()) {
+            return rerankingProvider.rerank(query, candidates, topK, retrievalContext);
+        }
+
+        String providerName = rerankingProvider.getProviderName();
+        String key = rerankResultCache.key(query, providerName, ragProperties.getReranking().getModel(),
+                topK, candidates);
+        List<RerankResult> cached = rerankResultCache.get(key, candidates, providerName);
+        if (cached != null) {
+            log.debug("Re-ranking 結果快取命中，提供者: {}", providerName);
+            return cached;
+        }
+
+        long generation = rerankResultCache.currentGeneration();
+        long startedAt = System.currentTimeMillis();
+        List<RerankResult> results = rerankingProvider.rerank(query, candidates, topK, retrievalContext);
+        // 級聯提供者降級返回的本地結果不寫入快取，避免遠端恢復後仍命中較差的排序
+        if (results.stream().allMatch(result -> providerName.equals(result.getProviderName()))) {
+            rerankResultCache.put(key, candidates, results, generation, startedAt,
+                    System.currentTimeMillis() - startedAt);
+        }
+        return results;
+    }
+
     @Override
     public ChatClientResponse after(ChatClientResponse response, AdvisorChain chain) {
         // 響應後處理：暫時直接返回原始響應
@@ -217,4 +372,79 @@ public class RerankRAGAdvisor implements BaseAdvisor {
         return this;
     }
 
+    /**
+     * RerankRAGAdvisor 構建器
+     *
+     * 向量存儲、Re-ranking 提供者與 RAG 配置為必要參數，其餘協作者未設定時不啟用對應功能。
+     */
+    public static final class Builder {
+
+        private final VectorStore vectorStore;
+        private final RerankingProvider rerankingProvider;
+        private final RAGProperties ragProperties;
+        private SearchRequest searchRequest = SearchRequest.builder().build();
+        private String userTextAdvise = DEFAULT_USER_TEXT_ADVISE;
+        private RerankResultCache rerankResultCache;
+        private AdaptiveDepthService adaptiveDepthService;
+        private SmartEmbeddingService embeddingService;
+        private VectorSearchService vectorSearchService;
+
+        private Builder(VectorStore vectorStore, RerankingProvider rerankingProvider, RAGProperties ragProperties) {
+            this.vectorStore = vectorStore;
+            this.rerankingProvider = rerankingProvider;
+            this.ragProperties = ragProperties;
+        }
+
+        /**
+         * 搜索請求配置
+         */
+        public Builder searchRequest(SearchRequest searchRequest) {
+            this.searchRequest = searchRequest;
+            return this;
+        }
+
+        /**
+         * 用戶文本建議（需包含 {question_answer_context} 佔位符）
+         */
+        public Builder userTextAdvise(String userTextAdvise) {
+            this.userTextAdvise = userTextAdvise;
+            return this;
+        }
+
+        /**
+         * Re-ranking 結果快取（可為 null）
+         */
+        public Builder rerankResultCache(RerankResultCache rerankResultCache) {
+            this.rerankResultCache = rerankResultCache;
+            return this;
+        }
+
+        /**
+         * 自適應檢索深度服務（可為 null）
+         */
+        public Builder adaptiveDepthService(AdaptiveDepthService adaptiveDepthService) {
+            this.adaptiveDepthService = adaptiveDepthService;
+            return this;
+        }
+
+        /**
+         * 查詢向量生成服務（與 {@link #vectorSearchService} 同時設定時以預計算向量檢索，可為 null）
+         */
+        public Builder embeddingService(SmartEmbeddingService embeddingService) {
+            this.embeddingService = embeddingService;
+            return this;
+        }
+
+        /**
+         * 預計算向量檢索服務（可為 null）
+         */
+        public Builder vectorSearchService(VectorSearchService vectorSearchService) {
+            this.vectorSearchService = vectorSearchService;
+            return this;
+        }
+
+        public RerankRAGAdvisor build() {
+            return new RerankRAGAdvisor(this);
+        }
+    }
 }
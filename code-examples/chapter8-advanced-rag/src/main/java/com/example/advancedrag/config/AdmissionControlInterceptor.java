@@ -0,0 +1,61 @@
+package com.example.advancedrag.config;
+
+import com.example.advancedrag.exception.OverloadException;
+import com.example.advancedrag.service.AdmissionControlService;
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+
+/**
+ * 查詢准入攔截器
+ *
+ * 在進入控制器前獲取查詢許可，拒絕時拋出 {@link OverloadException}（由全局異常處理器返回 429）。
+ * 請求結束後以耗時與狀態碼回饋給自適應上限：429 / 503 視為過載信號。
+ * SSE 串流在整個串流期間持有許可，但其耗時（可達 SSE 逾時）不作為延遲樣本，只回饋過載信號。
+ */
+@RequiredArgsConstructor
+public class AdmissionControlInterceptor implements AsyncHandlerInterceptor {
+
+    private static final String START_ATTRIBUTE = AdmissionControlInterceptor.class.getName() + ".start";
+    private static final String STREAMING_ATTRIBUTE = AdmissionControlInterceptor.class.getName() + ".streaming";
+
+    private final AdmissionControlService admissionControlService;
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        // 非同步請求（SSE 串流）完成時的再次分派沿用首次分派獲取的許可
+        if (!admissionControlService.isEnabled() || request.getDispatcherType() == DispatcherType.ASYNC) {
+            return true;
+        }
+        admissionControlService.admit();
+        request.setAttribute(START_ATTRIBUTE, System.nanoTime());
+        return true;
+    }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response,
+                                               Object handler) {
+        if (request.getAttribute(START_ATTRIBUTE) != null) {
+            request.setAttribute(STREAMING_ATTRIBUTE, Boolean.TRUE);
+        }
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception ex) {
+        if (request.getAttribute(START_ATTRIBUTE) instanceof Long startNanos) {
+            int status = response.getStatus();
+            boolean dropped = ex instanceof OverloadException
+                    || status == HttpStatus.TOO_MANY_REQUESTS.value()
+                    || status == HttpStatus.SERVICE_UNAVAILABLE.value();
+            if (Boolean.TRUE.equals(request.getAttribute(STREAMING_ATTRIBUTE))) {
+                admissionControlService.completeStream(dropped);
+            } else {
+                admissionControlService.complete(System.nanoTime() - startNanos, dropped);
+            }
+        }
+    }
+}
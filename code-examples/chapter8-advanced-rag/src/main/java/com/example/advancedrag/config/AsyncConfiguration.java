@@ -6,6 +6,8 @@ import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * 異步配置
@@ -51,4 +53,17 @@ public class AsyncConfiguration {
         executor.initialize();
         return executor;
     }
+
+    /**
+     * 配置 RAG 管線執行器（虛擬線程，每個階段一個線程）
+     *
+     * 管線階段多為阻塞式 HTTP 調用（OpenAI、Voyage），虛擬線程可避免佔用平台線程池。
+     *
+     * @return ExecutorService 實例
+     */
+    @Bean(name = "ragPipelineExecutor", destroyMethod = "close")
+    public ExecutorService ragPipelineExecutor() {
+        return Executors.newThreadPerTaskExecutor(
+                Thread.ofVirtual().name("rag-pipeline-", 0).factory());
+    }
 }
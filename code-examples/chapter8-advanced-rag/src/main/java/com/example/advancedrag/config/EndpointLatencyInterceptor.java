@@ -0,0 +1,44 @@
+package com.example.advancedrag.config;
+
+import com.example.advancedrag.service.RollingMetricsStore;
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+/**
+ * 端點耗時攔截器
+ *
+ * 以「方法 + 路徑模板」為維度（如 POST /api/v1/rag/query）將耗時寫入滑動窗口，
+ * 使用路徑模板而非實際路徑，避免路徑參數造成維度爆炸。
+ */
+@RequiredArgsConstructor
+public class EndpointLatencyInterceptor implements HandlerInterceptor {
+
+    private static final String START_ATTRIBUTE = EndpointLatencyInterceptor.class.getName() + ".start";
+
+    private final RollingMetricsStore rollingMetricsStore;
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        // 非同步請求（SSE 串流）的耗時從首次分派算起，涵蓋整個串流
+        if (request.getDispatcherType() != DispatcherType.ASYNC) {
+            request.setAttribute(START_ATTRIBUTE, System.nanoTime());
+        }
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception ex) {
+        Object start = request.getAttribute(START_ATTRIBUTE);
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        if (start instanceof Long startNanos && pattern != null) {
+            rollingMetricsStore.record(RollingMetricsStore.ENDPOINT_LATENCY,
+                    request.getMethod() + " " + pattern,
+                    (System.nanoTime() - startNanos) / 1_000_000);
+        }
+    }
+}
@@ -1,13 +1,23 @@
 package com.example.advancedrag.config;
 
+import com.example.advancedrag.admission.BulkheadChatModel;
 import com.example.advancedrag.advisor.RerankRAGAdvisor;
 import com.example.advancedrag.properties.RAGProperties;
+import com.example.advancedrag.reranking.ObservedRerankingProvider;
 import com.example.advancedrag.reranking.RerankingProvider;
 import com.example.advancedrag.reranking.RerankingProviderFactory;
+import com.example.advancedrag.service.AdaptiveDepthService;
+import com.example.advancedrag.service.AdmissionControlService;
+import com.example.advancedrag.service.RAGMetricsService;
+import com.example.advancedrag.service.RerankResultCache;
+import com.example.advancedrag.service.SmartEmbeddingService;
+import com.example.advancedrag.service.VectorSearchService;
+import io.micrometer.observation.ObservationRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -40,13 +50,20 @@ public class OpenAIConfiguration {
      * 根據配置創建相應的 Re-ranking 提供者
      *
      * @param factory Re-ranking 提供者工廠
+     * @param observationRegistry Observation 註冊表（記錄每次提供者調用）
+     * @param metricsService 指標服務（按提供者記錄滑動窗口耗時）
+     * @param admissionControlService 准入控制服務（rerank 隔艙）
      * @return RerankingProvider 實例
      */
     @Bean
-    public RerankingProvider rerankingProvider(RerankingProviderFactory factory) {
+    public RerankingProvider rerankingProvider(RerankingProviderFactory factory,
+                                               ObjectProvider<ObservationRegistry> observationRegistry,
+                                               RAGMetricsService metricsService,
+                                               AdmissionControlService admissionControlService) {
         RerankingProvider provider = factory.createProvider();
         log.info("Re-ranking 提供者已註冊: {}", provider.getProviderName());
-        return provider;
+        return new ObservedRerankingProvider(provider, observationRegistry.getIfUnique(() -> ObservationRegistry.NOOP),
+                metricsService, admissionControlService);
     }
 
     /**
@@ -57,6 +74,10 @@ public class OpenAIConfiguration {
      * @param vectorStore 向量存儲
      * @param rerankingProvider Re-ranking 提供者
      * @param ragProperties RAG 配置
+     * @param rerankResultCache Re-ranking 結果快取
+     * @param adaptiveDepthService 自適應檢索深度服務
+     * @param embeddingService 查詢向量生成服務
+     * @param vectorSearchService 預計算向量檢索服務
      * @return RerankRAGAdvisor 實例
      */
     @Bean
@@ -64,27 +85,41 @@ public class OpenAIConfiguration {
     public RerankRAGAdvisor rerankRAGAdvisor(
             VectorStore vectorStore,
             RerankingProvider rerankingProvider,
-            RAGProperties ragProperties) {
+            RAGProperties ragProperties,
+            RerankResultCache rerankResultCache,
+            AdaptiveDepthService adaptiveDepthService,
+            SmartEmbeddingService embeddingService,
+            VectorSearchService vectorSearchService) {
 
         log.info("創建 RerankRAGAdvisor，提供者: {}", rerankingProvider.getProviderName());
-        return new RerankRAGAdvisor(vectorStore, rerankingProvider, ragProperties);
+        return RerankRAGAdvisor.builder(vectorStore, rerankingProvider, ragProperties)
+                .rerankResultCache(rerankResultCache)
+                .adaptiveDepthService(adaptiveDepthService)
+                .embeddingService(embeddingService)
+                .vectorSearchService(vectorSearchService)
+                .build();
     }
 
     /**
      * 配置 ChatClient（整合 Re-ranking RAG）
      *
-     * 當啟用 Re-ranking 時，自動整合 RerankRAGAdvisor
+     * 當啟用 Re-ranking 時，自動整合 RerankRAGAdvisor；模型調用受 chat 隔艙限制。
      *
      * @param chatModel Chat 模型
      * @param rerankRAGAdvisor Re-ranking RAG Advisor（可選）
+     * @param observationRegistry Observation 註冊表（LLM 調用成為管線階段的子 Observation）
+     * @param admissionControlService 准入控制服務（chat 隔艙）
      * @return ChatClient 實例
      */
     @Bean
     public ChatClient chatClient(
             ChatModel chatModel,
-            RerankRAGAdvisor rerankRAGAdvisor) {
+            RerankRAGAdvisor rerankRAGAdvisor,
+            ObjectProvider<ObservationRegistry> observationRegistry,
+            AdmissionControlService admissionControlService) {
 
-        ChatClient.Builder builder = ChatClient.builder(chatModel);
+        ChatClient.Builder builder = ChatClient.builder(new BulkheadChatModel(chatModel, admissionControlService),
+                observationRegistry.getIfUnique(() -> ObservationRegistry.NOOP), null);
 
         // 如果啟用了 Re-ranking，添加 Advisor
         if (rerankRAGAdvisor != null) {
@@ -99,10 +134,11 @@ public class OpenAIConfiguration {
      * 配置 ChatClient Builder（用於自定義配置）
      *
      * @param chatModel Chat 模型
+     * @param admissionControlService 准入控制服務（chat 隔艙）
      * @return ChatClient.Builder 實例
      */
     @Bean
-    public ChatClient.Builder chatClientBuilder(ChatModel chatModel) {
-        return ChatClient.builder(chatModel);
+    public ChatClient.Builder chatClientBuilder(ChatModel chatModel, AdmissionControlService admissionControlService) {
+        return ChatClient.builder(new BulkheadChatModel(chatModel, admissionControlService));
     }
 }
@@ -12,6 +12,7 @@ import org.springframework.data.redis.cache.RedisCacheManager;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.data.redis.serializer.RedisSerializationContext;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 
@@ -51,6 +52,25 @@ public class RedisConfiguration {
         return template;
     }
 
+    /**
+     * 配置 Embedding 向量專用 RedisTemplate
+     *
+     * 向量以 little-endian float32 原始位元組存儲（1024 維約 4KB），
+     * 避免 JSON 序列化的體積與解析成本。
+     *
+     * @param connectionFactory Redis 連接工廠
+     * @return RedisTemplate 實例
+     */
+    @Bean
+    public RedisTemplate<String, byte[]> embeddingRedisTemplate(RedisConnectionFactory connectionFactory) {
+        RedisTemplate<String, byte[]> template = new RedisTemplate<>();
+        template.setConnectionFactory(connectionFactory);
+        template.setKeySerializer(new StringRedisSerializer());
+        template.setValueSerializer(RedisSerializer.byteArray());
+        template.afterPropertiesSet();
+        return template;
+    }
+
     /**
      * 配置 Redis 快取管理器
      *
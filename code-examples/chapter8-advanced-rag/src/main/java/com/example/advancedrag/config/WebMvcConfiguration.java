@@ -1,9 +1,13 @@
 package com.example.advancedrag.config;
 
+import com.example.advancedrag.service.AdmissionControlService;
+import com.example.advancedrag.service.RollingMetricsStore;
+import lombok.RequiredArgsConstructor;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 /**
@@ -12,8 +16,12 @@ import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
  * 配置 CORS、攔截器等 Web 層設置
  */
 @Configuration
+@RequiredArgsConstructor
 public class WebMvcConfiguration implements WebMvcConfigurer {
 
+    private final RollingMetricsStore rollingMetricsStore;
+    private final AdmissionControlService admissionControlService;
+
     /**
      * 配置 CORS 跨域請求
      *
@@ -28,6 +36,22 @@ public class WebMvcConfiguration implements WebMvcConfigurer {
                 .maxAge(3600);
     }
 
+    /**
+     * 註冊攔截器
+     *
+     * @param registry 攔截器註冊器
+     */
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        // API 端點耗時寫入滑動窗口（按端點分組）
+        registry.addInterceptor(new EndpointLatencyInterceptor(rollingMetricsStore))
+                .addPathPatterns("/api/**");
+
+        // RAG 查詢准入控制（過載時返回 429，不佔用其他端點的線程）
+        registry.addInterceptor(new AdmissionControlInterceptor(admissionControlService))
+                .addPathPatterns("/api/v1/rag/**");
+    }
+
     /**
      * 配置 RestTemplate Bean
      *
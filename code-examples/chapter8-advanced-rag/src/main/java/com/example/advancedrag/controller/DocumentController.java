@@ -0,0 +1,145 @@
+package com.example.advancedrag.controller;
+
+import com.example.advancedrag.dto.ApiResponse;
+import com.example.advancedrag.dto.DocumentAddRequest;
+import com.example.advancedrag.service.BM25Service;
+import com.example.advancedrag.service.DocumentManagementService;
+import com.example.advancedrag.service.RerankFeatureBackfillService;
+import jakarta.validation.Valid;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 文檔管理控制器
+ *
+ * 提供文檔管理 REST API：
+ * - POST /api/v1/documents/batch - 批量添加文檔
+ * - DELETE /api/v1/documents/{documentId} - 刪除文檔
+ * - GET /api/v1/documents/index-stats - 關鍵詞索引統計
+ * - POST /api/v1/documents/rerank-features/backfill - 回填既有文檔的 Re-ranking 特徵
+ * - GET /api/v1/documents/rerank-features/backfill - Re-ranking 特徵回填狀態
+ */
+@Slf4j
+@RestController
+@RequestMapping("/api/v1/documents")
+@RequiredArgsConstructor
+public class DocumentController {
+
+    private final DocumentManagementService documentManagementService;
+    private final BM25Service bm25Service;
+    private final RerankFeatureBackfillService rerankFeatureBackfillService;
+
+    /**
+     * 批量添加文檔
+     *
+     * @param request 添加文檔請求
+     * @return 添加結果
+     */
+    @PostMapping("/batch")
+    public ResponseEntity<ApiResponse<Map<String, Object>>> addDocuments(
+            @Valid @RequestBody DocumentAddRequest request) {
+
+        log.info("收到批量添加文檔請求，數量: {}", request.getDocumentCount());
+        long startTime = System.currentTimeMillis();
+
+        try {
+            List<String> ids = documentManagementService.addDocuments(request);
+
+            Map<String, Object> data = new HashMap<>();
+            data.put("totalDocuments", request.getDocumentCount());
+            data.put("successCount", ids.size());
+            data.put("addedDocumentIds", ids);
+            data.put("processingTime", System.currentTimeMillis() - startTime);
+
+            return ResponseEntity.status(201).body(
+                    ApiResponse.success("批量添加文檔成功", data)
+            );
+
+        } catch (Exception e) {
+            log.error("批量添加文檔失敗", e);
+            return ResponseEntity.internalServerError().body(
+                    ApiResponse.error("批量添加文檔失敗：" + e.getMessage())
+            );
+        }
+    }
+
+    /**
+     * 刪除文檔
+     *
+     * @param documentId 文檔 ID
+     * @return 刪除結果
+     */
+    @DeleteMapping("/{documentId}")
+    public ResponseEntity<ApiResponse<Map<String, Object>>> deleteDocument(@PathVariable String documentId) {
+        log.info("收到刪除文檔請求，ID: {}", documentId);
+
+        try {
+            documentManagementService.deleteDocument(documentId);
+
+            Map<String, Object> data = new HashMap<>();
+            data.put("documentId", documentId);
+            data.put("deletedAt", LocalDateTime.now());
+
+            return ResponseEntity.ok(
+                    ApiResponse.success("文檔刪除成功", data)
+            );
+
+        } catch (Exception e) {
+            log.error("刪除文檔失敗", e);
+            return ResponseEntity.internalServerError().body(
+                    ApiResponse.error("刪除文檔失敗：" + e.getMessage())
+            );
+        }
+    }
+
+    /**
+     * 獲取關鍵詞索引統計
+     *
+     * @return 索引統計
+     */
+    @GetMapping("/index-stats")
+    public ResponseEntity<ApiResponse<Object>> getIndexStats() {
+        return ResponseEntity.ok(
+                ApiResponse.success("索引統計獲取成功", bm25Service.getIndexStats())
+        );
+    }
+
+    /**
+     * 回填既有文檔的 Re-ranking 特徵（非同步執行）
+     *
+     * @return 回填狀態
+     */
+    @PostMapping("/rerank-features/backfill")
+    public ResponseEntity<ApiResponse<Map<String, Object>>> backfillRerankFeatures() {
+        if (rerankFeatureBackfillService.isRunning()) {
+            return ResponseEntity.status(409).body(
+                    ApiResponse.error("Re-ranking 特徵回填已在執行中")
+            );
+        }
+
+        log.info("收到 Re-ranking 特徵回填請求");
+        rerankFeatureBackfillService.backfill();
+        return ResponseEntity.accepted().body(
+                ApiResponse.success("Re-ranking 特徵回填已啟動", rerankFeatureBackfillService.getStatus())
+        );
+    }
+
+    /**
+     * 獲取 Re-ranking 特徵回填狀態
+     *
+     * @return 回填狀態
+     */
+    @GetMapping("/rerank-features/backfill")
+    public ResponseEntity<ApiResponse<Map<String, Object>>> getRerankFeatureBackfillStatus() {
+        return ResponseEntity.ok(
+                ApiResponse.success("回填狀態獲取成功", rerankFeatureBackfillService.getStatus())
+        );
+    }
+}
@@ -1,14 +1,21 @@
 package com.example.advancedrag.controller;
 
 import com.example.advancedrag.dto.ApiResponse;
+import com.example.advancedrag.model.QueryProfile;
+import com.example.advancedrag.service.AdmissionControlService;
+import com.example.advancedrag.service.PipelineProfileRecorder;
 import com.example.advancedrag.service.RAGMetricsService;
+import com.example.advancedrag.service.RollingMetricsStore;
+import com.example.advancedrag.util.RollingHistogram;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -17,9 +24,11 @@ import java.util.Map;
  * 提供 RAG 系統監控指標查詢 REST API：
  * - GET /api/v1/metrics/summary - 整體指標摘要
  * - GET /api/v1/metrics/query - 查詢相關指標
- * - GET /api/v1/metrics/performance - 性能指標
+ * - GET /api/v1/metrics/performance - 性能指標（含各百分位的關鍵路徑與慢查詢樣本）
  * - GET /api/v1/metrics/evaluation - 評估指標
- * - GET /api/v1/metrics/health - 健康狀態
+ * - GET /api/v1/metrics/health - 健康狀態（含准入控制與下游隔艙狀態）
+ *
+ * 響應時間類指標取自滑動窗口（window 參數：1m / 5m / 1h，默認 5m），計數類指標為累計值。
  */
 @Slf4j
 @RestController
@@ -28,33 +37,42 @@ import java.util.Map;
 public class MetricsController {
 
     private final RAGMetricsService metricsService;
+    private final PipelineProfileRecorder profileRecorder;
+    private final RollingMetricsStore rollingMetricsStore;
+    private final AdmissionControlService admissionControlService;
 
     /**
      * 獲取整體指標摘要
      *
+     * @param window 響應時間的滑動窗口（1m / 5m / 1h）
      * @return 整體指標摘要
      */
     @GetMapping("/summary")
-    public ResponseEntity<ApiResponse<MetricsSummary>> getMetricsSummary() {
-        log.info("獲取整體指標摘要");
+    public ResponseEntity<ApiResponse<MetricsSummary>> getMetricsSummary(
+            @RequestParam(defaultValue = "5m") String window) {
+        log.info("獲取整體指標摘要，窗口: {}", window);
 
         try {
+            RollingHistogram.Snapshot latency = queryLatency(window);
             MetricsSummary summary = MetricsSummary.builder()
                     .timestamp(LocalDateTime.now())
+                    .window(window)
                     .totalQueries(metricsService.getTotalQueries())
                     .successQueries(metricsService.getSuccessQueries())
                     .failureQueries(metricsService.getFailureQueries())
                     .successRate(metricsService.getSuccessRate())
                     .activeQueries(metricsService.getActiveQueries())
-                    .averageResponseTime(metricsService.getAverageResponseTime())
-                    .p95ResponseTime(metricsService.getP95ResponseTime())
-                    .p99ResponseTime(metricsService.getP99ResponseTime())
+                    .averageResponseTime(latency.mean())
+                    .p95ResponseTime((double) latency.p95())
+                    .p99ResponseTime((double) latency.p99())
                     .build();
 
             return ResponseEntity.ok(
                     ApiResponse.success("指標摘要獲取成功", summary)
             );
 
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(ApiResponse.error(400, e.getMessage()));
         } catch (Exception e) {
             log.error("獲取指標摘要失敗", e);
             return ResponseEntity.internalServerError().body(
@@ -97,25 +115,42 @@ public class MetricsController {
     /**
      * 獲取性能指標
      *
+     * windowedMetrics 包含窗口內各指標按維度的分布：查詢、檢索、Re-ranking（按提供者）、
+     * token 數、HTTP 端點（按方法 + 路徑模板）。
+     *
+     * @param window 滑動窗口（1m / 5m / 1h）
      * @return 性能指標
      */
     @GetMapping("/performance")
-    public ResponseEntity<ApiResponse<PerformanceMetrics>> getPerformanceMetrics() {
-        log.info("獲取性能指標");
+    public ResponseEntity<ApiResponse<PerformanceMetrics>> getPerformanceMetrics(
+            @RequestParam(defaultValue = "5m") String window) {
+        log.info("獲取性能指標，窗口: {}", window);
 
         try {
+            RollingHistogram.Snapshot latency = queryLatency(window);
             PerformanceMetrics metrics = PerformanceMetrics.builder()
                     .timestamp(LocalDateTime.now())
-                    .averageResponseTime(metricsService.getAverageResponseTime())
-                    .p50ResponseTime(metricsService.getAverageResponseTime())
-                    .p95ResponseTime(metricsService.getP95ResponseTime())
-                    .p99ResponseTime(metricsService.getP99ResponseTime())
+                    .window(window)
+                    .averageResponseTime(latency.mean())
+                    .p50ResponseTime((double) latency.p50())
+                    .p95ResponseTime((double) latency.p95())
+                    .p99ResponseTime((double) latency.p99())
+                    .windowedMetrics(rollingMetricsStore.snapshotAll(RollingMetricsStore.parseWindow(window)))
+                    .semanticCacheHitRate(metricsService.getSemanticCacheHitRate())
+                    .semanticCacheSavedTime(metricsService.getSemanticCacheSavedTime())
+                    .rerankCacheHitRate(metricsService.getRerankCacheHitRate())
+                    .rerankCacheAvoidedTime(metricsService.getRerankCacheAvoidedTime())
+                    .contextTokensSaved(metricsService.getContextTokensSaved())
+                    .criticalPathByPercentile(profileRecorder.criticalPathByPercentile())
+                    .slowQueries(profileRecorder.slowQueries())
                     .build();
 
             return ResponseEntity.ok(
                     ApiResponse.success("性能指標獲取成功", metrics)
             );
 
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(ApiResponse.error(400, e.getMessage()));
         } catch (Exception e) {
             log.error("獲取性能指標失敗", e);
             return ResponseEntity.internalServerError().body(
@@ -169,6 +204,8 @@ public class MetricsController {
             double successRate = metricsService.getSuccessRate();
             double p99ResponseTime = metricsService.getP99ResponseTime();
             int activeQueries = metricsService.getActiveQueries();
+            int concurrencyLimit = admissionControlService.getConcurrencyLimit();
+            int queuedQueries = admissionControlService.getQueuedQueries();
 
             // 判斷健康狀態
             String status = "HEALTHY";
@@ -180,9 +217,9 @@ public class MetricsController {
             } else if (p99ResponseTime > 10000) {
                 status = "DEGRADED";
                 message = "P99 響應時間超過 10 秒";
-            } else if (activeQueries > 100) {
+            } else if (queuedQueries > 0 || activeQueries >= concurrencyLimit) {
                 status = "OVERLOADED";
-                message = "活躍查詢數過高";
+                message = "活躍查詢數已達並發上限";
             }
 
             HealthStatus health = HealthStatus.builder()
@@ -192,6 +229,10 @@ public class MetricsController {
                     .successRate(successRate)
                     .p99ResponseTime(p99ResponseTime)
                     .activeQueries(activeQueries)
+                    .concurrencyLimit(concurrencyLimit)
+                    .queuedQueries(queuedQueries)
+                    .rejectedQueries(admissionControlService.getRejectedQueries())
+                    .bulkheads(admissionControlService.getBulkheadStats())
                     .totalQueries(metricsService.getTotalQueries())
                     .build();
 
@@ -217,10 +258,10 @@ public class MetricsController {
         log.warn("重置指標（僅用於測試環境）");
 
         try {
-            // 注意：Micrometer 的 Counter 和 Timer 不支持重置
-            // 如需重置，應該重啟應用或使用 Gauge
+            // 注意：Micrometer 的 Counter 和 Timer 不支持重置，只清空滑動窗口
+            rollingMetricsStore.reset();
             return ResponseEntity.ok(
-                    ApiResponse.success("指標重置功能未實現（Micrometer 計數器不支持重置）", null)
+                    ApiResponse.success("滑動窗口指標已清空（Micrometer 計數器不支持重置）", null)
             );
 
         } catch (Exception e) {
@@ -231,6 +272,14 @@ public class MetricsController {
         }
     }
 
+    /**
+     * 查詢總耗時在窗口內的分布
+     */
+    private RollingHistogram.Snapshot queryLatency(String window) {
+        Duration span = RollingMetricsStore.parseWindow(window);
+        return rollingMetricsStore.snapshot(RollingMetricsStore.QUERY_LATENCY, RollingMetricsStore.ALL, span);
+    }
+
     /**
      * 指標摘要內部類
      */
@@ -242,6 +291,11 @@ public class MetricsController {
          */
         private LocalDateTime timestamp;
 
+        /**
+         * 響應時間的滑動窗口（1m / 5m / 1h）
+         */
+        private String window;
+
         /**
          * 總查詢數
          */
@@ -331,6 +385,11 @@ public class MetricsController {
          */
         private LocalDateTime timestamp;
 
+        /**
+         * 響應時間的滑動窗口（1m / 5m / 1h）
+         */
+        private String window;
+
         /**
          * 平均響應時間（毫秒）
          */
@@ -350,6 +409,46 @@ public class MetricsController {
          * P99 響應時間（毫秒）
          */
         private Double p99ResponseTime;
+
+        /**
+         * 語義答案快取命中率（百分比）
+         */
+        private Double semanticCacheHitRate;
+
+        /**
+         * 語義答案快取累計節省的時間（毫秒）
+         */
+        private Double semanticCacheSavedTime;
+
+        /**
+         * Re-ranking 結果快取命中率（百分比）
+         */
+        private Double rerankCacheHitRate;
+
+        /**
+         * Re-ranking 結果快取累計避免的提供者調用耗時（毫秒）
+         */
+        private Double rerankCacheAvoidedTime;
+
+        /**
+         * 上下文壓縮累計節省的 token 數
+         */
+        private Double contextTokensSaved;
+
+        /**
+         * 各百分位尾部請求的關鍵路徑與階段平均耗時（p50 / p95 / p99）
+         */
+        private Map<String, Object> criticalPathByPercentile;
+
+        /**
+         * 最慢的查詢樣本（含階段明細）
+         */
+        private List<QueryProfile> slowQueries;
+
+        /**
+         * 窗口內各指標按維度的分布（指標 → 維度 → 統計）
+         */
+        private Map<String, Map<String, RollingHistogram.Snapshot>> windowedMetrics;
     }
 
     /**
@@ -388,6 +487,26 @@ public class MetricsController {
          */
         private Integer activeQueries;
 
+        /**
+         * 當前查詢並發上限（自適應）
+         */
+        private Integer concurrencyLimit;
+
+        /**
+         * 排隊等待准入的查詢數
+         */
+        private Integer queuedQueries;
+
+        /**
+         * 因過載被拒絕的查詢數（累計）
+         */
+        private Long rejectedQueries;
+
+        /**
+         * 下游依賴隔艙狀態（active / limit / rejected）
+         */
+        private Map<String, Map<String, Object>> bulkheads;
+
         /**
          * 總查詢數
          */
@@ -11,6 +11,9 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+
 /**
  * 內容審核控制器
  *
@@ -27,6 +30,7 @@ public class ModerationController {
 
     private final ContentModerationService contentModerationService;
     private final CustomRuleModerationService customRuleModerationService;
+    private final ExecutorService ragPipelineExecutor;
 
     /**
      * OpenAI 內容審核
@@ -101,9 +105,11 @@ public class ModerationController {
         try {
             long startTime = System.currentTimeMillis();
 
-            // 並行執行兩種審核（可優化為異步）
-            ModerationResult openAIResult = contentModerationService.moderateContent(request.getContent());
+            // 並行執行兩種審核（此端點需返回兩者的完整結果，不提前結束）
+            CompletableFuture<ModerationResult> openAIFuture = CompletableFuture.supplyAsync(
+                    () -> contentModerationService.moderateContent(request.getContent()), ragPipelineExecutor);
             ModerationResult customRuleResult = customRuleModerationService.moderateContent(request.getContent());
+            ModerationResult openAIResult = openAIFuture.join();
 
             // 計算綜合結果
             CombinedModerationResult combinedResult = combineModerationResults(
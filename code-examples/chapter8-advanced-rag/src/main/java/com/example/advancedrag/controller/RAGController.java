@@ -3,17 +3,23 @@ package com.example.advancedrag.controller;
 import com.example.advancedrag.dto.AdvancedRAGRequest;
 import com.example.advancedrag.dto.AdvancedRAGResponse;
 import com.example.advancedrag.dto.ApiResponse;
+import com.example.advancedrag.exception.OverloadException;
+import com.example.advancedrag.properties.RAGProperties;
 import com.example.advancedrag.service.AdvancedRAGService;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.concurrent.ExecutorService;
 
 /**
  * Advanced RAG REST API 控制器
  *
- * 提供 RAG 查詢的 HTTP 接口
+ * 提供 RAG 查詢的 HTTP 接口：阻塞式查詢（/query）與 Server-Sent Events 串流查詢（/query/stream）
  */
 @Slf4j
 @RestController
@@ -22,6 +28,8 @@ import org.springframework.web.bind.annotation.*;
 public class RAGController {
 
     private final AdvancedRAGService ragService;
+    private final RAGProperties ragProperties;
+    private final ExecutorService ragPipelineExecutor;
 
     /**
      * Advanced RAG 查詢
@@ -43,6 +51,9 @@ public class RAGController {
                             .withTraceId(response.getQueryId())
             );
 
+        } catch (OverloadException | IllegalArgumentException e) {
+            // 交由全局異常處理器返回 429 / 400（過濾條件不合法）
+            throw e;
         } catch (Exception e) {
             log.error("RAG 查詢失敗", e);
             return ResponseEntity.status(500).body(
@@ -75,6 +86,9 @@ public class RAGController {
                             .withTraceId(response.getQueryId())
             );
 
+        } catch (OverloadException e) {
+            // 交由全局異常處理器返回 429
+            throw e;
         } catch (Exception e) {
             log.error("RAG 查詢失敗", e);
             return ResponseEntity.status(500).body(
@@ -82,4 +96,51 @@ public class RAGController {
             );
         }
     }
+
+    /**
+     * Advanced RAG 串流查詢（Server-Sent Events）
+     *
+     * 事件依序為 sources、token（多個）、moderation（僅在審核未通過時）、done；失敗時為 error。
+     *
+     * @param request RAG 查詢請求
+     * @return SSE 連線
+     */
+    @PostMapping(value = "/query/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter queryStream(@Valid @RequestBody AdvancedRAGRequest request) {
+        log.info("收到 RAG 串流查詢請求：{}", request.getQuery());
+        return stream(request);
+    }
+
+    /**
+     * 簡化版 RAG 串流查詢（供瀏覽器 EventSource 使用）
+     *
+     * @param query 查詢字符串
+     * @return SSE 連線
+     */
+    @GetMapping(value = "/query/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter queryStreamSimple(@RequestParam String query) {
+        log.info("收到簡化 RAG 串流查詢請求：{}", query);
+        return stream(AdvancedRAGRequest.builder()
+                .query(query)
+                .build());
+    }
+
+    /**
+     * 在管線執行器上執行串流查詢，釋放 Servlet 線程
+     */
+    private SseEmitter stream(AdvancedRAGRequest request) {
+        SseEmitter emitter = new SseEmitter(ragProperties.getStreaming().getTimeout().toMillis());
+        ragPipelineExecutor.execute(() -> {
+            try {
+                ragService.queryStream(request, (event, data) -> emitter.send(SseEmitter.event()
+                        .name(event)
+                        .data(data, MediaType.APPLICATION_JSON)));
+                emitter.complete();
+            } catch (Exception e) {
+                log.error("RAG 串流查詢失敗", e);
+                emitter.completeWithError(e);
+            }
+        });
+        return emitter;
+    }
 }
@@ -1,6 +1,8 @@
 package com.example.advancedrag.dto;
 
 import com.example.advancedrag.model.RAGQueryOptions;
+import com.example.advancedrag.model.RetrievalFilter;
+import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotBlank;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -42,6 +44,12 @@ public class AdvancedRAGRequest {
      */
     private RAGQueryOptions options;
 
+    /**
+     * 元數據過濾條件（可選，下推到向量與關鍵詞檢索）
+     */
+    @Valid
+    private RetrievalFilter filter;
+
     /**
      * 是否啟用內容審核
      */
@@ -1,6 +1,7 @@
 package com.example.advancedrag.exception;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.FieldError;
@@ -92,6 +93,25 @@ public class GlobalExceptionHandler {
         return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
     }
 
+    /**
+     * 處理 OverloadException（准入控制或下游隔艙拒絕）
+     */
+    @ExceptionHandler(OverloadException.class)
+    public ResponseEntity<Map<String, Object>> handleOverloadException(OverloadException ex) {
+        log.warn("系統過載: {}", ex.getMessage());
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", false);
+        response.put("code", 7000);
+        response.put("message", ex.getMessage());
+        response.put("resource", ex.getResource());
+        response.put("timestamp", LocalDateTime.now());
+
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, ex.getRetryAfter().toSeconds())))
+                .body(response);
+    }
+
     /**
      * 處理參數驗證異常
      */
@@ -0,0 +1,38 @@
+package com.example.advancedrag.exception;
+
+import java.time.Duration;
+
+/**
+ * 系統過載異常
+ *
+ * 查詢准入控制拒絕（排隊超過延遲預算）或下游依賴隔艙已滿時拋出，映射為 HTTP 429
+ */
+public class OverloadException extends RuntimeException {
+
+    private final String resource;
+    private final Duration retryAfter;
+
+    public OverloadException(String resource, String message) {
+        this(resource, message, Duration.ofSeconds(1));
+    }
+
+    public OverloadException(String resource, String message, Duration retryAfter) {
+        super(message);
+        this.resource = resource;
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * 被拒絕的資源（query 或下游依賴名稱）
+     */
+    public String getResource() {
+        return resource;
+    }
+
+    /**
+     * 建議的重試間隔
+     */
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
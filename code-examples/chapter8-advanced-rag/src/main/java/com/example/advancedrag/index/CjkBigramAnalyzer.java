@@ -0,0 +1,121 @@
+package com.example.advancedrag.index;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * 中日韓感知的分詞器
+ *
+ * 分詞規則：
+ * - 拉丁字母、數字等連續字符組成一個詞（轉小寫）
+ * - 中日韓文字（漢字、假名、諺文）連續片段切成重疊的二元組（bigram）
+ *   例如「向量檢索」→「向量」「量檢」「檢索」；單一字符片段保留為單字詞
+ * - 標點、空白與其他符號作為分隔符
+ *
+ * 二元組切分不需要詞典，對中文的召回率接近詞典分詞，且索引與查詢使用同一規則即可保證一致。
+ */
+public final class CjkBigramAnalyzer {
+
+    /**
+     * 英文停用詞（中文以二元組切分，不做停用詞過濾）
+     */
+    private static final Set<String> STOP_WORDS = Set.of(
+            "a", "an", "and", "are", "as", "at", "be", "by", "for", "from", "in", "is", "it",
+            "of", "on", "or", "that", "the", "to", "was", "with"
+    );
+
+    private CjkBigramAnalyzer() {
+    }
+
+    /**
+     * 分詞並返回詞列表（保留重複詞，用於計算詞頻）
+     *
+     * @param text 文本
+     * @return 詞列表
+     */
+    public static List<String> analyze(String text) {
+        List<String> terms = new ArrayList<>();
+        analyze(text, terms::add);
+        return terms;
+    }
+
+    /**
+     * 分詞並逐個回調（避免建立中間列表）
+     *
+     * @param text 文本
+     * @param sink 詞回調
+     */
+    public static void analyze(String text, Consumer<String> sink) {
+        if (text == null || text.isEmpty()) {
+            return;
+        }
+
+        StringBuilder word = new StringBuilder();
+        int prevCjk = -1;   // 上一個 CJK 字符（-1 表示不在 CJK 片段中）
+        boolean cjkEmitted = false;
+
+        int i = 0;
+        int length = text.length();
+        while (i < length) {
+            int cp = text.codePointAt(i);
+            i += Character.charCount(cp);
+
+            if (isCjk(cp)) {
+                flushWord(word, sink);
+                if (prevCjk >= 0) {
+                    sink.accept(new StringBuilder(4).appendCodePoint(prevCjk).appendCodePoint(cp).toString());
+                    cjkEmitted = true;
+                }
+                prevCjk = cp;
+                continue;
+            }
+
+            // 離開 CJK 片段：單字片段保留為單字詞
+            flushCjk(prevCjk, cjkEmitted, sink);
+            prevCjk = -1;
+            cjkEmitted = false;
+
+            if (Character.isLetterOrDigit(cp)) {
+                word.appendCodePoint(Character.toLowerCase(cp));
+            } else {
+                flushWord(word, sink);
+            }
+        }
+
+        flushCjk(prevCjk, cjkEmitted, sink);
+        flushWord(word, sink);
+    }
+
+    /**
+     * 判斷是否為中日韓文字
+     *
+     * @param codePoint 字符碼位
+     * @return 是否為 CJK 字符
+     */
+    public static boolean isCjk(int codePoint) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+
+    private static void flushCjk(int prevCjk, boolean cjkEmitted, Consumer<String> sink) {
+        if (prevCjk >= 0 && !cjkEmitted) {
+            sink.accept(new String(Character.toChars(prevCjk)));
+        }
+    }
+
+    private static void flushWord(StringBuilder word, Consumer<String> sink) {
+        if (word.isEmpty()) {
+            return;
+        }
+        String term = word.toString();
+        word.setLength(0);
+        if (!STOP_WORDS.contains(term)) {
+            sink.accept(term);
+        }
+    }
+}
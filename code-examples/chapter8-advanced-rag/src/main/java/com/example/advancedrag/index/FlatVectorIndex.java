@@ -0,0 +1,131 @@
+package com.example.advancedrag.index;
+
+import com.example.advancedrag.util.VectorUtil;
+
+import java.util.function.Predicate;
+
+/**
+ * 固定容量的進程內向量索引（環形緩衝區 + 精確最近鄰）
+ *
+ * 向量存入時複製並正規化，查詢時以 SIMD 內積逐槽掃描，返回相似度最高的條目。
+ * 容量在數千條以內時掃描成本約為毫秒級，遠低於一次完整 RAG 管線，因此不建圖式近似索引。
+ * 寫滿後新條目覆蓋最舊的槽位（FIFO 淘汰）。
+ *
+ * 非線程安全，由調用方加鎖。
+ *
+ * @param <T> 條目類型
+ */
+public class FlatVectorIndex<T> {
+
+    private final float[][] vectors;
+    private final Object[] values;
+    private int next;
+    private int size;
+
+    /**
+     * @param capacity 最大條目數
+     */
+    public FlatVectorIndex(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("容量必須大於 0");
+        }
+        this.vectors = new float[capacity][];
+        this.values = new Object[capacity];
+    }
+
+    /**
+     * 新增條目（已滿時覆蓋最舊的條目）
+     *
+     * @param vector 向量（會被複製，不修改原陣列）
+     * @param value 條目
+     * @return 被覆蓋的條目，沒有則返回 null
+     */
+    @SuppressWarnings("unchecked")
+    public T add(float[] vector, T value) {
+        int slot = next;
+        next = (next + 1) % vectors.length;
+
+        T evicted = (T) values[slot];
+        if (evicted == null) {
+            size++;
+        }
+        vectors[slot] = VectorUtil.normalizeInPlace(vector.clone());
+        values[slot] = value;
+        return evicted;
+    }
+
+    /**
+     * 查找最相似且符合條件的條目
+     *
+     * @param query 查詢向量（不需預先正規化）
+     * @param filter 條目過濾條件
+     * @return 最相似的條目，沒有符合條件的條目時返回 null
+     */
+    @SuppressWarnings("unchecked")
+    public Match<T> nearest(float[] query, Predicate<T> filter) {
+        float queryNorm = VectorUtil.norm(query);
+        if (queryNorm == 0f) {
+            return null;
+        }
+
+        int best = -1;
+        float bestScore = Float.NEGATIVE_INFINITY;
+        for (int slot = 0; slot < vectors.length; slot++) {
+            float[] vector = vectors[slot];
+            if (vector == null || vector.length != query.length) {
+                continue;
+            }
+            float score = VectorUtil.dot(query, vector);
+            if (score > bestScore && filter.test((T) values[slot])) {
+                best = slot;
+                bestScore = score;
+            }
+        }
+
+        return best < 0 ? null : new Match<>((T) values[best], bestScore / queryNorm);
+    }
+
+    /**
+     * 移除符合條件的條目
+     *
+     * @param predicate 移除條件
+     * @return 移除數量
+     */
+    @SuppressWarnings("unchecked")
+    public int removeIf(Predicate<T> predicate) {
+        int removed = 0;
+        for (int slot = 0; slot < vectors.length; slot++) {
+            if (values[slot] != null && predicate.test((T) values[slot])) {
+                vectors[slot] = null;
+                values[slot] = null;
+                removed++;
+            }
+        }
+        size -= removed;
+        return removed;
+    }
+
+    /**
+     * 清空索引
+     */
+    public void clear() {
+        removeIf(value -> true);
+        next = 0;
+    }
+
+    /**
+     * 當前條目數
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 最近鄰結果
+     *
+     * @param value 條目
+     * @param similarity 與查詢的餘弦相似度
+     */
+    public record Match<T>(T value, double similarity) {
+    }
+}
@@ -0,0 +1,600 @@
+package com.example.advancedrag.index;
+
+import org.springframework.ai.document.Document;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/**
+ * 內存倒排索引（BM25 評分）
+ *
+ * 功能：
+ * 1. 增量新增 / 刪除 / 覆蓋文檔（同 ID 再次新增視為更新）
+ * 2. 維護真實的 IDF 與平均文檔長度（avgdl）統計
+ * 3. 使用 WAND 演算法進行 Top-K 查詢，跳過不可能進入前 K 名的文檔
+ *
+ * 併發模型：讀寫鎖，查詢共享讀鎖，寫入獨佔寫鎖。
+ * 刪除採用墓碑標記，墓碑比例過高時自動壓縮重建倒排表。
+ */
+public class InvertedIndex {
+
+    /**
+     * 詞頻飽和參數
+     */
+    public static final double DEFAULT_K1 = 1.2;
+
+    /**
+     * 長度正規化參數
+     */
+    public static final double DEFAULT_B = 0.75;
+
+    private static final int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+    /**
+     * 觸發壓縮的最少墓碑數量
+     */
+    private static final int COMPACTION_MIN_DELETED = 64;
+
+    private final double k1;
+    private final double b;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * 詞 → 倒排表
+     */
+    private final Map<String, PostingList> postings = new HashMap<>();
+
+    /**
+     * 文檔 ID → 內部序號
+     */
+    private final Map<String, Integer> ordinalById = new HashMap<>();
+
+    /**
+     * 內部序號 → 文檔條目（已刪除為 null）
+     */
+    private final List<DocEntry> entries = new ArrayList<>();
+
+    private int liveDocs;
+    private int deletedDocs;
+    private long totalLength;
+
+    public InvertedIndex() {
+        this(DEFAULT_K1, DEFAULT_B);
+    }
+
+    public InvertedIndex(double k1, double b) {
+        this.k1 = k1;
+        this.b = b;
+    }
+
+    // ========== 寫入 ==========
+
+    /**
+     * 新增或更新文檔
+     *
+     * @param document 文檔（必須有 ID 與內容）
+     */
+    public void add(Document document) {
+        if (document == null || document.getId() == null || document.getText() == null) {
+            return;
+        }
+
+        // 在鎖外完成分詞，縮短寫鎖持有時間
+        DocEntry entry = DocEntry.of(document, CjkBigramAnalyzer.analyze(document.getText()));
+
+        lock.writeLock().lock();
+        try {
+            deleteInternal(document.getId());
+            int ordinal = entries.size();
+            entries.add(entry);
+            ordinalById.put(entry.id, ordinal);
+            for (int i = 0; i < entry.terms.length; i++) {
+                postings.computeIfAbsent(entry.terms[i], t -> new PostingList())
+                        .append(ordinal, entry.freqs[i]);
+            }
+            liveDocs++;
+            totalLength += entry.length;
+            // 更新同 ID 文檔會留下墓碑，重複更新時同樣需要壓縮
+            maybeCompact();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 刪除文檔
+     *
+     * @param documentId 文檔 ID
+     * @return 是否存在並已刪除
+     */
+    public boolean delete(String documentId) {
+        lock.writeLock().lock();
+        try {
+            boolean deleted = deleteInternal(documentId);
+            if (deleted) {
+                maybeCompact();
+            }
+            return deleted;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 清空索引
+     */
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            postings.clear();
+            ordinalById.clear();
+            entries.clear();
+            liveDocs = 0;
+            deletedDocs = 0;
+            totalLength = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private boolean deleteInternal(String documentId) {
+        Integer ordinal = ordinalById.remove(documentId);
+        if (ordinal == null) {
+            return false;
+        }
+        DocEntry entry = entries.set(ordinal, null);
+        for (String term : entry.terms) {
+            PostingList list = postings.get(term);
+            if (list != null && --list.docFreq == 0) {
+                postings.remove(term);
+            }
+        }
+        liveDocs--;
+        deletedDocs++;
+        totalLength -= entry.length;
+        return true;
+    }
+
+    /**
+     * 墓碑超過存活文檔的 1/4 時壓縮（需持有寫鎖）
+     */
+    private void maybeCompact() {
+        if (deletedDocs >= COMPACTION_MIN_DELETED && deletedDocs > liveDocs / 4) {
+            compact();
+        }
+    }
+
+    /**
+     * 移除墓碑並重新編號（需持有寫鎖）
+     */
+    private void compact() {
+        List<DocEntry> live = entries.stream().filter(e -> e != null).toList();
+        postings.clear();
+        ordinalById.clear();
+        entries.clear();
+        for (DocEntry entry : live) {
+            int ordinal = entries.size();
+            entries.add(entry);
+            ordinalById.put(entry.id, ordinal);
+            for (int i = 0; i < entry.terms.length; i++) {
+                postings.computeIfAbsent(entry.terms[i], t -> new PostingList())
+                        .append(ordinal, entry.freqs[i]);
+            }
+        }
+        deletedDocs = 0;
+    }
+
+    // ========== 查詢 ==========
+
+    /**
+     * WAND Top-K 查詢
+     *
+     * @param queryTerms 查詢詞（已分詞）
+     * @param topK 返回數量
+     * @return 依 BM25 分數降序排列的結果
+     */
+    public List<Hit> search(Collection<String> queryTerms, int topK) {
+        return search(queryTerms, topK, null);
+    }
+
+    /**
+     * WAND Top-K 查詢（帶文檔過濾條件）
+     *
+     * @param queryTerms 查詢詞（已分詞）
+     * @param topK 返回數量
+     * @param filter 文檔過濾條件（null 表示不過濾）
+     * @return 依 BM25 分數降序排列的結果
+     */
+    public List<Hit> search(Collection<String> queryTerms, int topK, Predicate<Document> filter) {
+        if (queryTerms == null || queryTerms.isEmpty() || topK <= 0) {
+            return List.of();
+        }
+
+        lock.readLock().lock();
+        try {
+            double avgdl = averageDocumentLengthInternal();
+            List<Cursor> cursorList = new ArrayList<>();
+            for (String term : new LinkedHashSet<>(queryTerms)) {
+                PostingList list = postings.get(term);
+                if (list != null && list.docFreq > 0) {
+                    double idf = idfInternal(list.docFreq);
+                    double upperBound = idf * list.maxFreq * (k1 + 1)
+                            / (list.maxFreq + k1 * (1 - b));
+                    cursorList.add(new Cursor(list, idf, upperBound));
+                }
+            }
+            if (cursorList.isEmpty()) {
+                return List.of();
+            }
+
+            Cursor[] cursors = cursorList.toArray(new Cursor[0]);
+            PriorityQueue<Hit> heap = new PriorityQueue<>(topK + 1,
+                    (x, y) -> Double.compare(x.score(), y.score()));
+            double threshold = 0.0;
+
+            while (true) {
+                sortByDoc(cursors);
+
+                // 找出樞紐：累積上界首次超過門檻的位置
+                int pivot = -1;
+                double accumulated = 0.0;
+                for (int i = 0; i < cursors.length; i++) {
+                    if (cursors[i].doc() == NO_MORE_DOCS) {
+                        break;
+                    }
+                    accumulated += cursors[i].upperBound;
+                    if (accumulated > threshold) {
+                        pivot = i;
+                        break;
+                    }
+                }
+                if (pivot < 0) {
+                    break;
+                }
+
+                int pivotDoc = cursors[pivot].doc();
+                if (cursors[0].doc() == pivotDoc) {
+                    // 完整評分
+                    DocEntry entry = entries.get(pivotDoc);
+                    double score = 0.0;
+                    for (Cursor cursor : cursors) {
+                        if (cursor.doc() != pivotDoc) {
+                            break;
+                        }
+                        if (entry != null) {
+                            score += termScore(cursor.idf, cursor.freq(), entry.length, avgdl);
+                        }
+                        cursor.next();
+                    }
+                    if (entry != null && score > threshold
+                            && (filter == null || filter.test(entry.document))) {
+                        heap.offer(new Hit(entry.document, score));
+                        if (heap.size() > topK) {
+                            heap.poll();
+                        }
+                        if (heap.size() == topK) {
+                            threshold = heap.peek().score();
+                        }
+                    }
+                } else {
+                    // 樞紐之前的游標不可能單獨超過門檻，直接跳到樞紐文檔
+                    for (int i = 0; i < pivot; i++) {
+                        cursors[i].advance(pivotDoc);
+                    }
+                }
+            }
+
+            List<Hit> hits = new ArrayList<>(heap);
+            hits.sort((x, y) -> Double.compare(y.score(), x.score()));
+            return hits;
+
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 使用索引內統計計算已索引文檔的 BM25 分數
+     *
+     * @param documentId 文檔 ID
+     * @param queryTerms 查詢詞
+     * @return BM25 原始分數；文檔未索引時返回 -1
+     */
+    public double score(String documentId, Collection<String> queryTerms) {
+        lock.readLock().lock();
+        try {
+            Integer ordinal = documentId != null ? ordinalById.get(documentId) : null;
+            if (ordinal == null) {
+                return -1.0;
+            }
+            DocEntry entry = entries.get(ordinal);
+            double avgdl = averageDocumentLengthInternal();
+            double score = 0.0;
+            for (String term : new LinkedHashSet<>(queryTerms)) {
+                int freq = entry.frequency(term);
+                if (freq > 0) {
+                    PostingList list = postings.get(term);
+                    score += termScore(idfInternal(list.docFreq), freq, entry.length, avgdl);
+                }
+            }
+            return score;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 使用索引內統計計算任意文本的 BM25 分數（用於未索引的文檔）
+     *
+     * @param documentTerms 文檔詞列表（含重複）
+     * @param queryTerms 查詢詞
+     * @return BM25 原始分數
+     */
+    public double scoreTerms(List<String> documentTerms, Collection<String> queryTerms) {
+        Map<String, Integer> freqs = new HashMap<>();
+        for (String term : documentTerms) {
+            freqs.merge(term, 1, Integer::sum);
+        }
+
+        lock.readLock().lock();
+        try {
+            double avgdl = averageDocumentLengthInternal();
+            double score = 0.0;
+            for (String term : new LinkedHashSet<>(queryTerms)) {
+                Integer freq = freqs.get(term);
+                if (freq != null) {
+                    PostingList list = postings.get(term);
+                    score += termScore(idfInternal(list != null ? list.docFreq : 0),
+                            freq, documentTerms.size(), avgdl);
+                }
+            }
+            return score;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 查詢詞可達到的最大 BM25 分數（用於把原始分數正規化到 0-1）
+     *
+     * @param queryTerms 查詢詞
+     * @return 分數上界
+     */
+    public double maxScore(Collection<String> queryTerms) {
+        lock.readLock().lock();
+        try {
+            double max = 0.0;
+            for (String term : new LinkedHashSet<>(queryTerms)) {
+                PostingList list = postings.get(term);
+                max += idfInternal(list != null ? list.docFreq : 0) * (k1 + 1);
+            }
+            return max;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // ========== 統計 ==========
+
+    /**
+     * 計算詞的 IDF
+     *
+     * @param term 詞
+     * @return IDF 值
+     */
+    public double idf(String term) {
+        lock.readLock().lock();
+        try {
+            PostingList list = postings.get(term);
+            return idfInternal(list != null ? list.docFreq : 0);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 平均文檔長度（詞數）
+     */
+    public double averageDocumentLength() {
+        lock.readLock().lock();
+        try {
+            return averageDocumentLengthInternal();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 文檔是否已索引
+     */
+    public boolean contains(String documentId) {
+        lock.readLock().lock();
+        try {
+            return ordinalById.containsKey(documentId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 獲取索引統計
+     */
+    public Stats stats() {
+        lock.readLock().lock();
+        try {
+            return new Stats(liveDocs, deletedDocs, postings.size(), averageDocumentLengthInternal());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private double idfInternal(int docFreq) {
+        return Math.log(1.0 + (liveDocs - docFreq + 0.5) / (docFreq + 0.5));
+    }
+
+    private double averageDocumentLengthInternal() {
+        return liveDocs == 0 ? 0.0 : (double) totalLength / liveDocs;
+    }
+
+    private double termScore(double idf, int freq, int length, double avgdl) {
+        double lengthRatio = avgdl > 0 ? length / avgdl : 1.0;
+        return idf * freq * (k1 + 1) / (freq + k1 * (1 - b + b * lengthRatio));
+    }
+
+    /**
+     * 依游標當前文檔排序（查詢詞數量很少，插入排序即可）
+     */
+    private static void sortByDoc(Cursor[] cursors) {
+        for (int i = 1; i < cursors.length; i++) {
+            Cursor current = cursors[i];
+            int j = i - 1;
+            while (j >= 0 && cursors[j].doc() > current.doc()) {
+                cursors[j + 1] = cursors[j];
+                j--;
+            }
+            cursors[j + 1] = current;
+        }
+    }
+
+    // ========== 內部結構 ==========
+
+    /**
+     * 查詢結果
+     *
+     * @param document 文檔
+     * @param score BM25 原始分數
+     */
+    public record Hit(Document document, double score) {
+    }
+
+    /**
+     * 索引統計
+     *
+     * @param documentCount 有效文檔數
+     * @param deletedCount 待壓縮的墓碑數
+     * @param termCount 詞彙量
+     * @param averageDocumentLength 平均文檔長度
+     */
+    public record Stats(int documentCount, int deletedCount, int termCount, double averageDocumentLength) {
+    }
+
+    /**
+     * 倒排表：按序號遞增的 (文檔序號, 詞頻) 陣列
+     */
+    private static final class PostingList {
+        private int[] docs = new int[4];
+        private int[] freqs = new int[4];
+        private int size;
+        private int docFreq;
+        private int maxFreq;
+
+        void append(int doc, int freq) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                freqs = Arrays.copyOf(freqs, size * 2);
+            }
+            docs[size] = doc;
+            freqs[size] = freq;
+            size++;
+            docFreq++;
+            maxFreq = Math.max(maxFreq, freq);
+        }
+    }
+
+    /**
+     * 倒排表游標
+     */
+    private static final class Cursor {
+        private final PostingList list;
+        private final double idf;
+        private final double upperBound;
+        private int position;
+
+        Cursor(PostingList list, double idf, double upperBound) {
+            this.list = list;
+            this.idf = idf;
+            this.upperBound = upperBound;
+        }
+
+        int doc() {
+            return position < list.size ? list.docs[position] : NO_MORE_DOCS;
+        }
+
+        int freq() {
+            return list.freqs[position];
+        }
+
+        void next() {
+            position++;
+        }
+
+        /**
+         * 前進到第一個 >= target 的位置（指數搜尋 + 二分搜尋）
+         */
+        void advance(int target) {
+            int[] docs = list.docs;
+            int size = list.size;
+            if (position >= size || docs[position] >= target) {
+                return;
+            }
+            int step = 1;
+            int low = position;
+            int high = position + step;
+            while (high < size && docs[high] < target) {
+                low = high;
+                step <<= 1;
+                high = position + step;
+            }
+            high = Math.min(high, size);
+            int found = Arrays.binarySearch(docs, low, high, target);
+            position = found >= 0 ? found : -found - 1;
+        }
+    }
+
+    /**
+     * 文檔條目（正排信息：排序後的詞與對應詞頻）
+     */
+    private static final class DocEntry {
+        private final String id;
+        private final Document document;
+        private final int length;
+        private final String[] terms;
+        private final int[] freqs;
+
+        private DocEntry(String id, Document document, int length, String[] terms, int[] freqs) {
+            this.id = id;
+            this.document = document;
+            this.length = length;
+            this.terms = terms;
+            this.freqs = freqs;
+        }
+
+        static DocEntry of(Document document, List<String> tokens) {
+            Map<String, Integer> counts = new HashMap<>();
+            for (String token : tokens) {
+                counts.merge(token, 1, Integer::sum);
+            }
+            String[] terms = counts.keySet().toArray(new String[0]);
+            Arrays.sort(terms);
+            int[] freqs = new int[terms.length];
+            for (int i = 0; i < terms.length; i++) {
+                freqs[i] = counts.get(terms[i]);
+            }
+            return new DocEntry(document.getId(), document, tokens.size(), terms, freqs);
+        }
+
+        int frequency(String term) {
+            int index = Arrays.binarySearch(terms, term);
+            return index >= 0 ? freqs[index] : 0;
+        }
+    }
+}
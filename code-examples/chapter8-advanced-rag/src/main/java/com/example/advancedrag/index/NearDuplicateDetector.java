@@ -0,0 +1,110 @@
+package com.example.advancedrag.index;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 近似重複檢測器（SimHash 分段桶）
+ *
+ * 鴿巢原理：漢明距離不超過 k 的兩個 64 位元指紋，切成 k + 1 段後至少有一段完全相同。
+ * 因此每個指紋按段放入 k + 1 個雜湊桶，檢查時只需比較同桶的候選，
+ * 整體為近似線性時間，不必兩兩比較。
+ *
+ * 非線程安全，每次去重建立一個實例。
+ */
+public class NearDuplicateDetector {
+
+    /**
+     * 最大分段數（距離上限 15 位元，相似度約 0.77）
+     */
+    private static final int MAX_BANDS = 16;
+
+    private final int maxDistance;
+    private final int bands;
+    private final int[] shifts;
+    private final long[] masks;
+    private final List<Map<Long, List<Long>>> buckets;
+
+    /**
+     * @param maxDistance 視為重複的最大漢明距離
+     */
+    public NearDuplicateDetector(int maxDistance) {
+        this.maxDistance = Math.max(0, Math.min(MAX_BANDS - 1, maxDistance));
+        this.bands = this.maxDistance + 1;
+        this.shifts = new int[bands];
+        this.masks = new long[bands];
+        this.buckets = new ArrayList<>(bands);
+
+        // 64 位元盡量平均分成 bands 段
+        int start = 0;
+        for (int band = 0; band < bands; band++) {
+            int width = 64 / bands + (band < 64 % bands ? 1 : 0);
+            shifts[band] = start;
+            masks[band] = width == 64 ? -1L : (1L << width) - 1;
+            buckets.add(new HashMap<>());
+            start += width;
+        }
+    }
+
+    /**
+     * 以相似度閾值建立
+     *
+     * @param similarityThreshold SimHash 相似度閾值（0-1）
+     * @return 檢測器
+     */
+    public static NearDuplicateDetector withSimilarity(double similarityThreshold) {
+        return new NearDuplicateDetector(SimHash.maxDistance(similarityThreshold));
+    }
+
+    /**
+     * 是否與已加入的指紋近似重複
+     *
+     * @param fingerprint 指紋
+     * @return 是否重複
+     */
+    public boolean isDuplicate(long fingerprint) {
+        for (int band = 0; band < bands; band++) {
+            List<Long> candidates = buckets.get(band).get(bandKey(fingerprint, band));
+            if (candidates == null) {
+                continue;
+            }
+            for (long candidate : candidates) {
+                if (SimHash.distance(fingerprint, candidate) <= maxDistance) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 加入指紋
+     *
+     * @param fingerprint 指紋
+     */
+    public void add(long fingerprint) {
+        for (int band = 0; band < bands; band++) {
+            buckets.get(band).computeIfAbsent(bandKey(fingerprint, band), key -> new ArrayList<>(1)).add(fingerprint);
+        }
+    }
+
+    /**
+     * 不重複時加入
+     *
+     * @param fingerprint 指紋
+     * @return 已加入返回 true，重複返回 false
+     */
+    public boolean addIfNotDuplicate(long fingerprint) {
+        if (isDuplicate(fingerprint)) {
+            return false;
+        }
+        add(fingerprint);
+        return true;
+    }
+
+    private long bandKey(long fingerprint, int band) {
+        return (fingerprint >>> shifts[band]) & masks[band];
+    }
+}
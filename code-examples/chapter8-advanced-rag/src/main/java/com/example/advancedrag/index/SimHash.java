@@ -0,0 +1,112 @@
+package com.example.advancedrag.index;
+
+import org.springframework.ai.document.Document;
+
+/**
+ * 64 位元 SimHash 指紋（Charikar）
+ *
+ * 以 {@link CjkBigramAnalyzer} 分詞後的詞為特徵、詞頻為權重：
+ * 內容相近的文本指紋只相差少數位元，以漢明距離衡量相似度。
+ * 與前綴比較不同，改動發生在文本任何位置都只會影響少量位元。
+ *
+ * 指紋在寫入時計算並存入文檔元數據 {@link #METADATA_KEY}（16 進位字串），
+ * 查詢時直接讀取；舊文檔缺少時即時計算。
+ */
+public final class SimHash {
+
+    /**
+     * 元數據鍵：SimHash 指紋（16 進位字串）
+     */
+    public static final String METADATA_KEY = "simhash";
+
+    private SimHash() {
+    }
+
+    /**
+     * 計算文本指紋
+     *
+     * @param text 文本
+     * @return 64 位元指紋（空文本為 0）
+     */
+    public static long fingerprint(String text) {
+        int[] weights = new int[64];
+        CjkBigramAnalyzer.analyze(text, term -> {
+            long hash = hash64(term);
+            for (int bit = 0; bit < 64; bit++) {
+                weights[bit] += ((hash >>> bit) & 1L) != 0 ? 1 : -1;
+            }
+        });
+
+        long fingerprint = 0L;
+        for (int bit = 0; bit < 64; bit++) {
+            if (weights[bit] > 0) {
+                fingerprint |= 1L << bit;
+            }
+        }
+        return fingerprint;
+    }
+
+    /**
+     * 獲取文檔指紋：優先讀取元數據，缺少或格式錯誤時即時計算
+     *
+     * @param document 文檔
+     * @return 64 位元指紋
+     */
+    public static long fingerprint(Document document) {
+        Object stored = document.getMetadata().get(METADATA_KEY);
+        if (stored instanceof String hex && !hex.isEmpty()) {
+            try {
+                return Long.parseUnsignedLong(hex, 16);
+            } catch (NumberFormatException ignored) {
+                // 格式錯誤時重新計算
+            }
+        }
+        return fingerprint(document.getText());
+    }
+
+    /**
+     * 指紋轉為元數據存儲格式
+     *
+     * @param fingerprint 指紋
+     * @return 16 進位字串
+     */
+    public static String toMetadataValue(long fingerprint) {
+        return Long.toHexString(fingerprint);
+    }
+
+    /**
+     * 漢明距離
+     *
+     * @param fingerprint1 指紋 1
+     * @param fingerprint2 指紋 2
+     * @return 不同的位元數（0-64）
+     */
+    public static int distance(long fingerprint1, long fingerprint2) {
+        return Long.bitCount(fingerprint1 ^ fingerprint2);
+    }
+
+    /**
+     * 相似度閾值換算為最大漢明距離：similarity = 1 - distance / 64
+     *
+     * @param similarityThreshold 相似度閾值（0-1）
+     * @return 最大漢明距離
+     */
+    public static int maxDistance(double similarityThreshold) {
+        double clamped = Math.max(0.0, Math.min(1.0, similarityThreshold));
+        return (int) Math.floor((1.0 - clamped) * 64 + 1e-9);
+    }
+
+    /**
+     * 詞的 64 位元雜湊：FNV-1a 後以 SplitMix64 混合，使各位元分佈均勻
+     */
+    private static long hash64(String term) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < term.length(); i++) {
+            hash ^= term.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash = (hash ^ (hash >>> 30)) * 0xbf58476d1ce4e5b9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94d049bb133111ebL;
+        return hash ^ (hash >>> 31);
+    }
+}
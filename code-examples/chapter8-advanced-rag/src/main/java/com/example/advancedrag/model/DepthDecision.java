@@ -0,0 +1,63 @@
+package com.example.advancedrag.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 自適應檢索深度的決策記錄
+ *
+ * 每條向量檢索分支一筆，寫入響應元數據 retrieval_depth，用於觀察各路由的候選數量與提前終止原因。
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class DepthDecision {
+
+    /**
+     * 檢索路由（standard、hybrid、multi_query、expansion、advisor）
+     */
+    private String route;
+
+    /**
+     * 第一頁的深度
+     */
+    private Integer initialDepth;
+
+    /**
+     * 第一頁深度是否取自該路由近期流量的學習值
+     */
+    private Boolean learned;
+
+    /**
+     * 最終候選文檔數
+     */
+    private Integer depth;
+
+    /**
+     * 查詢頁數（不支援偏移的數據源只在第一頁調用向量庫）
+     */
+    private Integer pages;
+
+    /**
+     * 停止原因：exhausted、score_gap、low_entropy、threshold_coverage、max_depth、no_scores
+     */
+    private String stopReason;
+
+    /**
+     * 相鄰候選的最大分數落差
+     */
+    private Double maxGap;
+
+    /**
+     * 分數 softmax 分佈的正規化熵（0-1，越高越平坦）
+     */
+    private Double entropy;
+
+    /**
+     * 位於相關分數帶（最高分減 relevance-margin）內的候選比例
+     */
+    private Double coverage;
+}
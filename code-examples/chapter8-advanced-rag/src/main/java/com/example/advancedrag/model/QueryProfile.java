@@ -0,0 +1,17 @@
+package com.example.advancedrag.model;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 單次 RAG 查詢的耗時剖面
+ *
+ * @param queryId 查詢 ID
+ * @param mode 執行模式（sequential / concurrent）
+ * @param totalMillis 總耗時（毫秒）
+ * @param criticalPath 關鍵路徑上的階段
+ * @param stageDurations 各階段耗時（毫秒）
+ */
+public record QueryProfile(String queryId, String mode, long totalMillis,
+                           List<String> criticalPath, Map<String, Long> stageDurations) {
+}
@@ -40,6 +40,11 @@ public class RAGQueryOptions {
     @Builder.Default
     private Integer maxContextLength = 4000;
 
+    /**
+     * 上下文 token 預算（為空時使用 app.rag.context-packing.max-tokens）
+     */
+    private Integer maxContextTokens;
+
     /**
      * 是否啟用 Re-ranking
      */
@@ -0,0 +1,217 @@
+package com.example.advancedrag.model;
+
+import com.example.advancedrag.util.VectorUtil;
+import org.springframework.ai.vectorstore.filter.Filter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+/**
+ * 檢索上下文（每個請求一個實例）
+ *
+ * 在一次 RAG 請求的各階段之間共享向量，確保每個查詢只生成一次 Embedding：
+ * - 查詢向量：粗檢索時生成，Re-ranking 的語義分數直接以餘弦相似度計算
+ * - 文檔向量：用於 Re-ranking 與上下文去重（存入時原地正規化為單位向量）；向量檢索只登記載入函數，
+ *   需要向量的階段讀取前以 {@link #loadDocumentVectors} 按 ID 一次批量載入實際用到的文檔
+ * - 元數據過濾表達式：請求的過濾條件，由每條檢索分支下推到各自的查詢
+ * - 檢索深度決策：每條向量檢索分支的自適應深度決策，寫入響應元數據
+ *
+ * 線程安全，可由並行階段同時讀寫。
+ */
+public class RetrievalContext {
+
+    private final Map<String, float[]> queryVectors = new ConcurrentHashMap<>();
+    private final Map<String, float[]> documentVectors = new ConcurrentHashMap<>();
+    private final Set<String> requestedDocumentIds = ConcurrentHashMap.newKeySet();
+    private volatile Function<Collection<String>, Map<String, float[]>> documentVectorLoader;
+    private volatile Filter.Expression filterExpression;
+    private final List<DepthDecision> depthDecisions = new CopyOnWriteArrayList<>();
+
+    /**
+     * 設定元數據過濾表達式（已驗證）
+     *
+     * @param filterExpression 過濾表達式（可為 null）
+     */
+    public void setFilterExpression(Filter.Expression filterExpression) {
+        this.filterExpression = filterExpression;
+    }
+
+    /**
+     * 獲取元數據過濾表達式
+     *
+     * @return 過濾表達式，沒有過濾時返回 null
+     */
+    public Filter.Expression getFilterExpression() {
+        return filterExpression;
+    }
+
+    /**
+     * 記錄向量檢索分支的深度決策
+     *
+     * @param decision 深度決策（可為 null）
+     */
+    public void addDepthDecision(DepthDecision decision) {
+        if (decision != null) {
+            depthDecisions.add(decision);
+        }
+    }
+
+    /**
+     * 獲取所有深度決策（按記錄順序）
+     *
+     * @return 深度決策列表（唯讀副本）
+     */
+    public List<DepthDecision> getDepthDecisions() {
+        return List.copyOf(depthDecisions);
+    }
+
+    /**
+     * 獲取查詢向量，不存在時以 loader 生成（同一查詢只生成一次）
+     *
+     * @param query 查詢文本
+     * @param loader 向量生成函數
+     * @return 查詢向量
+     */
+    public float[] queryVector(String query, Function<String, float[]> loader) {
+        return queryVectors.computeIfAbsent(query, loader);
+    }
+
+    /**
+     * 記錄已生成的查詢向量（批次生成時使用；已存在時保留原向量）
+     *
+     * @param query 查詢文本
+     * @param vector 查詢向量（快取中的共享實例，不可修改）
+     */
+    public void putQueryVector(String query, float[] vector) {
+        if (query != null && vector != null) {
+            queryVectors.putIfAbsent(query, vector);
+        }
+    }
+
+    /**
+     * 獲取已生成的查詢向量
+     *
+     * @param query 查詢文本
+     * @return 查詢向量，未生成返回 null
+     */
+    public float[] getQueryVector(String query) {
+        return query != null ? queryVectors.get(query) : null;
+    }
+
+    /**
+     * 記錄文檔向量
+     *
+     * 上下文取得陣列的所有權並原地正規化，調用方不可傳入共享實例。
+     *
+     * @param documentId 文檔 ID
+     * @param vector 文檔向量
+     */
+    public void putDocumentVector(String documentId, float[] vector) {
+        if (documentId != null && vector != null) {
+            documentVectors.put(documentId, VectorUtil.normalizeInPlace(vector));
+        }
+    }
+
+    /**
+     * 設定文檔向量載入函數（向量檢索時登記，之後讀取文檔向量的階段按需載入）
+     *
+     * @param loader 按文檔 ID 批量讀取向量的函數（返回的陣列由上下文取得所有權）
+     */
+    public void setDocumentVectorLoader(Function<Collection<String>, Map<String, float[]>> loader) {
+        this.documentVectorLoader = loader;
+    }
+
+    /**
+     * 批量載入尚未取得的文檔向量（每個文檔最多載入一次，沒有載入函數時不做任何事）
+     *
+     * @param documentIds 即將讀取向量的文檔 ID
+     */
+    public void loadDocumentVectors(Collection<String> documentIds) {
+        Function<Collection<String>, Map<String, float[]>> loader = documentVectorLoader;
+        if (loader == null) {
+            return;
+        }
+        List<String> missing = new ArrayList<>();
+        for (String documentId : documentIds) {
+            if (documentId != null && !documentVectors.containsKey(documentId)
+                    && requestedDocumentIds.add(documentId)) {
+                missing.add(documentId);
+            }
+        }
+        if (!missing.isEmpty()) {
+            loader.apply(missing).forEach(this::putDocumentVector);
+        }
+    }
+
+    /**
+     * 獲取文檔向量
+     *
+     * @param documentId 文檔 ID
+     * @return 文檔向量，未知返回 null
+     */
+    public float[] getDocumentVector(String documentId) {
+        return documentId != null ? documentVectors.get(documentId) : null;
+    }
+
+    /**
+     * 查詢與文檔的餘弦相似度
+     *
+     * @param query 查詢文本
+     * @param documentId 文檔 ID
+     * @return 相似度，缺少任一向量時返回 null
+     */
+    public Double querySimilarity(String query, String documentId) {
+        return similarity(getQueryVector(query), getDocumentVector(documentId));
+    }
+
+    /**
+     * 批次計算查詢與多個文檔的餘弦相似度（先批量載入缺少的文檔向量）
+     *
+     * @param query 查詢文本
+     * @param documentIds 文檔 ID 列表
+     * @param scores 結果陣列（缺少向量的位置為 NaN）
+     * @return 查詢向量存在時返回 true（否則不寫入結果）
+     */
+    public boolean querySimilarities(String query, List<String> documentIds, float[] scores) {
+        float[] queryVector = getQueryVector(query);
+        if (queryVector == null) {
+            return false;
+        }
+        loadDocumentVectors(documentIds);
+        List<float[]> vectors = new ArrayList<>(documentIds.size());
+        for (String documentId : documentIds) {
+            vectors.add(getDocumentVector(documentId));
+        }
+        VectorUtil.cosineSimilarities(queryVector, vectors, scores);
+        return true;
+    }
+
+    /**
+     * 兩個文檔之間的餘弦相似度（文檔向量已正規化，直接取內積）
+     *
+     * @param documentId1 文檔 1 ID
+     * @param documentId2 文檔 2 ID
+     * @return 相似度，缺少任一向量時返回 null
+     */
+    public Double documentSimilarity(String documentId1, String documentId2) {
+        float[] vector1 = getDocumentVector(documentId1);
+        float[] vector2 = getDocumentVector(documentId2);
+        if (vector1 == null || vector2 == null || vector1.length != vector2.length) {
+            return null;
+        }
+        return (double) VectorUtil.dot(vector1, vector2);
+    }
+
+    private Double similarity(float[] vector1, float[] vector2) {
+        if (vector1 == null || vector2 == null || vector1.length != vector2.length) {
+            return null;
+        }
+        return VectorUtil.cosineSimilarity(vector1, vector2);
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.advancedrag.model;
+
+import jakarta.validation.constraints.Size;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 檢索元數據過濾條件
+ *
+ * 各條件之間為 AND，同一條件的多個值之間為 OR。
+ * 條件編譯為 Spring AI {@code Filter.Expression} 後下推到每條檢索分支（向量檢索與關鍵詞檢索），
+ * 而非檢索後再過濾，避免浪費 coarseTopK 名額。
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class RetrievalFilter {
+
+    /**
+     * 來源（元數據 source）
+     */
+    @Builder.Default
+    private List<String> sources = new ArrayList<>();
+
+    /**
+     * 文檔類型（元數據 type）
+     */
+    @Builder.Default
+    private List<String> types = new ArrayList<>();
+
+    /**
+     * 語言（元數據 language）
+     */
+    @Builder.Default
+    private List<String> languages = new ArrayList<>();
+
+    /**
+     * 建立時間下限（含，元數據 created_at）
+     */
+    private LocalDateTime createdAfter;
+
+    /**
+     * 建立時間上限（不含，元數據 created_at）
+     */
+    private LocalDateTime createdBefore;
+
+    /**
+     * 額外的過濾表達式（Spring AI 過濾語法，如 {@code author == 'Alice' && year >= 2023}）
+     */
+    @Size(max = 1000, message = "過濾表達式過長")
+    private String expression;
+
+    /**
+     * 是否沒有任何條件
+     */
+    public boolean isEmpty() {
+        return isEmpty(sources) && isEmpty(types) && isEmpty(languages)
+                && createdAfter == null && createdBefore == null
+                && (expression == null || expression.isBlank());
+    }
+
+    private static boolean isEmpty(List<String> values) {
+        return values == null || values.isEmpty();
+    }
+}
@@ -56,4 +56,21 @@ public class ScoredDocument {
                 .score(score)
                 .build();
     }
+
+    /**
+     * 以新的內容創建副本（保留文檔 ID、元數據與各項分數），用於截斷與壓縮後的文檔
+     *
+     * @param content 新內容
+     * @return 新的 ScoredDocument
+     */
+    public ScoredDocument withContent(String content) {
+        return ScoredDocument.builder()
+                .document(new Document(document.getId(), content, document.getMetadata()))
+                .score(score)
+                .semanticScore(semanticScore)
+                .bm25Score(bm25Score)
+                .qualityScore(qualityScore)
+                .freshnessScore(freshnessScore)
+                .build();
+    }
 }
@@ -0,0 +1,198 @@
+package com.example.advancedrag.model;
+
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * 管線階段時間線
+ *
+ * 記錄每個階段的起訖時間與依賴關係，並據此推算關鍵路徑（critical path）：
+ * 從最後完成的階段開始，沿著「最晚完成的依賴」往回追溯。
+ * 線程安全，可由多個並行階段同時寫入。
+ *
+ * 每個階段同時以 Micrometer {@link Observation}（{@value #STAGE_OBSERVATION}，低基數標籤 stage）記錄，
+ * 並掛在整個請求的父 Observation 之下，階段內部的 Observation（檢索分支、Re-ranking 提供者、LLM 調用）
+ * 會自動成為子節點。
+ */
+public class StageTimeline {
+
+    /**
+     * 階段 Observation 名稱
+     */
+    public static final String STAGE_OBSERVATION = "rag.pipeline.stage";
+
+    private final long originNanos = System.nanoTime();
+
+    private final Map<String, Span> spans = new ConcurrentHashMap<>();
+
+    private final ObservationRegistry observationRegistry;
+    private final Observation parent;
+
+    public StageTimeline() {
+        this(ObservationRegistry.NOOP, null);
+    }
+
+    /**
+     * @param observationRegistry Observation 註冊表
+     * @param parent 請求層級的父 Observation（可為 null）
+     */
+    public StageTimeline(ObservationRegistry observationRegistry, Observation parent) {
+        this.observationRegistry = observationRegistry;
+        this.parent = parent;
+    }
+
+    /**
+     * 執行並記錄一個階段
+     *
+     * @param stage 階段名稱
+     * @param dependsOn 依賴的階段
+     * @param task 階段任務
+     * @return 任務結果
+     */
+    public <T> T record(String stage, List<String> dependsOn, Supplier<T> task) {
+        Observation observation = Observation.createNotStarted(STAGE_OBSERVATION, observationRegistry)
+                .lowCardinalityKeyValue("stage", stage)
+                .parentObservation(parent)
+                .start();
+        long start = System.nanoTime();
+        try (Observation.Scope scope = observation.openScope()) {
+            T result = task.get();
+            spans.putIfAbsent(stage, new Span(stage, start, System.nanoTime(), dependsOn, "ok"));
+            return result;
+        } catch (RuntimeException e) {
+            spans.putIfAbsent(stage, new Span(stage, start, System.nanoTime(), dependsOn, "failed"));
+            observation.error(e);
+            throw e;
+        } finally {
+            observation.stop();
+        }
+    }
+
+    /**
+     * 直接記錄一個截至現在的階段區間（用於逾時、取消等未正常結束的階段）
+     *
+     * @param stage 階段名稱
+     * @param startNanos 開始時間（納秒）
+     * @param dependsOn 依賴的階段
+     * @param status 狀態
+     */
+    public void recordSpan(String stage, long startNanos, List<String> dependsOn, String status) {
+        spans.put(stage, new Span(stage, startNanos, System.nanoTime(), dependsOn, status));
+    }
+
+    /**
+     * 標記階段結果狀態（如逾時降級、被取消）
+     *
+     * @param stage 階段名稱
+     * @param status 狀態
+     */
+    public void markStatus(String stage, String status) {
+        spans.computeIfPresent(stage, (key, span) ->
+                new Span(span.stage(), span.startNanos(), span.endNanos(), span.dependsOn(), status));
+    }
+
+    /**
+     * 是否有階段未正常完成（逾時降級、失敗或取消）
+     */
+    public boolean isDegraded() {
+        return spans.values().stream().anyMatch(span -> !"ok".equals(span.status()));
+    }
+
+    /**
+     * 推算關鍵路徑
+     *
+     * @return 關鍵路徑上的階段（依執行順序）
+     */
+    public List<String> criticalPath() {
+        Span current = spans.values().stream()
+                .max(Comparator.comparingLong(Span::endNanos))
+                .orElse(null);
+
+        List<String> path = new ArrayList<>();
+        while (current != null) {
+            path.add(current.stage());
+            current = current.dependsOn().stream()
+                    .map(spans::get)
+                    .filter(span -> span != null)
+                    .max(Comparator.comparingLong(Span::endNanos))
+                    .orElse(null);
+        }
+        Collections.reverse(path);
+        return path;
+    }
+
+    /**
+     * 關鍵路徑耗時（毫秒）：第一個關鍵階段開始到最後一個關鍵階段結束
+     */
+    public long criticalPathMillis() {
+        List<String> path = criticalPath();
+        if (path.isEmpty()) {
+            return 0;
+        }
+        Span first = spans.get(path.get(0));
+        Span last = spans.get(path.get(path.size() - 1));
+        return (last.endNanos() - first.startNanos()) / 1_000_000;
+    }
+
+    /**
+     * 獲取階段耗時（毫秒），未執行返回 null
+     *
+     * @param stage 階段名稱
+     */
+    public Long durationMillis(String stage) {
+        Span span = spans.get(stage);
+        return span != null ? span.durationMillis() : null;
+    }
+
+    /**
+     * 各階段耗時（毫秒，依開始時間排序）
+     */
+    public Map<String, Long> durations() {
+        Map<String, Long> durations = new LinkedHashMap<>();
+        spans.values().stream()
+                .sorted(Comparator.comparingLong(Span::startNanos))
+                .forEach(span -> durations.put(span.stage(), span.durationMillis()));
+        return durations;
+    }
+
+    /**
+     * 轉換為響應元數據
+     *
+     * @return 各階段的開始偏移、耗時、狀態
+     */
+    public Map<String, Object> toMetadata() {
+        Map<String, Object> stages = new LinkedHashMap<>();
+        spans.values().stream()
+                .sorted(Comparator.comparingLong(Span::startNanos))
+                .forEach(span -> stages.put(span.stage(), Map.of(
+                        "start_offset_ms", (span.startNanos() - originNanos) / 1_000_000,
+                        "duration_ms", span.durationMillis(),
+                        "status", span.status()
+                )));
+        return stages;
+    }
+
+    /**
+     * 階段時間區間
+     *
+     * @param stage 階段名稱
+     * @param startNanos 開始時間（納秒）
+     * @param endNanos 結束時間（納秒）
+     * @param dependsOn 依賴的階段
+     * @param status 狀態：ok, failed, timeout, cancelled
+     */
+    public record Span(String stage, long startNanos, long endNanos, List<String> dependsOn, String status) {
+        public long durationMillis() {
+            return (endNanos - startNanos) / 1_000_000;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.example.advancedrag.moderation;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.IntConsumer;
+
+/**
+ * Aho-Corasick 多模式匹配自動機
+ *
+ * 一次掃描即可找出文本中所有詞典詞，耗時與文本長度成正比，與詞典大小無關
+ * （逐詞 contains 為 O(詞數 × 文本長度)）。
+ *
+ * 建立後不可變、線程安全；詞典更新時建立新實例整體替換。
+ * 詞與文本都先經過 {@link CharFolding} 正規化。
+ */
+public final class AhoCorasickAutomaton {
+
+    /**
+     * 初始狀態
+     */
+    public static final int ROOT = 0;
+
+    private static final AhoCorasickAutomaton EMPTY = build(List.of());
+
+    /**
+     * 每個狀態的轉移（按字符排序，二分查找）
+     */
+    private final char[][] transitionChars;
+    private final int[][] transitionTargets;
+
+    /**
+     * 失敗鏈接
+     */
+    private final int[] failure;
+
+    /**
+     * 狀態本身結束的詞索引（-1 表示無）
+     */
+    private final int[] output;
+
+    /**
+     * 沿失敗鏈最近的輸出狀態（0 表示無）
+     */
+    private final int[] dictionaryLink;
+
+    /**
+     * 原始詞（索引對應 output）
+     */
+    private final List<String> terms;
+
+    private AhoCorasickAutomaton(char[][] transitionChars, int[][] transitionTargets, int[] failure,
+                                 int[] output, int[] dictionaryLink, List<String> terms) {
+        this.transitionChars = transitionChars;
+        this.transitionTargets = transitionTargets;
+        this.failure = failure;
+        this.output = output;
+        this.dictionaryLink = dictionaryLink;
+        this.terms = terms;
+    }
+
+    /**
+     * 空自動機
+     */
+    public static AhoCorasickAutomaton empty() {
+        return EMPTY;
+    }
+
+    /**
+     * 建立自動機（空白詞忽略，正規化後相同的詞只保留第一個）
+     *
+     * @param dictionary 詞典
+     * @return 自動機
+     */
+    public static AhoCorasickAutomaton build(Collection<String> dictionary) {
+        Map<String, String> folded = new LinkedHashMap<>();
+        for (String term : dictionary) {
+            if (term != null && !term.isBlank()) {
+                folded.putIfAbsent(CharFolding.fold(term.strip()), term.strip());
+            }
+        }
+
+        // 1. 建立字典樹
+        List<TreeMap<Character, Integer>> children = new ArrayList<>();
+        List<Integer> outputs = new ArrayList<>();
+        children.add(new TreeMap<>());
+        outputs.add(-1);
+
+        List<String> terms = new ArrayList<>(folded.size());
+        for (Map.Entry<String, String> entry : folded.entrySet()) {
+            int state = ROOT;
+            for (char c : entry.getKey().toCharArray()) {
+                Integer next = children.get(state).get(c);
+                if (next == null) {
+                    next = children.size();
+                    children.get(state).put(c, next);
+                    children.add(new TreeMap<>());
+                    outputs.add(-1);
+                }
+                state = next;
+            }
+            outputs.set(state, terms.size());
+            terms.add(entry.getValue());
+        }
+
+        // 2. 壓縮轉移表
+        int stateCount = children.size();
+        char[][] transitionChars = new char[stateCount][];
+        int[][] transitionTargets = new int[stateCount][];
+        int[] output = new int[stateCount];
+        for (int state = 0; state < stateCount; state++) {
+            TreeMap<Character, Integer> edges = children.get(state);
+            transitionChars[state] = new char[edges.size()];
+            transitionTargets[state] = new int[edges.size()];
+            int i = 0;
+            for (Map.Entry<Character, Integer> edge : edges.entrySet()) {
+                transitionChars[state][i] = edge.getKey();
+                transitionTargets[state][i] = edge.getValue();
+                i++;
+            }
+            output[state] = outputs.get(state);
+        }
+
+        // 3. BFS 計算失敗鏈接與輸出鏈接
+        int[] failure = new int[stateCount];
+        int[] dictionaryLink = new int[stateCount];
+        AhoCorasickAutomaton automaton = new AhoCorasickAutomaton(transitionChars, transitionTargets,
+                failure, output, dictionaryLink, List.copyOf(terms));
+
+        Deque<Integer> queue = new ArrayDeque<>();
+        for (int child : transitionTargets[ROOT]) {
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            for (int i = 0; i < transitionChars[state].length; i++) {
+                char c = transitionChars[state][i];
+                int child = transitionTargets[state][i];
+
+                int fallback = failure[state];
+                while (fallback != ROOT && automaton.child(fallback, c) < 0) {
+                    fallback = failure[fallback];
+                }
+                int target = automaton.child(fallback, c);
+                failure[child] = target >= 0 && target != child ? target : ROOT;
+                dictionaryLink[child] = output[failure[child]] >= 0 ? failure[child] : dictionaryLink[failure[child]];
+                queue.add(child);
+            }
+        }
+
+        return automaton;
+    }
+
+    /**
+     * 狀態轉移
+     *
+     * @param state 當前狀態
+     * @param c 已正規化的字符
+     * @return 下一個狀態
+     */
+    public int next(int state, char c) {
+        while (true) {
+            int child = child(state, c);
+            if (child >= 0) {
+                return child;
+            }
+            if (state == ROOT) {
+                return ROOT;
+            }
+            state = failure[state];
+        }
+    }
+
+    /**
+     * 報告在該狀態結束的所有詞
+     *
+     * @param state 狀態
+     * @param sink 詞索引回調
+     */
+    public void forEachMatch(int state, IntConsumer sink) {
+        if (output[state] >= 0) {
+            sink.accept(output[state]);
+        }
+        for (int link = dictionaryLink[state]; link != ROOT; link = dictionaryLink[link]) {
+            sink.accept(output[link]);
+        }
+    }
+
+    /**
+     * 該狀態是否有任何詞結束（快速判斷，避免回調開銷）
+     */
+    public boolean hasMatch(int state) {
+        return output[state] >= 0 || dictionaryLink[state] != ROOT;
+    }
+
+    /**
+     * 詞索引對應的原始詞
+     */
+    public String term(int index) {
+        return terms.get(index);
+    }
+
+    /**
+     * 詞典大小
+     */
+    public int size() {
+        return terms.size();
+    }
+
+    private int child(int state, char c) {
+        char[] chars = transitionChars[state];
+        int low = 0;
+        int high = chars.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (chars[mid] < c) {
+                low = mid + 1;
+            } else if (chars[mid] > c) {
+                high = mid - 1;
+            } else {
+                return transitionTargets[state][mid];
+            }
+        }
+        return -1;
+    }
+}
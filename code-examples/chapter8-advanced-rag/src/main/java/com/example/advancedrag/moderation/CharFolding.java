@@ -0,0 +1,45 @@
+package com.example.advancedrag.moderation;
+
+/**
+ * 字符正規化（一對一映射，不改變文本長度與位置）
+ *
+ * - 全形 ASCII（U+FF01-U+FF5E）轉半形，全形空白（U+3000）轉半形空白
+ * - Unicode 大小寫折疊（轉小寫）
+ *
+ * 敏感詞建立自動機與掃描內容時使用同一規則，
+ * 使「ＡＢＣ」「Abc」「abc」視為同一個詞。
+ */
+public final class CharFolding {
+
+    private CharFolding() {
+    }
+
+    /**
+     * 正規化單個字符
+     *
+     * @param c 字符
+     * @return 正規化後的字符
+     */
+    public static char fold(char c) {
+        if (c >= '！' && c <= '～') {
+            c = (char) (c - 0xFEE0);
+        } else if (c == '　') {
+            c = ' ';
+        }
+        return Character.toLowerCase(c);
+    }
+
+    /**
+     * 正規化字串
+     *
+     * @param text 文本
+     * @return 正規化後的文本（長度不變）
+     */
+    public static String fold(String text) {
+        char[] chars = text.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = fold(chars[i]);
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,187 @@
+package com.example.advancedrag.moderation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * 單次掃描的內容統計引擎
+ *
+ * 逐字符遍歷一次，同時完成：
+ * 1. 敏感詞匹配（{@link AhoCorasickAutomaton}，全形/半形與大小寫正規化）
+ * 2. 特殊字符計數（非字母數字且非空白）
+ * 3. URL / 郵箱標記計數（"://" 與 "@"，有標記時才需要執行正則表達式）
+ * 4. 重複片段檢測：長度為 window 的片段是否在其後（不重疊）再次出現，
+ *    以滾動雜湊 + 開放定址表實現，取代逐位置 substring + contains
+ */
+public final class ContentScanner {
+
+    /**
+     * 啟用重複檢測的最短內容長度
+     */
+    public static final int MIN_REPETITION_LENGTH = 20;
+
+    /**
+     * 重複檢測片段長度上限
+     */
+    public static final int MAX_REPETITION_WINDOW = 10;
+
+    private static final long HASH_BASE = 1_000_003L;
+
+    private ContentScanner() {
+    }
+
+    /**
+     * 掃描內容
+     *
+     * @param content 內容
+     * @param automaton 敏感詞自動機
+     * @return 掃描結果
+     */
+    public static ScanResult scan(String content, AhoCorasickAutomaton automaton) {
+        int length = content.length();
+        char[] folded = new char[length];
+
+        int window = length >= MIN_REPETITION_LENGTH ? Math.min(MAX_REPETITION_WINDOW, length / 4) : 0;
+        RepetitionTable repetitions = window > 0 ? new RepetitionTable(length - window + 1) : null;
+        long basePower = 1L;
+        for (int i = 1; i < window; i++) {
+            basePower *= HASH_BASE;
+        }
+
+        BitSet matched = null;
+        int state = AhoCorasickAutomaton.ROOT;
+        int specialChars = 0;
+        int atSigns = 0;
+        int schemeSeparators = 0;
+        boolean repeated = false;
+        long rollingHash = 0L;
+
+        for (int i = 0; i < length; i++) {
+            char original = content.charAt(i);
+            char c = CharFolding.fold(original);
+            folded[i] = c;
+
+            // 1. 敏感詞
+            state = automaton.next(state, c);
+            if (automaton.hasMatch(state)) {
+                BitSet sink = matched != null ? matched : (matched = new BitSet(automaton.size()));
+                automaton.forEachMatch(state, sink::set);
+            }
+
+            // 2. 字符類別
+            if (!Character.isLetterOrDigit(original) && !Character.isWhitespace(original)) {
+                specialChars++;
+            }
+
+            // 3. URL / 郵箱標記
+            if (c == '@') {
+                atSigns++;
+            } else if (c == '/' && i >= 2 && folded[i - 1] == '/' && folded[i - 2] == ':') {
+                schemeSeparators++;
+            }
+
+            // 4. 重複片段（找到一次即可）
+            if (repetitions != null && !repeated) {
+                if (i >= window) {
+                    rollingHash -= folded[i - window] * basePower;
+                }
+                rollingHash = rollingHash * HASH_BASE + c;
+                int start = i - window + 1;
+                if (start >= 0) {
+                    repeated = repetitions.seenBefore(rollingHash, start, window, folded);
+                }
+            }
+        }
+
+        List<String> matchedTerms = new ArrayList<>();
+        if (matched != null) {
+            for (int index = matched.nextSetBit(0); index >= 0; index = matched.nextSetBit(index + 1)) {
+                matchedTerms.add(automaton.term(index));
+            }
+        }
+
+        return new ScanResult(matchedTerms, specialChars, atSigns, schemeSeparators,
+                repeated ? window : 0, length);
+    }
+
+    /**
+     * 掃描結果
+     *
+     * @param matchedTerms 匹配到的敏感詞（原始寫法，不重複）
+     * @param specialCharCount 特殊字符數
+     * @param atSignCount '@' 數量
+     * @param schemeSeparatorCount "://" 數量
+     * @param maxRepetitionLength 最長重複片段長度（未檢出為 0）
+     * @param length 內容長度
+     */
+    public record ScanResult(List<String> matchedTerms, int specialCharCount, int atSignCount,
+                             int schemeSeparatorCount, int maxRepetitionLength, int length) {
+
+        /**
+         * 特殊字符比例
+         */
+        public double specialCharRatio() {
+            return length == 0 ? 0.0 : (double) specialCharCount / length;
+        }
+
+        /**
+         * 重複比例
+         */
+        public double repetitionRatio() {
+            return length == 0 ? 0.0 : (double) maxRepetitionLength / length;
+        }
+    }
+
+    /**
+     * 片段首次出現位置表（開放定址，無裝箱）
+     */
+    private static final class RepetitionTable {
+
+        private final long[] hashes;
+        private final int[] positions;
+        private final int mask;
+
+        RepetitionTable(int expected) {
+            int capacity = Integer.highestOneBit(Math.max(2, expected) * 2 - 1) << 1;
+            hashes = new long[capacity];
+            positions = new int[capacity];
+            Arrays.fill(positions, -1);
+            mask = capacity - 1;
+        }
+
+        /**
+         * 記錄片段，並判斷相同片段是否已在不重疊的更早位置出現
+         *
+         * 只保留每個片段的最早位置：最早位置不滿足不重疊條件時，其他更晚的位置也不會滿足。
+         */
+        boolean seenBefore(long hash, int start, int window, char[] text) {
+            int slot = (int) (mix(hash) & mask);
+            while (positions[slot] >= 0) {
+                if (hashes[slot] == hash && regionEquals(text, positions[slot], start, window)) {
+                    return positions[slot] + window <= start;
+                }
+                slot = (slot + 1) & mask;
+            }
+            hashes[slot] = hash;
+            positions[slot] = start;
+            return false;
+        }
+
+        private static boolean regionEquals(char[] text, int first, int second, int window) {
+            for (int i = 0; i < window; i++) {
+                if (text[first + i] != text[second + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static long mix(long hash) {
+            hash ^= hash >>> 33;
+            hash *= 0xff51afd7ed558ccdL;
+            return hash ^ (hash >>> 33);
+        }
+    }
+}
@@ -4,6 +4,8 @@ import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
+
 /**
  * Embedding 配置屬性
  */
@@ -21,6 +23,8 @@ public class EmbeddingProperties {
     private Boolean enableCache = true;
     private Integer cacheTtl = 86400;
     private String cacheKeyPrefix = "emb:";
+    private Long cacheL1MaxBytes = 64L * 1024 * 1024;
+    private Boolean cacheL2Enabled = true;
 
     @Data
     public static class Preprocessing {
@@ -32,4 +36,18 @@ public class EmbeddingProperties {
     }
 
     private Preprocessing preprocessing = new Preprocessing();
+
+    /**
+     * 微批次配置：合併各線程的 Embedding 請求為單次多輸入調用
+     */
+    @Data
+    public static class Batch {
+        private Boolean enabled = true;
+        private Integer maxBatchSize = 256;
+        private Duration maxWait = Duration.ofMillis(5);
+        private Integer maxTokensPerRequest = 300_000;
+        private Duration requestTimeout = Duration.ofSeconds(30);
+    }
+
+    private Batch batch = new Batch();
 }
@@ -4,6 +4,7 @@ import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -33,6 +34,17 @@ public class ModerationProperties {
     private Providers providers = new Providers();
     private List<String> sensitiveWords = new ArrayList<>();
 
+    /**
+     * 敏感詞詞典文件（每行一個詞，# 開頭為註解），變更後自動重新載入
+     */
+    @Data
+    public static class Dictionary {
+        private String location;
+        private Duration reloadInterval = Duration.ofSeconds(60);
+    }
+
+    private Dictionary dictionary = new Dictionary();
+
     @Data
     public static class PiiDetection {
         private Boolean enabled = true;
@@ -40,4 +52,29 @@ public class ModerationProperties {
     }
 
     private PiiDetection piiDetection = new PiiDetection();
+
+    /**
+     * 審核結果快取（以正規化內容雜湊為鍵）
+     */
+    @Data
+    public static class VerdictCache {
+        private Boolean enabled = true;
+        private Long maxEntries = 10_000L;
+        private Duration ttl = Duration.ofMinutes(30);
+    }
+
+    private VerdictCache verdictCache = new VerdictCache();
+
+    /**
+     * 批次審核客戶端（合併並發請求為單次多輸入調用）
+     */
+    @Data
+    public static class Batch {
+        private Boolean enabled = true;
+        private Integer maxBatchSize = 32;
+        private Duration maxWait = Duration.ofMillis(5);
+        private Duration requestTimeout = Duration.ofSeconds(10);
+    }
+
+    private Batch batch = new Batch();
 }
@@ -1,9 +1,17 @@
 package com.example.advancedrag.properties;
 
+import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * RAG 系統配置屬性
  *
@@ -64,6 +72,76 @@ public class RAGProperties {
      */
     private Reranking reranking = new Reranking();
 
+    /**
+     * 關鍵詞索引配置
+     */
+    private KeywordIndex keywordIndex = new KeywordIndex();
+
+    /**
+     * 查詢管線執行配置
+     */
+    private Pipeline pipeline = new Pipeline();
+
+    /**
+     * 上下文去重配置
+     */
+    private Deduplication deduplication = new Deduplication();
+
+    /**
+     * 上下文打包（token 預算）配置
+     */
+    private ContextPacking contextPacking = new ContextPacking();
+
+    /**
+     * 查詢導向的抽取式上下文壓縮配置
+     */
+    private ContextCompression contextCompression = new ContextCompression();
+
+    /**
+     * 檢索元數據過濾（下推）配置
+     */
+    private MetadataFilter metadataFilter = new MetadataFilter();
+
+    /**
+     * 自適應檢索深度配置
+     */
+    private AdaptiveDepth adaptiveDepth = new AdaptiveDepth();
+
+    /**
+     * 語義答案快取配置
+     */
+    private SemanticCache semanticCache = new SemanticCache();
+
+    /**
+     * Re-ranking 結果快取配置
+     */
+    private RerankCache rerankCache = new RerankCache();
+
+    /**
+     * 級聯 Re-ranking（本地剪枝 + 遠端精排）配置
+     */
+    private RerankCascade rerankCascade = new RerankCascade();
+
+    /**
+     * 准入控制與下游隔艙配置
+     */
+    private Admission admission = new Admission();
+
+    /**
+     * 相同請求合併（single-flight）配置
+     */
+    private Coalescing coalescing = new Coalescing();
+
+    /**
+     * 多查詢檢索（查詢擴展 + 倒數排名融合）配置
+     */
+    private MultiQuery multiQuery = new MultiQuery();
+
+    /**
+     * 串流答案（SSE）配置
+     */
+    private Streaming streaming = new Streaming();
+
     /**
      * Re-ranking 配置類
      */
@@ -89,6 +167,11 @@ public class RAGProperties {
          */
         private String model = "rerank-1";
 
+        /**
+         * 遠端 Re-ranking API 地址（為空時使用提供者預設地址）
+         */
+        private String apiUrl;
+
         /**
          * 第一階段粗檢索的文檔數量（50-100）
          */
@@ -103,5 +186,511 @@ public class RAGProperties {
          * 是否在響應中包含評分詳情
          */
         private Boolean includeScoreDetails = false;
+
+        /**
+         * 本地算法並行評分的候選數門檻（候選數達到此值時跨候選並行計算）
+         */
+        private Integer localParallelThreshold = 64;
+
+        /**
+         * 是否在啟動時回填既有文檔的 Re-ranking 特徵
+         */
+        private Boolean featureBackfillOnStartup = false;
+
+        /**
+         * Re-ranking 特徵回填的每批行數
+         */
+        private Integer featureBackfillBatchSize = 500;
+    }
+
+    /**
+     * 關鍵詞（BM25 倒排）索引配置類
+     */
+    @Data
+    public static class KeywordIndex {
+        /**
+         * 是否啟用關鍵詞索引
+         */
+        private Boolean enabled = true;
+
+        /**
+         * 是否在啟動時從 PgVector 資料表載入既有文檔
+         */
+        private Boolean loadOnStartup = true;
+
+        /**
+         * BM25 詞頻飽和參數
+         */
+        private Double k1 = 1.2;
+
+        /**
+         * BM25 長度正規化參數
+         */
+        private Double b = 0.75;
+    }
+
+    /**
+     * 查詢管線執行配置類
+     */
+    @Data
+    public static class Pipeline {
+        /**
+         * 是否以依賴圖並行執行各階段（false 時依序執行）
+         */
+        private Boolean concurrent = false;
+
+        /**
+         * 查詢審核截止時間
+         */
+        private Duration moderationTimeout = Duration.ofSeconds(5);
+
+        /**
+         * 查詢重寫截止時間
+         */
+        private Duration rewriteTimeout = Duration.ofSeconds(10);
+
+        /**
+         * 查詢擴展截止時間
+         */
+        private Duration expansionTimeout = Duration.ofSeconds(10);
+
+        /**
+         * 檢索截止時間
+         */
+        private Duration retrievalTimeout = Duration.ofSeconds(10);
+
+        /**
+         * Re-ranking 截止時間
+         */
+        private Duration rerankTimeout = Duration.ofSeconds(10);
+
+        /**
+         * 答案生成截止時間
+         */
+        private Duration generationTimeout = Duration.ofSeconds(60);
+
+        /**
+         * 慢查詢閾值（超過時記錄階段明細作為樣本）
+         */
+        private Duration slowQueryThreshold = Duration.ofSeconds(5);
+
+        /**
+         * 保留的慢查詢樣本數（按總耗時保留最慢的）
+         */
+        private Integer slowQuerySamples = 20;
+
+        /**
+         * 用於百分位關鍵路徑分析的最近查詢數
+         */
+        private Integer profileWindowSize = 1000;
+    }
+
+    /**
+     * 上下文去重配置類
+     */
+    @Data
+    public static class Deduplication {
+        /**
+         * SimHash 相似度閾值（1 - 漢明距離 / 64），0.95 約等於 3 個位元以內視為重複
+         */
+        private Double simhashThreshold = 0.95;
+
+        /**
+         * 向量餘弦相似度閾值（檢索上下文中有文檔向量時使用）
+         */
+        private Double vectorThreshold = 0.95;
+    }
+
+    /**
+     * 上下文打包配置類
+     */
+    @Data
+    public static class ContextPacking {
+        /**
+         * 是否以 token 預算打包上下文（false 時按字符數截斷 maxContextLength）
+         */
+        private Boolean enabled = true;
+
+        /**
+         * Tokenizer 編碼（需與生成模型一致，gpt-4o 系列為 o200k_base）
+         */
+        private String encoding = "o200k_base";
+
+        /**
+         * 上下文 token 預算（請求未指定 maxContextTokens 時使用）
+         */
+        private Integer maxTokens = 1500;
+
+        /**
+         * 部分文檔至少保留的 token 數（不足時不放入部分文檔）
+         */
+        private Integer minPartialTokens = 48;
+
+        /**
+         * 文檔 token 數快取的最大條目數
+         */
+        private Integer tokenCacheSize = 20000;
+    }
+
+    /**
+     * 上下文壓縮配置類
+     */
+    @Data
+    public static class ContextCompression {
+        /**
+         * 是否在生成前壓縮上下文（只保留與查詢最相似的句子及其相鄰句）
+         */
+        private Boolean enabled = true;
+
+        /**
+         * 目標壓縮比例（保留的 token 數 / 原始 token 數，0-1）
+         */
+        private Double ratio = 0.35;
+
+        /**
+         * 相鄰句窗口（每個選中句子前後各保留的句子數）
+         */
+        private Integer neighbourWindow = 1;
+
+        /**
+         * 少於此 token 數的文檔不壓縮
+         */
+        private Integer minDocumentTokens = 80;
+    }
+
+    /**
+     * 檢索元數據過濾配置類
+     */
+    @Data
+    public static class MetadataFilter {
+        /**
+         * 允許過濾的元數據鍵（已建立索引的鍵）
+         */
+        private List<String> allowedKeys = new ArrayList<>(
+                List.of("source", "type", "language", "author", "tags", "created_at"));
+
+        /**
+         * 單個 IN / NIN 條件的最多值數量
+         */
+        private Integer maxValues = 50;
+
+        /**
+         * 啟動時為 PgVector 資料表的 metadata 欄位建立 GIN 索引（支援 jsonpath 過濾）
+         */
+        private Boolean createIndex = true;
+    }
+
+    /**
+     * 自適應檢索深度配置類
+     *
+     * 向量檢索先取一小頁候選，依分數分佈判斷是否提前停止或繼續取下一頁；
+     * 第一頁深度從各路由近期流量中學習。
+     */
+    @Data
+    public static class AdaptiveDepth {
+        /**
+         * 是否啟用（關閉時每個查詢固定取 coarseTopK / firstStageTopK 個候選）
+         */
+        private Boolean enabled = true;
+
+        /**
+         * 路由樣本不足時的第一頁深度
+         */
+        private Integer initialDepth = 10;
+
+        /**
+         * 最少候選數（不少於 finalTopK 的兩倍，保留 Re-ranking 的選擇空間）
+         */
+        private Integer minDepth = 10;
+
+        /**
+         * 後續每頁的候選數
+         */
+        private Integer pageSize = 10;
+
+        /**
+         * 最多候選數（請求的 coarseTopK 更大時以其為準）
+         */
+        private Integer maxDepth = 30;
+
+        /**
+         * 相鄰候選的分數落差不低於此值時停止（相似度斷崖之後的候選不太可能相關）
+         */
+        private Double gapThreshold = 0.08;
+
+        /**
+         * 計算分數分佈熵時的 softmax 溫度
+         */
+        private Double entropyTemperature = 0.05;
+
+        /**
+         * 正規化熵不高於此值時停止（分數集中於少數候選）
+         */
+        private Double entropyThreshold = 0.7;
+
+        /**
+         * 相關分數帶寬度：分數不低於最高分減此值的候選視為相關；
+         * 頁尾已落出分數帶時停止（相關候選已全部取回）
+         */
+        private Double relevanceMargin = 0.1;
+
+        /**
+         * 每個路由保留的近期決策數
+         */
+        private Integer historySize = 200;
+
+        /**
+         * 學習第一頁深度所需的最少樣本數
+         */
+        private Integer minSamples = 20;
+
+        /**
+         * 第一頁深度取近期「足夠深度」的此百分位
+         */
+        private Double learnPercentile = 0.75;
+    }
+
+    /**
+     * 語義答案快取配置類
+     */
+    @Data
+    public static class SemanticCache {
+        /**
+         * 是否啟用語義答案快取
+         */
+        private Boolean enabled = true;
+
+        /**
+         * 查詢向量餘弦相似度閾值（不低於此值視為同一問題）
+         */
+        private Double similarityThreshold = 0.95;
+
+        /**
+         * 最大條目數（寫滿後淘汰最舊的條目）
+         */
+        private Integer maxEntries = 2000;
+
+        /**
+         * 條目存活時間
+         */
+        private Duration ttl = Duration.ofHours(1);
+    }
+
+    /**
+     * Re-ranking 結果快取配置類
+     */
+    @Data
+    public static class RerankCache {
+        /**
+         * 是否啟用 Re-ranking 結果快取
+         */
+        private Boolean enabled = true;
+
+        /**
+         * L1（進程內）最大條目數
+         */
+        private Integer maxEntries = 10000;
+
+        /**
+         * 條目存活時間
+         */
+        private Duration ttl = Duration.ofHours(1);
+
+        /**
+         * 是否啟用 L2（Redis，跨實例共享）
+         */
+        private Boolean l2Enabled = false;
+    }
+
+    /**
+     * 准入控制配置類
+     */
+    @Data
+    public static class Admission {
+        /**
+         * 是否啟用准入控制與下游隔艙
+         */
+        private Boolean enabled = true;
+
+        /**
+         * 查詢並發初始上限
+         */
+        private Integer initialLimit = 20;
+
+        /**
+         * 查詢並發最小上限
+         */
+        private Integer minLimit = 4;
+
+        /**
+         * 查詢並發最大上限（應低於 Tomcat 線程數，為健康檢查等端點保留線程）
+         */
+        private Integer maxLimit = 150;
+
+        /**
+         * 延遲目標（查詢超過此耗時視為過載信號，上限乘性收縮）
+         */
+        private Duration latencyTarget = Duration.ofSeconds(20);
+
+        /**
+         * 收縮比例
+         */
+        private Double backoffRatio = 0.9;
+
+        /**
+         * 排隊延遲預算（超過即返回 429）
+         */
+        private Duration maxQueueDelay = Duration.ofMillis(500);
+
+        /**
+         * 下游依賴隔艙（鍵：embedding、vector-store、rerank、chat）
+         */
+        private Map<String, BulkheadSpec> bulkheads = defaultBulkheads();
+
+        private static Map<String, BulkheadSpec> defaultBulkheads() {
+            Map<String, BulkheadSpec> bulkheads = new LinkedHashMap<>();
+            bulkheads.put("embedding", new BulkheadSpec(16, Duration.ofSeconds(1)));
+            bulkheads.put("vector-store", new BulkheadSpec(8, Duration.ofSeconds(1)));
+            bulkheads.put("rerank", new BulkheadSpec(16, Duration.ofSeconds(1)));
+            bulkheads.put("chat", new BulkheadSpec(32, Duration.ofSeconds(2)));
+            return bulkheads;
+        }
+    }
+
+    /**
+     * 級聯 Re-ranking 配置類
+     */
+    @Data
+    public static class RerankCascade {
+        /**
+         * 是否啟用級聯（需遠端提供者可用）
+         */
+        private Boolean enabled = false;
+
+        /**
+         * 本地剪枝後送往遠端的短名單大小
+         */
+        private Integer shortlistSize = 20;
+
+        /**
+         * 遠端調用的每次請求延遲預算（超過即返回本地結果）
+         */
+        private Duration remoteBudget = Duration.ofMillis(800);
+
+        /**
+         * 熔斷失敗率閾值（0-1，超時計為失敗）
+         */
+        private Double failureRateThreshold = 0.5;
+
+        /**
+         * 判斷失敗率所需的最少調用數
+         */
+        private Integer minimumCalls = 10;
+
+        /**
+         * 滑動窗口調用數
+         */
+        private Integer slidingWindowSize = 20;
+
+        /**
+         * 熔斷持續時間（之後放行一個探測調用）
+         */
+        private Duration openDuration = Duration.ofSeconds(30);
+    }
+
+    /**
+     * 多查詢檢索配置類
+     */
+    @Data
+    public static class MultiQuery {
+        /**
+         * 是否以擴展查詢參與檢索（false 時擴展查詢只放入響應）
+         */
+        private Boolean enabled = true;
+
+        /**
+         * 單條檢索分支的時間預算（逾時的分支不參與融合）
+         */
+        private Duration legTimeout = Duration.ofSeconds(3);
+
+        /**
+         * RRF 平滑常數
+         */
+        private Integer rrfK = 60;
+
+        /**
+         * 主查詢（重寫後或原始查詢）向量檢索的權重
+         */
+        private Double primaryWeight = 1.0;
+
+        /**
+         * 每個擴展查詢向量檢索的權重
+         */
+        private Double expansionWeight = 0.7;
+
+        /**
+         * BM25 關鍵詞檢索的權重
+         */
+        private Double keywordWeight = 0.8;
+    }
+
+    /**
+     * 相同請求合併配置類
+     */
+    @Data
+    public static class Coalescing {
+        /**
+         * 是否合併進行中的相同請求
+         */
+        private Boolean enabled = true;
+
+        /**
+         * 整條管線 follower 等待 leader 的最長時間（逾時後自行執行）
+         */
+        private Duration queryTimeout = Duration.ofSeconds(90);
+
+        /**
+         * LLM 輔助調用（重寫、擴展、關鍵詞）follower 等待 leader 的最長時間（逾時後降級）
+         */
+        private Duration llmTimeout = Duration.ofSeconds(15);
+    }
+
+    /**
+     * 串流答案配置類
+     */
+    @Data
+    public static class Streaming {
+        /**
+         * 增量答案審核的滑動窗口大小（字符數）
+         */
+        private Integer moderationWindow = 400;
+
+        /**
+         * 每累積多少新字符審核一次（小於窗口大小，相鄰窗口重疊以覆蓋跨窗口的內容）
+         */
+        private Integer moderationStride = 200;
+
+        /**
+         * SSE 連線逾時（整個串流的最長時間）
+         */
+        private Duration timeout = Duration.ofSeconds(120);
+    }
+
+    /**
+     * 隔艙配置類
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class BulkheadSpec {
+        /**
+         * 最大並發調用數
+         */
+        private Integer maxConcurrent = 16;
+
+        /**
+         * 獲取許可的最長等待時間
+         */
+        private Duration maxWait = Duration.ofSeconds(1);
     }
 }
@@ -0,0 +1,172 @@
+package com.example.advancedrag.reranking;
+
+import com.example.advancedrag.admission.CircuitBreaker;
+import com.example.advancedrag.model.RetrievalContext;
+import com.example.advancedrag.properties.RAGProperties;
+import com.example.advancedrag.service.RAGMetricsService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 級聯 Re-ranking 提供者
+ *
+ * 本地算法先對全部候選評分並剪枝為前 N 名短名單，只有短名單送往遠端提供者（如 Voyage AI）：
+ * - 遠端調用有每次請求的延遲預算（remoteBudget），超時即取消並返回本地結果（對沖結果）
+ * - 遠端出錯同樣返回本地結果，不向上拋出例外
+ * - 超時與錯誤計入熔斷器，失敗率過高時在 openDuration 內不再調用遠端，直接返回本地結果
+ * - 調用方被中斷時返回本地結果，不計入熔斷器失敗率
+ *
+ * 遠端提供者變慢只會降低排序品質，不影響可用性。
+ * 遠端結果的提供者名稱為本提供者名稱，對沖結果保留本地提供者名稱（結果快取據此只快取遠端結果）。
+ */
+@Slf4j
+public class CascadeRerankingProvider implements RerankingProvider {
+
+    public static final String OUTCOME_REMOTE = "remote";
+    public static final String OUTCOME_HEDGED_TIMEOUT = "hedged_timeout";
+    public static final String OUTCOME_HEDGED_ERROR = "hedged_error";
+    public static final String OUTCOME_CIRCUIT_OPEN = "circuit_open";
+    public static final String OUTCOME_INTERRUPTED = "interrupted";
+
+    private final RerankingProvider localProvider;
+    private final RerankingProvider remoteProvider;
+    private final ExecutorService executor;
+    private final CircuitBreaker circuitBreaker;
+    private final RAGMetricsService metricsService;
+    private final int shortlistSize;
+    private final Duration remoteBudget;
+
+    /**
+     * @param localProvider 本地提供者（剪枝與對沖）
+     * @param remoteProvider 遠端提供者
+     * @param executor 遠端調用執行器
+     * @param circuitBreaker 遠端提供者熔斷器
+     * @param metricsService 指標服務（可為 null）
+     * @param properties 級聯配置
+     */
+    public CascadeRerankingProvider(RerankingProvider localProvider,
+                                    RerankingProvider remoteProvider,
+                                    ExecutorService executor,
+                                    CircuitBreaker circuitBreaker,
+                                    RAGMetricsService metricsService,
+                                    RAGProperties.RerankCascade properties) {
+        this.localProvider = localProvider;
+        this.remoteProvider = remoteProvider;
+        this.executor = executor;
+        this.circuitBreaker = circuitBreaker;
+        this.metricsService = metricsService;
+        this.shortlistSize = Math.max(1, properties.getShortlistSize());
+        this.remoteBudget = properties.getRemoteBudget();
+    }
+
+    @Override
+    public List<RerankResult> rerank(String query, List<Document> documents, int topK) {
+        return rerank(query, documents, topK, null);
+    }
+
+    @Override
+    public List<RerankResult> rerank(String query, List<Document> documents, int topK, RetrievalContext context) {
+        if (documents == null || documents.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        // 第一階段：本地評分，短名單同時作為對沖結果
+        List<RerankResult> shortlist = localProvider.rerank(query, documents, Math.max(shortlistSize, topK), context);
+        List<RerankResult> hedged = shortlist.subList(0, Math.min(topK, shortlist.size()));
+
+        if (!circuitBreaker.tryAcquire()) {
+            log.debug("遠端 Re-ranking 熔斷中，返回本地結果: {}", remoteProvider.getProviderName());
+            record(OUTCOME_CIRCUIT_OPEN);
+            return hedged;
+        }
+
+        List<Document> shortlistDocuments = new ArrayList<>(shortlist.size());
+        for (RerankResult result : shortlist) {
+            shortlistDocuments.add(result.getDocument());
+        }
+
+        // 第二階段：遠端只處理短名單，在預算內等待
+        Future<List<RerankResult>> future = executor.submit(
+                () -> remoteProvider.rerank(query, shortlistDocuments, topK, context));
+        try {
+            List<RerankResult> remote = future.get(remoteBudget.toNanos(), TimeUnit.NANOSECONDS);
+            circuitBreaker.onSuccess();
+            record(OUTCOME_REMOTE);
+            return toOriginalIndexes(remote, shortlist);
+
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            circuitBreaker.onFailure();
+            log.warn("遠端 Re-ranking 超過延遲預算 {}ms，返回本地結果", remoteBudget.toMillis());
+            record(OUTCOME_HEDGED_TIMEOUT);
+            return hedged;
+
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            // 中斷不代表遠端劣化，不計入失敗率，但必須釋放探測名額，否則 HALF_OPEN 永遠不再放行
+            circuitBreaker.onIgnored();
+            log.debug("遠端 Re-ranking 等待被中斷，返回本地結果");
+            record(OUTCOME_INTERRUPTED);
+            return hedged;
+
+        } catch (Exception e) {
+            circuitBreaker.onFailure();
+            log.warn("遠端 Re-ranking 失敗，返回本地結果: {}", e.getMessage());
+            record(OUTCOME_HEDGED_ERROR);
+            return hedged;
+        }
+    }
+
+    /**
+     * 遠端結果的下標是短名單內的位置，換算回原始候選下標
+     */
+    private List<RerankResult> toOriginalIndexes(List<RerankResult> remote, List<RerankResult> shortlist) {
+        List<RerankResult> results = new ArrayList<>(remote.size());
+        for (int rank = 0; rank < remote.size(); rank++) {
+            RerankResult result = remote.get(rank);
+            RerankResult local = shortlist.get(result.getOriginalIndex());
+            results.add(RerankResult.builder()
+                    .document(local.getDocument())
+                    .originalIndex(local.getOriginalIndex())
+                    .newIndex(rank)
+                    .relevanceScore(result.getRelevanceScore())
+                    .providerName(getProviderName())
+                    .content(local.getContent())
+                    .build());
+        }
+        return results;
+    }
+
+    private void record(String outcome) {
+        if (metricsService != null) {
+            metricsService.recordRerankCascade(outcome);
+        }
+    }
+
+    /**
+     * 遠端提供者熔斷器狀態
+     */
+    public CircuitBreaker.State getCircuitState() {
+        return circuitBreaker.getState();
+    }
+
+    @Override
+    public String getProviderName() {
+        return "cascade-" + remoteProvider.getProviderName();
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return localProvider.isAvailable();
+    }
+}
@@ -1,15 +1,21 @@
 package com.example.advancedrag.reranking;
 
+import com.example.advancedrag.model.RetrievalContext;
+import com.example.advancedrag.properties.RAGProperties;
 import com.example.advancedrag.service.BM25Service;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.document.Document;
 import org.springframework.stereotype.Component;
 
-import java.time.LocalDateTime;
-import java.time.temporal.ChronoUnit;
-import java.util.*;
-import java.util.stream.Collectors;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
 
 /**
  * 本地 Re-ranking 提供者
@@ -20,6 +26,13 @@ import java.util.stream.Collectors;
  * - 文檔品質
  * - 新鮮度
  *
+ * 評分引擎：
+ * - 各因子寫入按候選下標排列的 double 陣列，評分迴圈內不建立中間物件
+ * - 候選數達到 localParallelThreshold 時跨候選並行計算（各下標互不干擾，無需同步）
+ * - 以大小為 topK 的最小堆選出前 K 名，O(n log k)，不對全部候選排序
+ * - 查詢詞與 BM25 正規化上限每次調用只計算一次
+ * - 品質與時間戳在寫入時預先計算（{@link RerankFeatures}），舊文檔即時計算並按文檔 ID 快取
+ *
  * 優點：
  * - 不需要外部 API
  * - 無網路依賴
@@ -28,76 +41,101 @@ import java.util.stream.Collectors;
  */
 @Slf4j
 @Component
-@RequiredArgsConstructor
 public class LocalRerankingProvider implements RerankingProvider {
 
-    private final BM25Service bm25Service;
-
     // 權重配置
     private static final double SEMANTIC_WEIGHT = 0.4;
     private static final double BM25_WEIGHT = 0.3;
     private static final double QUALITY_WEIGHT = 0.2;
     private static final double FRESHNESS_WEIGHT = 0.1;
 
+    private static final Set<String> STOP_WORDS = Set.of("的", "了", "是", "在", "我", "有", "和", "就",
+            "不", "人", "都", "一", "個", "上", "也", "為", "能", "對", "會");
+
+    /**
+     * 舊文檔特徵快取上限（超過時整體清空）
+     */
+    private static final int MAX_CACHED_FEATURES = 10_000;
+
+    private final BM25Service bm25Service;
+    private final int parallelThreshold;
+    private final Map<String, CachedFeatures> featureCache = new ConcurrentHashMap<>();
+
+    public LocalRerankingProvider(BM25Service bm25Service, RAGProperties ragProperties) {
+        this.bm25Service = bm25Service;
+        this.parallelThreshold = Math.max(1, ragProperties.getReranking().getLocalParallelThreshold());
+    }
+
     @Override
     public List<RerankResult> rerank(String query, List<Document> documents, int topK) {
+        return rerank(query, documents, topK, null);
+    }
+
+    @Override
+    public List<RerankResult> rerank(String query, List<Document> documents, int topK, RetrievalContext context) {
         if (documents == null || documents.isEmpty()) {
             log.warn("文檔列表為空，返回空結果");
             return Collections.emptyList();
         }
 
         try {
-            log.info("開始使用本地算法進行 Re-ranking，文檔數: {}, topK: {}", documents.size(), topK);
-
-            // 提取查詢關鍵詞
-            List<String> queryKeywords = extractKeywords(query);
-
-            // 計算每個文檔的綜合分數
-            List<ScoredDocument> scoredDocs = new ArrayList<>();
-            for (int i = 0; i < documents.size(); i++) {
+            int size = documents.size();
+            log.info("開始使用本地算法進行 Re-ranking，文檔數: {}, topK: {}", size, topK);
+
+            // 查詢詞與正規化上限只計算一次
+            BM25Service.PreparedQuery bm25Query = bm25Service.prepareQuery(query, extractKeywords(query));
+
+            // 批次計算向量餘弦相似度（一對多，缺少向量的位置為 NaN）
+            float[] cosineScores = new float[size];
+            boolean hasVectors = context != null && context.querySimilarities(query,
+                    documents.stream().map(Document::getId).toList(), cosineScores);
+
+            double[] semanticScores = new double[size];
+            double[] bm25Scores = new double[size];
+            double[] qualityScores = new double[size];
+            double[] freshnessScores = new double[size];
+            double[] finalScores = new double[size];
+            long now = Instant.now().getEpochSecond();
+
+            IntStream indexes = IntStream.range(0, size);
+            (size >= parallelThreshold ? indexes.parallel() : indexes).forEach(i -> {
                 Document doc = documents.get(i);
 
-                // 語義分數（從元數據中獲取或使用默認值）
-                double semanticScore = getSemanticScore(doc);
-
-                // BM25 分數
-                double bm25Score = bm25Service.calculateBM25Score(doc.getText(), query, queryKeywords);
-
-                // 品質分數
-                double qualityScore = calculateQualityScore(doc);
+                // 語義分數（優先使用已有向量的餘弦相似度，否則從元數據中獲取）
+                semanticScores[i] = hasVectors && !Float.isNaN(cosineScores[i])
+                        ? Math.max(0, cosineScores[i]) : getSemanticScore(doc);
+                bm25Scores[i] = bm25Service.calculateBM25Score(doc, bm25Query);
 
-                // 新鮮度分數
-                double freshnessScore = calculateFreshnessScore(doc);
+                RerankFeatures features = features(doc);
+                qualityScores[i] = features.quality();
+                freshnessScores[i] = features.freshness(now);
 
-                // 綜合分數
-                double finalScore = (semanticScore * SEMANTIC_WEIGHT) +
-                        (bm25Score * BM25_WEIGHT) +
-                        (qualityScore * QUALITY_WEIGHT) +
-                        (freshnessScore * FRESHNESS_WEIGHT);
+                finalScores[i] = (semanticScores[i] * SEMANTIC_WEIGHT) +
+                        (bm25Scores[i] * BM25_WEIGHT) +
+                        (qualityScores[i] * QUALITY_WEIGHT) +
+                        (freshnessScores[i] * FRESHNESS_WEIGHT);
+            });
 
-                scoredDocs.add(new ScoredDocument(doc, i, finalScore,
-                        semanticScore, bm25Score, qualityScore, freshnessScore));
+            int[] ranked = selectTopK(finalScores, Math.min(Math.max(topK, 0), size));
 
-                log.debug("文檔 {} 評分: 語義={:.3f}, BM25={:.3f}, 品質={:.3f}, 新鮮度={:.3f}, 最終={:.3f}",
-                        i, semanticScore, bm25Score, qualityScore, freshnessScore, finalScore);
+            List<RerankResult> results = new ArrayList<>(ranked.length);
+            for (int rank = 0; rank < ranked.length; rank++) {
+                int i = ranked[rank];
+                Document doc = documents.get(i);
+                results.add(RerankResult.builder()
+                        .document(doc)
+                        .originalIndex(i)
+                        .newIndex(rank)
+                        .relevanceScore(finalScores[i])
+                        .providerName(getProviderName())
+                        .content(doc.getText())
+                        .build());
+
+                log.debug("第 {} 名：文檔 {} 評分: 語義={}, BM25={}, 品質={}, 新鮮度={}, 最終={}",
+                        rank, i, semanticScores[i], bm25Scores[i], qualityScores[i],
+                        freshnessScores[i], finalScores[i]);
             }
 
-            // 按綜合分數排序
-            scoredDocs.sort((a, b) -> Double.compare(b.finalScore, a.finalScore));
-
-            // 轉換為 RerankResult 並取 topK
-            List<RerankResult> results = scoredDocs.stream()
-                    .limit(topK)
-                    .map(scored -> RerankResult.builder()
-                            .document(scored.document)
-                            .originalIndex(scored.originalIndex)
-                            .newIndex(scoredDocs.indexOf(scored))
-                            .relevanceScore(scored.finalScore)
-                            .providerName(getProviderName())
-                            .content(scored.document.getText())
-                            .build())
-                    .collect(Collectors.toList());
-
             log.info("本地 Re-ranking 完成，返回 {} 個結果", results.size());
 
             return results;
@@ -119,132 +157,130 @@ public class LocalRerankingProvider implements RerankingProvider {
     }
 
     /**
-     * 獲取語義相似度分數
+     * 以最小堆選出分數最高的 k 個下標（同分時原始順序在前）
      *
-     * @param doc 文檔
-     * @return 語義分數（0-1）
+     * @param scores 分數
+     * @param k 數量（不超過 scores.length）
+     * @return 下標，按分數降序
      */
-    private double getSemanticScore(Document doc) {
-        // 嘗試從元數據中獲取原始檢索分數
-        Map<String, Object> metadata = doc.getMetadata();
-        if (metadata.containsKey("distance")) {
-            // 如果有 distance，轉換為相似度分數（distance 越小越相似）
-            Object distanceObj = metadata.get("distance");
-            if (distanceObj instanceof Number) {
-                double distance = ((Number) distanceObj).doubleValue();
-                return Math.max(0, 1.0 - distance);
-            }
+    static int[] selectTopK(double[] scores, int k) {
+        if (k <= 0) {
+            return new int[0];
         }
-        if (metadata.containsKey("score")) {
-            Object scoreObj = metadata.get("score");
-            if (scoreObj instanceof Number) {
-                return ((Number) scoreObj).doubleValue();
+
+        // heap[0] 為目前入選者中排名最差的
+        int[] heap = new int[k];
+        int heapSize = 0;
+        for (int i = 0; i < scores.length; i++) {
+            if (heapSize < k) {
+                heap[heapSize] = i;
+                siftUp(heap, heapSize++, scores);
+            } else if (ranksBefore(i, heap[0], scores)) {
+                heap[0] = i;
+                siftDown(heap, heapSize, scores);
             }
         }
-        // 默認返回中等分數
-        return 0.7;
-    }
-
-    /**
-     * 計算文檔品質分數
-     *
-     * @param doc 文檔
-     * @return 品質分數（0-1）
-     */
-    private double calculateQualityScore(Document doc) {
-        double score = 0.5; // 基礎分數
 
-        String content = doc.getText();
-        Map<String, Object> metadata = doc.getMetadata();
-
-        // 因素1：內容長度（適中為好）
-        int length = content.length();
-        if (length >= 200 && length <= 2000) {
-            score += 0.2;
-        } else if (length > 2000 && length <= 5000) {
-            score += 0.1;
+        // 依次取出最差者，倒序填入
+        int[] ranked = new int[heapSize];
+        for (int pos = heapSize - 1; pos >= 0; pos--) {
+            ranked[pos] = heap[0];
+            heap[0] = heap[--heapSize];
+            siftDown(heap, heapSize, scores);
         }
+        return ranked;
+    }
 
-        // 因素2：內容結構性（標點符號）
-        long punctuationCount = content.chars()
-                .filter(c -> ",.!?;:，。！？；：".indexOf(c) >= 0)
-                .count();
-        if (punctuationCount > 5) {
-            score += 0.1;
-        }
+    private static boolean ranksBefore(int a, int b, double[] scores) {
+        int cmp = Double.compare(scores[a], scores[b]);
+        return cmp > 0 || (cmp == 0 && a < b);
+    }
 
-        // 因素3：元數據豐富度
-        if (metadata.containsKey("title") && metadata.get("title") != null) {
-            score += 0.1;
+    private static void siftUp(int[] heap, int pos, double[] scores) {
+        int item = heap[pos];
+        while (pos > 0) {
+            int parent = (pos - 1) >>> 1;
+            if (!ranksBefore(heap[parent], item, scores)) {
+                break;
+            }
+            heap[pos] = heap[parent];
+            pos = parent;
         }
-        if (metadata.containsKey("author") && metadata.get("author") != null) {
-            score += 0.05;
+        heap[pos] = item;
+    }
+
+    private static void siftDown(int[] heap, int size, double[] scores) {
+        if (size == 0) {
+            return;
         }
-        if (metadata.containsKey("source") && metadata.get("source") != null) {
-            score += 0.05;
+        int item = heap[0];
+        int pos = 0;
+        int half = size >>> 1;
+        while (pos < half) {
+            int child = 2 * pos + 1;
+            int right = child + 1;
+            if (right < size && ranksBefore(heap[child], heap[right], scores)) {
+                child = right;
+            }
+            if (!ranksBefore(item, heap[child], scores)) {
+                break;
+            }
+            heap[pos] = heap[child];
+            pos = child;
         }
-
-        return Math.min(1.0, score);
+        heap[pos] = item;
     }
 
     /**
-     * 計算新鮮度分數
+     * 獲取語義相似度分數
      *
      * @param doc 文檔
-     * @return 新鮮度分數（0-1）
+     * @return 語義分數（0-1）
      */
-    private double calculateFreshnessScore(Document doc) {
+    private double getSemanticScore(Document doc) {
+        // 嘗試從元數據中獲取原始檢索分數
         Map<String, Object> metadata = doc.getMetadata();
-
-        // 嘗試獲取時間戳
-        Object timestampObj = metadata.getOrDefault("updated_at",
-                metadata.getOrDefault("created_at",
-                        metadata.get("timestamp")));
-
-        if (timestampObj == null) {
-            return 0.7; // 無時間信息返回中等分數
+        // 如果有 distance，轉換為相似度分數（distance 越小越相似）
+        if (metadata.get("distance") instanceof Number distance) {
+            return Math.max(0, 1.0 - distance.doubleValue());
         }
-
-        LocalDateTime documentTime = parseTimestamp(timestampObj);
-        if (documentTime == null) {
-            return 0.7;
+        if (metadata.get("score") instanceof Number score) {
+            return score.doubleValue();
         }
-
-        // 計算時間差（天數）
-        LocalDateTime now = LocalDateTime.now();
-        long daysDiff = ChronoUnit.DAYS.between(documentTime, now);
-
-        // 新鮮度評分規則
-        if (daysDiff <= 7) return 1.0;        // 一週內
-        if (daysDiff <= 30) return 0.9;       // 一個月內
-        if (daysDiff <= 90) return 0.8;       // 三個月內
-        if (daysDiff <= 180) return 0.7;      // 半年內
-        if (daysDiff <= 365) return 0.6;      // 一年內
-        return 0.5;                            // 超過一年
+        // 默認返回中等分數
+        return 0.7;
     }
 
     /**
-     * 解析時間戳
+     * 獲取文檔特徵
      *
-     * @param timestampObj 時間戳對象
-     * @return LocalDateTime
+     * 優先讀取寫入時存入元數據的特徵；舊文檔按文檔 ID 快取即時計算的結果，
+     * 內容長度或時間戳變更時重新計算。
+     *
+     * @param doc 文檔
+     * @return 文檔特徵
      */
-    private LocalDateTime parseTimestamp(Object timestampObj) {
-        try {
-            if (timestampObj instanceof LocalDateTime) {
-                return (LocalDateTime) timestampObj;
-            } else if (timestampObj instanceof String) {
-                return LocalDateTime.parse((String) timestampObj);
-            } else if (timestampObj instanceof Long) {
-                long timestamp = (Long) timestampObj;
-                return LocalDateTime.ofEpochSecond(timestamp, 0,
-                        java.time.ZoneOffset.systemDefault().getRules()
-                                .getOffset(java.time.Instant.ofEpochSecond(timestamp)));
-            }
-        } catch (Exception e) {
-            log.debug("時間戳解析失敗: {}", timestampObj, e);
+    private RerankFeatures features(Document doc) {
+        RerankFeatures stored = RerankFeatures.fromMetadata(doc.getMetadata());
+        if (stored != null) {
+            return stored;
         }
-        return null;
+
+        int length = doc.getText() != null ? doc.getText().length() : 0;
+        Object timestampSource = RerankFeatures.timestampSource(doc.getMetadata());
+
+        CachedFeatures cached = featureCache.get(doc.getId());
+        if (cached != null && cached.length() == length
+                && Objects.equals(cached.timestampSource(), timestampSource)) {
+            return cached.features();
+        }
+
+        RerankFeatures features = RerankFeatures.extract(doc.getText(), doc.getMetadata());
+        if (featureCache.size() >= MAX_CACHED_FEATURES) {
+            featureCache.clear();
+        }
+        featureCache.put(doc.getId(), new CachedFeatures(length, timestampSource, features));
+        return features;
     }
 
     /**
@@ -256,11 +292,13 @@ public class LocalRerankingProvider implements RerankingProvider {
     private List<String> extractKeywords(String query) {
         // 簡單分詞
         String[] tokens = query.split("\\s+");
-        return Arrays.stream(tokens)
-                .filter(token -> token.length() > 1)
-                .filter(token -> !isStopWord(token))
-                .distinct()
-                .collect(Collectors.toList());
+        List<String> keywords = new ArrayList<>(tokens.length);
+        for (String token : tokens) {
+            if (token.length() > 1 && !isStopWord(token) && !keywords.contains(token)) {
+                keywords.add(token);
+            }
+        }
+        return keywords;
     }
 
     /**
@@ -270,22 +308,16 @@ public class LocalRerankingProvider implements RerankingProvider {
      * @return 是否為停用詞
      */
     private boolean isStopWord(String word) {
-        String lowerWord = word.toLowerCase();
-        List<String> stopWords = List.of("的", "了", "是", "在", "我", "有", "和", "就",
-                "不", "人", "都", "一", "個", "上", "也", "為", "能", "對", "會");
-        return stopWords.contains(lowerWord);
+        return STOP_WORDS.contains(word.toLowerCase());
     }
 
     /**
-     * 內部評分文檔類
+     * 舊文檔即時計算的特徵快取
+     *
+     * @param length 內容長度
+     * @param timestampSource 時間戳原始值（用於判斷快取是否過期）
+     * @param features 文檔特徵
      */
-    private record ScoredDocument(
-            Document document,
-            int originalIndex,
-            double finalScore,
-            double semanticScore,
-            double bm25Score,
-            double qualityScore,
-            double freshnessScore
-    ) {}
+    private record CachedFeatures(int length, Object timestampSource, RerankFeatures features) {
+    }
 }
@@ -0,0 +1,73 @@
+package com.example.advancedrag.reranking;
+
+import com.example.advancedrag.model.RetrievalContext;
+import com.example.advancedrag.service.AdmissionControlService;
+import com.example.advancedrag.service.RAGMetricsService;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import org.springframework.ai.document.Document;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * 以 Micrometer Observation 記錄 Re-ranking 提供者調用的裝飾器
+ *
+ * Observation 名稱 {@value #OBSERVATION_NAME}，低基數標籤 provider 為提供者名稱，
+ * 可區分 p99 升高來自本地算法還是遠端 API；耗時同時寫入滑動窗口（按提供者分組）。
+ * 調用在 rerank 隔艙內執行，隔艙已滿時拋出的過載異常同樣記錄在 Observation 上。
+ */
+public class ObservedRerankingProvider implements RerankingProvider {
+
+    /**
+     * Observation 名稱
+     */
+    public static final String OBSERVATION_NAME = "rag.rerank.provider";
+
+    private final RerankingProvider delegate;
+    private final ObservationRegistry observationRegistry;
+    private final RAGMetricsService metricsService;
+    private final AdmissionControlService admissionControlService;
+
+    public ObservedRerankingProvider(RerankingProvider delegate, ObservationRegistry observationRegistry,
+                                     RAGMetricsService metricsService,
+                                     AdmissionControlService admissionControlService) {
+        this.delegate = delegate;
+        this.observationRegistry = observationRegistry;
+        this.metricsService = metricsService;
+        this.admissionControlService = admissionControlService;
+    }
+
+    @Override
+    public List<RerankResult> rerank(String query, List<Document> documents, int topK) {
+        return observe(documents, () -> delegate.rerank(query, documents, topK));
+    }
+
+    @Override
+    public List<RerankResult> rerank(String query, List<Document> documents, int topK, RetrievalContext context) {
+        return observe(documents, () -> delegate.rerank(query, documents, topK, context));
+    }
+
+    @Override
+    public String getProviderName() {
+        return delegate.getProviderName();
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return delegate.isAvailable();
+    }
+
+    private List<RerankResult> observe(List<Document> documents, Supplier<List<RerankResult>> call) {
+        long startTime = System.nanoTime();
+        try {
+            return Observation.createNotStarted(OBSERVATION_NAME, observationRegistry)
+                    .lowCardinalityKeyValue("provider", delegate.getProviderName())
+                    .highCardinalityKeyValue("candidates", String.valueOf(documents.size()))
+                    .observe(() -> admissionControlService.call(AdmissionControlService.RERANK, call));
+        } finally {
+            metricsService.recordRerankProviderDuration(delegate.getProviderName(),
+                    (System.nanoTime() - startTime) / 1_000_000);
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.example.advancedrag.reranking;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 文檔側的 Re-ranking 特徵
+ *
+ * 品質分數（內容長度、標點結構、元數據豐富度）與時間戳只取決於文檔本身，
+ * 寫入時計算並存入元數據 {@link #METADATA_KEY}，格式為 {"v": 版本, "q": 品質, "t": epoch 秒}；
+ * 查詢時直接讀取，版本不符或舊文檔缺少時即時計算。
+ *
+ * 計算規則變更時遞增 {@link #VERSION}，舊版本特徵視為缺少，由回填任務重新寫入。
+ *
+ * @param quality 品質分數（0-1）
+ * @param timestamp 時間戳（epoch 秒），無時間信息時為 {@link #NO_TIMESTAMP}
+ */
+@Slf4j
+public record RerankFeatures(double quality, long timestamp) {
+
+    /**
+     * 元數據鍵：Re-ranking 特徵
+     */
+    public static final String METADATA_KEY = "rerank_features";
+
+    /**
+     * 特徵版本
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * 無時間戳或解析失敗
+     */
+    public static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
+    /**
+     * 結構性判定：標點符號數超過此值
+     */
+    private static final int STRUCTURED_PUNCTUATION = 5;
+
+    private static final long SECONDS_PER_DAY = 86_400L;
+
+    /**
+     * 讀取已存特徵，缺少時即時計算
+     *
+     * @param document 文檔
+     * @return 特徵
+     */
+    public static RerankFeatures of(Document document) {
+        RerankFeatures stored = fromMetadata(document.getMetadata());
+        return stored != null ? stored : extract(document.getText(), document.getMetadata());
+    }
+
+    /**
+     * 從文檔內容與元數據計算特徵
+     *
+     * @param content 文檔內容
+     * @param metadata 元數據
+     * @return 特徵
+     */
+    public static RerankFeatures extract(String content, Map<String, Object> metadata) {
+        String text = content != null ? content : "";
+        return new RerankFeatures(quality(text, metadata), parseEpochSecond(timestampSource(metadata)));
+    }
+
+    /**
+     * 讀取元數據中的特徵
+     *
+     * @param metadata 元數據
+     * @return 特徵，缺少、格式錯誤或版本不符時返回 null
+     */
+    public static RerankFeatures fromMetadata(Map<String, Object> metadata) {
+        if (!(metadata.get(METADATA_KEY) instanceof Map<?, ?> block)
+                || !(block.get("v") instanceof Number version) || version.intValue() != VERSION
+                || !(block.get("q") instanceof Number quality)) {
+            return null;
+        }
+        long timestamp = block.get("t") instanceof Number t ? t.longValue() : NO_TIMESTAMP;
+        return new RerankFeatures(quality.doubleValue(), timestamp);
+    }
+
+    /**
+     * 轉為元數據值
+     *
+     * @return {"v": 版本, "q": 品質, "t": epoch 秒（無時間信息時省略）}
+     */
+    public Map<String, Object> toMetadataValue() {
+        Map<String, Object> block = new LinkedHashMap<>();
+        block.put("v", VERSION);
+        block.put("q", quality);
+        if (timestamp != NO_TIMESTAMP) {
+            block.put("t", timestamp);
+        }
+        return block;
+    }
+
+    /**
+     * 新鮮度分數
+     *
+     * @param now 當前時間（epoch 秒）
+     * @return 新鮮度分數（0-1）
+     */
+    public double freshness(long now) {
+        if (timestamp == NO_TIMESTAMP) {
+            return 0.7; // 無時間信息返回中等分數
+        }
+
+        // 計算時間差（天數）
+        long daysDiff = (now - timestamp) / SECONDS_PER_DAY;
+
+        // 新鮮度評分規則
+        if (daysDiff <= 7) return 1.0;        // 一週內
+        if (daysDiff <= 30) return 0.9;       // 一個月內
+        if (daysDiff <= 90) return 0.8;       // 三個月內
+        if (daysDiff <= 180) return 0.7;      // 半年內
+        if (daysDiff <= 365) return 0.6;      // 一年內
+        return 0.5;                            // 超過一年
+    }
+
+    /**
+     * 時間戳來源（updated_at > created_at > timestamp）
+     *
+     * @param metadata 元數據
+     * @return 時間戳原始值，可為 null
+     */
+    public static Object timestampSource(Map<String, Object> metadata) {
+        Object updatedAt = metadata.get("updated_at");
+        if (updatedAt != null) {
+            return updatedAt;
+        }
+        Object createdAt = metadata.get("created_at");
+        return createdAt != null ? createdAt : metadata.get("timestamp");
+    }
+
+    /**
+     * 計算文檔品質分數
+     */
+    private static double quality(String content, Map<String, Object> metadata) {
+        double score = 0.5; // 基礎分數
+
+        // 因素1：內容長度（適中為好）
+        int length = content.length();
+        if (length >= 200 && length <= 2000) {
+            score += 0.2;
+        } else if (length > 2000 && length <= 5000) {
+            score += 0.1;
+        }
+
+        // 因素2：內容結構性（標點符號）
+        if (isStructured(content)) {
+            score += 0.1;
+        }
+
+        // 因素3：元數據豐富度
+        if (metadata.get("title") != null) {
+            score += 0.1;
+        }
+        if (metadata.get("author") != null) {
+            score += 0.05;
+        }
+        if (metadata.get("source") != null) {
+            score += 0.05;
+        }
+
+        return Math.min(1.0, score);
+    }
+
+    /**
+     * 標點符號數是否超過門檻（達到門檻即停止掃描）
+     */
+    private static boolean isStructured(String content) {
+        int count = 0;
+        for (int i = 0, length = content.length(); i < length; i++) {
+            if (isPunctuation(content.charAt(i)) && ++count > STRUCTURED_PUNCTUATION) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isPunctuation(char c) {
+        return switch (c) {
+            case ',', '.', '!', '?', ';', ':', '，', '。', '！', '？', '；', '：' -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * 解析時間戳
+     *
+     * @param timestampObj 時間戳對象
+     * @return epoch 秒，無法解析時為 {@link #NO_TIMESTAMP}
+     */
+    private static long parseEpochSecond(Object timestampObj) {
+        try {
+            if (timestampObj instanceof LocalDateTime dateTime) {
+                return dateTime.atZone(ZoneId.systemDefault()).toEpochSecond();
+            } else if (timestampObj instanceof String text) {
+                return LocalDateTime.parse(text).atZone(ZoneId.systemDefault()).toEpochSecond();
+            } else if (timestampObj instanceof Long timestamp) {
+                return timestamp;
+            }
+        } catch (Exception e) {
+            log.debug("時間戳解析失敗: {}", timestampObj, e);
+        }
+        return NO_TIMESTAMP;
+    }
+}
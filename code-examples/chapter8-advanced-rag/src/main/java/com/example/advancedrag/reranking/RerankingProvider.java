@@ -1,5 +1,6 @@
 package com.example.advancedrag.reranking;
 
+import com.example.advancedrag.model.RetrievalContext;
 import org.springframework.ai.document.Document;
 
 import java.util.List;
@@ -25,6 +26,21 @@ public interface RerankingProvider {
      */
     List<RerankResult> rerank(String query, List<Document> documents, int topK);
 
+    /**
+     * 對文檔進行重新排序（共享檢索上下文）
+     *
+     * 可重用上下文中已生成的查詢向量與文檔向量；預設忽略上下文。
+     *
+     * @param query 查詢文本
+     * @param documents 待排序的文檔列表
+     * @param topK 返回前 K 個結果
+     * @param context 檢索上下文（可為 null）
+     * @return 重新排序後的結果列表
+     */
+    default List<RerankResult> rerank(String query, List<Document> documents, int topK, RetrievalContext context) {
+        return rerank(query, documents, topK);
+    }
+
     /**
      * 獲取提供者名稱
      *
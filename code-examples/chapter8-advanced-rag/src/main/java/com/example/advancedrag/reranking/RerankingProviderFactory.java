@@ -1,17 +1,22 @@
 package com.example.advancedrag.reranking;
 
+import com.example.advancedrag.admission.CircuitBreaker;
 import com.example.advancedrag.properties.RAGProperties;
 import com.example.advancedrag.service.BM25Service;
+import com.example.advancedrag.service.RAGMetricsService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 import org.springframework.util.StringUtils;
 import org.springframework.web.client.RestClient;
 
+import java.util.concurrent.ExecutorService;
+
 /**
  * Re-ranking 提供者工廠
  *
- * 根據配置創建相應的 RerankingProvider 實例
+ * 根據配置創建相應的 RerankingProvider 實例；
+ * 遠端提供者可用且啟用級聯時，以本地算法剪枝並對沖遠端調用（{@link CascadeRerankingProvider}）
  */
 @Slf4j
 @Component
@@ -21,6 +26,8 @@ public class RerankingProviderFactory {
     private final RAGProperties ragProperties;
     private final RestClient restClient;
     private final BM25Service bm25Service;
+    private final RAGMetricsService metricsService;
+    private final ExecutorService ragPipelineExecutor;
 
     /**
      * 創建 RerankingProvider
@@ -58,7 +65,8 @@ public class RerankingProviderFactory {
         }
 
         String model = ragProperties.getReranking().getModel();
-        VoyageRerankingProvider provider = new VoyageRerankingProvider(restClient, apiKey, model);
+        VoyageRerankingProvider provider = new VoyageRerankingProvider(restClient, apiKey, model,
+                ragProperties.getReranking().getApiUrl());
 
         // 驗證 API 連接
         if (!provider.isAvailable()) {
@@ -67,7 +75,28 @@ public class RerankingProviderFactory {
         }
 
         log.info("Voyage AI Re-ranking 提供者創建成功，模型: {}", model);
-        return provider;
+        return wrapCascade(provider);
+    }
+
+    /**
+     * 啟用級聯時以本地算法包裝遠端提供者
+     *
+     * @param remoteProvider 遠端提供者
+     * @return 級聯提供者或原提供者
+     */
+    private RerankingProvider wrapCascade(RerankingProvider remoteProvider) {
+        RAGProperties.RerankCascade cascade = ragProperties.getRerankCascade();
+        if (!Boolean.TRUE.equals(cascade.getEnabled())) {
+            return remoteProvider;
+        }
+
+        CircuitBreaker circuitBreaker = new CircuitBreaker(remoteProvider.getProviderName(),
+                cascade.getFailureRateThreshold(), cascade.getMinimumCalls(),
+                cascade.getSlidingWindowSize(), cascade.getOpenDuration());
+        log.info("級聯 Re-ranking 已啟用，短名單: {}，遠端預算: {}ms",
+                cascade.getShortlistSize(), cascade.getRemoteBudget().toMillis());
+        return new CascadeRerankingProvider(createLocalProvider(), remoteProvider, ragPipelineExecutor,
+                circuitBreaker, metricsService, cascade);
     }
 
     /**
@@ -77,7 +106,7 @@ public class RerankingProviderFactory {
      */
     private RerankingProvider createLocalProvider() {
         log.info("本地 Re-ranking 提供者創建成功");
-        return new LocalRerankingProvider(bm25Service);
+        return new LocalRerankingProvider(bm25Service, ragProperties);
     }
 
     /**
@@ -33,6 +33,7 @@ public class VoyageRerankingProvider implements RerankingProvider {
     private final RestClient restClient;
     private final String apiKey;
     private final String model;
+    private final String apiUrl;
 
     /**
      * Voyage AI Re-ranking API 響應
@@ -68,9 +69,20 @@ public class VoyageRerankingProvider implements RerankingProvider {
     }
 
     public VoyageRerankingProvider(RestClient restClient, String apiKey, String model) {
+        this(restClient, apiKey, model, null);
+    }
+
+    /**
+     * @param restClient HTTP 客戶端
+     * @param apiKey API Key
+     * @param model 模型名稱
+     * @param apiUrl API 地址（為空時使用官方地址，可指向代理或測試替身）
+     */
+    public VoyageRerankingProvider(RestClient restClient, String apiKey, String model, String apiUrl) {
         this.restClient = restClient;
         this.apiKey = apiKey;
         this.model = model != null ? model : DEFAULT_MODEL;
+        this.apiUrl = StringUtils.hasText(apiUrl) ? apiUrl : VOYAGE_API_URL;
     }
 
     @Override
@@ -95,7 +107,7 @@ public class VoyageRerankingProvider implements RerankingProvider {
 
             // 調用 API
             ResponseEntity<VoyageRerankResponse> response = restClient.post()
-                    .uri(VOYAGE_API_URL)
+                    .uri(apiUrl)
                     .contentType(MediaType.APPLICATION_JSON)
                     .header("Authorization", "Bearer " + apiKey)
                     .body(requestBody)
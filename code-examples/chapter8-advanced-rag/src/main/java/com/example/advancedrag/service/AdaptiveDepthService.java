@@ -0,0 +1,398 @@
+package com.example.advancedrag.service;
+
+import com.example.advancedrag.model.DepthDecision;
+import com.example.advancedrag.model.RAGQueryOptions;
+import com.example.advancedrag.properties.RAGProperties;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntFunction;
+
+/**
+ * 自適應檢索深度服務
+ *
+ * 大部分查詢的相關文檔集中在最前面幾個候選，固定取 coarseTopK 個候選會讓簡單查詢
+ * 也付出完整的檢索傳輸與 Re-ranking 成本。本服務分頁取回向量檢索候選，每頁之後檢查分數分佈：
+ * - 分數落差：相鄰候選的分數落差達到 gap-threshold（相似度斷崖），之後的候選不太可能相關
+ * - 分佈熵：分數 softmax 分佈的正規化熵不高於 entropy-threshold，分數集中於少數候選
+ * - 分數帶覆蓋：頁尾分數已低於「最高分 - relevance-margin」，相關分數帶內的候選已全部取回
+ * 任一條件成立、結果不足一頁（已取盡）或達到最大深度時停止，否則繼續取下一頁。
+ *
+ * 第一頁深度按路由學習：每次決策後以已取回的分數回推「足夠深度」（最早滿足停止條件的頁界），
+ * 樣本足夠時第一頁直接取近期足夠深度的 learn-percentile 百分位，困難路由少走幾次往返，
+ * 簡單路由的深度也能隨流量回落。
+ *
+ * 每頁以偏移查詢（{@link VectorSearchService} 以預計算的查詢向量執行 LIMIT/OFFSET）；
+ * 不支援偏移的數據源（VectorStore 每次查詢都重新生成查詢向量）以 {@link #prefetching} 一次取回最大深度，
+ * 停止條件在記憶體中的前綴上評估。
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class AdaptiveDepthService {
+
+    /**
+     * 檢索路由
+     */
+    public static final String ROUTE_STANDARD = "standard";
+    public static final String ROUTE_HYBRID = "hybrid";
+    public static final String ROUTE_MULTI_QUERY = "multi_query";
+    public static final String ROUTE_EXPANSION = "expansion";
+    public static final String ROUTE_ADVISOR = "advisor";
+
+    /**
+     * 停止原因
+     */
+    public static final String STOP_EXHAUSTED = "exhausted";
+    public static final String STOP_SCORE_GAP = "score_gap";
+    public static final String STOP_LOW_ENTROPY = "low_entropy";
+    public static final String STOP_THRESHOLD_COVERAGE = "threshold_coverage";
+    public static final String STOP_MAX_DEPTH = "max_depth";
+    public static final String STOP_NO_SCORES = "no_scores";
+
+    private final RAGProperties ragProperties;
+    private final RAGMetricsService metricsService;
+
+    private final Map<String, RouteHistory> routes = new ConcurrentHashMap<>();
+
+    /**
+     * 分頁取回候選（按相似度降序）
+     */
+    @FunctionalInterface
+    public interface PageFetcher {
+
+        /**
+         * @param offset 跳過的候選數
+         * @param limit 本頁候選數
+         * @return 本頁候選（不足 limit 個表示已取盡）
+         */
+        List<Document> fetch(int offset, int limit);
+    }
+
+    /**
+     * 檢索結果
+     *
+     * @param documents 候選文檔（按相似度降序）
+     * @param decision 深度決策
+     */
+    public record Result(List<Document> documents, DepthDecision decision) {
+    }
+
+    /**
+     * 分數分佈的評估結果
+     *
+     * @param stopReason 停止原因，繼續取下一頁時為 null
+     * @param maxGap 相鄰候選的最大分數落差
+     * @param entropy 正規化熵
+     * @param coverage 相關分數帶內的候選比例
+     */
+    record Evaluation(String stopReason, double maxGap, double entropy, double coverage) {
+    }
+
+    /**
+     * 是否啟用
+     */
+    public boolean isEnabled() {
+        return ragProperties.getAdaptiveDepth().getEnabled();
+    }
+
+    /**
+     * 自適應深度檢索
+     *
+     * @param route 檢索路由
+     * @param finalTopK 最終返回的文檔數（決定最少候選數）
+     * @param staticDepth 固定深度（coarseTopK；請求指定更大時放寬最大深度，候選沒有分數時取到此深度）
+     * @param fetcher 分頁取回函數
+     * @return 候選文檔與深度決策
+     */
+    public Result retrieve(String route, int finalTopK, int staticDepth, PageFetcher fetcher) {
+        RAGProperties.AdaptiveDepth config = ragProperties.getAdaptiveDepth();
+        int maxDepth = maxDepth(staticDepth);
+        int minDepth = minDepth(finalTopK, maxDepth);
+        int pageSize = Math.max(1, config.getPageSize());
+
+        RouteHistory history = routes.computeIfAbsent(route, key -> new RouteHistory(config.getHistorySize()));
+        Integer learnedDepth = history.suggest(config.getMinSamples(), config.getLearnPercentile());
+        int initialDepth = alignToPage(learnedDepth != null ? learnedDepth : config.getInitialDepth(),
+                minDepth, maxDepth, pageSize);
+
+        List<Document> documents = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        int pages = 0;
+        int limit = initialDepth;
+        Evaluation evaluation;
+        while (true) {
+            List<Document> page = fetcher.fetch(documents.size(), limit);
+            pages++;
+            int added = addNew(documents, seen, page);
+            // 沒有新文檔時也視為取盡，避免重複取同一頁
+            boolean exhausted = page.size() < limit || added == 0;
+
+            double[] scores = scores(documents);
+            if (scores == null) {
+                // 沒有相似度分數無法判斷，取到固定深度
+                if (!exhausted && documents.size() < staticDepth) {
+                    addNew(documents, seen, fetcher.fetch(documents.size(), staticDepth - documents.size()));
+                    pages++;
+                }
+                evaluation = new Evaluation(STOP_NO_SCORES, 0, 1, 1);
+                break;
+            }
+            evaluation = evaluate(scores, scores.length, exhausted, maxDepth, config);
+            if (evaluation.stopReason() != null) {
+                break;
+            }
+            limit = Math.min(pageSize, maxDepth - documents.size());
+        }
+
+        if (!STOP_NO_SCORES.equals(evaluation.stopReason())) {
+            history.record(sufficientDepth(scores(documents), minDepth, pageSize, maxDepth, config));
+        }
+
+        DepthDecision decision = DepthDecision.builder()
+                .route(route)
+                .initialDepth(initialDepth)
+                .learned(learnedDepth != null)
+                .depth(documents.size())
+                .pages(pages)
+                .stopReason(evaluation.stopReason())
+                .maxGap(round(evaluation.maxGap()))
+                .entropy(round(evaluation.entropy()))
+                .coverage(round(evaluation.coverage()))
+                .build();
+        metricsService.recordRetrievalDepth(route, evaluation.stopReason(), documents.size());
+        log.debug("自適應檢索深度，路由: {}，第一頁: {}，最終: {}，頁數: {}，停止原因: {}",
+                route, initialDepth, documents.size(), pages, evaluation.stopReason());
+
+        return new Result(documents, decision);
+    }
+
+    /**
+     * 融合多條分支時保留的候選數：啟用時跟隨向量分支的決策深度，否則為 coarseTopK
+     *
+     * @param vectorDepth 向量分支的最大候選數
+     * @param options 查詢選項
+     * @return 融合結果的數量上限
+     */
+    public int fusionLimit(int vectorDepth, RAGQueryOptions options) {
+        if (!isEnabled()) {
+            return options.getCoarseTopK();
+        }
+        int maxDepth = maxDepth(options.getCoarseTopK());
+        return Math.max(vectorDepth, minDepth(options.getFinalTopK(), maxDepth));
+    }
+
+    /**
+     * 最大深度：配置的 max-depth，請求的 coarseTopK 更大時以其為準
+     *
+     * @param staticDepth 固定深度（coarseTopK）
+     * @return 最大候選數
+     */
+    public int maxDepth(int staticDepth) {
+        return Math.max(1, Math.max(staticDepth, ragProperties.getAdaptiveDepth().getMaxDepth()));
+    }
+
+    /**
+     * 不支援偏移的數據源：第一次取頁時一次取回 depth 個候選，之後的頁在記憶體中切片
+     *
+     * @param depth 一次取回的候選數（通常為 {@link #maxDepth}）
+     * @param fetchTop 取回前 N 個候選的函數（只調用一次）
+     * @return 分頁取回函數（單次檢索內使用，非線程安全）
+     */
+    public static PageFetcher prefetching(int depth, IntFunction<List<Document>> fetchTop) {
+        return new PageFetcher() {
+            private List<Document> documents;
+
+            @Override
+            public List<Document> fetch(int offset, int limit) {
+                if (documents == null) {
+                    documents = fetchTop.apply(depth);
+                }
+                int from = Math.min(offset, documents.size());
+                return documents.subList(from, Math.min(from + limit, documents.size()));
+            }
+        };
+    }
+
+    private int minDepth(int finalTopK, int maxDepth) {
+        return Math.min(maxDepth, Math.max(ragProperties.getAdaptiveDepth().getMinDepth(), finalTopK * 2));
+    }
+
+    /**
+     * 對齊到頁界（minDepth + k × pageSize）並限制在 [minDepth, maxDepth]
+     */
+    static int alignToPage(int depth, int minDepth, int maxDepth, int pageSize) {
+        if (depth <= minDepth) {
+            return minDepth;
+        }
+        int pagesAfterMin = (depth - minDepth + pageSize - 1) / pageSize;
+        return Math.min(maxDepth, minDepth + pagesAfterMin * pageSize);
+    }
+
+    /**
+     * 評估前 n 個候選的分數分佈
+     *
+     * @param scores 相似度分數（降序）
+     * @param n 評估的候選數
+     * @param exhausted 是否已取盡
+     * @param maxDepth 最大深度
+     * @param config 配置
+     * @return 評估結果
+     */
+    static Evaluation evaluate(double[] scores, int n, boolean exhausted, int maxDepth,
+                               RAGProperties.AdaptiveDepth config) {
+        if (n == 0) {
+            return new Evaluation(STOP_EXHAUSTED, 0, 0, 0);
+        }
+
+        double top = scores[0];
+        double maxGap = 0;
+        for (int i = 0; i + 1 < n; i++) {
+            maxGap = Math.max(maxGap, scores[i] - scores[i + 1]);
+        }
+        double entropy = normalizedEntropy(scores, n, config.getEntropyTemperature());
+        int inBand = 0;
+        for (int i = 0; i < n; i++) {
+            if (scores[i] >= top - config.getRelevanceMargin()) {
+                inBand++;
+            }
+        }
+        double coverage = (double) inBand / n;
+
+        String stopReason;
+        if (exhausted) {
+            stopReason = STOP_EXHAUSTED;
+        } else if (maxGap >= config.getGapThreshold()) {
+            stopReason = STOP_SCORE_GAP;
+        } else if (n > 1 && entropy <= config.getEntropyThreshold()) {
+            stopReason = STOP_LOW_ENTROPY;
+        } else if (inBand < n) {
+            stopReason = STOP_THRESHOLD_COVERAGE;
+        } else if (n >= maxDepth) {
+            stopReason = STOP_MAX_DEPTH;
+        } else {
+            stopReason = null;
+        }
+        return new Evaluation(stopReason, maxGap, entropy, coverage);
+    }
+
+    /**
+     * 分數 softmax 分佈的正規化熵（除以 ln n，單一候選為 0）
+     */
+    static double normalizedEntropy(double[] scores, int n, double temperature) {
+        if (n <= 1) {
+            return 0;
+        }
+        double max = scores[0];
+        for (int i = 1; i < n; i++) {
+            max = Math.max(max, scores[i]);
+        }
+        double sum = 0;
+        double[] weights = new double[n];
+        for (int i = 0; i < n; i++) {
+            weights[i] = Math.exp((scores[i] - max) / temperature);
+            sum += weights[i];
+        }
+        double entropy = 0;
+        for (int i = 0; i < n; i++) {
+            double p = weights[i] / sum;
+            if (p > 0) {
+                entropy -= p * Math.log(p);
+            }
+        }
+        return entropy / Math.log(n);
+    }
+
+    /**
+     * 以已取回的分數回推足夠深度：最早滿足停止條件的頁界，都不滿足時為已取回的數量
+     */
+    static int sufficientDepth(double[] scores, int minDepth, int pageSize, int maxDepth,
+                               RAGProperties.AdaptiveDepth config) {
+        for (int depth = minDepth; depth < scores.length; depth += pageSize) {
+            if (evaluate(scores, depth, false, maxDepth, config).stopReason() != null) {
+                return depth;
+            }
+        }
+        return Math.max(minDepth, scores.length);
+    }
+
+    /**
+     * 加入尚未取回的文檔（兩頁之間資料有變動時 OFFSET 可能重複返回同一文檔）
+     *
+     * @return 新加入的數量
+     */
+    private static int addNew(List<Document> documents, Set<String> seen, List<Document> page) {
+        int added = 0;
+        for (Document document : page) {
+            if (seen.add(document.getId())) {
+                documents.add(document);
+                added++;
+            }
+        }
+        return added;
+    }
+
+    /**
+     * 候選的相似度分數；任一候選沒有分數時返回 null
+     */
+    private static double[] scores(List<Document> documents) {
+        double[] scores = new double[documents.size()];
+        for (int i = 0; i < scores.length; i++) {
+            Document document = documents.get(i);
+            if (document.getScore() != null) {
+                scores[i] = document.getScore();
+            } else if (document.getMetadata().get("distance") instanceof Number distance) {
+                scores[i] = 1.0 - distance.doubleValue();
+            } else {
+                return null;
+            }
+        }
+        return scores;
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 1000) / 1000.0;
+    }
+
+    /**
+     * 路由近期的足夠深度（環形緩衝）
+     */
+    private static final class RouteHistory {
+
+        private final int[] depths;
+        private int next;
+        private int count;
+
+        RouteHistory(int size) {
+            this.depths = new int[Math.max(1, size)];
+        }
+
+        synchronized void record(int depth) {
+            depths[next] = depth;
+            next = (next + 1) % depths.length;
+            count = Math.min(count + 1, depths.length);
+        }
+
+        /**
+         * 近期足夠深度的百分位，樣本不足時返回 null
+         */
+        synchronized Integer suggest(int minSamples, double percentile) {
+            if (count == 0 || count < minSamples) {
+                return null;
+            }
+            int[] sorted = Arrays.copyOf(depths, count);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile * count) - 1;
+            return sorted[Math.max(0, Math.min(count - 1, index))];
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.example.advancedrag.service;
+
+import com.example.advancedrag.admission.AdaptiveConcurrencyLimiter;
+import com.example.advancedrag.admission.Bulkhead;
+import com.example.advancedrag.exception.OverloadException;
+import com.example.advancedrag.properties.RAGProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 准入控制服務
+ *
+ * 兩層保護：
+ * 1. 查詢入口：AIMD 自適應並發上限，排隊超過延遲預算即拒絕（HTTP 429），
+ *    使 LLM 變慢時 Tomcat 線程不會全部阻塞在查詢上，健康檢查等端點仍可響應
+ * 2. 下游依賴：每個依賴（embedding、vector-store、rerank、chat）一個固定並發的隔艙
+ *
+ * 指標：rag.query.limit / rag.query.queued 與既有的 rag.query.active 對照觀察，
+ * rag.query.rejected 為被拒絕的查詢數，rag.bulkhead.* 按依賴（標籤 dependency）記錄。
+ */
+@Slf4j
+@Service
+public class AdmissionControlService {
+
+    /**
+     * 下游依賴名稱
+     */
+    public static final String EMBEDDING = "embedding";
+    public static final String VECTOR_STORE = "vector-store";
+    public static final String RERANK = "rerank";
+    public static final String CHAT = "chat";
+
+    private final RAGProperties.Admission admission;
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final Map<String, Bulkhead> bulkheads = new LinkedHashMap<>();
+    private final Counter rejectedCounter;
+    private final Timer queueDelayTimer;
+
+    public AdmissionControlService(RAGProperties ragProperties, MeterRegistry meterRegistry) {
+        this.admission = ragProperties.getAdmission();
+        this.limiter = new AdaptiveConcurrencyLimiter(admission.getInitialLimit(), admission.getMinLimit(),
+                admission.getMaxLimit(), admission.getLatencyTarget(), admission.getBackoffRatio());
+
+        Gauge.builder("rag.query.limit", limiter, AdaptiveConcurrencyLimiter::getLimit)
+                .description("查詢並發上限（自適應）")
+                .register(meterRegistry);
+        Gauge.builder("rag.query.queued", limiter, AdaptiveConcurrencyLimiter::getWaiting)
+                .description("排隊等待准入的查詢數")
+                .register(meterRegistry);
+        this.rejectedCounter = Counter.builder("rag.query.rejected")
+                .description("因過載被拒絕的查詢數")
+                .register(meterRegistry);
+        this.queueDelayTimer = Timer.builder("rag.query.queue.delay")
+                .description("查詢等待准入的時間")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+
+        admission.getBulkheads().forEach((dependency, spec) -> {
+            Bulkhead bulkhead = new Bulkhead(dependency, spec.getMaxConcurrent(), spec.getMaxWait());
+            bulkheads.put(dependency, bulkhead);
+
+            Gauge.builder("rag.bulkhead.active", bulkhead, Bulkhead::getActive)
+                    .description("下游依賴執行中的調用數")
+                    .tag("dependency", dependency)
+                    .register(meterRegistry);
+            Gauge.builder("rag.bulkhead.limit", bulkhead, Bulkhead::getMaxConcurrent)
+                    .description("下游依賴並發上限")
+                    .tag("dependency", dependency)
+                    .register(meterRegistry);
+            FunctionCounter.builder("rag.bulkhead.rejected", bulkhead, Bulkhead::getRejected)
+                    .description("下游依賴隔艙拒絕的調用數")
+                    .tag("dependency", dependency)
+                    .register(meterRegistry);
+        });
+
+        log.info("准入控制初始化完成，啟用: {}, 初始上限: {}, 隔艙: {}",
+                admission.getEnabled(), limiter.getLimit(), bulkheads.keySet());
+    }
+
+    /**
+     * 是否啟用
+     */
+    public boolean isEnabled() {
+        return Boolean.TRUE.equals(admission.getEnabled());
+    }
+
+    /**
+     * 查詢准入（獲得許可後必須調用 {@link #complete}）
+     *
+     * @throws OverloadException 排隊超過延遲預算或排隊已滿
+     */
+    public void admit() {
+        long startTime = System.nanoTime();
+        boolean admitted;
+        try {
+            admitted = limiter.tryAcquire(admission.getMaxQueueDelay());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            admitted = false;
+        }
+        queueDelayTimer.record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+
+        if (!admitted) {
+            rejectedCounter.increment();
+            log.warn("查詢被准入控制拒絕，並發上限: {}, 排隊數: {}", limiter.getLimit(), limiter.getWaiting());
+            throw new OverloadException("query", "系統繁忙，請稍後再試");
+        }
+    }
+
+    /**
+     * 查詢結束，以耗時與結果調整並發上限
+     *
+     * @param latencyNanos 查詢耗時（奈秒）
+     * @param dropped 是否因過載失敗
+     */
+    public void complete(long latencyNanos, boolean dropped) {
+        limiter.release(latencyNanos, dropped);
+    }
+
+    /**
+     * 串流查詢結束：釋放許可，耗時不作為延遲樣本（串流時長取決於答案長度，可達 SSE 逾時）
+     *
+     * @param dropped 是否因過載失敗
+     */
+    public void completeStream(boolean dropped) {
+        limiter.releaseUnsampled(dropped);
+    }
+
+    /**
+     * 在依賴隔艙內執行調用（未啟用或未配置該依賴時直接執行）
+     *
+     * @param dependency 依賴名稱
+     * @param call 下游調用
+     * @return 調用結果
+     * @throws OverloadException 隔艙已滿
+     */
+    public <T> T call(String dependency, Supplier<T> call) {
+        Bulkhead bulkhead = bulkhead(dependency);
+        return bulkhead != null ? bulkhead.call(call) : call.get();
+    }
+
+    /**
+     * 獲取依賴隔艙
+     *
+     * @param dependency 依賴名稱
+     * @return 隔艙（未啟用或未配置時為 null）
+     */
+    public Bulkhead bulkhead(String dependency) {
+        return isEnabled() ? bulkheads.get(dependency) : null;
+    }
+
+    /**
+     * 當前查詢並發上限
+     */
+    public int getConcurrencyLimit() {
+        return limiter.getLimit();
+    }
+
+    /**
+     * 當前排隊數
+     */
+    public int getQueuedQueries() {
+        return limiter.getWaiting();
+    }
+
+    /**
+     * 累計拒絕的查詢數
+     */
+    public long getRejectedQueries() {
+        return (long) rejectedCounter.count();
+    }
+
+    /**
+     * 各依賴隔艙狀態
+     *
+     * @return 依賴名稱到 active / limit / rejected
+     */
+    public Map<String, Map<String, Object>> getBulkheadStats() {
+        Map<String, Map<String, Object>> stats = new LinkedHashMap<>();
+        bulkheads.forEach((dependency, bulkhead) -> {
+            Map<String, Object> stat = new LinkedHashMap<>();
+            stat.put("active", bulkhead.getActive());
+            stat.put("limit", bulkhead.getMaxConcurrent());
+            stat.put("rejected", bulkhead.getRejected());
+            stats.put(dependency, stat);
+        });
+        return stats;
+    }
+}
@@ -2,23 +2,46 @@ package com.example.advancedrag.service;
 
 import com.example.advancedrag.dto.AdvancedRAGRequest;
 import com.example.advancedrag.dto.AdvancedRAGResponse;
+import com.example.advancedrag.advisor.RerankRAGAdvisor;
 import com.example.advancedrag.dto.ModerationResult;
+import com.example.advancedrag.exception.OverloadException;
+import com.example.advancedrag.model.EmbeddingContext;
 import com.example.advancedrag.model.RAGQueryOptions;
+import com.example.advancedrag.model.RetrievalContext;
 import com.example.advancedrag.model.ScoredDocument;
+import com.example.advancedrag.model.StageTimeline;
 import com.example.advancedrag.properties.RAGProperties;
+import com.example.advancedrag.util.SingleFlight;
+import com.example.advancedrag.util.TextUtil;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.metadata.DefaultUsage;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.ai.chat.prompt.Prompt;
 import org.springframework.ai.chat.prompt.PromptTemplate;
 import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.filter.Filter;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Stream;
 
 /**
  * Advanced RAG 主服務
@@ -29,6 +52,18 @@ import java.util.UUID;
  * 3. 上下文優化
  * 4. LLM 生成答案
  * 5. 性能指標收集
+ *
+ * 執行管線前先查詢語義答案快取：語義相同的問題（查詢向量相似度達到閾值）直接返回先前的答案。
+ * 正規化後完全相同的問題同時到達時以 single-flight 合併，只執行一次管線（app.rag.coalescing）。
+ *
+ * 支援兩種執行模式：依序執行，或將管線建模為依賴圖在虛擬線程上並行執行
+ * （app.rag.pipeline.concurrent）。
+ *
+ * 另提供串流模式 {@link #queryStream}：檢索與重排完成後立即推送來源，答案邊生成邊推送並以滑動窗口增量審核。
+ *
+ * 各模式的每個階段都以 {@link StageTimeline} 記錄：整個請求為一個 {@value #PIPELINE_OBSERVATION}
+ * Observation，各階段為其子 Observation；請求結束後的階段明細交給 {@link PipelineProfileRecorder}
+ * 做百分位關鍵路徑分析。
  */
 @Slf4j
 @Service
@@ -40,10 +75,65 @@ public class AdvancedRAGService {
     private final MultiStageRetrievalService retrievalService;
     private final RerankingService rerankingService;
     private final ContextOptimizationService contextOptimizationService;
-    private final ContentModerationService contentModerationService;
-    private final CustomRuleModerationService customRuleModerationService;
+    private final DualModerationService dualModerationService;
     private final RAGMetricsService metricsService;
     private final RAGProperties ragProperties;
+    private final ExecutorService ragPipelineExecutor;
+    private final SemanticAnswerCache semanticAnswerCache;
+    private final SmartEmbeddingService embeddingService;
+    private final ObservationRegistry observationRegistry;
+    private final PipelineProfileRecorder profileRecorder;
+    private final TokenCounter tokenCounter;
+    private final MetadataFilterService metadataFilterService;
+
+    private final SingleFlight<List<Object>, AdvancedRAGResponse> queryFlight = new SingleFlight<>();
+
+    /**
+     * 請求層級 Observation 名稱
+     */
+    public static final String PIPELINE_OBSERVATION = "rag.pipeline";
+
+    /**
+     * 管線階段名稱
+     */
+    private static final String STAGE_MODERATION = "query_moderation";
+    private static final String STAGE_REWRITE = "rewrite";
+    private static final String STAGE_EXPANSION = "expansion";
+    private static final String STAGE_RETRIEVAL = "retrieval";
+    private static final String STAGE_RERANK = "rerank";
+    private static final String STAGE_CONTEXT = "context_optimization";
+    private static final String STAGE_GENERATION = "generation";
+    private static final String STAGE_ANSWER_MODERATION = "answer_moderation";
+
+    /**
+     * 串流事件名稱
+     */
+    public static final String EVENT_SOURCES = "sources";
+    public static final String EVENT_TOKEN = "token";
+    public static final String EVENT_MODERATION = "moderation";
+    public static final String EVENT_DONE = "done";
+    public static final String EVENT_ERROR = "error";
+
+    /**
+     * 答案未通過審核時的替換回覆
+     */
+    private static final String ANSWER_FILTERED_MESSAGE = "抱歉，生成的答案包含不當內容，已被過濾。請嘗試重新表述您的問題。";
+
+    /**
+     * 串流事件接收端（如 SSE 連線）
+     */
+    @FunctionalInterface
+    public interface StreamEventSink {
+
+        /**
+         * 送出一個事件
+         *
+         * @param event 事件名稱
+         * @param data 事件數據（序列化為 JSON）
+         * @throws IOException 客戶端已斷線
+         */
+        void send(String event, Object data) throws IOException;
+    }
 
     /**
      * RAG 生成 Prompt 模板
@@ -69,10 +159,321 @@ public class AdvancedRAGService {
     /**
      * 執行 Advanced RAG 查詢
      *
+     * 相同的問題（正規化查詢 + 選項）正在執行時，等待其結果並複製一份響應；
+     * 等待逾時或該請求失敗時自行執行管線（過載失敗除外）。
+     *
      * @param request RAG 查詢請求
      * @return RAG 查詢響應
+     * @throws IllegalArgumentException 元數據過濾條件不合法
      */
     public AdvancedRAGResponse query(AdvancedRAGRequest request) {
+        // 先編譯過濾條件：不合法時直接返回 400，不進入管線
+        Filter.Expression filterExpression = metadataFilterService.compile(request.getFilter());
+
+        RAGProperties.Coalescing coalescing = ragProperties.getCoalescing();
+        if (!coalescing.getEnabled()) {
+            return execute(request, filterExpression);
+        }
+
+        long startTime = System.currentTimeMillis();
+        SingleFlight.Result<AdvancedRAGResponse> result = queryFlight.execute(singleFlightKey(request),
+                () -> execute(request, filterExpression), coalescing.getQueryTimeout(), error -> {
+                    if (error instanceof OverloadException overload) {
+                        throw overload;
+                    }
+                    log.warn("等待相同查詢的結果失敗，自行執行管線: {}", error.toString());
+                    return execute(request, filterExpression);
+                });
+        metricsService.recordSingleFlight("query", result.role());
+
+        return result.shared() ? shareResponse(request, result.value(), startTime) : result.value();
+    }
+
+    /**
+     * 以串流方式執行 Advanced RAG 查詢
+     *
+     * 依序送出事件：
+     * 1. {@value #EVENT_SOURCES}：檢索與重排完成後立即送出來源文檔，早於生成開始
+     * 2. {@value #EVENT_TOKEN}：模型生成的答案片段
+     * 3. {@value #EVENT_MODERATION}：查詢未通過審核（reject），或答案在滑動窗口審核中未通過（retract，
+     *    串流隨即中止，客戶端應以替換文本取代已顯示的答案）
+     * 4. {@value #EVENT_DONE}：各階段耗時、首個 token 時間與 token 用量；
+     *    失敗時改為 {@value #EVENT_ERROR}
+     *
+     * 階段依序執行（串流的瓶頸在生成，並行模式的推測執行對首個 token 時間幫助有限）；
+     * 語義答案快取命中時以單一片段送出快取的答案。串流請求不參與 single-flight 合併。
+     *
+     * @param request RAG 查詢請求
+     * @param sink 事件接收端
+     */
+    public void queryStream(AdvancedRAGRequest request, StreamEventSink sink) {
+        Observation observation = Observation.createNotStarted(PIPELINE_OBSERVATION, observationRegistry)
+                .lowCardinalityKeyValue("mode", "streaming")
+                .start();
+        long totalStartTime = System.currentTimeMillis();
+        String queryId = UUID.randomUUID().toString();
+        StageTimeline timeline = new StageTimeline(observationRegistry, observation);
+        StreamingAnswerModerator moderator = null;
+        // 已計入查詢且尚未記錄結果（成功或失敗）；記錄結果後清除，避免重複記錄使活躍查詢數被多減
+        boolean counted = false;
+
+        // 區分客戶端斷線與上游（模型、檢索）的 I/O 錯誤
+        StreamEventSink client = (event, data) -> {
+            try {
+                sink.send(event, data);
+            } catch (IOException | IllegalStateException e) {
+                throw new ClientDisconnectedException(e);
+            }
+        };
+
+        try (Observation.Scope scope = observation.openScope()) {
+            RetrievalContext retrievalContext = new RetrievalContext();
+            retrievalContext.setFilterExpression(metadataFilterService.compile(request.getFilter()));
+            long cacheGeneration = semanticAnswerCache.currentGeneration();
+
+            if (semanticAnswerCache.isEnabled()) {
+                AdvancedRAGResponse cached = queryFromSemanticCache(request, retrievalContext);
+                observation.lowCardinalityKeyValue("semantic_cache", cached != null ? "hit" : "miss");
+                if (cached != null) {
+                    streamResponse(cached, client);
+                    return;
+                }
+            }
+
+            log.info("開始 Advanced RAG 串流查詢，Query ID: {}, 查詢: [{}]", queryId, request.getQuery());
+            metricsService.recordQuery();
+            counted = true;
+
+            AdvancedRAGResponse.AdvancedRAGResponseBuilder responseBuilder = AdvancedRAGResponse.builder()
+                    .originalQuery(request.getQuery())
+                    .queryId(queryId)
+                    .sessionId(request.getSessionId())
+                    .timestamp(LocalDateTime.now());
+            RAGQueryOptions options = request.getOptionsOrDefault();
+
+            // === 階段 0：查詢內容審核 ===
+            boolean moderationEnabled = request.getEnableModeration() != null && request.getEnableModeration();
+            if (moderationEnabled) {
+                ModerationResult queryModerationResult = timeline.record(STAGE_MODERATION, List.of(),
+                        () -> performQueryModeration(request.getQuery()));
+                recordModerationMetrics(queryModerationResult);
+
+                if (!queryModerationResult.getPassed()) {
+                    AdvancedRAGResponse response = buildModerationRejectedResponse(request, queryId,
+                            queryModerationResult, System.currentTimeMillis() - totalStartTime);
+                    // 已記錄查詢失敗，之後送出事件失敗不可再記錄一次
+                    counted = false;
+                    Map<String, Object> rejected = new LinkedHashMap<>();
+                    rejected.put("queryId", queryId);
+                    rejected.put("target", "query");
+                    rejected.put("action", "reject");
+                    rejected.put("reason", queryModerationResult.getReason());
+                    rejected.put("message", response.getAnswer());
+                    client.send(EVENT_MODERATION, rejected);
+                    client.send(EVENT_DONE, doneEvent(queryId, response.getProcessingTimeMs(), null, timeline,
+                            null, false));
+                    return;
+                }
+            }
+
+            // === 階段 1：查詢預處理 ===
+            String preprocessStage = request.getEnableQueryRewrite() ? STAGE_REWRITE : STAGE_EXPANSION;
+            PreprocessedQuery preprocessed = timeline.record(preprocessStage, List.of(STAGE_MODERATION),
+                    () -> preprocessQuery(request, responseBuilder));
+            String processedQuery = preprocessed.query();
+
+            // === 階段 2：多階段檢索 ===
+            List<ScoredDocument> retrievedDocs = timeline.record(STAGE_RETRIEVAL, List.of(preprocessStage),
+                    () -> performRetrieval(processedQuery, preprocessed.expansions(), options, request,
+                            retrievalContext));
+            long retrievalTime = durationOrZero(timeline, STAGE_RETRIEVAL);
+            metricsService.recordRetrievalDuration(retrievalTime);
+            metricsService.recordDocumentsRetrieved(retrievedDocs.size());
+
+            // === 階段 2.5：Re-ranking 精確排序 ===
+            List<ScoredDocument> rerankedDocs = timeline.record(STAGE_RERANK, List.of(STAGE_RETRIEVAL),
+                    () -> rerankDocuments(processedQuery, retrievedDocs, options, retrievalContext));
+            long rerankingTime = durationOrZero(timeline, STAGE_RERANK);
+            metricsService.recordRerankingDuration(rerankingTime);
+
+            // 來源在生成前送出
+            List<AdvancedRAGResponse.RetrievedDocument> sources =
+                    convertToResponseDocuments(rerankedDocs, request.getReturnScoringDetails());
+            AdvancedRAGResponse partial = responseBuilder.build();
+            Map<String, Object> sourcesEvent = new LinkedHashMap<>();
+            sourcesEvent.put("queryId", queryId);
+            sourcesEvent.put("rewrittenQuery", partial.getRewrittenQuery());
+            sourcesEvent.put("expandedQueries", partial.getExpandedQueries());
+            sourcesEvent.put("documents", sources);
+            sourcesEvent.put("retrievalTimeMs", retrievalTime);
+            sourcesEvent.put("rerankingTimeMs", rerankingTime);
+            sourcesEvent.put("elapsedMs", System.currentTimeMillis() - totalStartTime);
+            client.send(EVENT_SOURCES, sourcesEvent);
+
+            // === 階段 3：上下文優化 ===
+            ContextOptimizationService.OptimizedContext optimized = timeline.record(STAGE_CONTEXT,
+                    List.of(STAGE_RERANK),
+                    () -> contextOptimizationService.optimize(processedQuery, rerankedDocs, options, retrievalContext));
+
+            // === 階段 4：串流生成答案（同時增量審核）===
+            if (moderationEnabled) {
+                RAGProperties.Streaming streaming = ragProperties.getStreaming();
+                moderator = new StreamingAnswerModerator(this::performAnswerModeration, ragPipelineExecutor,
+                        streaming.getModerationWindow(), streaming.getModerationStride());
+            }
+            StreamingAnswerModerator answerModerator = moderator;
+            StreamedAnswer streamed = timeline.record(STAGE_GENERATION, List.of(STAGE_CONTEXT),
+                    () -> streamAnswer(request.getQuery(), optimized.context(), answerModerator, client,
+                            totalStartTime));
+            long generationTime = durationOrZero(timeline, STAGE_GENERATION);
+            metricsService.recordGenerationDuration(generationTime);
+
+            // === 階段 4.5：審核尾部內容 ===
+            boolean answerPassed = true;
+            if (moderator != null) {
+                ModerationResult answerModerationResult = timeline.record(STAGE_ANSWER_MODERATION,
+                        List.of(STAGE_GENERATION), () -> answerModerator.finish(streamed.answer()));
+                if (answerModerationResult != null) {
+                    recordModerationMetrics(answerModerationResult);
+                    answerPassed = !Boolean.FALSE.equals(answerModerationResult.getPassed());
+                }
+                if (!answerPassed) {
+                    log.warn("串流答案未通過內容審核，中止串流：{}", answerModerationResult.getReason());
+                    Map<String, Object> retract = new LinkedHashMap<>();
+                    retract.put("queryId", queryId);
+                    retract.put("target", "answer");
+                    retract.put("action", "retract");
+                    retract.put("reason", answerModerationResult.getReason());
+                    retract.put("replacement", ANSWER_FILTERED_MESSAGE);
+                    client.send(EVENT_MODERATION, retract);
+                }
+            }
+
+            Usage usage = streamed.usage();
+            boolean usageEstimated = usage == null;
+            if (usageEstimated) {
+                int promptTokens = tokenCounter.count(streamed.prompt());
+                int completionTokens = tokenCounter.count(streamed.answer());
+                usage = new DefaultUsage(promptTokens, completionTokens, promptTokens + completionTokens);
+            }
+            if (usage.getTotalTokens() != null && usage.getTotalTokens() > 0) {
+                metricsService.recordGenerationTokens(usage.getTotalTokens());
+            }
+
+            long totalTime = System.currentTimeMillis() - totalStartTime;
+            Map<String, Object> done = doneEvent(queryId, totalTime, streamed.firstTokenMs(), timeline, usage,
+                    usageEstimated);
+            done.put("retrievalTimeMs", retrievalTime);
+            done.put("rerankingTimeMs", rerankingTime);
+            done.put("generationTimeMs", generationTime);
+            done.put("moderationPassed", answerPassed);
+            done.put("documentCount", rerankedDocs.size());
+            done.put("retrievalDepth", retrievalContext.getDepthDecisions());
+            done.put("contextTokensSaved", optimized.tokensSaved());
+            client.send(EVENT_DONE, done);
+
+            metricsService.recordQuerySuccess();
+            metricsService.recordQueryDuration(totalTime);
+            counted = false;
+            profileRecorder.record(queryId, "streaming", totalTime, timeline);
+            log.info("Advanced RAG 串流查詢完成，Query ID: {}, 首個 token: {}ms, 總耗時: {}ms",
+                    queryId, streamed.firstTokenMs(), totalTime);
+
+            // 完整且通過審核的答案寫入語義快取，供後續（含非串流）查詢使用
+            if (answerPassed) {
+                AdvancedRAGResponse response = responseBuilder
+                        .answer(streamed.answer())
+                        .documents(request.getReturnDocuments() ? sources : new ArrayList<>())
+                        .retrievalTimeMs(retrievalTime)
+                        .rerankingTimeMs(rerankingTime)
+                        .generationTimeMs(generationTime)
+                        .processingTimeMs(totalTime)
+                        .build();
+                response.addMetadata("context_quality",
+                        contextOptimizationService.calculateContextQuality(rerankedDocs));
+                response.addMetadata("original_doc_count", retrievedDocs.size());
+                response.addMetadata("reranked_doc_count", rerankedDocs.size());
+                response.addMetadata("context_tokens_saved", optimized.tokensSaved());
+                response.addMetadata("pipeline_mode", "streaming");
+                response.addMetadata("retrieval_filter",
+                        MetadataFilterService.describe(retrievalContext.getFilterExpression()));
+                response.addMetadata("retrieval_depth", retrievalContext.getDepthDecisions());
+                response.addMetadata("stage_timings", timeline.toMetadata());
+                storeInSemanticCache(request, retrievalContext, response, rerankedDocs, cacheGeneration);
+            }
+
+        } catch (Exception e) {
+            if (moderator != null) {
+                moderator.cancel();
+            }
+            observation.error(e);
+            long totalTime = System.currentTimeMillis() - totalStartTime;
+            if (counted) {
+                metricsService.recordQueryFailure();
+                metricsService.recordQueryDuration(totalTime);
+            }
+
+            if (isClientDisconnect(e)) {
+                log.info("客戶端已斷開串流，Query ID: {}, 耗時: {}ms", queryId, totalTime);
+                return;
+            }
+            log.error("Advanced RAG 串流查詢失敗，Query ID: {}", queryId, e);
+            sendError(sink, queryId, e);
+        } finally {
+            observation.stop();
+        }
+    }
+
+    /**
+     * 執行查詢（語義快取 + 完整管線）
+     *
+     * @param request RAG 查詢請求
+     * @param filterExpression 已編譯的元數據過濾表達式（可為 null）
+     * @return RAG 查詢響應
+     */
+    private AdvancedRAGResponse execute(AdvancedRAGRequest request, Filter.Expression filterExpression) {
+        boolean concurrent = ragProperties.getPipeline().getConcurrent();
+        Observation observation = Observation.createNotStarted(PIPELINE_OBSERVATION, observationRegistry)
+                .lowCardinalityKeyValue("mode", concurrent ? "concurrent" : "sequential")
+                .start();
+
+        try (Observation.Scope scope = observation.openScope()) {
+            RetrievalContext retrievalContext = new RetrievalContext();
+            retrievalContext.setFilterExpression(filterExpression);
+            long cacheGeneration = semanticAnswerCache.currentGeneration();
+
+            if (semanticAnswerCache.isEnabled()) {
+                AdvancedRAGResponse cached = queryFromSemanticCache(request, retrievalContext);
+                observation.lowCardinalityKeyValue("semantic_cache", cached != null ? "hit" : "miss");
+                if (cached != null) {
+                    return cached;
+                }
+            }
+
+            StageTimeline timeline = new StageTimeline(observationRegistry, observation);
+            if (concurrent) {
+                return queryConcurrently(request, retrievalContext, timeline, cacheGeneration);
+            }
+            return querySequentially(request, retrievalContext, timeline, cacheGeneration);
+        } catch (RuntimeException e) {
+            observation.error(e);
+            throw e;
+        } finally {
+            observation.stop();
+        }
+    }
+
+    /**
+     * 依序執行 Advanced RAG 查詢
+     *
+     * @param request RAG 查詢請求
+     * @param retrievalContext 檢索上下文
+     * @param timeline 階段時間線
+     * @param cacheGeneration 執行前的語義快取版本號
+     * @return RAG 查詢響應
+     */
+    private AdvancedRAGResponse querySequentially(AdvancedRAGRequest request, RetrievalContext retrievalContext,
+                                                  StageTimeline timeline, long cacheGeneration) {
         long totalStartTime = System.currentTimeMillis();
         String queryId = UUID.randomUUID().toString();
 
@@ -94,52 +495,34 @@ public class AdvancedRAGService {
             RAGQueryOptions options = request.getOptionsOrDefault();
 
             // === 階段 0：查詢內容審核（Pre-Moderation）===
-            if (request.getEnableModeration() != null && request.getEnableModeration()) {
-                long moderationStartTime = System.currentTimeMillis();
-                ModerationResult queryModerationResult = performQueryModeration(request.getQuery());
-
-                // 記錄審核指標
-                metricsService.recordModeration();
-                if (!queryModerationResult.getPassed()) {
-                    metricsService.recordModerationFailed();
-                }
+            boolean moderationEnabled = request.getEnableModeration() != null && request.getEnableModeration();
+            if (moderationEnabled) {
+                ModerationResult queryModerationResult = timeline.record(STAGE_MODERATION, List.of(),
+                        () -> performQueryModeration(request.getQuery()));
+                recordModerationMetrics(queryModerationResult);
 
                 if (!queryModerationResult.getPassed()) {
                     // 查詢未通過審核，直接返回錯誤
-                    log.warn("查詢未通過內容審核：{}", queryModerationResult.getReason());
-
-                    // 記錄查詢失敗
-                    long totalTime = System.currentTimeMillis() - totalStartTime;
-                    metricsService.recordQueryFailure();
-                    metricsService.recordQueryDuration(totalTime);
-
-                    return AdvancedRAGResponse.builder()
-                            .originalQuery(request.getQuery())
-                            .queryId(queryId)
-                            .sessionId(request.getSessionId())
-                            .timestamp(LocalDateTime.now())
-                            .answer("抱歉，您的查詢包含不當內容，無法處理。原因：" + queryModerationResult.getReason())
-                            .processingTimeMs(totalTime)
-                            .metadata(Map.of(
-                                    "moderation_failed", true,
-                                    "moderation_result", queryModerationResult
-                            ))
-                            .build();
+                    AdvancedRAGResponse response = buildModerationRejectedResponse(request, queryId,
+                            queryModerationResult, System.currentTimeMillis() - totalStartTime);
+                    response.addMetadata("pipeline_mode", "sequential");
+                    response.addMetadata("stage_timings", timeline.toMetadata());
+                    return response;
                 }
-
-                // 暫時註釋 metadata，稍後統一處理
-                // long moderationTime = System.currentTimeMillis() - moderationStartTime;
             }
 
             // === 階段 1：查詢預處理 ===
-            long rewriteStartTime = System.currentTimeMillis();
-            String processedQuery = preprocessQuery(request, responseBuilder);
-            long rewriteTime = System.currentTimeMillis() - rewriteStartTime;
+            String preprocessStage = request.getEnableQueryRewrite() ? STAGE_REWRITE : STAGE_EXPANSION;
+            PreprocessedQuery preprocessed = timeline.record(preprocessStage, List.of(STAGE_MODERATION),
+                    () -> preprocessQuery(request, responseBuilder));
+            String processedQuery = preprocessed.query();
+            long rewriteTime = durationOrZero(timeline, preprocessStage);
 
             // === 階段 2：多階段檢索 ===
-            long retrievalStartTime = System.currentTimeMillis();
-            List<ScoredDocument> retrievedDocs = performRetrieval(processedQuery, options, request);
-            long retrievalTime = System.currentTimeMillis() - retrievalStartTime;
+            List<ScoredDocument> retrievedDocs = timeline.record(STAGE_RETRIEVAL, List.of(preprocessStage),
+                    () -> performRetrieval(processedQuery, preprocessed.expansions(), options, request,
+                            retrievalContext));
+            long retrievalTime = durationOrZero(timeline, STAGE_RETRIEVAL);
             responseBuilder.retrievalTimeMs(retrievalTime);
 
             // 記錄檢索指標
@@ -149,58 +532,36 @@ public class AdvancedRAGService {
             log.info("檢索完成，檢索到 {} 個文檔", retrievedDocs.size());
 
             // === 階段 2.5：Re-ranking 精確排序 ===
-            long rerankingStartTime = System.currentTimeMillis();
-            List<ScoredDocument> rerankedDocs = retrievedDocs;
-
-            if (options.getEnableReranking() && retrievedDocs.size() > options.getFinalTopK()) {
-                rerankedDocs = rerankingService.rerank(processedQuery, retrievedDocs, options);
-                log.info("Re-ranking 完成，最終文檔數: {}", rerankedDocs.size());
-            } else {
-                log.info("跳過 Re-ranking（已關閉或文檔數量不足）");
-                // 如果不進行 Re-ranking，直接限制數量
-                rerankedDocs = retrievedDocs.stream()
-                        .limit(options.getFinalTopK())
-                        .toList();
-            }
-
-            long rerankingTime = System.currentTimeMillis() - rerankingStartTime;
+            List<ScoredDocument> rerankedDocs = timeline.record(STAGE_RERANK, List.of(STAGE_RETRIEVAL),
+                    () -> rerankDocuments(processedQuery, retrievedDocs, options, retrievalContext));
+            long rerankingTime = durationOrZero(timeline, STAGE_RERANK);
             responseBuilder.rerankingTimeMs(rerankingTime);
 
             // 記錄 Re-ranking 指標
             metricsService.recordRerankingDuration(rerankingTime);
 
             // === 階段 3：上下文優化 ===
-            String optimizedContext = contextOptimizationService.optimizeContext(
-                    rerankedDocs,
-                    options
-            );
+            ContextOptimizationService.OptimizedContext optimized = timeline.record(STAGE_CONTEXT,
+                    List.of(STAGE_RERANK),
+                    () -> contextOptimizationService.optimize(processedQuery, rerankedDocs, options, retrievalContext));
+            String optimizedContext = optimized.context();
 
             // === 階段 4：LLM 生成答案 ===
-            long generationStartTime = System.currentTimeMillis();
-            String answer = generateAnswer(request.getQuery(), optimizedContext);
-            long generationTime = System.currentTimeMillis() - generationStartTime;
+            GeneratedAnswer generated = timeline.record(STAGE_GENERATION, List.of(STAGE_CONTEXT),
+                    () -> generateAnswer(request.getQuery(), optimizedContext));
+            String answer = generated.text();
+            long generationTime = durationOrZero(timeline, STAGE_GENERATION);
             responseBuilder.generationTimeMs(generationTime);
 
             // 記錄生成指標
             metricsService.recordGenerationDuration(generationTime);
 
             // === 階段 4.5：答案內容審核（Post-Moderation）===
-            if (request.getEnableModeration() != null && request.getEnableModeration()) {
-                long answerModerationStartTime = System.currentTimeMillis();
-                ModerationResult answerModerationResult = performAnswerModeration(answer);
-
-                // 記錄答案審核指標
-                metricsService.recordModeration();
-                if (!answerModerationResult.getPassed()) {
-                    metricsService.recordModerationFailed();
-                }
-
-                if (!answerModerationResult.getPassed()) {
-                    // 答案未通過審核，替換為安全回覆
-                    log.warn("生成的答案未通過內容審核：{}", answerModerationResult.getReason());
-                    answer = "抱歉，生成的答案包含不當內容，已被過濾。請嘗試重新表述您的問題。";
-                }
-                // 暫時註釋 metadata，稍後統一處理
+            ModerationResult answerModerationResult = null;
+            if (moderationEnabled) {
+                answerModerationResult = timeline.record(STAGE_ANSWER_MODERATION,
+                        List.of(STAGE_GENERATION), () -> performAnswerModeration(generated.text()));
+                answer = applyAnswerModeration(answer, answerModerationResult);
             }
 
             // === 組裝響應 ===
@@ -226,12 +587,25 @@ public class AdvancedRAGService {
             response.addMetadata("rewrite_time_ms", rewriteTime);
             response.addMetadata("original_doc_count", retrievedDocs.size());
             response.addMetadata("reranked_doc_count", rerankedDocs.size());
+            response.addMetadata("context_tokens_saved", optimized.tokensSaved());
+            response.addMetadata("pipeline_mode", "sequential");
+            response.addMetadata("retrieval_filter",
+                    MetadataFilterService.describe(retrievalContext.getFilterExpression()));
+            response.addMetadata("retrieval_depth", retrievalContext.getDepthDecisions());
+            response.addMetadata("stage_timings", timeline.toMetadata());
+            response.addMetadata("critical_path", timeline.criticalPath());
+            response.addMetadata("critical_path_ms", timeline.criticalPathMillis());
 
             log.info("Advanced RAG 查詢完成，Query ID: {}, 總耗時: {}ms", queryId, totalTime);
 
             // 記錄查詢成功和總耗時
             metricsService.recordQuerySuccess();
             metricsService.recordQueryDuration(totalTime);
+            profileRecorder.record(queryId, "sequential", totalTime, timeline);
+
+            if (isCacheable(generated, answerModerationResult, timeline)) {
+                storeInSemanticCache(request, retrievalContext, response, rerankedDocs, cacheGeneration);
+            }
 
             return response;
 
@@ -243,10 +617,469 @@ public class AdvancedRAGService {
             metricsService.recordQueryFailure();
             metricsService.recordQueryDuration(totalTime);
 
+            if (e instanceof OverloadException overload) {
+                throw overload;
+            }
+            throw new RuntimeException("RAG 查詢失敗: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 以依賴圖並行執行 Advanced RAG 查詢
+     *
+     * 依賴關係：
+     * <pre>
+     * query_moderation ─────────────────────────┐
+     * rewrite ──→ retrieval ──────────────────────┴→ rerank → context_optimization → generation → answer_moderation
+     * expansion（僅用於響應，不阻塞檢索）
+     * </pre>
+     * 查詢審核與重寫、擴展、檢索推測性地同時執行；審核不通過時取消所有進行中的階段。
+     * 每個階段有獨立的截止時間，響應中的 processingTimeMs 與 metadata 反映實際的關鍵路徑。
+     *
+     * @param request RAG 查詢請求
+     * @param retrievalContext 檢索上下文
+     * @param timeline 階段時間線
+     * @param cacheGeneration 執行前的語義快取版本號
+     * @return RAG 查詢響應
+     */
+    private AdvancedRAGResponse queryConcurrently(AdvancedRAGRequest request, RetrievalContext retrievalContext,
+                                                  StageTimeline timeline, long cacheGeneration) {
+        long totalStartTime = System.currentTimeMillis();
+        String queryId = UUID.randomUUID().toString();
+        RAGProperties.Pipeline pipeline = ragProperties.getPipeline();
+        PipelineStageRunner runner = new PipelineStageRunner(ragPipelineExecutor, timeline);
+
+        // 記錄查詢開始
+        metricsService.recordQuery();
+
+        try {
+            log.info("開始 Advanced RAG 查詢（並行模式），Query ID: {}, 查詢: [{}]",
+                    queryId, request.getQuery());
+
+            AdvancedRAGResponse.AdvancedRAGResponseBuilder responseBuilder = AdvancedRAGResponse.builder()
+                    .originalQuery(request.getQuery())
+                    .queryId(queryId)
+                    .sessionId(request.getSessionId())
+                    .timestamp(LocalDateTime.now());
+
+            RAGQueryOptions options = request.getOptionsOrDefault();
+            String originalQuery = request.getQuery();
+            boolean moderationEnabled = request.getEnableModeration() != null && request.getEnableModeration();
+
+            // === 階段 0：查詢審核（與後續階段推測性並行）===
+            CompletableFuture<ModerationResult> moderationFuture = moderationEnabled
+                    ? runner.submit(STAGE_MODERATION, List.of(), pipeline.getModerationTimeout(),
+                            () -> performQueryModeration(originalQuery),
+                            error -> moderationUnavailable())
+                    : null;
+
+            // === 階段 1：查詢重寫 / 擴展 ===
+            CompletableFuture<String> rewriteFuture = request.getEnableQueryRewrite()
+                    ? runner.submit(STAGE_REWRITE, List.of(), pipeline.getRewriteTimeout(),
+                            () -> queryRewriteService.rewriteQuery(originalQuery),
+                            error -> originalQuery)
+                    : CompletableFuture.completedFuture(originalQuery);
+
+            // 多查詢檢索時擴展查詢與重寫並行生成，並參與檢索
+            boolean multiQuery = isMultiQuery(request);
+            CompletableFuture<List<String>> expansionFuture =
+                    request.getEnableQueryExpansion() && (!request.getEnableQueryRewrite() || multiQuery)
+                            ? runner.submit(STAGE_EXPANSION, List.of(), pipeline.getExpansionTimeout(),
+                                    () -> queryRewriteService.expandQuery(originalQuery, options.getQueryExpansionCount()),
+                                    error -> List.of())
+                            : null;
+
+            // === 階段 2：多階段檢索（依賴重寫結果；多查詢檢索時同時依賴擴展結果）===
+            CompletableFuture<List<String>> retrievalExpansions = multiQuery && expansionFuture != null
+                    ? expansionFuture
+                    : CompletableFuture.completedFuture(List.of());
+            List<String> retrievalDependencies = multiQuery && expansionFuture != null
+                    ? List.of(STAGE_REWRITE, STAGE_EXPANSION)
+                    : List.of(STAGE_REWRITE);
+            CompletableFuture<List<ScoredDocument>> retrievalFuture = rewriteFuture
+                    .thenCombine(retrievalExpansions, PreprocessedQuery::new)
+                    .thenCompose(preprocessed ->
+                            runner.submit(STAGE_RETRIEVAL, retrievalDependencies, pipeline.getRetrievalTimeout(),
+                                    () -> performRetrieval(preprocessed.query(), preprocessed.expansions(), options,
+                                            request, retrievalContext),
+                                    null));
+
+            // 審核閘門：未通過時取消所有推測性工作
+            if (moderationFuture != null) {
+                ModerationResult queryModerationResult = PipelineStageRunner.await(moderationFuture);
+                recordModerationMetrics(queryModerationResult);
+
+                if (!queryModerationResult.getPassed()) {
+                    runner.cancelAll();
+                    AdvancedRAGResponse response = buildModerationRejectedResponse(request, queryId,
+                            queryModerationResult, System.currentTimeMillis() - totalStartTime);
+                    response.addMetadata("pipeline_mode", "concurrent");
+                    response.addMetadata("stage_timings", timeline.toMetadata());
+                    return response;
+                }
+            }
+
+            String processedQuery = PipelineStageRunner.await(rewriteFuture);
+            if (request.getEnableQueryRewrite()) {
+                responseBuilder.rewrittenQuery(processedQuery);
+                log.info("查詢重寫：[{}] -> [{}]", originalQuery, processedQuery);
+            }
+
+            List<ScoredDocument> retrievedDocs = PipelineStageRunner.await(retrievalFuture);
+            log.info("檢索完成，檢索到 {} 個文檔", retrievedDocs.size());
+
+            // === 階段 2.5：Re-ranking 精確排序 ===
+            List<ScoredDocument> rerankedDocs = PipelineStageRunner.await(
+                    runner.submit(STAGE_RERANK, List.of(STAGE_RETRIEVAL, STAGE_MODERATION), pipeline.getRerankTimeout(),
+                            () -> rerankDocuments(processedQuery, retrievedDocs, options, retrievalContext),
+                            error -> retrievedDocs.stream().limit(options.getFinalTopK()).toList()));
+
+            // === 階段 3：上下文優化 ===
+            ContextOptimizationService.OptimizedContext optimized = runner.runInline(STAGE_CONTEXT,
+                    List.of(STAGE_RERANK),
+                    () -> contextOptimizationService.optimize(processedQuery, rerankedDocs, options, retrievalContext));
+            String optimizedContext = optimized.context();
+
+            // === 階段 4：LLM 生成答案 ===
+            GeneratedAnswer generated = PipelineStageRunner.await(
+                    runner.submit(STAGE_GENERATION, List.of(STAGE_CONTEXT), pipeline.getGenerationTimeout(),
+                            () -> generateAnswer(originalQuery, optimizedContext),
+                            error -> {
+                                if (error instanceof OverloadException overload) {
+                                    throw overload;
+                                }
+                                return GeneratedAnswer.failed("抱歉，生成答案逾時，請稍後再試。");
+                            }));
+            String answer = generated.text();
+
+            // === 階段 4.5：答案內容審核 ===
+            ModerationResult answerModerationResult = null;
+            if (moderationEnabled) {
+                answerModerationResult = PipelineStageRunner.await(
+                        runner.submit(STAGE_ANSWER_MODERATION, List.of(STAGE_GENERATION), pipeline.getModerationTimeout(),
+                                () -> performAnswerModeration(generated.text()),
+                                error -> moderationUnavailable()));
+                answer = applyAnswerModeration(answer, answerModerationResult);
+            }
+
+            if (expansionFuture != null) {
+                List<String> expandedQueries = PipelineStageRunner.await(expansionFuture);
+                responseBuilder.expandedQueries(expandedQueries);
+                log.info("查詢擴展：生成 {} 個擴展查詢", expandedQueries.size());
+            }
+
+            // === 組裝響應 ===
+            long retrievalTime = durationOrZero(timeline, STAGE_RETRIEVAL);
+            long rerankingTime = durationOrZero(timeline, STAGE_RERANK);
+            long generationTime = durationOrZero(timeline, STAGE_GENERATION);
+
+            responseBuilder.answer(answer)
+                    .retrievalTimeMs(retrievalTime)
+                    .rerankingTimeMs(rerankingTime)
+                    .generationTimeMs(generationTime);
+
+            if (request.getReturnDocuments()) {
+                responseBuilder.documents(convertToResponseDocuments(rerankedDocs, request.getReturnScoringDetails()));
+            }
+
+            long totalTime = System.currentTimeMillis() - totalStartTime;
+            responseBuilder.processingTimeMs(totalTime);
+
+            AdvancedRAGResponse response = responseBuilder.build();
+
+            response.addMetadata("context_quality",
+                    contextOptimizationService.calculateContextQuality(rerankedDocs));
+            response.addMetadata("rewrite_time_ms", durationOrZero(timeline, STAGE_REWRITE));
+            response.addMetadata("original_doc_count", retrievedDocs.size());
+            response.addMetadata("reranked_doc_count", rerankedDocs.size());
+            response.addMetadata("context_tokens_saved", optimized.tokensSaved());
+            response.addMetadata("pipeline_mode", "concurrent");
+            response.addMetadata("retrieval_filter",
+                    MetadataFilterService.describe(retrievalContext.getFilterExpression()));
+            response.addMetadata("retrieval_depth", retrievalContext.getDepthDecisions());
+            response.addMetadata("stage_timings", timeline.toMetadata());
+            response.addMetadata("critical_path", timeline.criticalPath());
+            response.addMetadata("critical_path_ms", timeline.criticalPathMillis());
+
+            // 記錄指標
+            metricsService.recordRetrievalDuration(retrievalTime);
+            metricsService.recordDocumentsRetrieved(retrievedDocs.size());
+            metricsService.recordRerankingDuration(rerankingTime);
+            metricsService.recordGenerationDuration(generationTime);
+            metricsService.recordQuerySuccess();
+            metricsService.recordQueryDuration(totalTime);
+            profileRecorder.record(queryId, "concurrent", totalTime, timeline);
+
+            log.info("Advanced RAG 查詢完成，Query ID: {}, 總耗時: {}ms, 關鍵路徑: {}",
+                    queryId, totalTime, timeline.criticalPath());
+
+            if (isCacheable(generated, answerModerationResult, timeline)) {
+                storeInSemanticCache(request, retrievalContext, response, rerankedDocs, cacheGeneration);
+            }
+
+            return response;
+
+        } catch (Exception e) {
+            runner.cancelAll();
+            log.error("Advanced RAG 查詢失敗，Query ID: {}", queryId, e);
+
+            long totalTime = System.currentTimeMillis() - totalStartTime;
+            metricsService.recordQueryFailure();
+            metricsService.recordQueryDuration(totalTime);
+
+            if (e instanceof OverloadException overload) {
+                throw overload;
+            }
             throw new RuntimeException("RAG 查詢失敗: " + e.getMessage(), e);
         }
     }
 
+    /**
+     * 從語義答案快取返回答案
+     *
+     * 啟用審核時仍會審核本次查詢（快取的答案可能來自措辭不同的查詢）。
+     *
+     * @param request RAG 查詢請求
+     * @param retrievalContext 檢索上下文（查詢向量存入其中，未命中時供檢索重用）
+     * @return 快取的響應，未命中返回 null
+     */
+    private AdvancedRAGResponse queryFromSemanticCache(AdvancedRAGRequest request, RetrievalContext retrievalContext) {
+        long startTime = System.currentTimeMillis();
+
+        SemanticAnswerCache.Hit hit;
+        try {
+            float[] queryVector = retrievalContext.queryVector(request.getQuery(),
+                    text -> embeddingService.embed(text, EmbeddingContext.highAccuracy()));
+            hit = semanticAnswerCache.lookup(queryVector, semanticCacheVariant(request));
+        } catch (Exception e) {
+            log.error("語義快取查詢失敗，執行完整管線", e);
+            return null;
+        }
+
+        if (hit == null) {
+            metricsService.recordSemanticCacheMiss();
+            return null;
+        }
+
+        String queryId = UUID.randomUUID().toString();
+        metricsService.recordQuery();
+
+        if (request.getEnableModeration() != null && request.getEnableModeration()) {
+            ModerationResult queryModerationResult = performQueryModeration(request.getQuery());
+            recordModerationMetrics(queryModerationResult);
+            if (!queryModerationResult.getPassed()) {
+                return buildModerationRejectedResponse(request, queryId, queryModerationResult,
+                        System.currentTimeMillis() - startTime);
+            }
+        }
+
+        AdvancedRAGResponse cached = hit.response();
+        long totalTime = System.currentTimeMillis() - startTime;
+
+        AdvancedRAGResponse response = copyResponse(cached, request, queryId, totalTime);
+        response.addMetadata("semantic_cache_hit", true);
+        response.addMetadata("semantic_cache_similarity", hit.similarity());
+        response.addMetadata("semantic_cache_query", hit.cachedQuery());
+
+        long savedTime = cached.getProcessingTimeMs() != null ? cached.getProcessingTimeMs() - totalTime : 0L;
+        metricsService.recordSemanticCacheHit(savedTime);
+        metricsService.recordQuerySuccess();
+        metricsService.recordQueryDuration(totalTime);
+
+        log.info("語義快取命中，Query ID: {}, 相似度: {}, 耗時: {}ms",
+                queryId, String.format("%.4f", hit.similarity()), totalTime);
+        return response;
+    }
+
+    /**
+     * 為等待相同查詢的請求複製一份響應（獨立的 Query ID、Session ID 與耗時）
+     */
+    private AdvancedRAGResponse shareResponse(AdvancedRAGRequest request, AdvancedRAGResponse shared,
+                                              long startTime) {
+        String queryId = UUID.randomUUID().toString();
+        long totalTime = System.currentTimeMillis() - startTime;
+
+        AdvancedRAGResponse response = copyResponse(shared, request, queryId, totalTime);
+        response.addMetadata("single_flight_shared", true);
+        response.addMetadata("single_flight_leader_query_id", shared.getQueryId());
+
+        metricsService.recordQuery();
+        if (Boolean.TRUE.equals(shared.getMetadata().get("moderation_failed"))) {
+            metricsService.recordQueryFailure();
+        } else {
+            metricsService.recordQuerySuccess();
+        }
+        metricsService.recordQueryDuration(totalTime);
+
+        log.info("合併相同查詢，Query ID: {}, 共用 Query ID: {}, 耗時: {}ms",
+                queryId, shared.getQueryId(), totalTime);
+        return response;
+    }
+
+    /**
+     * 複製響應內容（各階段耗時記為 0，集合欄位為獨立副本）
+     */
+    private AdvancedRAGResponse copyResponse(AdvancedRAGResponse source, AdvancedRAGRequest request,
+                                             String queryId, long totalTime) {
+        return AdvancedRAGResponse.builder()
+                .originalQuery(request.getQuery())
+                .rewrittenQuery(source.getRewrittenQuery())
+                .expandedQueries(new ArrayList<>(source.getExpandedQueries()))
+                .answer(source.getAnswer())
+                .documents(new ArrayList<>(source.getDocuments()))
+                .documentCount(source.getDocumentCount())
+                .processingTimeMs(totalTime)
+                .retrievalTimeMs(0L)
+                .rerankingTimeMs(0L)
+                .generationTimeMs(0L)
+                .moderationPassed(source.getModerationPassed())
+                .moderationRiskScore(source.getModerationRiskScore())
+                .sessionId(request.getSessionId())
+                .queryId(queryId)
+                .timestamp(LocalDateTime.now())
+                .scoringDetails(new HashMap<>(source.getScoringDetails()))
+                .metadata(new HashMap<>(source.getMetadata()))
+                .build();
+    }
+
+    /**
+     * single-flight 合併鍵：正規化查詢（空白、大小寫）+ 影響答案的請求選項
+     */
+    private List<Object> singleFlightKey(AdvancedRAGRequest request) {
+        return List.of(TextUtil.normalizeWhitespace(request.getQuery()).toLowerCase(Locale.ROOT),
+                semanticCacheVariant(request));
+    }
+
+    /**
+     * 答案是否可寫入語義快取：生成成功、答案審核通過（未啟用審核時為 null）且沒有階段降級（逾時、失敗）
+     *
+     * 錯誤提示與過濾後的替換回覆都不可快取，否則會在 TTL 內回覆給所有相似的查詢。
+     */
+    static boolean isCacheable(GeneratedAnswer generated, ModerationResult answerModeration, StageTimeline timeline) {
+        if (!generated.succeeded() || timeline.isDegraded()) {
+            return false;
+        }
+        return answerModeration == null || !Boolean.FALSE.equals(answerModeration.getPassed());
+    }
+
+    /**
+     * 將完整管線的響應寫入語義答案快取
+     */
+    private void storeInSemanticCache(AdvancedRAGRequest request, RetrievalContext retrievalContext,
+                                      AdvancedRAGResponse response, List<ScoredDocument> sourceDocs,
+                                      long cacheGeneration) {
+        float[] queryVector = retrievalContext.getQueryVector(request.getQuery());
+        if (queryVector == null) {
+            return;
+        }
+        try {
+            List<String> sourceIds = sourceDocs.stream()
+                    .map(scoredDoc -> scoredDoc.getDocument().getId())
+                    .toList();
+            semanticAnswerCache.put(request.getQuery(), queryVector, semanticCacheVariant(request),
+                    response, sourceIds, cacheGeneration);
+        } catch (Exception e) {
+            // 查詢已成功完成並記錄指標，快取寫入失敗不影響響應
+            log.warn("語義快取寫入失敗，Query ID: {}: {}", response.getQueryId(), e.getMessage());
+        }
+    }
+
+    /**
+     * 影響答案內容的請求選項，必須完全相同才可共用快取
+     */
+    private Object semanticCacheVariant(AdvancedRAGRequest request) {
+        return Arrays.asList(request.getOptionsOrDefault(), request.getEnableModeration(),
+                request.getEnableQueryRewrite(), request.getEnableQueryExpansion(),
+                request.getReturnDocuments(), request.getReturnScoringDetails(), request.getFilter());
+    }
+
+    /**
+     * 執行 Re-ranking（關閉或文檔數量不足時直接截斷）
+     *
+     * @param query 查詢
+     * @param retrievedDocs 檢索結果
+     * @param options 選項
+     * @param retrievalContext 檢索上下文
+     * @return 排序後的文檔
+     */
+    private List<ScoredDocument> rerankDocuments(String query, List<ScoredDocument> retrievedDocs,
+                                                 RAGQueryOptions options, RetrievalContext retrievalContext) {
+        if (options.getEnableReranking() && retrievedDocs.size() > options.getFinalTopK()) {
+            List<ScoredDocument> rerankedDocs = rerankingService.rerank(query, retrievedDocs, options, retrievalContext);
+            log.info("Re-ranking 完成，最終文檔數: {}", rerankedDocs.size());
+            return rerankedDocs;
+        }
+
+        log.info("跳過 Re-ranking（已關閉或文檔數量不足）");
+        // 如果不進行 Re-ranking，直接限制數量
+        return retrievedDocs.stream()
+                .limit(options.getFinalTopK())
+                .toList();
+    }
+
+    /**
+     * 記錄審核指標
+     */
+    private void recordModerationMetrics(ModerationResult moderationResult) {
+        metricsService.recordModeration();
+        if (!moderationResult.getPassed()) {
+            metricsService.recordModerationFailed();
+        }
+    }
+
+    /**
+     * 構建查詢未通過審核的響應
+     */
+    private AdvancedRAGResponse buildModerationRejectedResponse(AdvancedRAGRequest request, String queryId,
+                                                                ModerationResult moderationResult, long totalTime) {
+        log.warn("查詢未通過內容審核：{}", moderationResult.getReason());
+
+        // 記錄查詢失敗
+        metricsService.recordQueryFailure();
+        metricsService.recordQueryDuration(totalTime);
+
+        AdvancedRAGResponse response = AdvancedRAGResponse.builder()
+                .originalQuery(request.getQuery())
+                .queryId(queryId)
+                .sessionId(request.getSessionId())
+                .timestamp(LocalDateTime.now())
+                .answer("抱歉，您的查詢包含不當內容，無法處理。原因：" + moderationResult.getReason())
+                .processingTimeMs(totalTime)
+                .build();
+        response.addMetadata("moderation_failed", true);
+        response.addMetadata("moderation_result", moderationResult);
+        return response;
+    }
+
+    /**
+     * 套用答案審核結果（未通過時替換為安全回覆）
+     */
+    private String applyAnswerModeration(String answer, ModerationResult moderationResult) {
+        recordModerationMetrics(moderationResult);
+        if (!moderationResult.getPassed()) {
+            log.warn("生成的答案未通過內容審核：{}", moderationResult.getReason());
+            return ANSWER_FILTERED_MESSAGE;
+        }
+        return answer;
+    }
+
+    private long durationOrZero(StageTimeline timeline, String stage) {
+        Long duration = timeline.durationMillis(stage);
+        return duration != null ? duration : 0L;
+    }
+
+    /**
+     * 審核服務不可用時的默認結果（避免誤攔截）
+     */
+    private ModerationResult moderationUnavailable() {
+        return ModerationResult.builder()
+                .flagged(false)
+                .passed(true)
+                .moderationScore(0.0)
+                .reason("審核服務不可用，默認通過")
+                .build();
+    }
+
     /**
      * 查詢預處理
      *
@@ -254,16 +1087,22 @@ public class AdvancedRAGService {
      * @param responseBuilder 響應構建器
      * @return 處理後的查詢
      */
-    private String preprocessQuery(AdvancedRAGRequest request,
-                                    AdvancedRAGResponse.AdvancedRAGResponseBuilder responseBuilder) {
+    private PreprocessedQuery preprocessQuery(AdvancedRAGRequest request,
+                                              AdvancedRAGResponse.AdvancedRAGResponseBuilder responseBuilder) {
         String originalQuery = request.getQuery();
+        String processedQuery = originalQuery;
 
         // 查詢重寫
         if (request.getEnableQueryRewrite()) {
             String rewrittenQuery = queryRewriteService.rewriteQuery(originalQuery);
             responseBuilder.rewrittenQuery(rewrittenQuery);
             log.info("查詢重寫：[{}] -> [{}]", originalQuery, rewrittenQuery);
-            return rewrittenQuery;
+            processedQuery = rewrittenQuery;
+
+            // 未啟用多查詢檢索時，重寫後不再擴展
+            if (!isMultiQuery(request)) {
+                return new PreprocessedQuery(processedQuery, List.of());
+            }
         }
 
         // 查詢擴展
@@ -274,29 +1113,42 @@ public class AdvancedRAGService {
             );
             responseBuilder.expandedQueries(expandedQueries);
             log.info("查詢擴展：生成 {} 個擴展查詢", expandedQueries.size());
+            return new PreprocessedQuery(processedQuery, expandedQueries);
         }
 
-        return originalQuery;
+        return new PreprocessedQuery(processedQuery, List.of());
+    }
+
+    /**
+     * 是否以擴展查詢參與檢索
+     */
+    private boolean isMultiQuery(AdvancedRAGRequest request) {
+        return request.getEnableQueryExpansion() && ragProperties.getMultiQuery().getEnabled();
     }
 
     /**
      * 執行檢索
      *
      * @param query 查詢
+     * @param expansions 擴展查詢（多查詢檢索時使用）
      * @param options 選項
      * @param request 原始請求
+     * @param retrievalContext 檢索上下文（查詢向量只生成一次）
      * @return 檢索到的文檔
      */
-    private List<ScoredDocument> performRetrieval(String query, RAGQueryOptions options,
-                                                    AdvancedRAGRequest request) {
-        // 如果啟用查詢擴展，使用混合檢索
+    private List<ScoredDocument> performRetrieval(String query, List<String> expansions, RAGQueryOptions options,
+                                                    AdvancedRAGRequest request, RetrievalContext retrievalContext) {
+        // 如果啟用查詢擴展，使用混合檢索（有擴展查詢時為多查詢檢索）
         if (request.getEnableQueryExpansion()) {
             List<String> keywords = queryRewriteService.extractKeywords(query);
-            return retrievalService.hybridRetrieval(query, keywords, options);
+            if (isMultiQuery(request) && !expansions.isEmpty()) {
+                return retrievalService.multiQueryRetrieval(query, expansions, keywords, options, retrievalContext);
+            }
+            return retrievalService.hybridRetrieval(query, keywords, options, retrievalContext);
         }
 
         // 標準多階段檢索
-        return retrievalService.retrieve(query, options);
+        return retrievalService.retrieve(query, options, retrievalContext);
     }
 
     /**
@@ -304,9 +1156,9 @@ public class AdvancedRAGService {
      *
      * @param question 用戶問題
      * @param context 上下文
-     * @return 生成的答案
+     * @return 生成結果（失敗時為給用戶的錯誤提示）
      */
-    private String generateAnswer(String question, String context) {
+    private GeneratedAnswer generateAnswer(String question, String context) {
         try {
             log.debug("開始生成答案，上下文長度: {}", context.length());
 
@@ -316,17 +1168,180 @@ public class AdvancedRAGService {
                     "context", context
             ));
 
-            String answer = chatClient.prompt(prompt)
+            // 上下文已在 Prompt 中，跳過 Advisor 的重複檢索
+            ChatResponse chatResponse = chatClient.prompt(prompt)
+                    .advisors(advisor -> advisor.param(RerankRAGAdvisor.SKIP_RETRIEVAL, true))
                     .call()
-                    .content();
+                    .chatResponse();
+            String answer = chatResponse.getResult().getOutput().getText();
+            recordTokenUsage(chatResponse);
 
             log.debug("答案生成完成，答案長度: {}", answer.length());
 
-            return answer;
+            return new GeneratedAnswer(answer, true);
 
+        } catch (OverloadException e) {
+            // Chat 模型隔艙已滿：不返回錯誤答案，整個查詢以 429 結束
+            throw e;
         } catch (Exception e) {
             log.error("答案生成失敗", e);
-            return "抱歉，生成答案時發生錯誤：" + e.getMessage();
+            return GeneratedAnswer.failed("抱歉，生成答案時發生錯誤：" + e.getMessage());
+        }
+    }
+
+    /**
+     * 串流生成答案：逐片段送出，並交給增量審核器；審核未通過或客戶端斷線時停止消費（取消上游請求）
+     *
+     * @param question 用戶問題
+     * @param context 上下文
+     * @param moderator 增量審核器（可為 null）
+     * @param sink 事件接收端
+     * @param startTime 請求開始時間（計算首個 token 時間）
+     * @return 串流結果
+     */
+    private StreamedAnswer streamAnswer(String question, String context, StreamingAnswerModerator moderator,
+                                       StreamEventSink sink, long startTime) {
+        Prompt prompt = new PromptTemplate(RAG_PROMPT_TEMPLATE).create(Map.of(
+                "question", question,
+                "context", context
+        ));
+
+        StringBuilder answer = new StringBuilder();
+        Usage usage = null;
+        Long firstTokenMs = null;
+
+        // 關閉 Stream 時取消訂閱，上游 HTTP 連線與 Chat 模型隔艙許可隨之釋放
+        try (Stream<ChatResponse> chunks = chatClient.prompt(prompt)
+                .advisors(advisor -> advisor.param(RerankRAGAdvisor.SKIP_RETRIEVAL, true))
+                .stream()
+                .chatResponse()
+                .toStream()) {
+
+            Iterator<ChatResponse> iterator = chunks.iterator();
+            while (iterator.hasNext()) {
+                ChatResponse chunk = iterator.next();
+
+                // 用量只出現在最後一個分片（需開啟 stream-usage）
+                Usage chunkUsage = chunk.getMetadata() != null ? chunk.getMetadata().getUsage() : null;
+                if (chunkUsage != null && chunkUsage.getTotalTokens() != null && chunkUsage.getTotalTokens() > 0) {
+                    usage = chunkUsage;
+                }
+
+                String token = chunk.getResult() != null && chunk.getResult().getOutput() != null
+                        ? chunk.getResult().getOutput().getText()
+                        : null;
+                if (token == null || token.isEmpty()) {
+                    continue;
+                }
+
+                if (firstTokenMs == null) {
+                    firstTokenMs = System.currentTimeMillis() - startTime;
+                    metricsService.recordFirstToken(firstTokenMs);
+                }
+                answer.append(token);
+                sink.send(EVENT_TOKEN, Map.of("text", token));
+
+                if (moderator != null && moderator.offer(answer)) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return new StreamedAnswer(prompt.getContents(), answer.toString(), usage, firstTokenMs);
+    }
+
+    /**
+     * 以串流事件送出已完成的響應（語義快取命中、查詢未通過審核）
+     */
+    private void streamResponse(AdvancedRAGResponse response, StreamEventSink sink) throws IOException {
+        boolean rejected = Boolean.TRUE.equals(response.getMetadata().get("moderation_failed"));
+        if (rejected) {
+            Map<String, Object> moderation = new LinkedHashMap<>();
+            moderation.put("queryId", response.getQueryId());
+            moderation.put("target", "query");
+            moderation.put("action", "reject");
+            moderation.put("message", response.getAnswer());
+            sink.send(EVENT_MODERATION, moderation);
+        } else {
+            Map<String, Object> sources = new LinkedHashMap<>();
+            sources.put("queryId", response.getQueryId());
+            sources.put("rewrittenQuery", response.getRewrittenQuery());
+            sources.put("expandedQueries", response.getExpandedQueries());
+            sources.put("documents", response.getDocuments());
+            sources.put("elapsedMs", response.getProcessingTimeMs());
+            sink.send(EVENT_SOURCES, sources);
+            sink.send(EVENT_TOKEN, Map.of("text", response.getAnswer()));
+        }
+
+        Map<String, Object> done = new LinkedHashMap<>();
+        done.put("queryId", response.getQueryId());
+        done.put("processingTimeMs", response.getProcessingTimeMs());
+        done.put("semanticCacheHit", !rejected);
+        done.put("usage", Map.of("promptTokens", 0, "completionTokens", 0, "totalTokens", 0, "estimated", false));
+        sink.send(EVENT_DONE, done);
+    }
+
+    /**
+     * 構建完成事件的共同欄位
+     */
+    private Map<String, Object> doneEvent(String queryId, Long totalTime, Long firstTokenMs, StageTimeline timeline,
+                                          Usage usage, boolean usageEstimated) {
+        Map<String, Object> done = new LinkedHashMap<>();
+        done.put("queryId", queryId);
+        done.put("processingTimeMs", totalTime);
+        done.put("firstTokenMs", firstTokenMs);
+        done.put("stage_timings", timeline.toMetadata());
+        done.put("critical_path", timeline.criticalPath());
+        if (usage != null) {
+            Map<String, Object> usageEvent = new LinkedHashMap<>();
+            usageEvent.put("promptTokens", usage.getPromptTokens());
+            usageEvent.put("completionTokens", usage.getCompletionTokens());
+            usageEvent.put("totalTokens", usage.getTotalTokens());
+            usageEvent.put("estimated", usageEstimated);
+            done.put("usage", usageEvent);
+        }
+        return done;
+    }
+
+    /**
+     * 送出錯誤事件（客戶端已斷線時略過）
+     */
+    private void sendError(StreamEventSink sink, String queryId, Exception error) {
+        Map<String, Object> event = new LinkedHashMap<>();
+        event.put("queryId", queryId);
+        event.put("status", error instanceof OverloadException ? 429
+                : error instanceof IllegalArgumentException ? 400 : 500);
+        event.put("message", error instanceof OverloadException || error instanceof IllegalArgumentException
+                ? error.getMessage()
+                : "查詢失敗：" + error.getMessage());
+        try {
+            sink.send(EVENT_ERROR, event);
+        } catch (IOException e) {
+            log.debug("送出錯誤事件失敗，客戶端已斷線: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 異常鏈中是否有客戶端斷線
+     */
+    private boolean isClientDisconnect(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ClientDisconnectedException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 記錄生成消耗的 token 數（模型未返回用量時略過）
+     */
+    private void recordTokenUsage(ChatResponse chatResponse) {
+        Usage usage = chatResponse.getMetadata().getUsage();
+        if (usage != null && usage.getTotalTokens() != null && usage.getTotalTokens() > 0) {
+            metricsService.recordGenerationTokens(usage.getTotalTokens());
         }
     }
 
@@ -399,39 +1414,13 @@ public class AdvancedRAGService {
         try {
             log.debug("開始查詢內容審核");
 
-            // 並行執行兩種審核
-            ModerationResult openAIResult = contentModerationService.moderateContent(query);
-            ModerationResult customRuleResult = customRuleModerationService.moderateContent(query);
-
-            // 計算綜合結果（各占 50% 權重）
-            double combinedScore = (openAIResult.getModerationScore() * 0.5) +
-                    (customRuleResult.getModerationScore() * 0.5);
-
-            // 只要有一個審核不通過，則綜合結果不通過
-            boolean flagged = openAIResult.getFlagged() || customRuleResult.getFlagged();
-
-            // 構建原因
-            String reason = flagged ?
-                    String.format("OpenAI: %s; 自定義規則: %s",
-                            openAIResult.getReason(), customRuleResult.getReason()) :
-                    "內容正常";
-
-            return ModerationResult.builder()
-                    .flagged(flagged)
-                    .passed(!flagged)
-                    .moderationScore(combinedScore)
-                    .reason(reason)
-                    .build();
+            // 並行執行兩種審核，任一不通過即提前返回
+            return dualModerationService.moderate(query);
 
         } catch (Exception e) {
             log.error("查詢內容審核失敗", e);
             // 審核失敗時返回通過（避免誤攔截）
-            return ModerationResult.builder()
-                    .flagged(false)
-                    .passed(true)
-                    .moderationScore(0.0)
-                    .reason("審核服務不可用，默認通過")
-                    .build();
+            return moderationUnavailable();
         }
     }
 
@@ -445,39 +1434,56 @@ public class AdvancedRAGService {
         try {
             log.debug("開始答案內容審核");
 
-            // 並行執行兩種審核
-            ModerationResult openAIResult = contentModerationService.moderateContent(answer);
-            ModerationResult customRuleResult = customRuleModerationService.moderateContent(answer);
+            // 並行執行兩種審核，任一不通過即提前返回
+            return dualModerationService.moderate(answer);
+
+        } catch (Exception e) {
+            log.error("答案內容審核失敗", e);
+            // 審核失敗時返回通過（避免誤攔截）
+            return moderationUnavailable();
+        }
+    }
+
+    /**
+     * 查詢預處理結果
+     *
+     * @param query 用於檢索的主查詢（重寫後或原始查詢）
+     * @param expansions 擴展查詢
+     */
+    private record PreprocessedQuery(String query, List<String> expansions) {
+    }
 
-            // 計算綜合結果（各占 50% 權重）
-            double combinedScore = (openAIResult.getModerationScore() * 0.5) +
-                    (customRuleResult.getModerationScore() * 0.5);
+    /**
+     * 生成結果
+     *
+     * @param text 答案文本（生成失敗時為給用戶的錯誤提示）
+     * @param succeeded 是否由模型成功生成
+     */
+    record GeneratedAnswer(String text, boolean succeeded) {
 
-            // 只要有一個審核不通過，則綜合結果不通過
-            boolean flagged = openAIResult.getFlagged() || customRuleResult.getFlagged();
+        static GeneratedAnswer failed(String message) {
+            return new GeneratedAnswer(message, false);
+        }
+    }
 
-            // 構建原因
-            String reason = flagged ?
-                    String.format("OpenAI: %s; 自定義規則: %s",
-                            openAIResult.getReason(), customRuleResult.getReason()) :
-                    "內容正常";
+    /**
+     * 串流生成結果
+     *
+     * @param prompt 送出的 Prompt 文本（模型未返回用量時估算 token 數）
+     * @param answer 已生成的答案（審核中止時為中止前的部分）
+     * @param usage 模型返回的 token 用量（可為 null）
+     * @param firstTokenMs 首個 token 的到達時間（自請求開始，未生成任何內容時為 null）
+     */
+    private record StreamedAnswer(String prompt, String answer, Usage usage, Long firstTokenMs) {
+    }
 
-            return ModerationResult.builder()
-                    .flagged(flagged)
-                    .passed(!flagged)
-                    .moderationScore(combinedScore)
-                    .reason(reason)
-                    .build();
+    /**
+     * 串流事件送出失敗（客戶端已斷線或連線已逾時關閉）
+     */
+    private static final class ClientDisconnectedException extends RuntimeException {
 
-        } catch (Exception e) {
-            log.error("答案內容審核失敗", e);
-            // 審核失敗時返回通過（避免誤攔截）
-            return ModerationResult.builder()
-                    .flagged(false)
-                    .passed(true)
-                    .moderationScore(0.0)
-                    .reason("審核服務不可用，默認通過")
-                    .build();
+        ClientDisconnectedException(Exception cause) {
+            super(cause);
         }
     }
 }
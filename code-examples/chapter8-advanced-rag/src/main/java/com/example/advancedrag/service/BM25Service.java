@@ -1,92 +1,265 @@
 package com.example.advancedrag.service;
 
+import com.example.advancedrag.index.CjkBigramAnalyzer;
+import com.example.advancedrag.index.InvertedIndex;
+import com.example.advancedrag.model.ScoredDocument;
+import com.example.advancedrag.properties.RAGProperties;
+import com.example.advancedrag.util.MetadataJson;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
 
 /**
  * BM25 評分服務
  *
- * 實現 BM25 算法用於計算文檔與查詢的相關性分數
- * BM25 是一種基於詞頻的排序算法，廣泛用於信息檢索
+ * 基於內存倒排索引（{@link InvertedIndex}）實現 BM25 關鍵詞檢索與評分：
+ * - 中日韓感知分詞（二元組切分）
+ * - 真實的 IDF 與平均文檔長度統計
+ * - 增量新增 / 刪除文檔
+ * - WAND Top-K 查詢
+ *
+ * 啟動時從 PgVector 資料表載入既有文檔建立索引，之後由文檔管理服務增量維護。
  */
 @Slf4j
 @Service
 public class BM25Service {
 
-    // BM25 參數
-    private static final double K1 = 1.2;  // 詞頻飽和參數
-    private static final double B = 0.75;  // 長度正規化參數
+    private final RAGProperties ragProperties;
+    private final ObjectProvider<JdbcTemplate> jdbcTemplateProvider;
+    private final String vectorTableName;
+    private final InvertedIndex index;
+
+    public BM25Service(RAGProperties ragProperties,
+                       ObjectProvider<JdbcTemplate> jdbcTemplateProvider,
+                       @Value("${spring.ai.vectorstore.pgvector.table-name:vector_store}") String vectorTableName) {
+        this.ragProperties = ragProperties;
+        this.jdbcTemplateProvider = jdbcTemplateProvider;
+        this.vectorTableName = vectorTableName;
+        RAGProperties.KeywordIndex config = ragProperties.getKeywordIndex();
+        this.index = new InvertedIndex(config.getK1(), config.getB());
+    }
+
+    // ========== 索引維護 ==========
 
     /**
-     * 計算 BM25 分數
+     * 索引單個文檔（同 ID 覆蓋）
      *
-     * @param content 文檔內容
-     * @param query 查詢文本
-     * @param keywords 關鍵詞列表
-     * @return BM25 分數（0-1）
+     * @param document 文檔
      */
-    public double calculateBM25Score(String content, String query, List<String> keywords) {
-        if (keywords == null || keywords.isEmpty()) {
-            return 0.5; // 無關鍵詞時返回中等分數
+    public void indexDocument(Document document) {
+        index.add(document);
+    }
+
+    /**
+     * 批次索引文檔
+     *
+     * @param documents 文檔列表
+     */
+    public void indexDocuments(List<Document> documents) {
+        documents.forEach(index::add);
+        log.debug("關鍵詞索引新增 {} 個文檔，索引統計: {}", documents.size(), index.stats());
+    }
+
+    /**
+     * 從索引中移除文檔
+     *
+     * @param documentId 文檔 ID
+     * @return 是否存在並已移除
+     */
+    public boolean removeDocument(String documentId) {
+        return index.delete(documentId);
+    }
+
+    /**
+     * 獲取索引統計
+     */
+    public InvertedIndex.Stats getIndexStats() {
+        return index.stats();
+    }
+
+    /**
+     * 應用啟動後從 PgVector 資料表載入既有文檔
+     */
+    @Async("taskExecutor")
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadIndexOnStartup() {
+        RAGProperties.KeywordIndex config = ragProperties.getKeywordIndex();
+        if (!config.getEnabled() || !config.getLoadOnStartup()) {
+            return;
         }
 
-        String lowerContent = content.toLowerCase();
-        String lowerQuery = query.toLowerCase();
+        JdbcTemplate jdbcTemplate = jdbcTemplateProvider.getIfAvailable();
+        if (jdbcTemplate == null) {
+            log.warn("未找到 JdbcTemplate，跳過關鍵詞索引載入");
+            return;
+        }
 
-        // 簡化版 BM25：基於關鍵詞匹配和詞頻
-        double score = 0.0;
-        int totalMatches = 0;
+        long startTime = System.currentTimeMillis();
+        try {
+            jdbcTemplate.query("SELECT id, content, metadata FROM " + vectorTableName, rs -> {
+                String id = rs.getString("id");
+                String content = rs.getString("content");
+                if (content != null) {
+                    index.add(Document.builder()
+                            .id(id)
+                            .text(content)
+                            .metadata(MetadataJson.parse(rs.getString("metadata")))
+                            .build());
+                }
+            });
+            log.info("關鍵詞索引載入完成，耗時: {}ms，索引統計: {}",
+                    System.currentTimeMillis() - startTime, index.stats());
+        } catch (Exception e) {
+            log.warn("關鍵詞索引載入失敗，將僅索引新增文檔: {}", e.getMessage());
+        }
+    }
 
-        for (String keyword : keywords) {
-            String lowerKeyword = keyword.toLowerCase();
-            int termFreq = countOccurrences(lowerContent, lowerKeyword);
+    // ========== 查詢與評分 ==========
 
-            if (termFreq > 0) {
-                totalMatches++;
+    /**
+     * 關鍵詞檢索
+     *
+     * @param query 查詢文本
+     * @param keywords 關鍵詞列表（可為空）
+     * @param topK 返回數量
+     * @return 評分文檔列表（bm25Score 已正規化到 0-1）
+     */
+    public List<ScoredDocument> search(String query, List<String> keywords, int topK) {
+        return search(query, keywords, topK, null);
+    }
 
-                // TF 部分（詞頻）使用 BM25 飽和函數
-                // BM25 TF: (tf * (k1 + 1)) / (tf + k1 * (1 - b + b * (docLength / avgDocLength)))
-                // 簡化版本：不計算平均文檔長度
-                double tf = (double) termFreq * (K1 + 1) / (termFreq + K1);
-                score += tf;
-            }
+    /**
+     * 關鍵詞檢索（在 Top-K 查詢中套用元數據過濾，不符合的文檔不佔名額）
+     *
+     * @param query 查詢文本
+     * @param keywords 關鍵詞列表（可為空）
+     * @param topK 返回數量
+     * @param filter 文檔過濾條件（可為 null）
+     * @return 評分文檔列表（bm25Score 已正規化到 0-1）
+     */
+    public List<ScoredDocument> search(String query, List<String> keywords, int topK, Predicate<Document> filter) {
+        if (!ragProperties.getKeywordIndex().getEnabled()) {
+            return List.of();
         }
 
-        // 正規化分數
-        if (!keywords.isEmpty()) {
-            score = score / keywords.size();
+        Set<String> queryTerms = queryTerms(query, keywords);
+        if (queryTerms.isEmpty()) {
+            return List.of();
         }
 
-        // 額外加分：查詢完整匹配
-        if (lowerContent.contains(lowerQuery)) {
-            score = Math.min(1.0, score + 0.2);
+        double maxScore = index.maxScore(queryTerms);
+        List<InvertedIndex.Hit> hits = index.search(queryTerms, topK, filter);
+
+        List<ScoredDocument> results = new ArrayList<>(hits.size());
+        for (InvertedIndex.Hit hit : hits) {
+            double normalized = normalize(hit.score(), maxScore);
+            results.add(ScoredDocument.builder()
+                    .document(hit.document())
+                    .score(normalized)
+                    .bm25Score(normalized)
+                    .build());
         }
+        return results;
+    }
+
+    /**
+     * 計算 BM25 分數（文檔已索引時直接使用索引中的詞頻）
+     *
+     * @param document 文檔
+     * @param query 查詢文本
+     * @param keywords 關鍵詞列表
+     * @return BM25 分數（0-1）
+     */
+    public double calculateBM25Score(Document document, String query, List<String> keywords) {
+        return calculateBM25Score(document, prepareQuery(query, keywords));
+    }
 
-        return Math.min(1.0, score);
+    /**
+     * 預先分詞並計算正規化上限，供同一查詢對多個候選評分時重用
+     *
+     * @param query 查詢文本
+     * @param keywords 關鍵詞列表
+     * @return 預處理後的查詢
+     */
+    public PreparedQuery prepareQuery(String query, List<String> keywords) {
+        Set<String> queryTerms = queryTerms(query, keywords);
+        return new PreparedQuery(queryTerms, queryTerms.isEmpty() ? 0.0 : index.maxScore(queryTerms));
     }
 
     /**
-     * 計算關鍵詞在內容中出現的次數
+     * 以預處理後的查詢計算 BM25 分數（可由多個線程同時調用）
      *
-     * @param content 內容
-     * @param keyword 關鍵詞
-     * @return 出現次數
+     * @param document 文檔
+     * @param query 預處理後的查詢
+     * @return BM25 分數（0-1）
      */
-    private int countOccurrences(String content, String keyword) {
-        if (content == null || keyword == null || keyword.isEmpty()) {
-            return 0;
+    public double calculateBM25Score(Document document, PreparedQuery query) {
+        if (query.terms().isEmpty()) {
+            return 0.0;
         }
 
-        int count = 0;
-        int index = 0;
+        double raw = index.score(document.getId(), query.terms());
+        if (raw < 0) {
+            raw = index.scoreTerms(CjkBigramAnalyzer.analyze(document.getText()), query.terms());
+        }
+        return normalize(raw, query.maxScore());
+    }
 
-        while ((index = content.indexOf(keyword, index)) != -1) {
-            count++;
-            index += keyword.length();
+    /**
+     * 計算 BM25 分數（對任意文本分詞後以索引統計評分）
+     *
+     * @param content 文檔內容
+     * @param query 查詢文本
+     * @param keywords 關鍵詞列表
+     * @return BM25 分數（0-1）
+     */
+    public double calculateBM25Score(String content, String query, List<String> keywords) {
+        Set<String> queryTerms = queryTerms(query, keywords);
+        if (queryTerms.isEmpty() || content == null) {
+            return 0.0;
         }
 
-        return count;
+        double raw = index.scoreTerms(CjkBigramAnalyzer.analyze(content), queryTerms);
+        return normalize(raw, index.maxScore(queryTerms));
+    }
+
+    /**
+     * 組合查詢文本與關鍵詞的查詢詞集合
+     */
+    private Set<String> queryTerms(String query, List<String> keywords) {
+        Set<String> terms = new LinkedHashSet<>();
+        CjkBigramAnalyzer.analyze(query, terms::add);
+        if (keywords != null) {
+            for (String keyword : keywords) {
+                CjkBigramAnalyzer.analyze(keyword, terms::add);
+            }
+        }
+        return terms;
+    }
+
+    private double normalize(double raw, double maxScore) {
+        return maxScore > 0 ? Math.min(1.0, raw / maxScore) : 0.0;
+    }
+
+    /**
+     * 預處理後的查詢
+     *
+     * @param terms 查詢詞集合
+     * @param maxScore 正規化上限
+     */
+    public record PreparedQuery(Set<String> terms, double maxScore) {
     }
 }
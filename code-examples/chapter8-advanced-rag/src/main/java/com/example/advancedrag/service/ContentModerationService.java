@@ -1,13 +1,15 @@
 package com.example.advancedrag.service;
 
 import com.example.advancedrag.dto.ModerationResult;
-import com.example.advancedrag.properties.RAGProperties;
-import lombok.RequiredArgsConstructor;
+import com.example.advancedrag.properties.ModerationProperties;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.ai.chat.client.ChatClient;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
 
+import java.text.Normalizer;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -23,19 +25,37 @@ import java.util.Map;
  * - 暴力內容（violence）
  *
  * 審核權重：50%
+ *
+ * 審核結果以正規化內容（NFKC、小寫、合併空白）的 SHA-256 為鍵快取，
+ * 同一內容（如重複的查詢）不會重複調用 API。
  */
 @Slf4j
 @Service
-@RequiredArgsConstructor
 public class ContentModerationService {
 
-    private final RAGProperties ragProperties;
-    private final RestTemplate restTemplate;
+    /**
+     * API 不可用結果在 details 中的標記鍵
+     */
+    static final String DETAIL_UNAVAILABLE = "unavailable";
+
+    private final OpenAIModerationClient moderationClient;
+    private final ModerationProperties moderationProperties;
 
     /**
-     * OpenAI Moderation API 端點
+     * 審核結果快取（僅快取 API 成功返回的結果）
      */
-    private static final String MODERATION_API_URL = "https://api.openai.com/v1/moderations";
+    private final Cache<String, ModerationResult> verdictCache;
+
+    public ContentModerationService(OpenAIModerationClient moderationClient,
+                                    ModerationProperties moderationProperties) {
+        this.moderationClient = moderationClient;
+        this.moderationProperties = moderationProperties;
+        ModerationProperties.VerdictCache config = moderationProperties.getVerdictCache();
+        this.verdictCache = CacheBuilder.newBuilder()
+                .maximumSize(config.getMaxEntries())
+                .expireAfterWrite(config.getTtl())
+                .build();
+    }
 
     /**
      * 審核內容
@@ -49,11 +69,17 @@ public class ContentModerationService {
         try {
             log.debug("開始 OpenAI 內容審核，內容長度: {}", content.length());
 
-            // 調用 OpenAI Moderation API
-            ModerationApiResponse apiResponse = callOpenAIModerationAPI(content);
+            String cacheKey = verdictKey(content);
+            ModerationResult cached = getCachedVerdict(cacheKey);
+            if (cached != null) {
+                cached.setProcessingTimeMs(System.currentTimeMillis() - startTime);
+                log.debug("OpenAI 審核命中快取");
+                return cached;
+            }
 
-            // 解析審核結果
-            ModerationResult result = parseApiResponse(apiResponse);
+            // 調用 OpenAI Moderation API（並發請求會被合併為一次調用）
+            ModerationResult result = parseApiResult(moderationClient.moderate(content));
+            putCachedVerdict(cacheKey, result);
 
             long processingTime = System.currentTimeMillis() - startTime;
             result.setProcessingTimeMs(processingTime);
@@ -67,13 +93,7 @@ public class ContentModerationService {
             log.error("OpenAI 內容審核失敗", e);
 
             // 審核失敗時返回安全默認值（標記為不通過）
-            return ModerationResult.builder()
-                    .flagged(true)
-                    .passed(false)
-                    .moderationScore(1.0)
-                    .reason("審核服務暫時不可用")
-                    .processingTimeMs(System.currentTimeMillis() - startTime)
-                    .build();
+            return unavailableResult(System.currentTimeMillis() - startTime);
         }
     }
 
@@ -85,62 +105,124 @@ public class ContentModerationService {
      */
     public List<ModerationResult> moderateContents(List<String> contents) {
         log.info("開始批次審核，數量: {}", contents.size());
+        long startTime = System.currentTimeMillis();
 
-        return contents.stream()
-                .map(this::moderateContent)
-                .toList();
+        ModerationResult[] results = new ModerationResult[contents.size()];
+        String[] keys = new String[contents.size()];
+        List<Integer> missIndexes = new ArrayList<>();
+        for (int i = 0; i < contents.size(); i++) {
+            keys[i] = verdictKey(contents.get(i));
+            results[i] = getCachedVerdict(keys[i]);
+            if (results[i] == null) {
+                missIndexes.add(i);
+            }
+        }
+
+        if (!missIndexes.isEmpty()) {
+            try {
+                // 未命中快取的內容以單次多輸入調用送出
+                List<OpenAIModerationClient.ApiResult> apiResults = moderationClient.moderate(
+                        missIndexes.stream().map(contents::get).toList());
+                for (int i = 0; i < missIndexes.size(); i++) {
+                    int index = missIndexes.get(i);
+                    results[index] = parseApiResult(apiResults.get(i));
+                    putCachedVerdict(keys[index], results[index]);
+                }
+            } catch (Exception e) {
+                log.error("OpenAI 批次審核失敗", e);
+                for (int index : missIndexes) {
+                    results[index] = unavailableResult(0L);
+                }
+            }
+        }
+
+        long processingTime = System.currentTimeMillis() - startTime;
+        for (ModerationResult result : results) {
+            result.setProcessingTimeMs(processingTime);
+        }
+        log.info("批次審核完成，數量: {}，快取命中: {}，耗時: {}ms",
+                contents.size(), contents.size() - missIndexes.size(), processingTime);
+
+        return List.of(results);
     }
 
     /**
-     * 調用 OpenAI Moderation API
+     * 判斷審核結果是否為 API 不可用時的安全默認值（而非 API 的實際判定）
      *
-     * @param content 待審核內容
-     * @return API 響應
+     * @param result 審核結果
+     * @return 是否為不可用結果
      */
-    private ModerationApiResponse callOpenAIModerationAPI(String content) {
-        try {
-            // 構建請求
-            Map<String, Object> requestBody = new HashMap<>();
-            requestBody.put("input", content);
-            requestBody.put("model", "text-moderation-stable");
-
-            // 設置請求頭
-            org.springframework.http.HttpHeaders headers = new org.springframework.http.HttpHeaders();
-            headers.set("Authorization", "Bearer " + ragProperties.getOpenaiApiKey());
-            headers.set("Content-Type", "application/json");
-
-            org.springframework.http.HttpEntity<Map<String, Object>> request =
-                    new org.springframework.http.HttpEntity<>(requestBody, headers);
-
-            // 調用 API
-            org.springframework.http.ResponseEntity<ModerationApiResponse> response =
-                    restTemplate.postForEntity(
-                            MODERATION_API_URL,
-                            request,
-                            ModerationApiResponse.class
-                    );
-
-            if (response.getBody() == null || response.getBody().getResults() == null ||
-                    response.getBody().getResults().isEmpty()) {
-                throw new RuntimeException("OpenAI Moderation API 返回空結果");
-            }
+    public static boolean isUnavailable(ModerationResult result) {
+        return result != null && result.getDetails() != null
+                && Boolean.TRUE.equals(result.getDetails().get(DETAIL_UNAVAILABLE));
+    }
+
+    /**
+     * 構建 API 不可用時的安全默認值（標記為不通過，並在 details 中註明不可用）
+     */
+    private ModerationResult unavailableResult(long processingTimeMs) {
+        Map<String, Object> details = new HashMap<>();
+        details.put(DETAIL_UNAVAILABLE, true);
+        return ModerationResult.builder()
+                .flagged(true)
+                .passed(false)
+                .moderationScore(1.0)
+                .reason("審核服務暫時不可用")
+                .processingTimeMs(processingTimeMs)
+                .details(details)
+                .build();
+    }
 
-            return response.getBody();
+    /**
+     * 計算審核快取鍵：正規化後內容的 SHA-256
+     *
+     * @param content 內容
+     * @return 快取鍵
+     */
+    static String verdictKey(String content) {
+        String normalized = Normalizer.normalize(content, Normalizer.Form.NFKC)
+                .toLowerCase()
+                .replaceAll("\\s+", " ")
+                .trim();
+        return DigestUtils.sha256Hex(normalized);
+    }
 
-        } catch (Exception e) {
-            log.error("調用 OpenAI Moderation API 失敗", e);
-            throw new RuntimeException("Moderation API 調用失敗: " + e.getMessage(), e);
+    private ModerationResult getCachedVerdict(String key) {
+        if (!moderationProperties.getVerdictCache().getEnabled()) {
+            return null;
+        }
+        ModerationResult cached = verdictCache.getIfPresent(key);
+        return cached != null ? copyOf(cached) : null;
+    }
+
+    private void putCachedVerdict(String key, ModerationResult result) {
+        if (moderationProperties.getVerdictCache().getEnabled()) {
+            verdictCache.put(key, copyOf(result));
         }
     }
 
+    /**
+     * 複製審核結果（快取中的實例不對外暴露，避免被修改）
+     */
+    private ModerationResult copyOf(ModerationResult result) {
+        return ModerationResult.builder()
+                .flagged(result.getFlagged())
+                .passed(result.getPassed())
+                .moderationScore(result.getModerationScore())
+                .reason(result.getReason())
+                .flaggedCategories(new ArrayList<>(result.getFlaggedCategories()))
+                .processingTimeMs(result.getProcessingTimeMs())
+                .details(new HashMap<>(result.getDetails()))
+                .build();
+    }
+
     /**
      * 解析 API 響應
      *
-     * @param apiResponse API 響應
+     * @param result API 結果
      * @return 審核結果
      */
-    private ModerationResult parseApiResponse(ModerationApiResponse apiResponse) {
-        ModerationApiResult result = apiResponse.getResults().get(0);
+    private ModerationResult parseApiResult(OpenAIModerationClient.ApiResult result) {
 
         ModerationResult.ModerationResultBuilder builder = ModerationResult.builder()
                 .flagged(result.isFlagged())
@@ -204,34 +286,4 @@ public class ContentModerationService {
                 String.join(", ", flaggedCategories),
                 primaryCategory != null ? primaryCategory : flaggedCategories.get(0));
     }
-
-    /**
-     * OpenAI Moderation API 響應
-     */
-    @lombok.Data
-    private static class ModerationApiResponse {
-        private String id;
-        private String model;
-        private List<ModerationApiResult> results;
-    }
-
-    /**
-     * OpenAI Moderation API 結果
-     */
-    @lombok.Data
-    private static class ModerationApiResult {
-        private boolean flagged;
-        private Map<String, Boolean> categories;
-        private Map<String, Double> categoryScores;
-
-        /**
-         * 獲取類別分數映射
-         */
-        public Map<String, Double> getCategoryScores() {
-            if (categoryScores == null) {
-                return new HashMap<>();
-            }
-            return categoryScores;
-        }
-    }
 }
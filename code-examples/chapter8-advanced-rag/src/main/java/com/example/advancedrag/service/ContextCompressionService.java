@@ -0,0 +1,248 @@
+package com.example.advancedrag.service;
+
+import com.example.advancedrag.model.EmbeddingContext;
+import com.example.advancedrag.model.RetrievalContext;
+import com.example.advancedrag.model.ScoredDocument;
+import com.example.advancedrag.properties.RAGProperties;
+import com.example.advancedrag.util.TextUtil;
+import com.example.advancedrag.util.VectorUtil;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.ai.document.Document;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+/**
+ * 查詢導向的抽取式上下文壓縮服務
+ *
+ * 在生成前把每篇文檔切分為句子，只保留與查詢最相似的句子及其相鄰句，直到達到目標壓縮比例：
+ * - 所有文檔的句子以一次 {@link SmartEmbeddingService#embedAll} 批次生成向量，句子向量按文本快取（L1 / L2），
+ *   相同分塊再次出現時不重新調用模型
+ * - 查詢向量重用檢索階段存入 {@link RetrievalContext} 的向量
+ * - 保留的句子按原文順序拼接，不連續處以省略標記分隔
+ * - 壓縮失敗時返回原始文檔
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ContextCompressionService {
+
+    /**
+     * 不連續句子之間的省略標記
+     */
+    private static final String GAP_MARK = "...";
+
+    private final RAGProperties ragProperties;
+    private final SmartEmbeddingService embeddingService;
+    private final TokenCounter tokenCounter;
+    private final RAGMetricsService metricsService;
+
+    /**
+     * 壓縮結果
+     *
+     * @param documents 壓縮後的文檔（順序與輸入一致）
+     * @param originalTokens 壓縮前的內容 token 數
+     * @param compressedTokens 壓縮後的內容 token 數
+     */
+    public record Compression(List<ScoredDocument> documents, int originalTokens, int compressedTokens) {
+
+        /**
+         * 節省的 token 數
+         */
+        public int tokensSaved() {
+            return Math.max(0, originalTokens - compressedTokens);
+        }
+    }
+
+    /**
+     * 是否啟用
+     */
+    public boolean isEnabled() {
+        return Boolean.TRUE.equals(ragProperties.getContextCompression().getEnabled());
+    }
+
+    /**
+     * 壓縮文檔內容
+     *
+     * @param query 查詢文本（與檢索時相同，以重用查詢向量）
+     * @param documents 文檔列表
+     * @param context 檢索上下文（可為 null）
+     * @return 壓縮結果
+     */
+    public Compression compress(String query, List<ScoredDocument> documents, RetrievalContext context) {
+        if (!isEnabled() || StringUtils.isBlank(query) || documents.isEmpty()) {
+            return unchanged(documents);
+        }
+
+        long startTime = System.currentTimeMillis();
+        try {
+            Function<String, float[]> loader = text -> embeddingService.embed(text, EmbeddingContext.highAccuracy());
+            float[] queryVector = context != null ? context.queryVector(query, loader) : loader.apply(query);
+
+            Compression compression = compress(queryVector, documents,
+                    texts -> embeddingService.embedAll(texts, EmbeddingContext.highAccuracy()));
+            metricsService.recordContextCompression(compression.originalTokens(), compression.compressedTokens());
+            log.info("上下文壓縮完成，耗時: {}ms，tokens: {} -> {}（節省 {}）",
+                    System.currentTimeMillis() - startTime, compression.originalTokens(),
+                    compression.compressedTokens(), compression.tokensSaved());
+            return compression;
+
+        } catch (Exception e) {
+            log.error("上下文壓縮失敗，使用原始文檔", e);
+            return unchanged(documents);
+        }
+    }
+
+    /**
+     * 以指定的句子向量生成函數壓縮文檔
+     *
+     * @param queryVector 查詢向量
+     * @param documents 文檔列表
+     * @param embedder 批次向量生成函數
+     * @return 壓縮結果
+     */
+    Compression compress(float[] queryVector, List<ScoredDocument> documents,
+                         Function<List<String>, List<float[]>> embedder) {
+        RAGProperties.ContextCompression config = ragProperties.getContextCompression();
+        double ratio = Math.min(1.0, Math.max(0.0, config.getRatio()));
+        int window = Math.max(0, config.getNeighbourWindow());
+
+        // 1. 切分句子，收集需要向量的句子（沒有文字的句子不送往模型）
+        int n = documents.size();
+        int[] documentTokens = new int[n];
+        List<List<String>> sentencesByDocument = new ArrayList<>(n);
+        List<String> toEmbed = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            Document document = documents.get(i).getDocument();
+            documentTokens[i] = tokenCounter.count(document);
+            List<String> sentences = documentTokens[i] >= config.getMinDocumentTokens()
+                    ? TextUtil.splitSentences(document.getText())
+                    : List.of();
+            // 少於 3 句的文檔壓縮後與原文相差無幾
+            if (sentences.size() < 3) {
+                sentences = List.of();
+            }
+            sentencesByDocument.add(sentences);
+            for (String sentence : sentences) {
+                if (isEmbeddable(sentence)) {
+                    toEmbed.add(sentence.strip());
+                }
+            }
+        }
+
+        int originalTokens = 0;
+        for (int tokens : documentTokens) {
+            originalTokens += tokens;
+        }
+        if (toEmbed.isEmpty()) {
+            return new Compression(documents, originalTokens, originalTokens);
+        }
+
+        // 2. 一次批次生成所有句子向量
+        List<float[]> vectors = embedder.apply(toEmbed);
+
+        // 3. 逐篇選擇句子
+        List<ScoredDocument> compressed = new ArrayList<>(n);
+        int compressedTokens = 0;
+        int vectorIndex = 0;
+        for (int i = 0; i < n; i++) {
+            ScoredDocument doc = documents.get(i);
+            List<String> sentences = sentencesByDocument.get(i);
+            if (sentences.isEmpty()) {
+                compressed.add(doc);
+                compressedTokens += documentTokens[i];
+                continue;
+            }
+
+            double[] similarities = new double[sentences.size()];
+            int[] sentenceTokens = new int[sentences.size()];
+            for (int s = 0; s < sentences.size(); s++) {
+                String sentence = sentences.get(s);
+                sentenceTokens[s] = tokenCounter.count(sentence);
+                similarities[s] = isEmbeddable(sentence)
+                        ? VectorUtil.cosineSimilarity(queryVector, vectors.get(vectorIndex++))
+                        : Double.NEGATIVE_INFINITY;
+            }
+
+            boolean[] keep = selectSentences(similarities, sentenceTokens, (int) Math.ceil(documentTokens[i] * ratio),
+                    window);
+            String text = join(sentences, keep);
+            int tokens = tokenCounter.count(text);
+            if (tokens >= documentTokens[i]) {
+                compressed.add(doc);
+                compressedTokens += documentTokens[i];
+            } else {
+                compressed.add(doc.withContent(text));
+                compressedTokens += tokens;
+            }
+        }
+
+        return new Compression(compressed, originalTokens, compressedTokens);
+    }
+
+    /**
+     * 按相似度由高到低選擇句子（連同相鄰句），直到保留的 token 數達到目標
+     *
+     * @param similarities 各句與查詢的相似度（沒有文字的句子為負無窮）
+     * @param sentenceTokens 各句 token 數
+     * @param targetTokens 目標 token 數
+     * @param window 相鄰句窗口
+     * @return 各句是否保留
+     */
+    static boolean[] selectSentences(double[] similarities, int[] sentenceTokens, int targetTokens, int window) {
+        int count = similarities.length;
+        boolean[] keep = new boolean[count];
+        int[] order = IntStream.range(0, count).boxed()
+                .sorted(Comparator.comparingDouble((Integer s) -> similarities[s]).reversed())
+                .mapToInt(Integer::intValue)
+                .toArray();
+
+        int kept = 0;
+        for (int anchor : order) {
+            if (kept >= targetTokens || similarities[anchor] == Double.NEGATIVE_INFINITY) {
+                break;
+            }
+            for (int s = Math.max(0, anchor - window); s <= Math.min(count - 1, anchor + window); s++) {
+                if (!keep[s]) {
+                    keep[s] = true;
+                    kept += sentenceTokens[s];
+                }
+            }
+        }
+        return keep;
+    }
+
+    /**
+     * 句子含有文字或數字（預處理後不為空）
+     */
+    private static boolean isEmbeddable(String sentence) {
+        return StringUtils.isNotBlank(TextUtil.cleanSpecialChars(sentence));
+    }
+
+    private String join(List<String> sentences, boolean[] keep) {
+        StringBuilder text = new StringBuilder();
+        boolean gap = false;
+        for (int s = 0; s < sentences.size(); s++) {
+            if (!keep[s]) {
+                gap = true;
+                continue;
+            }
+            if (gap && !text.isEmpty()) {
+                text.append(GAP_MARK);
+            }
+            text.append(sentences.get(s));
+            gap = false;
+        }
+        return text.toString().strip();
+    }
+
+    private Compression unchanged(List<ScoredDocument> documents) {
+        return new Compression(documents, 0, 0);
+    }
+}
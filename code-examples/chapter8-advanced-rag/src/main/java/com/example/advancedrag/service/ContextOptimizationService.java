@@ -1,14 +1,19 @@
 package com.example.advancedrag.service;
 
+import com.example.advancedrag.index.NearDuplicateDetector;
+import com.example.advancedrag.index.SimHash;
 import com.example.advancedrag.model.RAGQueryOptions;
+import com.example.advancedrag.model.RetrievalContext;
 import com.example.advancedrag.model.ScoredDocument;
 import com.example.advancedrag.properties.RAGProperties;
+import com.example.advancedrag.util.TextUtil;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.document.Document;
 import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -16,18 +21,50 @@ import java.util.stream.Collectors;
  * 上下文優化服務
  *
  * 功能：
- * 1. 上下文長度控制（避免超出 LLM token 限制）
+ * 1. 上下文長度控制（按真實 token 數在預算內打包，避免超出 LLM token 限制）
  * 2. 文檔去重（移除相似或重複的文檔）
  * 3. 上下文排序（按相關性排序）
  * 4. 上下文格式化（為 LLM 生成優化的上下文）
  * 5. 動態上下文截斷（智能截斷過長內容）
+ * 6. 查詢導向的抽取式壓縮（見 {@link ContextCompressionService}，在去重後、打包前執行）
  */
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class ContextOptimizationService {
 
+    /**
+     * 上下文前言（計入 token 預算）
+     */
+    private static final String CONTEXT_PREAMBLE = "以下是檢索到的相關文檔：\n\n";
+
+    /**
+     * 部分文檔的截斷標記
+     */
+    private static final String TRUNCATION_MARK = "...";
+
+    /**
+     * 背包動態規劃的最大容量格數（預算更大時按比例放大每格的 token 數，重量向上取整，不會超出預算）
+     */
+    private static final int MAX_KNAPSACK_CAPACITY = 4096;
+
     private final RAGProperties ragProperties;
+    private final TokenCounter tokenCounter;
+
+    /**
+     * 上下文壓縮服務（可為 null，不壓縮）
+     */
+    private final ContextCompressionService contextCompressionService;
+
+    /**
+     * 優化後的上下文
+     *
+     * @param context 上下文字符串
+     * @param documentCount 放入上下文的文檔數
+     * @param tokensSaved 壓縮節省的 token 數
+     */
+    public record OptimizedContext(String context, int documentCount, int tokensSaved) {
+    }
 
     /**
      * 優化上下文
@@ -37,6 +74,34 @@ public class ContextOptimizationService {
      * @return 優化後的上下文字符串
      */
     public String optimizeContext(List<ScoredDocument> documents, RAGQueryOptions options) {
+        return optimizeContext(documents, options, null);
+    }
+
+    /**
+     * 優化上下文（共享檢索上下文）
+     *
+     * 檢索上下文中有文檔向量時，去重另以向量餘弦相似度判斷。
+     *
+     * @param documents 評分文檔列表
+     * @param options 查詢選項
+     * @param context 檢索上下文（可為 null）
+     * @return 優化後的上下文字符串
+     */
+    public String optimizeContext(List<ScoredDocument> documents, RAGQueryOptions options, RetrievalContext context) {
+        return optimize(null, documents, options, context).context();
+    }
+
+    /**
+     * 優化上下文（含查詢導向壓縮）
+     *
+     * @param query 查詢文本（為 null 時不壓縮）
+     * @param documents 評分文檔列表
+     * @param options 查詢選項
+     * @param context 檢索上下文（可為 null）
+     * @return 優化後的上下文
+     */
+    public OptimizedContext optimize(String query, List<ScoredDocument> documents, RAGQueryOptions options,
+                                     RetrievalContext context) {
         long startTime = System.currentTimeMillis();
 
         try {
@@ -47,20 +112,23 @@ public class ContextOptimizationService {
                     .sorted((a, b) -> Double.compare(b.getScore(), a.getScore()))
                     .toList();
 
-            // 2. 去重（移除內容相似的文檔）
-            List<ScoredDocument> dedupedDocs = deduplicateDocuments(sortedDocs);
-            log.debug("去重後文檔數量: {}", dedupedDocs.size());
-
-            // 3. 限制數量
-            List<ScoredDocument> limitedDocs = dedupedDocs.stream()
-                    .limit(options.getFinalTopK())
-                    .toList();
+            // 2. 去重（移除內容相似的文檔）並限制數量
+            List<ScoredDocument> limitedDocs = deduplicateDocuments(sortedDocs, context, options.getFinalTopK());
+            log.debug("去重後文檔數量: {}", limitedDocs.size());
+
+            // 3. 查詢導向壓縮（只保留與查詢相關的句子）
+            int tokensSaved = 0;
+            if (query != null && contextCompressionService != null && contextCompressionService.isEnabled()) {
+                ContextCompressionService.Compression compression =
+                        contextCompressionService.compress(query, limitedDocs, context);
+                limitedDocs = compression.documents();
+                tokensSaved = compression.tokensSaved();
+            }
 
-            // 4. 控制總長度
-            List<ScoredDocument> truncatedDocs = truncateToMaxLength(
-                    limitedDocs,
-                    options.getMaxContextLength()
-            );
+            // 4. 控制總長度（token 預算打包，或按字符數截斷）
+            List<ScoredDocument> truncatedDocs = Boolean.TRUE.equals(ragProperties.getContextPacking().getEnabled())
+                    ? packToTokenBudget(limitedDocs, resolveTokenBudget(options))
+                    : truncateToMaxLength(limitedDocs, options.getMaxContextLength());
 
             // 5. 格式化上下文
             String optimizedContext = formatContext(truncatedDocs);
@@ -69,75 +137,261 @@ public class ContextOptimizationService {
             log.info("上下文優化完成，耗時: {}ms，最終文檔數: {}，總長度: {}",
                     processingTime, truncatedDocs.size(), optimizedContext.length());
 
-            return optimizedContext;
+            return new OptimizedContext(optimizedContext, truncatedDocs.size(), tokensSaved);
 
         } catch (Exception e) {
             log.error("上下文優化失敗", e);
             // 降級處理：使用簡單格式化
-            return formatContextSimple(documents);
+            return new OptimizedContext(formatContextSimple(documents), Math.min(5, documents.size()), 0);
         }
     }
 
     /**
      * 去重文檔（基於內容相似度）
      *
-     * @param documents 文檔列表
+     * @param documents 文檔列表（按分數降序）
+     * @param context 檢索上下文（可為 null）
+     * @return 去重後的文檔列表
+     */
+    List<ScoredDocument> deduplicateDocuments(List<ScoredDocument> documents, RetrievalContext context) {
+        return deduplicateDocuments(documents, context, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 去重文檔，保留到 limit 個為止
+     *
+     * 1. SimHash 指紋（寫入時存於元數據）以分段桶查找近似重複，近似線性時間
+     * 2. 檢索上下文中有文檔向量時（先按 ID 一次批量載入），另與已保留的文檔比較餘弦相似度（最多 limit 次）
+     *
+     * @param documents 文檔列表（按分數降序）
+     * @param context 檢索上下文（可為 null）
+     * @param limit 最多保留的文檔數
      * @return 去重後的文檔列表
      */
-    private List<ScoredDocument> deduplicateDocuments(List<ScoredDocument> documents) {
+    List<ScoredDocument> deduplicateDocuments(List<ScoredDocument> documents, RetrievalContext context, int limit) {
+        RAGProperties.Deduplication config = ragProperties.getDeduplication();
+        NearDuplicateDetector detector = NearDuplicateDetector.withSimilarity(config.getSimhashThreshold());
         List<ScoredDocument> dedupedDocs = new ArrayList<>();
+        if (context != null) {
+            context.loadDocumentVectors(documents.stream().map(doc -> doc.getDocument().getId()).toList());
+        }
 
         for (ScoredDocument doc : documents) {
-            boolean isDuplicate = false;
-
-            // 檢查是否與已有文檔重複
-            for (ScoredDocument existingDoc : dedupedDocs) {
-                if (isSimilarContent(doc.getDocument(), existingDoc.getDocument())) {
-                    isDuplicate = true;
-                    log.debug("發現重複文檔，已跳過");
-                    break;
-                }
+            if (dedupedDocs.size() >= limit) {
+                break;
             }
 
-            if (!isDuplicate) {
-                dedupedDocs.add(doc);
+            long fingerprint = SimHash.fingerprint(doc.getDocument());
+            if (detector.isDuplicate(fingerprint)
+                    || isVectorDuplicate(doc.getDocument(), dedupedDocs, context, config.getVectorThreshold())) {
+                log.debug("發現重複文檔，已跳過: {}", doc.getDocument().getId());
+                continue;
             }
+
+            detector.add(fingerprint);
+            dedupedDocs.add(doc);
         }
 
         return dedupedDocs;
     }
 
     /**
-     * 判斷兩個文檔內容是否相似
+     * 判斷文檔向量是否與已保留的文檔高度相似
      *
-     * @param doc1 文檔1
-     * @param doc2 文檔2
-     * @return 是否相似
+     * @param document 文檔
+     * @param keptDocs 已保留的文檔
+     * @param context 檢索上下文（可為 null）
+     * @param threshold 餘弦相似度閾值
+     * @return 是否重複
      */
-    private boolean isSimilarContent(Document doc1, Document doc2) {
-        String content1 = doc1.getText();
-        String content2 = doc2.getText();
+    private boolean isVectorDuplicate(Document document, List<ScoredDocument> keptDocs,
+                                      RetrievalContext context, double threshold) {
+        if (context == null || context.getDocumentVector(document.getId()) == null) {
+            return false;
+        }
+        for (ScoredDocument kept : keptDocs) {
+            Double similarity = context.documentSimilarity(document.getId(), kept.getDocument().getId());
+            if (similarity != null && similarity >= threshold) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-        // 簡化判斷：內容完全相同或高度重疊
-        if (content1.equals(content2)) {
-            return true;
+    private int resolveTokenBudget(RAGQueryOptions options) {
+        Integer requested = options.getMaxContextTokens();
+        return requested != null && requested > 0 ? requested : ragProperties.getContextPacking().getMaxTokens();
+    }
+
+    /**
+     * 在 token 預算內打包文檔
+     *
+     * 1. 以 0/1 背包選擇完整文檔：重量為文檔 token 數（含標題行），價值為相關性分數，
+     *    即在預算內最大化總相關性（短而相關的文檔優先於長而次要的文檔）
+     * 2. 剩餘預算按分數依次放入未選文檔的前幾句（句子邊界截斷），至少 minPartialTokens 個 token
+     * 3. 結果保持原排名順序
+     *
+     * @param documents 文檔列表（按分數降序）
+     * @param maxTokens token 預算（含前言與每篇文檔的標題行）
+     * @return 打包後的文檔列表
+     */
+    List<ScoredDocument> packToTokenBudget(List<ScoredDocument> documents, int maxTokens) {
+        int budget = maxTokens - tokenCounter.count(CONTEXT_PREAMBLE);
+        int n = documents.size();
+        if (n == 0 || budget <= 0) {
+            return List.of();
         }
 
-        // 計算內容重疊度
-        int minLength = Math.min(content1.length(), content2.length());
-        int maxLength = Math.max(content1.length(), content2.length());
+        int[] headerTokens = new int[n];
+        int[] weights = new int[n];
+        double[] values = new double[n];
+        for (int i = 0; i < n; i++) {
+            ScoredDocument doc = documents.get(i);
+            headerTokens[i] = tokenCounter.count(header(doc.getDocument(), n));
+            weights[i] = headerTokens[i] + tokenCounter.count(doc.getDocument());
+            // 零分文檔也保留微小價值，預算足夠時仍會放入
+            values[i] = Math.max(0.0, score(doc)) + 1e-6;
+        }
 
-        // 如果長度差異過大，不視為重複
-        if ((double) minLength / maxLength < 0.8) {
-            return false;
+        boolean[] selected = selectKnapsack(weights, values, budget);
+        int used = 0;
+        for (int i = 0; i < n; i++) {
+            if (selected[i]) {
+                used += weights[i];
+            }
+        }
+
+        // 剩餘預算放入部分文檔
+        ScoredDocument[] partials = new ScoredDocument[n];
+        int minPartialTokens = Math.max(1, ragProperties.getContextPacking().getMinPartialTokens());
+        int markTokens = tokenCounter.count(TRUNCATION_MARK);
+        List<Integer> remaining = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            if (!selected[i]) {
+                remaining.add(i);
+            }
+        }
+        remaining.sort(Comparator.comparingDouble((Integer i) -> score(documents.get(i))).reversed());
+        for (int i : remaining) {
+            int available = budget - used - headerTokens[i] - markTokens;
+            if (available < minPartialTokens) {
+                break;
+            }
+            String prefix = sentencePrefix(documents.get(i).getDocument().getText(), available);
+            int prefixTokens = tokenCounter.count(prefix);
+            if (prefix.isEmpty() || prefixTokens < minPartialTokens) {
+                continue;
+            }
+            partials[i] = documents.get(i).withContent(prefix + TRUNCATION_MARK);
+            used += headerTokens[i] + prefixTokens + markTokens;
+        }
+
+        List<ScoredDocument> packed = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            if (selected[i]) {
+                packed.add(documents.get(i));
+            } else if (partials[i] != null) {
+                packed.add(partials[i]);
+            }
+        }
+        log.debug("上下文打包完成，預算: {} tokens，使用: {} tokens，完整文檔: {}，部分文檔: {}",
+                maxTokens, used + (maxTokens - budget), packed.size() - countNonNull(partials), countNonNull(partials));
+        return packed;
+    }
+
+    /**
+     * 0/1 背包：在容量內最大化總價值
+     *
+     * @param weights 各項重量（token 數）
+     * @param values 各項價值
+     * @param capacity 容量（token 數）
+     * @return 各項是否選中
+     */
+    static boolean[] selectKnapsack(int[] weights, double[] values, int capacity) {
+        int n = weights.length;
+        boolean[] selected = new boolean[n];
+        if (n == 0 || capacity <= 0) {
+            return selected;
         }
 
-        // 計算開頭部分的相似度
-        int compareLength = Math.min(200, minLength);
-        String prefix1 = content1.substring(0, compareLength);
-        String prefix2 = content2.substring(0, compareLength);
+        // 預算過大時放大每格 token 數；重量向上取整、容量向下取整，選中結果不會超出預算
+        int unit = (capacity + MAX_KNAPSACK_CAPACITY - 1) / MAX_KNAPSACK_CAPACITY;
+        int cells = capacity / unit;
+        int[] scaled = new int[n];
+        for (int i = 0; i < n; i++) {
+            scaled[i] = (weights[i] + unit - 1) / unit;
+        }
+
+        double[] best = new double[cells + 1];
+        boolean[][] take = new boolean[n][cells + 1];
+        for (int i = 0; i < n; i++) {
+            int w = scaled[i];
+            for (int c = cells; c >= w; c--) {
+                double candidate = best[c - w] + values[i];
+                if (candidate > best[c]) {
+                    best[c] = candidate;
+                    take[i][c] = true;
+                }
+            }
+        }
+
+        int c = cells;
+        for (int i = n - 1; i >= 0; i--) {
+            if (take[i][c]) {
+                selected[i] = true;
+                c -= scaled[i];
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * 取不超過 maxTokens 的句子前綴（第一句即超出時返回空字串）
+     */
+    private String sentencePrefix(String text, int maxTokens) {
+        StringBuilder prefix = new StringBuilder();
+        int tokens = 0;
+        for (String sentence : TextUtil.splitSentences(text)) {
+            int sentenceTokens = tokenCounter.count(sentence);
+            if (tokens + sentenceTokens > maxTokens) {
+                break;
+            }
+            prefix.append(sentence);
+            tokens += sentenceTokens;
+        }
+        // 逐句計數與整段計數可能相差（BPE 跨句合併），以整段為準
+        String result = prefix.toString().stripTrailing();
+        while (!result.isEmpty() && tokenCounter.count(result) > maxTokens) {
+            List<String> sentences = TextUtil.splitSentences(result);
+            result = String.join("", sentences.subList(0, sentences.size() - 1)).stripTrailing();
+        }
+        return result;
+    }
 
-        return prefix1.equals(prefix2);
+    /**
+     * 文檔標題行（與 formatContext 一致，序號取最大值以保守估算）
+     */
+    private String header(Document document, int maxIndex) {
+        StringBuilder header = new StringBuilder(String.format("【文檔 %d】", maxIndex));
+        Object source = document.getMetadata().get("source");
+        if (source != null) {
+            header.append(String.format("（來源：%s）", source));
+        }
+        return header.append("\n\n\n").toString();
+    }
+
+    private static double score(ScoredDocument doc) {
+        return doc.getScore() != null ? doc.getScore() : 0.0;
+    }
+
+    private static int countNonNull(Object[] values) {
+        int count = 0;
+        for (Object value : values) {
+            if (value != null) {
+                count++;
+            }
+        }
+        return count;
     }
 
     /**
@@ -163,25 +417,8 @@ public class ContextOptimizationService {
                 // 部分添加（截斷）
                 int remainingLength = maxLength - currentLength;
                 if (remainingLength > 100) { // 至少保留 100 字符才有意義
-                    String truncatedContent = content.substring(0, remainingLength) + "...";
-
-                    // 創建截斷後的文檔
-                    Document truncatedDoc = new Document(
-                            doc.getDocument().getId(),
-                            truncatedContent,
-                            doc.getDocument().getMetadata()
-                    );
-
-                    ScoredDocument truncatedScoredDoc = ScoredDocument.builder()
-                            .document(truncatedDoc)
-                            .score(doc.getScore())
-                            .semanticScore(doc.getSemanticScore())
-                            .bm25Score(doc.getBm25Score())
-                            .qualityScore(doc.getQualityScore())
-                            .freshnessScore(doc.getFreshnessScore())
-                            .build();
-
-                    truncatedDocs.add(truncatedScoredDoc);
+                    String truncatedContent = content.substring(0, remainingLength) + TRUNCATION_MARK;
+                    truncatedDocs.add(doc.withContent(truncatedContent));
                 }
                 break;
             }
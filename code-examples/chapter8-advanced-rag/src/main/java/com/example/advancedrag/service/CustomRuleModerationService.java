@@ -1,12 +1,24 @@
 package com.example.advancedrag.service;
 
 import com.example.advancedrag.dto.ModerationResult;
+import com.example.advancedrag.moderation.AhoCorasickAutomaton;
+import com.example.advancedrag.moderation.ContentScanner;
+import com.example.advancedrag.properties.ModerationProperties;
 import com.example.advancedrag.properties.RAGProperties;
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -20,6 +32,10 @@ import java.util.regex.Pattern;
  * 4. URL/郵箱限制
  * 5. 重複內容檢測
  *
+ * 敏感詞、字符類別、URL/郵箱標記與重複片段由 {@link ContentScanner} 一次掃描完成；
+ * 敏感詞以 Aho-Corasick 自動機匹配，詞典（內建詞 + app.moderation.sensitive-words + 詞典文件）
+ * 更新時建立新自動機並原子替換，進行中的審核不受影響。
+ *
  * 審核權重：50%
  */
 @Slf4j
@@ -28,9 +44,22 @@ import java.util.regex.Pattern;
 public class CustomRuleModerationService {
 
     private final RAGProperties ragProperties;
+    private final ModerationProperties moderationProperties;
+    private final ResourceLoader resourceLoader;
+
+    /**
+     * 當前敏感詞自動機（詞典重新載入時整體替換）
+     */
+    private final AtomicReference<AhoCorasickAutomaton> automaton =
+            new AtomicReference<>(AhoCorasickAutomaton.empty());
 
     /**
-     * 敏感詞黑名單（示例）
+     * 詞典文件最後修改時間（用於偵測變更）
+     */
+    private volatile long dictionaryLastModified = -1L;
+
+    /**
+     * 內建敏感詞黑名單（示例）
      * 實際應用中應該從配置文件或數據庫加載
      */
     private static final Set<String> SENSITIVE_WORDS = Set.of(
@@ -78,8 +107,11 @@ public class CustomRuleModerationService {
             Map<String, Object> details = new HashMap<>();
             double riskScore = 0.0;
 
+            // 單次掃描：敏感詞、字符類別、URL/郵箱標記、重複片段
+            ContentScanner.ScanResult scan = ContentScanner.scan(content, automaton.get());
+
             // 規則1：敏感詞檢測（權重：40%）
-            SensitiveWordResult sensitiveWordResult = checkSensitiveWords(content);
+            SensitiveWordResult sensitiveWordResult = checkSensitiveWords(scan);
             if (sensitiveWordResult.hasViolation()) {
                 violations.add("包含敏感詞：" + String.join(", ", sensitiveWordResult.getMatchedWords()));
                 riskScore += 0.4 * sensitiveWordResult.getSeverity();
@@ -96,7 +128,7 @@ public class CustomRuleModerationService {
             details.put("length_valid", !lengthResult.hasViolation());
 
             // 規則3：特殊字符比例檢查（權重：15%）
-            SpecialCharResult specialCharResult = checkSpecialCharRatio(content);
+            SpecialCharResult specialCharResult = checkSpecialCharRatio(scan);
             if (specialCharResult.hasViolation()) {
                 violations.add(specialCharResult.reason());
                 riskScore += 0.15 * specialCharResult.ratio();
@@ -104,7 +136,7 @@ public class CustomRuleModerationService {
             details.put("special_char_ratio", specialCharResult.ratio());
 
             // 規則4：URL/郵箱限制（權重：15%）
-            UrlEmailResult urlEmailResult = checkUrlAndEmail(content);
+            UrlEmailResult urlEmailResult = checkUrlAndEmail(content, scan);
             if (urlEmailResult.hasViolation()) {
                 violations.add(urlEmailResult.reason());
                 riskScore += 0.15;
@@ -113,7 +145,7 @@ public class CustomRuleModerationService {
             details.put("email_count", urlEmailResult.emailCount());
 
             // 規則5：重複內容檢測（權重：20%）
-            RepetitionResult repetitionResult = checkRepetition(content);
+            RepetitionResult repetitionResult = checkRepetition(scan);
             if (repetitionResult.hasViolation()) {
                 violations.add(repetitionResult.reason());
                 riskScore += 0.2 * repetitionResult.repetitionRatio();
@@ -162,18 +194,11 @@ public class CustomRuleModerationService {
     /**
      * 檢查敏感詞
      *
-     * @param content 內容
+     * @param scan 掃描結果
      * @return 敏感詞檢測結果
      */
-    private SensitiveWordResult checkSensitiveWords(String content) {
-        List<String> matchedWords = new ArrayList<>();
-        String lowerContent = content.toLowerCase();
-
-        for (String sensitiveWord : SENSITIVE_WORDS) {
-            if (lowerContent.contains(sensitiveWord.toLowerCase())) {
-                matchedWords.add(sensitiveWord);
-            }
-        }
+    private SensitiveWordResult checkSensitiveWords(ContentScanner.ScanResult scan) {
+        List<String> matchedWords = scan.matchedTerms();
 
         // 計算嚴重程度（匹配詞數越多越嚴重）
         double severity = matchedWords.isEmpty() ? 0.0 :
@@ -207,20 +232,15 @@ public class CustomRuleModerationService {
     /**
      * 檢查特殊字符比例
      *
-     * @param content 內容
+     * @param scan 掃描結果
      * @return 特殊字符檢查結果
      */
-    private SpecialCharResult checkSpecialCharRatio(String content) {
-        if (content.isEmpty()) {
+    private SpecialCharResult checkSpecialCharRatio(ContentScanner.ScanResult scan) {
+        if (scan.length() == 0) {
             return new SpecialCharResult(false, 0.0, "內容為空");
         }
 
-        // 統計特殊字符數量
-        long specialCharCount = content.chars()
-                .filter(c -> !Character.isLetterOrDigit(c) && !Character.isWhitespace(c))
-                .count();
-
-        double ratio = (double) specialCharCount / content.length();
+        double ratio = scan.specialCharRatio();
 
         // 特殊字符比例超過 50% 可能是亂碼或惡意內容
         if (ratio > 0.5) {
@@ -232,25 +252,18 @@ public class CustomRuleModerationService {
     }
 
     /**
-     * 檢查 URL 和郵箱
+     * 檢查 URL 和郵箱（掃描未發現 "://" 或 "@" 時不執行正則表達式）
      *
      * @param content 內容
+     * @param scan 掃描結果
      * @return URL/郵箱檢查結果
      */
-    private UrlEmailResult checkUrlAndEmail(String content) {
+    private UrlEmailResult checkUrlAndEmail(String content, ContentScanner.ScanResult scan) {
         // 統計 URL 數量
-        Matcher urlMatcher = URL_PATTERN.matcher(content);
-        int urlCount = 0;
-        while (urlMatcher.find()) {
-            urlCount++;
-        }
+        int urlCount = scan.schemeSeparatorCount() > 0 ? countMatches(URL_PATTERN, content) : 0;
 
         // 統計郵箱數量
-        Matcher emailMatcher = EMAIL_PATTERN.matcher(content);
-        int emailCount = 0;
-        while (emailMatcher.find()) {
-            emailCount++;
-        }
+        int emailCount = scan.atSignCount() > 0 ? countMatches(EMAIL_PATTERN, content) : 0;
 
         // 過多 URL 或郵箱可能是垃圾郵件
         if (urlCount > 3 || emailCount > 2) {
@@ -261,31 +274,27 @@ public class CustomRuleModerationService {
         return new UrlEmailResult(false, urlCount, emailCount, "URL/郵箱數量正常");
     }
 
+    private int countMatches(Pattern pattern, String content) {
+        Matcher matcher = pattern.matcher(content);
+        int count = 0;
+        while (matcher.find()) {
+            count++;
+        }
+        return count;
+    }
+
     /**
      * 檢查重複內容
      *
-     * @param content 內容
+     * @param scan 掃描結果
      * @return 重複內容檢測結果
      */
-    private RepetitionResult checkRepetition(String content) {
-        if (content.length() < 20) {
+    private RepetitionResult checkRepetition(ContentScanner.ScanResult scan) {
+        if (scan.length() < ContentScanner.MIN_REPETITION_LENGTH) {
             return new RepetitionResult(false, 0.0, "內容太短，無需檢查重複");
         }
 
-        // 簡化版重複檢測：檢查連續重複的字符序列
-        int maxRepetitionLength = 0;
-        int windowSize = Math.min(10, content.length() / 4);
-
-        for (int i = 0; i <= content.length() - windowSize * 2; i++) {
-            String window = content.substring(i, i + windowSize);
-            String remaining = content.substring(i + windowSize);
-
-            if (remaining.contains(window)) {
-                maxRepetitionLength = Math.max(maxRepetitionLength, windowSize);
-            }
-        }
-
-        double repetitionRatio = (double) maxRepetitionLength / content.length();
+        double repetitionRatio = scan.repetitionRatio();
 
         // 重複比例超過 30% 可能是惡意灌水
         if (repetitionRatio > 0.3) {
@@ -296,6 +305,87 @@ public class CustomRuleModerationService {
         return new RepetitionResult(false, repetitionRatio, "無明顯重複內容");
     }
 
+    // ========== 詞典管理 ==========
+
+    /**
+     * 啟動時建立敏感詞自動機
+     */
+    @PostConstruct
+    void initDictionary() {
+        reloadDictionary();
+    }
+
+    /**
+     * 定期檢查詞典文件，修改時間變更時重新載入
+     */
+    @Scheduled(fixedDelayString = "${app.moderation.dictionary.reload-interval:60s}",
+            initialDelayString = "${app.moderation.dictionary.reload-interval:60s}")
+    public void reloadDictionaryIfChanged() {
+        String location = moderationProperties.getDictionary().getLocation();
+        if (StringUtils.isBlank(location)) {
+            return;
+        }
+        try {
+            Resource resource = resourceLoader.getResource(location);
+            // 只有文件系統上的詞典才有可靠的修改時間
+            if (resource.isFile() && resource.lastModified() != dictionaryLastModified) {
+                reloadDictionary();
+            }
+        } catch (Exception e) {
+            log.warn("檢查敏感詞詞典文件失敗: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 重新載入詞典並原子替換自動機（載入失敗時保留舊自動機）
+     *
+     * @return 新詞典的詞數
+     */
+    public int reloadDictionary() {
+        try {
+            Set<String> dictionary = new LinkedHashSet<>(SENSITIVE_WORDS);
+            dictionary.addAll(moderationProperties.getSensitiveWords());
+            dictionary.addAll(loadDictionaryFile());
+
+            AhoCorasickAutomaton rebuilt = AhoCorasickAutomaton.build(dictionary);
+            automaton.set(rebuilt);
+            log.info("敏感詞自動機已更新，詞數: {}", rebuilt.size());
+            return rebuilt.size();
+
+        } catch (Exception e) {
+            log.error("敏感詞詞典載入失敗，繼續使用現有詞典", e);
+            return automaton.get().size();
+        }
+    }
+
+    private List<String> loadDictionaryFile() throws Exception {
+        String location = moderationProperties.getDictionary().getLocation();
+        if (StringUtils.isBlank(location)) {
+            return List.of();
+        }
+
+        Resource resource = resourceLoader.getResource(location);
+        if (!resource.exists()) {
+            log.warn("敏感詞詞典文件不存在: {}", location);
+            return List.of();
+        }
+
+        long lastModified = resource.isFile() ? resource.lastModified() : -1L;
+        List<String> terms = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(resource.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String term = line.strip();
+                if (!term.isEmpty() && !term.startsWith("#")) {
+                    terms.add(term);
+                }
+            }
+        }
+        dictionaryLastModified = lastModified;
+        return terms;
+    }
+
     // ========== 內部結果類 ==========
 
     /**
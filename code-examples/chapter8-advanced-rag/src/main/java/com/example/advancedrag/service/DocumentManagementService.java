@@ -0,0 +1,124 @@
+package com.example.advancedrag.service;
+
+import com.example.advancedrag.dto.DocumentAddRequest;
+import com.example.advancedrag.index.SimHash;
+import com.example.advancedrag.reranking.RerankFeatures;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 文檔管理服務
+ *
+ * 負責文檔寫入與刪除，同步維護：
+ * 1. PgVector 向量存儲
+ * 2. BM25 關鍵詞倒排索引
+ * 3. 語義答案快取與 Re-ranking 結果快取的失效
+ *
+ * 寫入時計算 SimHash 指紋與 Re-ranking 特徵存入元數據，查詢時上下文去重與重排直接讀取。
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class DocumentManagementService {
+
+    private final VectorStore vectorStore;
+    private final BM25Service bm25Service;
+    private final SemanticAnswerCache semanticAnswerCache;
+    private final RerankResultCache rerankResultCache;
+
+    /**
+     * 批次新增文檔
+     *
+     * @param request 新增文檔請求
+     * @return 新增的文檔 ID 列表
+     */
+    public List<String> addDocuments(DocumentAddRequest request) {
+        long startTime = System.currentTimeMillis();
+
+        List<Document> documents = new ArrayList<>();
+        for (DocumentAddRequest.DocumentItem item : request.getDocuments()) {
+            documents.add(toDocument(item));
+        }
+
+        // 1. 寫入向量存儲
+        vectorStore.add(documents);
+
+        // 2. 寫入關鍵詞索引
+        bm25Service.indexDocuments(documents);
+
+        // 3. 同 ID 文檔被覆蓋時，引用它的語義快取答案與包含它的 Re-ranking 結果失效
+        List<String> ids = documents.stream().map(Document::getId).toList();
+        semanticAnswerCache.invalidateDocuments(ids);
+        rerankResultCache.invalidateDocuments(ids);
+        log.info("新增文檔完成，數量: {}，耗時: {}ms", ids.size(), System.currentTimeMillis() - startTime);
+
+        return ids;
+    }
+
+    /**
+     * 刪除文檔
+     *
+     * @param documentId 文檔 ID
+     */
+    public void deleteDocument(String documentId) {
+        vectorStore.delete(List.of(documentId));
+        bm25Service.removeDocument(documentId);
+        semanticAnswerCache.invalidateDocuments(List.of(documentId));
+        rerankResultCache.invalidateDocuments(List.of(documentId));
+        log.info("刪除文檔完成，ID: {}", documentId);
+    }
+
+    /**
+     * 轉換為 Spring AI Document
+     *
+     * @param item 文檔項
+     * @return Document
+     */
+    private Document toDocument(DocumentAddRequest.DocumentItem item) {
+        Map<String, Object> metadata = new HashMap<>();
+        if (item.getMetadata() != null) {
+            item.getMetadata().forEach((key, value) -> {
+                if (value != null) {
+                    metadata.put(key, value);
+                }
+            });
+        }
+        putIfPresent(metadata, "title", item.getTitle());
+        putIfPresent(metadata, "source", item.getSource());
+        putIfPresent(metadata, "type", item.getType());
+        putIfPresent(metadata, "author", item.getAuthor());
+        if (item.getTags() != null && !item.getTags().isEmpty()) {
+            metadata.put("tags", item.getTags());
+        }
+        metadata.putIfAbsent("created_at", LocalDateTime.now().toString());
+        metadata.put(SimHash.METADATA_KEY, SimHash.toMetadataValue(SimHash.fingerprint(item.getContent())));
+        metadata.put(RerankFeatures.METADATA_KEY, RerankFeatures.extract(item.getContent(), metadata).toMetadataValue());
+
+        String id = StringUtils.isNotBlank(item.getDocumentId())
+                ? item.getDocumentId()
+                : UUID.randomUUID().toString();
+
+        return Document.builder()
+                .id(id)
+                .text(item.getContent())
+                .metadata(metadata)
+                .build();
+    }
+
+    private void putIfPresent(Map<String, Object> metadata, String key, String value) {
+        if (StringUtils.isNotBlank(value)) {
+            metadata.put(key, value);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.advancedrag.service;
+
+import com.example.advancedrag.dto.ModerationResult;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * 雙重內容審核服務
+ *
+ * 同時執行 OpenAI 審核與自定義規則審核：
+ * - 任一審核不通過即提前返回（不等待另一個審核完成）
+ * - 兩者都通過時按各 50% 權重計算綜合分數
+ * - OpenAI 審核不可用（API 調用或批次失敗）時，以自定義規則的結果為準
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class DualModerationService {
+
+    private final ContentModerationService contentModerationService;
+    private final CustomRuleModerationService customRuleModerationService;
+    private final ExecutorService ragPipelineExecutor;
+
+    /**
+     * 審核內容
+     *
+     * @param content 待審核內容
+     * @return 綜合審核結果
+     */
+    public ModerationResult moderate(String content) {
+        long startTime = System.currentTimeMillis();
+
+        CompletableFuture<ModerationResult> openAIFuture = CompletableFuture.supplyAsync(
+                () -> contentModerationService.moderateContent(content), ragPipelineExecutor);
+        CompletableFuture<ModerationResult> customRuleFuture = CompletableFuture.supplyAsync(
+                () -> customRuleModerationService.moderateContent(content), ragPipelineExecutor);
+
+        // 第一個不通過的結果
+        CompletableFuture<ModerationResult> firstRejection = new CompletableFuture<>();
+        openAIFuture.thenAccept(result -> {
+            // 不可用的安全默認值不是實際判定，不觸發提前返回
+            if (!ContentModerationService.isUnavailable(result)) {
+                rejectIfFlagged(result, firstRejection);
+            }
+        });
+        customRuleFuture.thenAccept(result -> rejectIfFlagged(result, firstRejection));
+
+        CompletableFuture.anyOf(firstRejection, CompletableFuture.allOf(openAIFuture, customRuleFuture)).join();
+
+        ModerationResult openAIResult = openAIFuture.getNow(null);
+        ModerationResult customRuleResult = customRuleFuture.getNow(null);
+        if (ContentModerationService.isUnavailable(openAIResult) && customRuleResult != null) {
+            log.warn("OpenAI 審核不可用，以自定義規則結果為準");
+            return fallbackToCustomRules(customRuleResult, startTime);
+        }
+        if (openAIResult == null || customRuleResult == null) {
+            log.debug("審核提前結束（已有審核不通過）");
+            openAIFuture.cancel(true);
+            customRuleFuture.cancel(true);
+        }
+
+        // 計算綜合結果（各占 50% 權重，未完成的審核以 0 計）
+        double combinedScore = (score(openAIResult) * 0.5) + (score(customRuleResult) * 0.5);
+
+        // 只要有一個審核不通過，則綜合結果不通過
+        boolean flagged = isFlagged(openAIResult) || isFlagged(customRuleResult);
+
+        String reason = flagged ?
+                String.format("OpenAI: %s; 自定義規則: %s", reason(openAIResult), reason(customRuleResult)) :
+                "內容正常";
+
+        return ModerationResult.builder()
+                .flagged(flagged)
+                .passed(!flagged)
+                .moderationScore(combinedScore)
+                .reason(reason)
+                .processingTimeMs(System.currentTimeMillis() - startTime)
+                .build();
+    }
+
+    /**
+     * OpenAI 審核不可用時的降級結果：判定與分數取自自定義規則
+     */
+    private ModerationResult fallbackToCustomRules(ModerationResult customRuleResult, long startTime) {
+        boolean flagged = isFlagged(customRuleResult);
+        ModerationResult result = ModerationResult.builder()
+                .flagged(flagged)
+                .passed(!flagged)
+                .moderationScore(score(customRuleResult))
+                .reason(String.format("OpenAI: 審核服務暫時不可用（以自定義規則為準）; 自定義規則: %s",
+                        reason(customRuleResult)))
+                .flaggedCategories(new ArrayList<>(customRuleResult.getFlaggedCategories()))
+                .processingTimeMs(System.currentTimeMillis() - startTime)
+                .build();
+        result.addDetail("openai_unavailable", true);
+        return result;
+    }
+
+    private void rejectIfFlagged(ModerationResult result, CompletableFuture<ModerationResult> firstRejection) {
+        if (isFlagged(result)) {
+            firstRejection.complete(result);
+        }
+    }
+
+    private boolean isFlagged(ModerationResult result) {
+        return result != null && Boolean.TRUE.equals(result.getFlagged());
+    }
+
+    private double score(ModerationResult result) {
+        return result != null && result.getModerationScore() != null ? result.getModerationScore() : 0.0;
+    }
+
+    private String reason(ModerationResult result) {
+        return result != null ? result.getReason() : "未完成（提前結束）";
+    }
+}
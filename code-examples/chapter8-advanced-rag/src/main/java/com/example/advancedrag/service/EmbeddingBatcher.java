@@ -0,0 +1,222 @@
+package com.example.advancedrag.service;
+
+import com.example.advancedrag.properties.EmbeddingProperties;
+import com.example.advancedrag.util.TextUtil;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptionsBuilder;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Embedding 微批次合併器
+ *
+ * 收集所有線程在短時間窗口內提交的 Embedding 請求，按「模型 + 維度」分組，
+ * 以單次多輸入 {@link EmbeddingRequest} 送出，再將向量分派回各個等待的調用方。
+ *
+ * 批次在以下任一條件達成時送出：
+ * 1. 等待窗口到期（app.embedding.batch.max-wait）
+ * 2. 輸入數達到上限（max-batch-size）
+ * 3. 再加入下一個輸入會超過單次請求的 token 上限（max-tokens-per-request）
+ */
+@Slf4j
+@Service
+public class EmbeddingBatcher {
+
+    private final EmbeddingModel embeddingModel;
+    private final EmbeddingProperties embeddingProperties;
+    private final RAGMetricsService metricsService;
+    private final ExecutorService ragPipelineExecutor;
+    private final AdmissionControlService admissionControlService;
+
+    /**
+     * 每個「模型:維度」一個佇列，各自由一個分派線程處理
+     */
+    private final Map<String, BlockingQueue<PendingEmbedding>> queues = new ConcurrentHashMap<>();
+    private volatile boolean running = true;
+
+    public EmbeddingBatcher(EmbeddingModel embeddingModel,
+                            EmbeddingProperties embeddingProperties,
+                            RAGMetricsService metricsService,
+                            ExecutorService ragPipelineExecutor,
+                            AdmissionControlService admissionControlService) {
+        this.embeddingModel = embeddingModel;
+        this.embeddingProperties = embeddingProperties;
+        this.metricsService = metricsService;
+        this.ragPipelineExecutor = ragPipelineExecutor;
+        this.admissionControlService = admissionControlService;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        running = false;
+    }
+
+    /**
+     * 生成 Embedding（與其他線程的請求合併送出）
+     *
+     * @param model 模型名稱
+     * @param dimensions 向量維度
+     * @param texts 文本列表
+     * @return 向量列表（順序與輸入一致）
+     */
+    public List<float[]> embed(String model, Integer dimensions, List<String> texts) {
+        EmbeddingProperties.Batch batch = embeddingProperties.getBatch();
+        if (!batch.getEnabled() || !running) {
+            return callModel(model, dimensions, texts);
+        }
+
+        BlockingQueue<PendingEmbedding> queue = queues.computeIfAbsent(model + ":" + dimensions,
+                key -> startDispatcher(key, model, dimensions));
+
+        List<PendingEmbedding> pendings = new ArrayList<>(texts.size());
+        long now = System.nanoTime();
+        for (String text : texts) {
+            PendingEmbedding pending = new PendingEmbedding(text, TextUtil.estimateTokens(text), now, new CompletableFuture<>());
+            pendings.add(pending);
+        }
+        metricsService.adjustEmbeddingQueueDepth(pendings.size());
+        queue.addAll(pendings);
+
+        long deadline = System.nanoTime() + batch.getRequestTimeout().toNanos();
+        List<float[]> vectors = new ArrayList<>(texts.size());
+        try {
+            for (PendingEmbedding pending : pendings) {
+                long remaining = Math.max(0, deadline - System.nanoTime());
+                vectors.add(pending.future().get(remaining, TimeUnit.NANOSECONDS));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Embedding 請求被中斷", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Embedding 生成失敗: " + e.getCause().getMessage(), e.getCause());
+        } catch (TimeoutException e) {
+            throw new RuntimeException("Embedding 請求逾時", e);
+        }
+        return vectors;
+    }
+
+    private BlockingQueue<PendingEmbedding> startDispatcher(String key, String model, Integer dimensions) {
+        BlockingQueue<PendingEmbedding> queue = new LinkedBlockingQueue<>();
+        Thread.ofVirtual().name("embedding-batcher-" + key).start(() -> dispatchLoop(queue, model, dimensions));
+        log.info("啟動 Embedding 微批次分派線程: {}", key);
+        return queue;
+    }
+
+    /**
+     * 分派迴圈：取得第一個請求後，在等待窗口內收集更多請求直到達到數量或 token 上限
+     */
+    private void dispatchLoop(BlockingQueue<PendingEmbedding> queue, String model, Integer dimensions) {
+        EmbeddingProperties.Batch config = embeddingProperties.getBatch();
+        PendingEmbedding carry = null;
+
+        while (running) {
+            try {
+                PendingEmbedding first = carry != null ? carry : queue.poll(1, TimeUnit.SECONDS);
+                carry = null;
+                if (first == null) {
+                    continue;
+                }
+
+                List<PendingEmbedding> batch = new ArrayList<>();
+                batch.add(first);
+                long tokens = first.tokens();
+                long deadline = System.nanoTime() + config.getMaxWait().toNanos();
+
+                while (batch.size() < config.getMaxBatchSize()) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingEmbedding next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    if (tokens + next.tokens() > config.getMaxTokensPerRequest()) {
+                        // 超過 token 上限，留給下一批
+                        carry = next;
+                        break;
+                    }
+                    batch.add(next);
+                    tokens += next.tokens();
+                }
+
+                metricsService.adjustEmbeddingQueueDepth(-batch.size());
+                ragPipelineExecutor.execute(() -> dispatch(batch, model, dimensions));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("Embedding 批次分派失敗", e);
+            }
+        }
+    }
+
+    /**
+     * 送出一個批次（相同文本只送一次）
+     */
+    private void dispatch(List<PendingEmbedding> batch, String model, Integer dimensions) {
+        long dispatchTime = System.nanoTime();
+        Map<String, List<CompletableFuture<float[]>>> byText = new LinkedHashMap<>();
+        for (PendingEmbedding pending : batch) {
+            metricsService.recordEmbeddingBatchWait(dispatchTime - pending.enqueuedNanos());
+            byText.computeIfAbsent(pending.text(), key -> new ArrayList<>()).add(pending.future());
+        }
+
+        try {
+            List<String> inputs = new ArrayList<>(byText.keySet());
+            List<float[]> vectors = callModel(model, dimensions, inputs);
+            metricsService.recordEmbeddingBatchSize(inputs.size());
+            log.debug("Embedding 批次完成，請求數: {}，實際輸入數: {}", batch.size(), inputs.size());
+
+            for (int i = 0; i < inputs.size(); i++) {
+                float[] vector = vectors.get(i);
+                byText.get(inputs.get(i)).forEach(future -> future.complete(vector));
+            }
+        } catch (Exception e) {
+            batch.forEach(pending -> pending.future().completeExceptionally(e));
+        }
+    }
+
+    /**
+     * 調用 Embedding 模型（單次請求多個輸入，受 embedding 隔艙限制）
+     *
+     * @param model 模型名稱
+     * @param dimensions 向量維度
+     * @param texts 文本列表
+     * @return 向量列表
+     */
+    private List<float[]> callModel(String model, Integer dimensions, List<String> texts) {
+        EmbeddingRequest request = new EmbeddingRequest(texts,
+                EmbeddingOptionsBuilder.builder()
+                        .withModel(model)
+                        .withDimensions(dimensions)
+                        .build());
+        EmbeddingResponse response = admissionControlService.call(AdmissionControlService.EMBEDDING,
+                () -> embeddingModel.call(request));
+
+        if (response.getResults().size() != texts.size()) {
+            throw new IllegalStateException("Embedding 結果數量不符：預期 " + texts.size()
+                    + "，實際 " + response.getResults().size());
+        }
+
+        List<float[]> vectors = new ArrayList<>(texts.size());
+        response.getResults().forEach(result -> vectors.add(result.getOutput()));
+        return vectors;
+    }
+
+    private record PendingEmbedding(String text, int tokens, long enqueuedNanos, CompletableFuture<float[]> future) {
+    }
+}
@@ -0,0 +1,200 @@
+package com.example.advancedrag.service;
+
+import com.example.advancedrag.properties.EmbeddingProperties;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.stereotype.Service;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Embedding 二級快取服務
+ *
+ * - L1：進程內 Guava 快取，直接存放 float[]，按位元組權重限制容量
+ * - L2：Redis，向量以 float32 原始位元組存儲，批次查詢使用 MGET、批次寫入使用 pipeline
+ *
+ * L2 不可用時自動降級為僅 L1，不影響 Embedding 生成。
+ * 返回的 float[] 為快取中的共享實例，調用方不可修改。
+ */
+@Slf4j
+@Service
+public class EmbeddingCacheService {
+
+    /**
+     * 每個快取條目的估算固定開銷（鍵字串、陣列頭、Guava 節點）
+     */
+    private static final int ENTRY_OVERHEAD_BYTES = 160;
+
+    private final EmbeddingProperties embeddingProperties;
+    private final RedisTemplate<String, byte[]> embeddingRedisTemplate;
+    private final RAGMetricsService metricsService;
+    private final Cache<String, float[]> l1Cache;
+
+    public EmbeddingCacheService(EmbeddingProperties embeddingProperties,
+                                 RedisTemplate<String, byte[]> embeddingRedisTemplate,
+                                 RAGMetricsService metricsService) {
+        this.embeddingProperties = embeddingProperties;
+        this.embeddingRedisTemplate = embeddingRedisTemplate;
+        this.metricsService = metricsService;
+        this.l1Cache = CacheBuilder.newBuilder()
+                .maximumWeight(embeddingProperties.getCacheL1MaxBytes())
+                .weigher((String key, float[] vector) -> ENTRY_OVERHEAD_BYTES + key.length() * 2 + vector.length * Float.BYTES)
+                .expireAfterWrite(Duration.ofSeconds(embeddingProperties.getCacheTtl()))
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * 查詢單個向量
+     *
+     * @param key 快取鍵
+     * @return 向量，未命中返回 null
+     */
+    public float[] get(String key) {
+        return getAll(List.of(key)).get(key);
+    }
+
+    /**
+     * 批次查詢向量：先查 L1，未命中的再以一次 MGET 查 L2（L2 命中會回填 L1）
+     *
+     * @param keys 快取鍵列表
+     * @return 命中的鍵 → 向量
+     */
+    public Map<String, float[]> getAll(List<String> keys) {
+        Map<String, float[]> found = new HashMap<>();
+        if (!embeddingProperties.getEnableCache() || keys.isEmpty()) {
+            return found;
+        }
+
+        List<String> l1Misses = new ArrayList<>();
+        for (String key : keys) {
+            float[] vector = l1Cache.getIfPresent(key);
+            if (vector != null) {
+                found.put(key, vector);
+            } else {
+                l1Misses.add(key);
+            }
+        }
+        if (found.size() > 0) {
+            metricsService.recordEmbeddingCacheHit("l1", found.size());
+        }
+
+        int l2Hits = 0;
+        if (!l1Misses.isEmpty() && embeddingProperties.getCacheL2Enabled()) {
+            try {
+                List<byte[]> values = embeddingRedisTemplate.opsForValue().multiGet(l1Misses);
+                if (values != null) {
+                    for (int i = 0; i < l1Misses.size(); i++) {
+                        byte[] bytes = values.get(i);
+                        if (bytes != null) {
+                            float[] vector = decode(bytes);
+                            found.put(l1Misses.get(i), vector);
+                            l1Cache.put(l1Misses.get(i), vector);
+                            l2Hits++;
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                log.warn("Embedding L2 快取查詢失敗，僅使用 L1: {}", e.getMessage());
+            }
+        }
+        if (l2Hits > 0) {
+            metricsService.recordEmbeddingCacheHit("l2", l2Hits);
+        }
+
+        int misses = keys.size() - found.size();
+        if (misses > 0) {
+            metricsService.recordEmbeddingCacheMiss(misses);
+        }
+        return found;
+    }
+
+    /**
+     * 寫入單個向量
+     *
+     * @param key 快取鍵
+     * @param vector 向量
+     */
+    public void put(String key, float[] vector) {
+        putAll(Map.of(key, vector));
+    }
+
+    /**
+     * 批次寫入向量（L2 以 pipeline 一次送出）
+     *
+     * @param entries 鍵 → 向量
+     */
+    public void putAll(Map<String, float[]> entries) {
+        if (!embeddingProperties.getEnableCache() || entries.isEmpty()) {
+            return;
+        }
+
+        l1Cache.putAll(entries);
+
+        if (!embeddingProperties.getCacheL2Enabled()) {
+            return;
+        }
+        Duration ttl = Duration.ofSeconds(embeddingProperties.getCacheTtl());
+        try {
+            embeddingRedisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public <K, V> Object execute(RedisOperations<K, V> operations) {
+                    RedisOperations<String, byte[]> ops = (RedisOperations<String, byte[]>) operations;
+                    entries.forEach((key, vector) -> ops.opsForValue().set(key, encode(vector), ttl));
+                    return null;
+                }
+            });
+        } catch (Exception e) {
+            log.warn("Embedding L2 快取寫入失敗: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 記錄模型調用時間（快取未命中時）
+     *
+     * @param durationMs 持續時間（毫秒）
+     */
+    public void recordLoad(long durationMs) {
+        metricsService.recordEmbeddingLoadDuration(durationMs);
+    }
+
+    /**
+     * 獲取 L1 快取統計
+     */
+    public Map<String, Object> getL1Stats() {
+        return Map.of(
+                "size", l1Cache.size(),
+                "hitRate", l1Cache.stats().hitRate(),
+                "evictionCount", l1Cache.stats().evictionCount()
+        );
+    }
+
+    /**
+     * 向量編碼為 little-endian float32 位元組
+     */
+    static byte[] encode(float[] vector) {
+        ByteBuffer buffer = ByteBuffer.allocate(vector.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(vector);
+        return buffer.array();
+    }
+
+    /**
+     * little-endian float32 位元組解碼為向量
+     */
+    static float[] decode(byte[] bytes) {
+        float[] vector = new float[bytes.length / Float.BYTES];
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(vector);
+        return vector;
+    }
+}
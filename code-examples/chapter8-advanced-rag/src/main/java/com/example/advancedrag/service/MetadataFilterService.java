@@ -0,0 +1,317 @@
+package com.example.advancedrag.service;
+
+import com.example.advancedrag.model.RetrievalFilter;
+import com.example.advancedrag.properties.RAGProperties;
+import lombok.RequiredArgsConstructor;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.FilterExpressionTextParser;
+import org.springframework.ai.vectorstore.filter.converter.PrintFilterExpressionConverter;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Predicate;
+
+/**
+ * 檢索元數據過濾服務
+ *
+ * 將請求的 {@link RetrievalFilter} 編譯為 Spring AI {@link Filter.Expression}：
+ * - 向量檢索：表達式下推到 PgVector 查詢（jsonpath）或 {@code SearchRequest.filterExpression}
+ * - 關鍵詞檢索：以 {@link #predicate} 在倒排索引的 Top-K 查詢中過濾，語義與 PgVector 的 jsonpath 一致
+ *   （陣列值任一元素符合即符合；缺少鍵或型別不可比較時為未知，NOT 之後仍為未知，最終不符合）
+ *
+ * 表達式只能引用白名單中的元數據鍵（app.rag.metadata-filter.allowed-keys），
+ * 不合法的過濾條件拋出 {@link IllegalArgumentException}（返回 400）。
+ */
+@Service
+@RequiredArgsConstructor
+public class MetadataFilterService {
+
+    /**
+     * 結構化條件對應的元數據鍵
+     */
+    public static final String KEY_SOURCE = "source";
+    public static final String KEY_TYPE = "type";
+    public static final String KEY_LANGUAGE = "language";
+    public static final String KEY_CREATED_AT = "created_at";
+
+    private final RAGProperties ragProperties;
+
+    /**
+     * 編譯過濾條件
+     *
+     * @param filter 過濾條件（可為 null）
+     * @return 過濾表達式，沒有條件時返回 null
+     * @throws IllegalArgumentException 過濾條件不合法
+     */
+    public Filter.Expression compile(RetrievalFilter filter) {
+        if (filter == null || filter.isEmpty()) {
+            return null;
+        }
+
+        List<Filter.Operand> clauses = new ArrayList<>();
+        addValues(clauses, KEY_SOURCE, filter.getSources());
+        addValues(clauses, KEY_TYPE, filter.getTypes());
+        addValues(clauses, KEY_LANGUAGE, filter.getLanguages());
+        if (filter.getCreatedAfter() != null) {
+            clauses.add(new Filter.Expression(Filter.ExpressionType.GTE, new Filter.Key(KEY_CREATED_AT),
+                    new Filter.Value(filter.getCreatedAfter().toString())));
+        }
+        if (filter.getCreatedBefore() != null) {
+            clauses.add(new Filter.Expression(Filter.ExpressionType.LT, new Filter.Key(KEY_CREATED_AT),
+                    new Filter.Value(filter.getCreatedBefore().toString())));
+        }
+        if (filter.getExpression() != null && !filter.getExpression().isBlank()) {
+            // 以括號分組，與其他條件 AND 時不改變表達式內的優先順序
+            clauses.add(new Filter.Group(parse(filter.getExpression())));
+        }
+
+        Filter.Expression expression;
+        if (clauses.size() == 1) {
+            expression = clauses.get(0) instanceof Filter.Group group
+                    ? group.content()
+                    : (Filter.Expression) clauses.get(0);
+        } else {
+            expression = new Filter.Expression(Filter.ExpressionType.AND, clauses.get(0), clauses.get(1));
+            for (int i = 2; i < clauses.size(); i++) {
+                expression = new Filter.Expression(Filter.ExpressionType.AND, expression, clauses.get(i));
+            }
+        }
+        validate(expression);
+        return expression;
+    }
+
+    /**
+     * 解析並驗證 Spring AI 過濾語法的表達式
+     *
+     * @param text 表達式文本
+     * @return 過濾表達式
+     * @throws IllegalArgumentException 語法錯誤或引用了白名單以外的鍵
+     */
+    public Filter.Expression parse(String text) {
+        Filter.Expression parsed;
+        try {
+            parsed = new FilterExpressionTextParser().parse(text);
+        } catch (Exception e) {
+            throw new IllegalArgumentException("過濾表達式語法錯誤: " + text, e);
+        }
+        validate(parsed);
+        return parsed;
+    }
+
+    /**
+     * 驗證表達式只引用白名單中的鍵，且值可安全地轉換為 jsonpath
+     *
+     * @param expression 過濾表達式（可為 null）
+     * @throws IllegalArgumentException 表達式不合法
+     */
+    public void validate(Filter.Expression expression) {
+        if (expression != null) {
+            RAGProperties.MetadataFilter config = ragProperties.getMetadataFilter();
+            validate(expression, config.getAllowedKeys(), config.getMaxValues());
+        }
+    }
+
+    /**
+     * 驗證表達式（供未注入本服務的元件使用，如 Advisor）
+     *
+     * @param expression 過濾表達式
+     * @param allowedKeys 允許的元數據鍵
+     * @param maxValues IN / NIN 的最多值數量
+     * @throws IllegalArgumentException 表達式不合法
+     */
+    public static void validate(Filter.Expression expression, Collection<String> allowedKeys, int maxValues) {
+        Filter.ExpressionType type = expression.type();
+        switch (type) {
+            case AND, OR -> {
+                validateOperand(expression.left(), allowedKeys, maxValues);
+                validateOperand(expression.right(), allowedKeys, maxValues);
+            }
+            case NOT -> validateOperand(expression.left(), allowedKeys, maxValues);
+            default -> {
+                if (!(expression.left() instanceof Filter.Key key) || !allowedKeys.contains(key.key())) {
+                    throw new IllegalArgumentException("不允許過濾的元數據鍵: " + expression.left()
+                            + "，允許的鍵: " + allowedKeys);
+                }
+                if (!(expression.right() instanceof Filter.Value value)) {
+                    throw new IllegalArgumentException("過濾條件缺少值: " + key.key());
+                }
+                validateValue(key.key(), type, value.value(), maxValues);
+            }
+        }
+    }
+
+    /**
+     * 轉為記憶體內的過濾條件（關鍵詞檢索使用）
+     *
+     * @param expression 過濾表達式（可為 null）
+     * @return 文檔過濾條件，沒有表達式時返回 null
+     */
+    public Predicate<Document> predicate(Filter.Expression expression) {
+        if (expression == null) {
+            return null;
+        }
+        return document -> Boolean.TRUE.equals(evaluate(expression, document.getMetadata()));
+    }
+
+    /**
+     * 以元數據求值（三值邏輯：true / false / null 表示未知）
+     *
+     * @param expression 過濾表達式
+     * @param metadata 文檔元數據
+     * @return 是否符合
+     */
+    public static boolean matches(Filter.Expression expression, Map<String, Object> metadata) {
+        return Boolean.TRUE.equals(evaluate(expression, metadata));
+    }
+
+    /**
+     * 表達式的可讀形式（用於日誌與響應元數據）
+     */
+    public static String describe(Filter.Expression expression) {
+        return expression != null ? new PrintFilterExpressionConverter().convertExpression(expression) : null;
+    }
+
+    private void addValues(List<Filter.Operand> clauses, String key, List<String> values) {
+        if (values == null) {
+            return;
+        }
+        List<Object> distinct = values.stream()
+                .filter(Objects::nonNull)
+                .map(String::strip)
+                .filter(value -> !value.isEmpty())
+                .distinct()
+                .map(Object.class::cast)
+                .toList();
+        if (distinct.size() == 1) {
+            clauses.add(new Filter.Expression(Filter.ExpressionType.EQ, new Filter.Key(key),
+                    new Filter.Value(distinct.get(0))));
+        } else if (distinct.size() > 1) {
+            clauses.add(new Filter.Expression(Filter.ExpressionType.IN, new Filter.Key(key),
+                    new Filter.Value(distinct)));
+        }
+    }
+
+    private static void validateOperand(Filter.Operand operand, Collection<String> allowedKeys, int maxValues) {
+        if (operand instanceof Filter.Expression expression) {
+            validate(expression, allowedKeys, maxValues);
+        } else if (operand instanceof Filter.Group group) {
+            validate(group.content(), allowedKeys, maxValues);
+        } else {
+            throw new IllegalArgumentException("不支援的過濾條件: " + operand);
+        }
+    }
+
+    private static void validateValue(String key, Filter.ExpressionType type, Object value, int maxValues) {
+        if (type == Filter.ExpressionType.IN || type == Filter.ExpressionType.NIN) {
+            if (!(value instanceof Collection<?> values) || values.isEmpty()) {
+                throw new IllegalArgumentException("IN / NIN 條件需要非空的值列表: " + key);
+            }
+            if (values.size() > maxValues) {
+                throw new IllegalArgumentException("過濾條件的值過多（最多 " + maxValues + " 個）: " + key);
+            }
+            values.forEach(element -> validateScalar(key, element));
+            return;
+        }
+        validateScalar(key, value);
+    }
+
+    /**
+     * 值必須為字串、數字或布林；字串不可含引號與反斜線（轉換為 jsonpath 時不轉義）
+     */
+    private static void validateScalar(String key, Object value) {
+        if (value instanceof String text) {
+            if (text.indexOf('"') >= 0 || text.indexOf('\\') >= 0) {
+                throw new IllegalArgumentException("過濾值不可包含引號或反斜線: " + key);
+            }
+        } else if (!(value instanceof Number) && !(value instanceof Boolean)) {
+            throw new IllegalArgumentException("不支援的過濾值型別: " + key);
+        }
+    }
+
+    private static Boolean evaluate(Filter.Operand operand, Map<String, Object> metadata) {
+        if (operand instanceof Filter.Group group) {
+            return evaluate(group.content(), metadata);
+        }
+        Filter.Expression expression = (Filter.Expression) operand;
+        return switch (expression.type()) {
+            case AND -> and(evaluate(expression.left(), metadata), evaluate(expression.right(), metadata));
+            case OR -> or(evaluate(expression.left(), metadata), evaluate(expression.right(), metadata));
+            case NOT -> {
+                Boolean inner = evaluate(expression.left(), metadata);
+                yield inner == null ? null : !inner;
+            }
+            case IN, NIN -> {
+                // 與 PgVector 的轉換一致：IN 為多個 == 的 OR，NIN 為其否定
+                Boolean any = false;
+                for (Object value : (Collection<?>) ((Filter.Value) expression.right()).value()) {
+                    any = or(any, compare(Filter.ExpressionType.EQ, expression, value, metadata));
+                }
+                yield expression.type() == Filter.ExpressionType.IN ? any : any == null ? null : !any;
+            }
+            default -> compare(expression.type(), expression, ((Filter.Value) expression.right()).value(), metadata);
+        };
+    }
+
+    /**
+     * 比較元數據值（陣列值任一元素符合即符合）
+     */
+    private static Boolean compare(Filter.ExpressionType type, Filter.Expression expression, Object expected,
+                                   Map<String, Object> metadata) {
+        Object actual = metadata.get(((Filter.Key) expression.left()).key());
+        if (actual == null) {
+            return null;
+        }
+        if (actual instanceof Collection<?> elements) {
+            Boolean any = false;
+            for (Object element : elements) {
+                any = or(any, compareScalar(type, element, expected));
+            }
+            return any;
+        }
+        return compareScalar(type, actual, expected);
+    }
+
+    private static Boolean compareScalar(Filter.ExpressionType type, Object actual, Object expected) {
+        int order;
+        if (actual instanceof Number a && expected instanceof Number e) {
+            order = Double.compare(a.doubleValue(), e.doubleValue());
+        } else if (actual instanceof String a && expected instanceof String e) {
+            order = a.compareTo(e);
+        } else if (actual instanceof Boolean a && expected instanceof Boolean e) {
+            if (type != Filter.ExpressionType.EQ && type != Filter.ExpressionType.NE) {
+                return null;
+            }
+            order = a.equals(e) ? 0 : 1;
+        } else {
+            return null;
+        }
+        return switch (type) {
+            case EQ -> order == 0;
+            case NE -> order != 0;
+            case GT -> order > 0;
+            case GTE -> order >= 0;
+            case LT -> order < 0;
+            case LTE -> order <= 0;
+            default -> null;
+        };
+    }
+
+    private static Boolean and(Boolean left, Boolean right) {
+        if (Boolean.FALSE.equals(left) || Boolean.FALSE.equals(right)) {
+            return false;
+        }
+        return left == null || right == null ? null : true;
+    }
+
+    private static Boolean or(Boolean left, Boolean right) {
+        if (Boolean.TRUE.equals(left) || Boolean.TRUE.equals(right)) {
+            return true;
+        }
+        return left == null || right == null ? null : false;
+    }
+}
@@ -1,9 +1,14 @@
 package com.example.advancedrag.service;
 
+import com.example.advancedrag.exception.OverloadException;
 import com.example.advancedrag.model.EmbeddingContext;
 import com.example.advancedrag.model.RAGQueryOptions;
+import com.example.advancedrag.model.RetrievalContext;
 import com.example.advancedrag.model.ScoredDocument;
-import com.example.advancedrag.util.TextUtil;
+import com.example.advancedrag.properties.RAGProperties;
+import com.example.advancedrag.util.RankFusion;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.document.Document;
@@ -14,7 +19,12 @@ import org.springframework.stereotype.Service;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 
 /**
  * 多階段檢索服務
@@ -26,14 +36,36 @@ import java.util.stream.Collectors;
  * 檢索策略：
  * - 階段一：向量相似度檢索（快速、召回率高）
  * - 階段二：多因子評分（語義相似度 + BM25 + 品質 + 新鮮度）
+ *
+ * 向量與關鍵詞兩條檢索分支各自以 Observation（{@value #LEG_OBSERVATION}，標籤 leg）記錄耗時。
+ * 混合檢索與多查詢檢索以加權倒數排名融合（{@link RankFusion}）合併各分支，不直接比較不同尺度的分數。
+ *
+ * 檢索上下文中的元數據過濾表達式下推到每條分支的查詢本身（PgVector 的 jsonpath 條件、
+ * {@code SearchRequest.filterExpression}、倒排索引的 Top-K 過濾），不在檢索後過濾，coarseTopK 名額全部留給符合條件的文檔。
+ *
+ * 啟用自適應檢索深度時，向量分支以 {@link AdaptiveDepthService} 分頁取回候選，依分數分佈決定深度
+ * （coarseTopK 只作為最大深度的下限），融合結果的數量跟隨向量分支的決策深度。
  */
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class MultiStageRetrievalService {
 
+    /**
+     * 檢索分支 Observation 名稱
+     */
+    public static final String LEG_OBSERVATION = "rag.retrieval.leg";
+
     private final VectorStore vectorStore;
     private final SmartEmbeddingService embeddingService;
+    private final BM25Service bm25Service;
+    private final VectorSearchService vectorSearchService;
+    private final ObservationRegistry observationRegistry;
+    private final AdmissionControlService admissionControlService;
+    private final RAGProperties ragProperties;
+    private final ExecutorService ragPipelineExecutor;
+    private final MetadataFilterService metadataFilterService;
+    private final AdaptiveDepthService adaptiveDepthService;
 
     /**
      * 多階段檢索
@@ -43,13 +75,26 @@ public class MultiStageRetrievalService {
      * @return 評分文檔列表
      */
     public List<ScoredDocument> retrieve(String query, RAGQueryOptions options) {
+        return retrieve(query, options, new RetrievalContext());
+    }
+
+    /**
+     * 多階段檢索（共享檢索上下文）
+     *
+     * @param query 查詢文本
+     * @param options 查詢選項
+     * @param context 檢索上下文（查詢向量只生成一次）
+     * @return 評分文檔列表
+     */
+    public List<ScoredDocument> retrieve(String query, RAGQueryOptions options, RetrievalContext context) {
         long startTime = System.currentTimeMillis();
 
         try {
             log.info("開始多階段檢索，查詢: [{}]", query);
 
             // 階段一：粗檢索（Coarse Retrieval）
-            List<ScoredDocument> coarseResults = coarseRetrieval(query, options);
+            List<ScoredDocument> coarseResults = coarseRetrieval(AdaptiveDepthService.ROUTE_STANDARD, query, options,
+                    context);
             log.info("粗檢索完成，檢索到 {} 個候選文檔", coarseResults.size());
 
             // 階段二：精檢索（Fine Retrieval）- 在 RerankingService 中實現
@@ -69,48 +114,34 @@ public class MultiStageRetrievalService {
     /**
      * 粗檢索：基於向量相似度快速檢索候選文檔
      *
+     * 查詢向量生成一次後存入檢索上下文，並以預計算向量直接查詢 PgVector；
+     * 直接查詢不可用時回退到 VectorStore（會重新生成查詢向量）。
+     *
+     * @param route 檢索路由（自適應檢索深度按路由學習第一頁深度）
      * @param query 查詢文本
      * @param options 查詢選項
+     * @param context 檢索上下文
      * @return 候選文檔列表
      */
-    private List<ScoredDocument> coarseRetrieval(String query, RAGQueryOptions options) {
+    private List<ScoredDocument> coarseRetrieval(String route, String query, RAGQueryOptions options,
+                                                 RetrievalContext context) {
+        return leg("vector").observe(() -> doCoarseRetrieval(route, query, options, context));
+    }
+
+    private List<ScoredDocument> doCoarseRetrieval(String route, String query, RAGQueryOptions options,
+                                                   RetrievalContext context) {
         try {
-            // 1. 生成查詢 Embedding
-            List<Double> queryEmbedding = embeddingService.generateEmbedding(
-                    query,
-                    EmbeddingContext.highAccuracy()
-            );
-
-            // 2. 構建檢索請求
-            SearchRequest searchRequest = SearchRequest.builder()
-                    .query(query)
-                    .topK(options.getCoarseTopK())
-                    .similarityThreshold(options.getSimilarityThreshold())
-                    .build();
+            // 1. 生成查詢 Embedding（每個查詢只生成一次）
+            float[] queryEmbedding = context.queryVector(query,
+                    text -> embeddingService.embed(text, EmbeddingContext.highAccuracy()));
 
-            // 3. 執行向量檢索
-            List<Document> documents = vectorStore.similaritySearch(searchRequest);
+            // 2. 執行向量檢索
+            List<Document> documents = searchByVector(route, query, queryEmbedding, options, context);
 
             log.debug("向量檢索完成，檢索到 {} 個文檔", documents.size());
 
-            // 4. 轉換為 ScoredDocument
-            List<ScoredDocument> scoredDocuments = new ArrayList<>();
-            for (int i = 0; i < documents.size(); i++) {
-                Document doc = documents.get(i);
-
-                // 從元數據中獲取相似度分數（如果有）
-                Double similarityScore = extractSimilarityScore(doc);
-
-                ScoredDocument scoredDoc = ScoredDocument.builder()
-                        .document(doc)
-                        .score(similarityScore)
-                        .semanticScore(similarityScore)
-                        .build();
-
-                scoredDocuments.add(scoredDoc);
-            }
-
-            return scoredDocuments;
+            // 3. 轉換為 ScoredDocument
+            return toScoredDocuments(documents);
 
         } catch (Exception e) {
             log.error("粗檢索失敗", e);
@@ -118,6 +149,80 @@ public class MultiStageRetrievalService {
         }
     }
 
+    /**
+     * 轉換為 ScoredDocument（相似度分數取自元數據）
+     */
+    private List<ScoredDocument> toScoredDocuments(List<Document> documents) {
+        List<ScoredDocument> scoredDocuments = new ArrayList<>(documents.size());
+        for (Document doc : documents) {
+            Double similarityScore = extractSimilarityScore(doc);
+            scoredDocuments.add(ScoredDocument.builder()
+                    .document(doc)
+                    .score(similarityScore)
+                    .semanticScore(similarityScore)
+                    .build());
+        }
+        return scoredDocuments;
+    }
+
+    /**
+     * 向量檢索：啟用自適應檢索深度時分頁取回並記錄深度決策，否則取 coarseTopK 個候選
+     */
+    private List<Document> searchByVector(String route, String query, float[] queryEmbedding,
+                                          RAGQueryOptions options, RetrievalContext context) {
+        if (!adaptiveDepthService.isEnabled()) {
+            AdaptiveDepthService.PageFetcher fallback = vectorStoreFetcher(query, options, context,
+                    options.getCoarseTopK());
+            return searchPage(queryEmbedding, options, context, 0, options.getCoarseTopK(), fallback);
+        }
+        AdaptiveDepthService.PageFetcher fallback = vectorStoreFetcher(query, options, context,
+                adaptiveDepthService.maxDepth(options.getCoarseTopK()));
+        AdaptiveDepthService.Result result = adaptiveDepthService.retrieve(route, options.getFinalTopK(),
+                options.getCoarseTopK(),
+                (offset, limit) -> searchPage(queryEmbedding, options, context, offset, limit, fallback));
+        context.addDepthDecision(result.decision());
+        return result.documents();
+    }
+
+    /**
+     * 以預計算向量取回一頁候選，失敗時回退到 VectorStore
+     */
+    private List<Document> searchPage(float[] queryEmbedding, RAGQueryOptions options, RetrievalContext context,
+                                      int offset, int limit, AdaptiveDepthService.PageFetcher fallback) {
+        if (vectorSearchService.isAvailable()) {
+            try {
+                return admissionControlService.call(AdmissionControlService.VECTOR_STORE,
+                        () -> vectorSearchService.search(queryEmbedding, offset, limit,
+                                options.getSimilarityThreshold(), context.getFilterExpression(), context));
+            } catch (OverloadException e) {
+                // 向量庫繁忙時不回退（回退路徑同樣訪問向量庫且會重新生成查詢向量）
+                throw e;
+            } catch (Exception e) {
+                log.warn("預計算向量檢索失敗，回退到 VectorStore: {}", e.getMessage());
+            }
+        }
+        return fallback.fetch(offset, limit);
+    }
+
+    /**
+     * VectorStore 回退：每次查詢都會重新生成查詢向量且不支援偏移，
+     * 因此第一次取頁時一次取回 depth 個候選，之後的頁在記憶體中切片
+     */
+    private AdaptiveDepthService.PageFetcher vectorStoreFetcher(String query, RAGQueryOptions options,
+                                                                RetrievalContext context, int depth) {
+        return AdaptiveDepthService.prefetching(depth, topK -> {
+            SearchRequest.Builder searchRequest = SearchRequest.builder()
+                    .query(query)
+                    .topK(topK)
+                    .similarityThreshold(options.getSimilarityThreshold());
+            if (context.getFilterExpression() != null) {
+                searchRequest.filterExpression(context.getFilterExpression());
+            }
+            return admissionControlService.call(AdmissionControlService.VECTOR_STORE,
+                    () -> vectorStore.similaritySearch(searchRequest.build()));
+        });
+    }
+
     /**
      * 混合檢索：組合向量檢索和關鍵詞檢索
      *
@@ -127,42 +232,36 @@ public class MultiStageRetrievalService {
      * @return 候選文檔列表
      */
     public List<ScoredDocument> hybridRetrieval(String query, List<String> keywords, RAGQueryOptions options) {
+        return hybridRetrieval(query, keywords, options, new RetrievalContext());
+    }
+
+    /**
+     * 混合檢索（共享檢索上下文）
+     *
+     * @param query 查詢文本
+     * @param keywords 關鍵詞列表
+     * @param options 查詢選項
+     * @param context 檢索上下文
+     * @return 候選文檔列表
+     */
+    public List<ScoredDocument> hybridRetrieval(String query, List<String> keywords, RAGQueryOptions options,
+                                                RetrievalContext context) {
         try {
             log.info("開始混合檢索，查詢: [{}]，關鍵詞: {}", query, keywords);
 
             // 1. 向量檢索
-            List<ScoredDocument> vectorResults = coarseRetrieval(query, options);
-
-            // 2. 關鍵詞檢索（簡化版：基於內容匹配）
-            List<ScoredDocument> keywordResults = keywordSearch(keywords, options);
-
-            // 3. 合併結果（去重）
-            Map<String, ScoredDocument> mergedResults = vectorResults.stream()
-                    .collect(Collectors.toMap(
-                            doc -> doc.getDocument().getId(),
-                            doc -> doc,
-                            (existing, replacement) -> existing
-                    ));
-
-            // 添加關鍵詞檢索結果
-            for (ScoredDocument keywordDoc : keywordResults) {
-                String docId = keywordDoc.getDocument().getId();
-                if (mergedResults.containsKey(docId)) {
-                    // 已存在，提升分數
-                    ScoredDocument existing = mergedResults.get(docId);
-                    Double boostedScore = (existing.getScore() + keywordDoc.getBm25Score()) / 2;
-                    existing.setScore(boostedScore);
-                } else {
-                    // 新文檔，添加
-                    mergedResults.put(docId, keywordDoc);
-                }
-            }
+            List<ScoredDocument> vectorResults = coarseRetrieval(AdaptiveDepthService.ROUTE_HYBRID, query, options,
+                    context);
 
-            // 4. 按分數排序並限制數量
-            List<ScoredDocument> results = mergedResults.values().stream()
-                    .sorted((a, b) -> Double.compare(b.getScore(), a.getScore()))
-                    .limit(options.getCoarseTopK())
-                    .toList();
+            // 2. 關鍵詞檢索（BM25 倒排索引）
+            List<ScoredDocument> keywordResults = keywordSearch(query, keywords, options, context);
+
+            // 3. 倒數排名融合（餘弦相似度與 BM25 尺度不可比，只使用名次）
+            RAGProperties.MultiQuery multiQuery = ragProperties.getMultiQuery();
+            List<ScoredDocument> results = RankFusion.reciprocalRankFusion(List.of(
+                    new RankFusion.Ranking("vector", multiQuery.getPrimaryWeight(), vectorResults),
+                    new RankFusion.Ranking("keyword", multiQuery.getKeywordWeight(), keywordResults)
+            ), multiQuery.getRrfK(), adaptiveDepthService.fusionLimit(vectorResults.size(), options));
 
             log.info("混合檢索完成，檢索到 {} 個文檔", results.size());
 
@@ -170,75 +269,133 @@ public class MultiStageRetrievalService {
 
         } catch (Exception e) {
             log.error("混合檢索失敗", e);
-            return coarseRetrieval(query, options);
+            return coarseRetrieval(AdaptiveDepthService.ROUTE_HYBRID, query, options, context);
         }
     }
 
     /**
-     * 關鍵詞搜索（簡化版 BM25）
+     * 多查詢檢索：主查詢 + 擴展查詢 + 關鍵詞，並行檢索後以加權 RRF 融合
      *
+     * 1. 主查詢與所有擴展查詢以一次批次調用生成向量（已在上下文中的不重複生成）
+     * 2. 每個查詢一條向量檢索分支，加上一條 BM25 分支，在虛擬線程上並行執行
+     * 3. 所有分支共用一個時間預算，逾時的分支被取消且不參與融合，慢分支不會拖住整體
+     *
+     * @param query 主查詢（重寫後或原始查詢）
+     * @param expansions 擴展查詢
      * @param keywords 關鍵詞列表
      * @param options 查詢選項
-     * @return 匹配的文檔列表
+     * @param context 檢索上下文
+     * @return 融合後的候選文檔
      */
-    private List<ScoredDocument> keywordSearch(List<String> keywords, RAGQueryOptions options) {
+    public List<ScoredDocument> multiQueryRetrieval(String query, List<String> expansions, List<String> keywords,
+                                                    RAGQueryOptions options, RetrievalContext context) {
+        long startTime = System.currentTimeMillis();
+        RAGProperties.MultiQuery multiQuery = ragProperties.getMultiQuery();
+
+        List<String> queries = new ArrayList<>();
+        queries.add(query);
+        expansions.stream()
+                .filter(expansion -> expansion != null && !expansion.isBlank() && !queries.contains(expansion))
+                .forEach(queries::add);
+
         try {
-            // 使用 VectorStore 的全文檢索功能（如果支持）
-            // 這裡簡化實現：將關鍵詞組合成查詢字符串
-            String combinedQuery = String.join(" ", keywords);
-
-            SearchRequest searchRequest = SearchRequest.builder()
-                    .query(combinedQuery)
-                    .topK(options.getCoarseTopK() / 2) // 關鍵詞檢索返回一半數量
-                    .similarityThreshold(0.5)
-                    .build();
-
-            List<Document> documents = vectorStore.similaritySearch(searchRequest);
-
-            // 計算 BM25 分數（簡化版：基於關鍵詞匹配數量）
-            return documents.stream()
-                    .map(doc -> {
-                        double bm25Score = calculateSimpleBM25(doc.getText(), keywords);
-
-                        return ScoredDocument.builder()
-                                .document(doc)
-                                .score(bm25Score)
-                                .bm25Score(bm25Score)
-                                .build();
-                    })
-                    .filter(doc -> doc.getBm25Score() > 0.0)
+            log.info("開始多查詢檢索，主查詢: [{}]，擴展查詢: {} 個", query, queries.size() - 1);
+
+            // 1. 批次生成查詢向量
+            List<String> missing = queries.stream()
+                    .filter(text -> context.getQueryVector(text) == null)
                     .toList();
+            if (!missing.isEmpty()) {
+                List<float[]> vectors = embeddingService.embedAll(missing, EmbeddingContext.highAccuracy());
+                for (int i = 0; i < missing.size(); i++) {
+                    context.putQueryVector(missing.get(i), vectors.get(i));
+                }
+            }
 
+            // 2. 並行執行各分支
+            List<String> sources = new ArrayList<>();
+            List<Double> weights = new ArrayList<>();
+            List<Callable<List<ScoredDocument>>> legs = new ArrayList<>();
+            for (int i = 0; i < queries.size(); i++) {
+                String text = queries.get(i);
+                boolean primary = i == 0;
+                sources.add(primary ? "primary" : "expansion-" + i);
+                weights.add(primary ? multiQuery.getPrimaryWeight() : multiQuery.getExpansionWeight());
+                String route = primary ? AdaptiveDepthService.ROUTE_MULTI_QUERY : AdaptiveDepthService.ROUTE_EXPANSION;
+                legs.add(() -> leg(primary ? "vector" : "expansion").observe(() -> toScoredDocuments(
+                        searchByVector(route, text, context.getQueryVector(text), options, context))));
+            }
+            sources.add("keyword");
+            weights.add(multiQuery.getKeywordWeight());
+            legs.add(() -> keywordSearch(query, keywords, options, context));
+
+            List<Future<List<ScoredDocument>>> futures = ragPipelineExecutor.invokeAll(legs,
+                    multiQuery.getLegTimeout().toMillis(), TimeUnit.MILLISECONDS);
+
+            // 3. 收集完成的分支並融合
+            List<RankFusion.Ranking> rankings = new ArrayList<>();
+            int vectorDepth = 0;
+            for (int i = 0; i < futures.size(); i++) {
+                Future<List<ScoredDocument>> future = futures.get(i);
+                if (future.isCancelled()) {
+                    log.warn("檢索分支 {} 超過時間預算 {}ms，不參與融合",
+                            sources.get(i), multiQuery.getLegTimeout().toMillis());
+                    continue;
+                }
+                try {
+                    List<ScoredDocument> legResults = future.get();
+                    rankings.add(new RankFusion.Ranking(sources.get(i), weights.get(i), legResults));
+                    if (i < queries.size()) {
+                        vectorDepth = Math.max(vectorDepth, legResults.size());
+                    }
+                } catch (ExecutionException e) {
+                    log.warn("檢索分支 {} 失敗，不參與融合: {}", sources.get(i), e.getCause().getMessage());
+                }
+            }
+
+            List<ScoredDocument> results = RankFusion.reciprocalRankFusion(rankings, multiQuery.getRrfK(),
+                    adaptiveDepthService.fusionLimit(vectorDepth, options));
+
+            log.info("多查詢檢索完成，有效分支: {}/{}，檢索到 {} 個文檔，耗時: {}ms",
+                    rankings.size(), legs.size(), results.size(), System.currentTimeMillis() - startTime);
+
+            return results;
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("多查詢檢索被中斷", e);
         } catch (Exception e) {
-            log.error("關鍵詞搜索失敗", e);
-            return List.of();
+            log.error("多查詢檢索失敗，回退到混合檢索", e);
+            return hybridRetrieval(query, keywords, options, context);
         }
     }
 
     /**
-     * 計算簡化版 BM25 分數
+     * 關鍵詞搜索（BM25 倒排索引）
      *
-     * @param content 文檔內容
+     * @param query 查詢文本
      * @param keywords 關鍵詞列表
-     * @return BM25 分數（0-1）
+     * @param options 查詢選項
+     * @param context 檢索上下文（元數據過濾表達式）
+     * @return 匹配的文檔列表
      */
-    private double calculateSimpleBM25(String documentContent, List<String> keywords) {
-        if (keywords.isEmpty()) {
-            return 0.0;
-        }
-
-        String lowerContent = documentContent.toLowerCase();
-        int matchCount = 0;
+    private List<ScoredDocument> keywordSearch(String query, List<String> keywords, RAGQueryOptions options,
+                                               RetrievalContext context) {
+        try {
+            // 關鍵詞檢索返回一半數量
+            Predicate<Document> filter = metadataFilterService.predicate(context.getFilterExpression());
+            return leg("keyword").observe(() ->
+                    bm25Service.search(query, keywords, Math.max(1, options.getCoarseTopK() / 2), filter));
 
-        for (String keyword : keywords) {
-            int termFreq = TextUtil.termFrequency(lowerContent, keyword.toLowerCase());
-            if (termFreq > 0) {
-                matchCount++;
-            }
+        } catch (Exception e) {
+            log.error("關鍵詞搜索失敗", e);
+            return List.of();
         }
+    }
 
-        // 簡化評分：匹配關鍵詞的比例
-        return (double) matchCount / keywords.size();
+    private Observation leg(String leg) {
+        return Observation.createNotStarted(LEG_OBSERVATION, observationRegistry)
+                .lowCardinalityKeyValue("leg", leg);
     }
 
     /**
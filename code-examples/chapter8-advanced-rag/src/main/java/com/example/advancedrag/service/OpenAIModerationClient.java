@@ -0,0 +1,238 @@
+package com.example.advancedrag.service;
+
+import com.example.advancedrag.properties.ModerationProperties;
+import com.example.advancedrag.properties.RAGProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.Data;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * OpenAI Moderation API 客戶端
+ *
+ * Moderation API 的 input 欄位接受字串陣列，因此：
+ * 1. {@link #moderate(List)} 將多個內容以單次 HTTP 調用送出
+ * 2. {@link #moderate(String)} 將短時間窗口內的並發請求合併為一次多輸入調用
+ *    （窗口長度與批次上限見 app.moderation.batch）
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class OpenAIModerationClient {
+
+    /**
+     * OpenAI Moderation API 端點
+     */
+    private static final String MODERATION_API_URL = "https://api.openai.com/v1/moderations";
+
+    private final RAGProperties ragProperties;
+    private final ModerationProperties moderationProperties;
+    private final RestTemplate restTemplate;
+    private final ExecutorService ragPipelineExecutor;
+
+    private final BlockingQueue<PendingRequest> queue = new LinkedBlockingQueue<>();
+    private volatile boolean running;
+
+    @PostConstruct
+    void startDispatcher() {
+        if (!moderationProperties.getBatch().getEnabled()) {
+            return;
+        }
+        running = true;
+        Thread.ofVirtual().name("moderation-batcher").start(this::dispatchLoop);
+    }
+
+    @PreDestroy
+    void stopDispatcher() {
+        running = false;
+    }
+
+    /**
+     * 審核單個內容（批次模式下與其他並發請求合併送出）
+     *
+     * @param content 待審核內容
+     * @return API 結果
+     */
+    public ApiResult moderate(String content) {
+        ModerationProperties.Batch batch = moderationProperties.getBatch();
+        if (!running) {
+            return moderate(List.of(content)).get(0);
+        }
+
+        PendingRequest pending = new PendingRequest(content, new CompletableFuture<>());
+        queue.add(pending);
+        try {
+            return pending.future().get(batch.getRequestTimeout().toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Moderation API 調用被中斷", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Moderation API 調用失敗: " + e.getCause().getMessage(), e.getCause());
+        } catch (TimeoutException e) {
+            throw new RuntimeException("Moderation API 調用逾時", e);
+        }
+    }
+
+    /**
+     * 以單次 HTTP 調用審核多個內容（超過批次上限時分段送出）
+     *
+     * @param contents 待審核內容列表
+     * @return API 結果列表（順序與輸入一致）
+     */
+    public List<ApiResult> moderate(List<String> contents) {
+        int maxBatchSize = moderationProperties.getBatch().getMaxBatchSize();
+        List<ApiResult> results = new ArrayList<>(contents.size());
+        for (int from = 0; from < contents.size(); from += maxBatchSize) {
+            results.addAll(callApi(contents.subList(from, Math.min(contents.size(), from + maxBatchSize))));
+        }
+        return results;
+    }
+
+    /**
+     * 批次分派迴圈：取得第一個請求後，在等待窗口內盡量收集更多請求
+     */
+    private void dispatchLoop() {
+        ModerationProperties.Batch batch = moderationProperties.getBatch();
+        while (running) {
+            try {
+                PendingRequest first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+
+                List<PendingRequest> requests = new ArrayList<>();
+                requests.add(first);
+                long deadline = System.nanoTime() + batch.getMaxWait().toNanos();
+                while (requests.size() < batch.getMaxBatchSize()) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingRequest next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    requests.add(next);
+                }
+
+                // 在獨立線程送出，讓下一批可以立即開始收集
+                ragPipelineExecutor.execute(() -> dispatch(requests));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("審核批次分派失敗", e);
+            }
+        }
+    }
+
+    /**
+     * 送出一個批次（相同內容只送一次）
+     */
+    private void dispatch(List<PendingRequest> requests) {
+        Map<String, List<CompletableFuture<ApiResult>>> byContent = new LinkedHashMap<>();
+        for (PendingRequest request : requests) {
+            byContent.computeIfAbsent(request.content(), key -> new ArrayList<>()).add(request.future());
+        }
+
+        try {
+            List<String> inputs = new ArrayList<>(byContent.keySet());
+            List<ApiResult> results = callApi(inputs);
+            log.debug("審核批次完成，請求數: {}，實際輸入數: {}", requests.size(), inputs.size());
+
+            for (int i = 0; i < inputs.size(); i++) {
+                ApiResult result = results.get(i);
+                byContent.get(inputs.get(i)).forEach(future -> future.complete(result));
+            }
+        } catch (Exception e) {
+            requests.forEach(request -> request.future().completeExceptionally(e));
+        }
+    }
+
+    /**
+     * 調用 OpenAI Moderation API（多輸入）
+     *
+     * @param inputs 待審核內容
+     * @return API 結果列表
+     */
+    private List<ApiResult> callApi(List<String> inputs) {
+        try {
+            Map<String, Object> requestBody = new HashMap<>();
+            requestBody.put("input", inputs);
+            requestBody.put("model", "text-moderation-stable");
+
+            HttpHeaders headers = new HttpHeaders();
+            headers.set("Authorization", "Bearer " + ragProperties.getOpenaiApiKey());
+            headers.set("Content-Type", "application/json");
+
+            ResponseEntity<ApiResponse> response = restTemplate.postForEntity(
+                    MODERATION_API_URL,
+                    new HttpEntity<>(requestBody, headers),
+                    ApiResponse.class
+            );
+
+            if (response.getBody() == null || response.getBody().getResults() == null ||
+                    response.getBody().getResults().size() != inputs.size()) {
+                throw new RuntimeException("OpenAI Moderation API 返回結果數量不符");
+            }
+
+            return response.getBody().getResults();
+
+        } catch (Exception e) {
+            log.error("調用 OpenAI Moderation API 失敗", e);
+            throw new RuntimeException("Moderation API 調用失敗: " + e.getMessage(), e);
+        }
+    }
+
+    private record PendingRequest(String content, CompletableFuture<ApiResult> future) {
+    }
+
+    /**
+     * OpenAI Moderation API 響應
+     */
+    @Data
+    static class ApiResponse {
+        private String id;
+        private String model;
+        private List<ApiResult> results;
+    }
+
+    /**
+     * OpenAI Moderation API 結果
+     */
+    @Data
+    public static class ApiResult {
+        private boolean flagged;
+        private Map<String, Boolean> categories;
+
+        @JsonProperty("category_scores")
+        private Map<String, Double> categoryScores;
+
+        /**
+         * 獲取類別分數映射
+         */
+        public Map<String, Double> getCategoryScores() {
+            if (categoryScores == null) {
+                return new HashMap<>();
+            }
+            return categoryScores;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.advancedrag.service;
+
+import com.example.advancedrag.model.QueryProfile;
+import com.example.advancedrag.model.StageTimeline;
+import com.example.advancedrag.properties.RAGProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * 管線耗時剖面記錄器
+ *
+ * Micrometer 的計時器只能給出各階段各自的百分位，無法回答「p99 的請求慢在哪裡」。
+ * 本記錄器保留最近 N 個請求的階段明細與關鍵路徑：
+ * - 按總耗時百分位切出尾部請求，統計尾部最常見的關鍵路徑與各階段平均耗時
+ * - 超過慢查詢閾值的請求記錄完整明細（按總耗時保留最慢的若干個樣本）
+ */
+@Slf4j
+@Service
+public class PipelineProfileRecorder {
+
+    private static final double[] PERCENTILES = {0.5, 0.95, 0.99};
+
+    private final RAGProperties.Pipeline pipeline;
+    private final QueryProfile[] window;
+    private final PriorityQueue<QueryProfile> slowest =
+            new PriorityQueue<>(Comparator.comparingLong(QueryProfile::totalMillis));
+    private int next;
+    private int size;
+
+    public PipelineProfileRecorder(RAGProperties ragProperties) {
+        this.pipeline = ragProperties.getPipeline();
+        this.window = new QueryProfile[Math.max(1, pipeline.getProfileWindowSize())];
+    }
+
+    /**
+     * 記錄一次查詢
+     *
+     * @param queryId 查詢 ID
+     * @param mode 執行模式
+     * @param totalMillis 總耗時（毫秒）
+     * @param timeline 階段時間線
+     */
+    public void record(String queryId, String mode, long totalMillis, StageTimeline timeline) {
+        QueryProfile profile = new QueryProfile(queryId, mode, totalMillis,
+                timeline.criticalPath(), timeline.durations());
+
+        boolean slow = totalMillis >= pipeline.getSlowQueryThreshold().toMillis();
+        synchronized (this) {
+            window[next] = profile;
+            next = (next + 1) % window.length;
+            size = Math.min(size + 1, window.length);
+
+            if (slow) {
+                slowest.add(profile);
+                if (slowest.size() > Math.max(1, pipeline.getSlowQuerySamples())) {
+                    slowest.poll();
+                }
+            }
+        }
+
+        if (slow) {
+            log.warn("慢查詢，Query ID: {}, 總耗時: {}ms, 關鍵路徑: {}, 階段耗時: {}",
+                    queryId, totalMillis, profile.criticalPath(), profile.stageDurations());
+        }
+    }
+
+    /**
+     * 按百分位分析關鍵路徑
+     *
+     * 每個百分位返回：閾值、尾部樣本數、尾部最常見的關鍵路徑及其佔比、尾部各階段平均耗時。
+     *
+     * @return 百分位名稱（p50/p95/p99）到分析結果
+     */
+    public Map<String, Object> criticalPathByPercentile() {
+        QueryProfile[] profiles = snapshot();
+        Map<String, Object> result = new LinkedHashMap<>();
+        if (profiles.length == 0) {
+            return result;
+        }
+        Arrays.sort(profiles, Comparator.comparingLong(QueryProfile::totalMillis));
+
+        for (double percentile : PERCENTILES) {
+            int from = Math.max(0, (int) Math.ceil(percentile * profiles.length) - 1);
+            result.put("p" + Math.round(percentile * 100),
+                    analyzeTail(Arrays.copyOfRange(profiles, from, profiles.length)));
+        }
+        return result;
+    }
+
+    /**
+     * 最慢的查詢樣本（按總耗時降序）
+     */
+    public synchronized List<QueryProfile> slowQueries() {
+        List<QueryProfile> samples = new ArrayList<>(slowest);
+        samples.sort(Comparator.comparingLong(QueryProfile::totalMillis).reversed());
+        return samples;
+    }
+
+    private Map<String, Object> analyzeTail(QueryProfile[] tail) {
+        Map<List<String>, Integer> pathCounts = new HashMap<>();
+        Map<String, Long> stageTotals = new LinkedHashMap<>();
+        for (QueryProfile profile : tail) {
+            pathCounts.merge(profile.criticalPath(), 1, Integer::sum);
+            profile.stageDurations().forEach((stage, duration) -> stageTotals.merge(stage, duration, Long::sum));
+        }
+
+        Map.Entry<List<String>, Integer> dominant = pathCounts.entrySet().stream()
+                .max(Map.Entry.comparingByValue())
+                .orElseThrow();
+
+        Map<String, Long> stageAverages = new LinkedHashMap<>();
+        stageTotals.forEach((stage, total) -> stageAverages.put(stage, total / tail.length));
+
+        Map<String, Object> analysis = new LinkedHashMap<>();
+        analysis.put("threshold_ms", tail[0].totalMillis());
+        analysis.put("samples", tail.length);
+        analysis.put("critical_path", dominant.getKey());
+        analysis.put("critical_path_share", (double) dominant.getValue() / tail.length);
+        analysis.put("stage_avg_ms", stageAverages);
+        return analysis;
+    }
+
+    private synchronized QueryProfile[] snapshot() {
+        QueryProfile[] profiles = new QueryProfile[size];
+        int start = (next - size + window.length) % window.length;
+        for (int i = 0; i < size; i++) {
+            profiles[i] = window[(start + i) % window.length];
+        }
+        return profiles;
+    }
+}
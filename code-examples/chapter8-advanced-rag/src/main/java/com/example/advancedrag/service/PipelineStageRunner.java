@@ -0,0 +1,151 @@
+package com.example.advancedrag.service;
+
+import com.example.advancedrag.model.StageTimeline;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 管線階段執行器（每個請求一個實例）
+ *
+ * 功能：
+ * 1. 在虛擬線程上執行階段任務，並記錄到 {@link StageTimeline}
+ * 2. 每個階段有獨立的截止時間，逾時會中斷任務並使用降級結果
+ * 3. 支援取消全部推測性工作（如查詢審核未通過時）
+ */
+@Slf4j
+public class PipelineStageRunner {
+
+    private final ExecutorService executor;
+    private final StageTimeline timeline;
+    private final AtomicBoolean cancelled = new AtomicBoolean(false);
+    private final Queue<Pending> inFlight = new ConcurrentLinkedQueue<>();
+
+    public PipelineStageRunner(ExecutorService executor, StageTimeline timeline) {
+        this.executor = executor;
+        this.timeline = timeline;
+    }
+
+    /**
+     * 提交階段任務
+     *
+     * @param stage 階段名稱
+     * @param dependsOn 依賴的階段（用於關鍵路徑推算）
+     * @param deadline 階段截止時間
+     * @param task 階段任務
+     * @param fallback 失敗或逾時時的降級結果（null 表示直接傳播錯誤）
+     * @return 階段結果
+     */
+    public <T> CompletableFuture<T> submit(String stage, List<String> dependsOn, Duration deadline,
+                                           Supplier<T> task, Function<Throwable, T> fallback) {
+        if (cancelled.get()) {
+            return CompletableFuture.failedFuture(new CancellationException("階段已取消: " + stage));
+        }
+
+        long startNanos = System.nanoTime();
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Future<?> future = executor.submit(() -> {
+            try {
+                result.complete(timeline.record(stage, dependsOn, task));
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        inFlight.add(new Pending(result, future));
+        result.orTimeout(deadline.toMillis(), TimeUnit.MILLISECONDS);
+
+        return result.handle((value, error) -> {
+            if (error == null) {
+                return value;
+            }
+            Throwable cause = unwrap(error);
+            if (cause instanceof TimeoutException) {
+                future.cancel(true);
+                timeline.recordSpan(stage, startNanos, dependsOn, "timeout");
+                log.warn("階段 {} 超過截止時間 {}ms", stage, deadline.toMillis());
+            } else if (cause instanceof CancellationException) {
+                timeline.recordSpan(stage, startNanos, dependsOn, "cancelled");
+                throw new CompletionException(cause);
+            }
+            if (fallback == null) {
+                throw cause instanceof CompletionException ce ? ce : new CompletionException(cause);
+            }
+            log.warn("階段 {} 失敗，使用降級結果: {}", stage, cause.getMessage());
+            return fallback.apply(cause);
+        });
+    }
+
+    /**
+     * 在當前線程執行階段任務（用於依賴前一階段、無需並行的 CPU 任務）
+     *
+     * @param stage 階段名稱
+     * @param dependsOn 依賴的階段
+     * @param task 階段任務
+     * @return 任務結果
+     */
+    public <T> T runInline(String stage, List<String> dependsOn, Supplier<T> task) {
+        return timeline.record(stage, dependsOn, task);
+    }
+
+    /**
+     * 取消所有尚未完成的階段並中斷對應線程
+     */
+    public void cancelAll() {
+        cancelled.set(true);
+        Pending pending;
+        while ((pending = inFlight.poll()) != null) {
+            if (!pending.result().isDone()) {
+                pending.result().cancel(true);
+                pending.task().cancel(true);
+            }
+        }
+    }
+
+    /**
+     * 等待階段結果，並將包裝異常還原為原始的 RuntimeException
+     *
+     * @param future 階段結果
+     * @return 結果值
+     */
+    public static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException | CancellationException e) {
+            Throwable cause = unwrap(e);
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException(cause.getMessage(), cause);
+        }
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        Throwable cause = error;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException)
+                && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    public StageTimeline getTimeline() {
+        return timeline;
+    }
+
+    private record Pending(CompletableFuture<?> result, Future<?> task) {
+    }
+}
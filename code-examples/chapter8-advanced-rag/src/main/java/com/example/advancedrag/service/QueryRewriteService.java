@@ -1,5 +1,8 @@
 package com.example.advancedrag.service;
 
+import com.example.advancedrag.advisor.RerankRAGAdvisor;
+import com.example.advancedrag.properties.RAGProperties;
+import com.example.advancedrag.util.SingleFlight;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.client.ChatClient;
@@ -11,6 +14,7 @@ import org.springframework.stereotype.Service;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
 
 /**
  * 查詢重寫服務
@@ -20,6 +24,9 @@ import java.util.Map;
  * 2. 查詢擴展（生成多個相關查詢）
  * 3. 關鍵詞提取
  * 4. 查詢意圖識別
+ *
+ * 重寫、擴展、關鍵詞提取的結果有快取，但熱門問題同時到達時會一起未命中；
+ * 快取未命中時以 single-flight 合併相同快取鍵的進行中調用，只發出一次 LLM 請求。
  */
 @Slf4j
 @Service
@@ -27,6 +34,12 @@ import java.util.Map;
 public class QueryRewriteService {
 
     private final ChatClient chatClient;
+    private final RAGProperties ragProperties;
+    private final RAGMetricsService metricsService;
+
+    private final SingleFlight<String, String> rewriteFlight = new SingleFlight<>();
+    private final SingleFlight<String, List<String>> expansionFlight = new SingleFlight<>();
+    private final SingleFlight<String, List<String>> keywordFlight = new SingleFlight<>();
 
     /**
      * 查詢重寫 Prompt 模板
@@ -87,6 +100,11 @@ public class QueryRewriteService {
      */
     @Cacheable(value = "rewrittenQueries", key = "#originalQuery")
     public String rewriteQuery(String originalQuery) {
+        return coalesce(rewriteFlight, "rewrite", originalQuery,
+                () -> doRewriteQuery(originalQuery), originalQuery);
+    }
+
+    private String doRewriteQuery(String originalQuery) {
         long startTime = System.currentTimeMillis();
 
         try {
@@ -96,6 +114,7 @@ public class QueryRewriteService {
             Prompt prompt = promptTemplate.create(Map.of("query", originalQuery));
 
             String rewrittenQuery = chatClient.prompt(prompt)
+                    .advisors(advisor -> advisor.param(RerankRAGAdvisor.SKIP_RETRIEVAL, true))
                     .call()
                     .content();
 
@@ -123,6 +142,11 @@ public class QueryRewriteService {
      */
     @Cacheable(value = "expandedQueries", key = "#originalQuery + '_' + #count")
     public List<String> expandQuery(String originalQuery, int count) {
+        return coalesce(expansionFlight, "expansion", originalQuery + "_" + count,
+                () -> doExpandQuery(originalQuery, count), List.of(originalQuery));
+    }
+
+    private List<String> doExpandQuery(String originalQuery, int count) {
         long startTime = System.currentTimeMillis();
 
         try {
@@ -135,6 +159,7 @@ public class QueryRewriteService {
             ));
 
             String response = chatClient.prompt(prompt)
+                    .advisors(advisor -> advisor.param(RerankRAGAdvisor.SKIP_RETRIEVAL, true))
                     .call()
                     .content();
 
@@ -171,6 +196,10 @@ public class QueryRewriteService {
      */
     @Cacheable(value = "queryKeywords", key = "#query")
     public List<String> extractKeywords(String query) {
+        return coalesce(keywordFlight, "keywords", query, () -> doExtractKeywords(query), List.of());
+    }
+
+    private List<String> doExtractKeywords(String query) {
         long startTime = System.currentTimeMillis();
 
         try {
@@ -180,6 +209,7 @@ public class QueryRewriteService {
             Prompt prompt = promptTemplate.create(Map.of("query", query));
 
             String response = chatClient.prompt(prompt)
+                    .advisors(advisor -> advisor.param(RerankRAGAdvisor.SKIP_RETRIEVAL, true))
                     .call()
                     .content();
 
@@ -224,6 +254,30 @@ public class QueryRewriteService {
         }
     }
 
+    /**
+     * 合併相同快取鍵的進行中調用
+     *
+     * @param flight 合併點
+     * @param name 合併點名稱（用於指標）
+     * @param key 快取鍵
+     * @param call LLM 調用（方法本身已處理失敗降級）
+     * @param fallback 等待 leader 失敗或逾時時的降級結果
+     * @return 調用結果
+     */
+    private <V> V coalesce(SingleFlight<String, V> flight, String name, String key, Supplier<V> call, V fallback) {
+        RAGProperties.Coalescing coalescing = ragProperties.getCoalescing();
+        if (!coalescing.getEnabled()) {
+            return call.get();
+        }
+
+        SingleFlight.Result<V> result = flight.execute(key, call, coalescing.getLlmTimeout(), error -> {
+            log.warn("等待進行中的 LLM 調用失敗（{}），使用降級結果: {}", name, error.toString());
+            return fallback;
+        });
+        metricsService.recordSingleFlight(name, result.role());
+        return result.value();
+    }
+
     /**
      * 解析查詢列表
      *
@@ -1,5 +1,6 @@
 package com.example.advancedrag.service;
 
+import com.example.advancedrag.advisor.RerankRAGAdvisor;
 import com.example.advancedrag.dto.SingleEvaluationRequest;
 import com.example.advancedrag.dto.EvaluationResult;
 import com.example.advancedrag.dto.EvaluationReport;
@@ -262,6 +263,7 @@ public class RAGEvaluationService {
 
             String response = chatClient.prompt()
                     .user(promptTemplate.create(params).getContents())
+                    .advisors(advisor -> advisor.param(RerankRAGAdvisor.SKIP_RETRIEVAL, true))
                     .call()
                     .content();
 
@@ -291,6 +293,7 @@ public class RAGEvaluationService {
 
             String response = chatClient.prompt()
                     .user(promptTemplate.create(params).getContents())
+                    .advisors(advisor -> advisor.param(RerankRAGAdvisor.SKIP_RETRIEVAL, true))
                     .call()
                     .content();
 
@@ -320,6 +323,7 @@ public class RAGEvaluationService {
 
             String response = chatClient.prompt()
                     .user(promptTemplate.create(params).getContents())
+                    .advisors(advisor -> advisor.param(RerankRAGAdvisor.SKIP_RETRIEVAL, true))
                     .call()
                     .content();
 
@@ -1,5 +1,6 @@
 package com.example.advancedrag.service;
 
+import com.example.advancedrag.util.SingleFlight;
 import io.micrometer.core.instrument.*;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
@@ -17,13 +18,24 @@ import java.util.concurrent.atomic.AtomicLong;
  * - 檢索質量指標
  * - Re-ranking 性能
  * - 內容審核統計
+ * - Embedding 快取命中率
+ * - 語義答案快取命中率與節省的時間
+ * - Re-ranking 結果快取命中率與避免的提供者調用耗時
  * - 評估分數統計
+ *
+ * 耗時與 token 數同時寫入 {@link RollingMetricsStore}，供 1m / 5m / 1h 滑動窗口百分位查詢。
  */
 @Slf4j
 @Service
 public class RAGMetricsService {
 
+    /**
+     * 多因子 Re-ranking（RerankingService）的提供者名稱
+     */
+    public static final String MULTI_FACTOR_RERANKER = "multi-factor";
+
     private final MeterRegistry meterRegistry;
+    private final RollingMetricsStore rollingMetricsStore;
 
     // 計數器
     private final Counter ragQueryCounter;
@@ -37,7 +49,35 @@ public class RAGMetricsService {
     private final Timer retrievalTimer;
     private final Timer rerankingTimer;
     private final Timer generationTimer;
+    private final Timer firstTokenTimer;
     private final Timer evaluationTimer;
+    private final Timer embeddingLoadTimer;
+    private final DistributionSummary generationTokensDistribution;
+
+    // Embedding 快取
+    private final Counter embeddingCacheL1HitCounter;
+    private final Counter embeddingCacheL2HitCounter;
+    private final Counter embeddingCacheMissCounter;
+
+    // 語義答案快取
+    private final Counter semanticCacheHitCounter;
+    private final Counter semanticCacheMissCounter;
+    private final Timer semanticCacheSavedTimer;
+
+    // Re-ranking 結果快取
+    private final Counter rerankCacheL1HitCounter;
+    private final Counter rerankCacheL2HitCounter;
+    private final Counter rerankCacheMissCounter;
+    private final Timer rerankCacheAvoidedTimer;
+
+    // 上下文壓縮
+    private final DistributionSummary contextTokensSavedDistribution;
+    private final DistributionSummary contextCompressionRatioDistribution;
+
+    // Embedding 微批次
+    private final AtomicInteger embeddingQueueDepth;
+    private final DistributionSummary embeddingBatchSizeDistribution;
+    private final Timer embeddingBatchWaitTimer;
 
     // 儀表（Gauge）
     private final AtomicInteger activeQueries;
@@ -52,8 +92,9 @@ public class RAGMetricsService {
     // 緩存統計
     private final ConcurrentHashMap<String, AtomicLong> customMetrics;
 
-    public RAGMetricsService(MeterRegistry meterRegistry) {
+    public RAGMetricsService(MeterRegistry meterRegistry, RollingMetricsStore rollingMetricsStore) {
         this.meterRegistry = meterRegistry;
+        this.rollingMetricsStore = rollingMetricsStore;
         this.customMetrics = new ConcurrentHashMap<>();
 
         // 初始化計數器
@@ -98,11 +139,101 @@ public class RAGMetricsService {
                 .publishPercentiles(0.5, 0.95, 0.99)
                 .register(meterRegistry);
 
+        this.firstTokenTimer = Timer.builder("rag.generation.first.token")
+                .description("串流答案首個 token 的到達時間（自請求開始）")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+
         this.evaluationTimer = Timer.builder("rag.evaluation.duration")
                 .description("評估時間")
                 .publishPercentiles(0.5, 0.95, 0.99)
                 .register(meterRegistry);
 
+        this.embeddingLoadTimer = Timer.builder("rag.embedding.load.duration")
+                .description("Embedding 快取未命中時的模型調用時間")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+
+        this.generationTokensDistribution = DistributionSummary.builder("rag.generation.tokens")
+                .description("每次答案生成消耗的 token 數")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+
+        this.contextTokensSavedDistribution = DistributionSummary.builder("rag.context.compression.saved.tokens")
+                .description("每次請求上下文壓縮節省的 token 數")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+
+        this.contextCompressionRatioDistribution = DistributionSummary.builder("rag.context.compression.ratio")
+                .description("上下文壓縮後與壓縮前的 token 比例")
+                .register(meterRegistry);
+
+        // 初始化 Embedding 快取計數器
+        this.embeddingCacheL1HitCounter = Counter.builder("rag.embedding.cache.hit")
+                .description("Embedding 快取命中數")
+                .tag("tier", "l1")
+                .register(meterRegistry);
+
+        this.embeddingCacheL2HitCounter = Counter.builder("rag.embedding.cache.hit")
+                .description("Embedding 快取命中數")
+                .tag("tier", "l2")
+                .register(meterRegistry);
+
+        this.embeddingCacheMissCounter = Counter.builder("rag.embedding.cache.miss")
+                .description("Embedding 快取未命中數")
+                .register(meterRegistry);
+
+        // 初始化語義答案快取指標
+        this.semanticCacheHitCounter = Counter.builder("rag.semantic.cache.hit")
+                .description("語義答案快取命中數")
+                .register(meterRegistry);
+
+        this.semanticCacheMissCounter = Counter.builder("rag.semantic.cache.miss")
+                .description("語義答案快取未命中數")
+                .register(meterRegistry);
+
+        this.semanticCacheSavedTimer = Timer.builder("rag.semantic.cache.saved")
+                .description("語義答案快取命中時節省的管線時間")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+
+        // 初始化 Re-ranking 結果快取指標
+        this.rerankCacheL1HitCounter = Counter.builder("rag.rerank.cache.hit")
+                .description("Re-ranking 結果快取命中數")
+                .tag("tier", "l1")
+                .register(meterRegistry);
+
+        this.rerankCacheL2HitCounter = Counter.builder("rag.rerank.cache.hit")
+                .description("Re-ranking 結果快取命中數")
+                .tag("tier", "l2")
+                .register(meterRegistry);
+
+        this.rerankCacheMissCounter = Counter.builder("rag.rerank.cache.miss")
+                .description("Re-ranking 結果快取未命中數")
+                .register(meterRegistry);
+
+        this.rerankCacheAvoidedTimer = Timer.builder("rag.rerank.cache.avoided")
+                .description("Re-ranking 結果快取命中時避免的提供者調用耗時")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+
+        // 初始化 Embedding 微批次指標
+        this.embeddingQueueDepth = new AtomicInteger(0);
+        Gauge.builder("rag.embedding.batch.queue.depth", embeddingQueueDepth, AtomicInteger::get)
+                .description("等待合併的 Embedding 請求數")
+                .register(meterRegistry);
+
+        this.embeddingBatchSizeDistribution = DistributionSummary.builder("rag.embedding.batch.size")
+                .description("每次 Embedding 調用的輸入數")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+
+        this.embeddingBatchWaitTimer = Timer.builder("rag.embedding.batch.wait")
+                .description("Embedding 請求因合併而增加的等待時間")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+
         // 初始化 Gauge
         this.activeQueries = new AtomicInteger(0);
         Gauge.builder("rag.query.active", activeQueries, AtomicInteger::get)
@@ -174,6 +305,7 @@ public class RAGMetricsService {
      */
     public void recordQueryDuration(long durationMs) {
         ragQueryTimer.record(durationMs, java.util.concurrent.TimeUnit.MILLISECONDS);
+        rollingMetricsStore.record(RollingMetricsStore.QUERY_LATENCY, RollingMetricsStore.ALL, durationMs);
     }
 
     // ========== 檢索指標 ==========
@@ -185,6 +317,7 @@ public class RAGMetricsService {
      */
     public void recordRetrievalDuration(long durationMs) {
         retrievalTimer.record(durationMs, java.util.concurrent.TimeUnit.MILLISECONDS);
+        rollingMetricsStore.record(RollingMetricsStore.RETRIEVAL_LATENCY, RollingMetricsStore.ALL, durationMs);
     }
 
     /**
@@ -202,6 +335,23 @@ public class RAGMetricsService {
         }
     }
 
+    /**
+     * 記錄自適應檢索深度的決策
+     *
+     * @param route 檢索路由
+     * @param stopReason 停止原因
+     * @param depth 最終候選文檔數
+     */
+    public void recordRetrievalDepth(String route, String stopReason, int depth) {
+        DistributionSummary.builder("rag.retrieval.depth")
+                .description("自適應檢索深度的最終候選文檔數（按路由與停止原因）")
+                .tag("route", route)
+                .tag("stop_reason", stopReason)
+                .publishPercentiles(0.5, 0.95)
+                .register(meterRegistry)
+                .record(depth);
+    }
+
     // ========== Re-ranking 指標 ==========
 
     /**
@@ -211,6 +361,17 @@ public class RAGMetricsService {
      */
     public void recordRerankingDuration(long durationMs) {
         rerankingTimer.record(durationMs, java.util.concurrent.TimeUnit.MILLISECONDS);
+        rollingMetricsStore.record(RollingMetricsStore.RERANK_LATENCY, MULTI_FACTOR_RERANKER, durationMs);
+    }
+
+    /**
+     * 記錄 Re-ranking 提供者調用時間（僅寫入滑動窗口，Micrometer 由 Observation 記錄）
+     *
+     * @param provider 提供者名稱
+     * @param durationMs 持續時間（毫秒）
+     */
+    public void recordRerankProviderDuration(String provider, long durationMs) {
+        rollingMetricsStore.record(RollingMetricsStore.RERANK_LATENCY, provider, durationMs);
     }
 
     // ========== 生成指標 ==========
@@ -224,6 +385,39 @@ public class RAGMetricsService {
         generationTimer.record(durationMs, java.util.concurrent.TimeUnit.MILLISECONDS);
     }
 
+    /**
+     * 記錄串流答案首個 token 的到達時間
+     *
+     * @param durationMs 自請求開始的時間（毫秒）
+     */
+    public void recordFirstToken(long durationMs) {
+        firstTokenTimer.record(durationMs, java.util.concurrent.TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 記錄答案生成消耗的 token 數
+     *
+     * @param totalTokens token 總數（提示 + 生成）
+     */
+    public void recordGenerationTokens(long totalTokens) {
+        generationTokensDistribution.record(totalTokens);
+        rollingMetricsStore.record(RollingMetricsStore.GENERATION_TOKENS, RollingMetricsStore.ALL, totalTokens);
+    }
+
+    /**
+     * 記錄上下文壓縮結果
+     *
+     * @param originalTokens 壓縮前 token 數
+     * @param compressedTokens 壓縮後 token 數
+     */
+    public void recordContextCompression(int originalTokens, int compressedTokens) {
+        if (originalTokens <= 0) {
+            return;
+        }
+        contextTokensSavedDistribution.record(Math.max(0, originalTokens - compressedTokens));
+        contextCompressionRatioDistribution.record((double) compressedTokens / originalTokens);
+    }
+
     // ========== 內容審核指標 ==========
 
     /**
@@ -240,6 +434,149 @@ public class RAGMetricsService {
         moderationFailedCounter.increment();
     }
 
+    // ========== Embedding 快取指標 ==========
+
+    /**
+     * 記錄 Embedding 快取命中
+     *
+     * @param tier 命中層級（l1 或 l2）
+     * @param count 命中數量
+     */
+    public void recordEmbeddingCacheHit(String tier, int count) {
+        if ("l1".equals(tier)) {
+            embeddingCacheL1HitCounter.increment(count);
+        } else {
+            embeddingCacheL2HitCounter.increment(count);
+        }
+    }
+
+    /**
+     * 記錄 Embedding 快取未命中
+     *
+     * @param count 未命中數量
+     */
+    public void recordEmbeddingCacheMiss(int count) {
+        embeddingCacheMissCounter.increment(count);
+    }
+
+    /**
+     * 記錄 Embedding 模型調用時間（快取未命中時）
+     *
+     * @param durationMs 持續時間（毫秒）
+     */
+    public void recordEmbeddingLoadDuration(long durationMs) {
+        embeddingLoadTimer.record(durationMs, java.util.concurrent.TimeUnit.MILLISECONDS);
+    }
+
+    // ========== 語義答案快取指標 ==========
+
+    /**
+     * 記錄語義答案快取命中
+     *
+     * @param savedMs 節省的時間（原始管線耗時 - 命中耗時，毫秒）
+     */
+    public void recordSemanticCacheHit(long savedMs) {
+        semanticCacheHitCounter.increment();
+        semanticCacheSavedTimer.record(Math.max(0, savedMs), java.util.concurrent.TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 記錄語義答案快取未命中
+     */
+    public void recordSemanticCacheMiss() {
+        semanticCacheMissCounter.increment();
+    }
+
+    // ========== Re-ranking 結果快取指標 ==========
+
+    /**
+     * 記錄 Re-ranking 結果快取命中
+     *
+     * @param tier 命中層級（l1 / l2）
+     * @param avoidedMs 避免的提供者調用耗時（寫入快取時的調用耗時，毫秒）
+     */
+    public void recordRerankCacheHit(String tier, long avoidedMs) {
+        if ("l1".equals(tier)) {
+            rerankCacheL1HitCounter.increment();
+        } else {
+            rerankCacheL2HitCounter.increment();
+        }
+        rerankCacheAvoidedTimer.record(Math.max(0, avoidedMs), java.util.concurrent.TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 記錄 Re-ranking 結果快取未命中
+     */
+    public void recordRerankCacheMiss() {
+        rerankCacheMissCounter.increment();
+    }
+
+    /**
+     * 記錄級聯 Re-ranking 結果
+     *
+     * @param outcome 結果（remote、hedged_timeout、hedged_error、circuit_open、interrupted）
+     */
+    public void recordRerankCascade(String outcome) {
+        Counter.builder("rag.rerank.cascade")
+                .description("級聯 Re-ranking 調用數（按結果）")
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    /**
+     * 記錄 single-flight 合併結果
+     *
+     * @param flight 合併點名稱（query、rewrite、expansion、keywords）
+     * @param role 調用方角色（leader / follower / fallback）
+     */
+    public void recordSingleFlight(String flight, SingleFlight.Role role) {
+        Counter.builder("rag.singleflight.calls")
+                .description("single-flight 合併點的調用數（按角色）")
+                .tag("flight", flight)
+                .tag("role", role.name().toLowerCase())
+                .register(meterRegistry)
+                .increment();
+    }
+
+    /**
+     * 註冊語義答案快取條目數儀表
+     *
+     * @param sizeSupplier 條目數來源
+     */
+    public void registerSemanticCacheSize(java.util.function.Supplier<Number> sizeSupplier) {
+        Gauge.builder("rag.semantic.cache.size", sizeSupplier)
+                .description("語義答案快取條目數")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 調整 Embedding 微批次佇列深度
+     *
+     * @param delta 增量（入隊為正、出隊為負）
+     */
+    public void adjustEmbeddingQueueDepth(int delta) {
+        embeddingQueueDepth.addAndGet(delta);
+    }
+
+    /**
+     * 記錄 Embedding 批次大小
+     *
+     * @param size 批次輸入數
+     */
+    public void recordEmbeddingBatchSize(int size) {
+        embeddingBatchSizeDistribution.record(size);
+    }
+
+    /**
+     * 記錄 Embedding 請求的合併等待時間
+     *
+     * @param waitNanos 等待時間（納秒）
+     */
+    public void recordEmbeddingBatchWait(long waitNanos) {
+        embeddingBatchWaitTimer.record(waitNanos, java.util.concurrent.TimeUnit.NANOSECONDS);
+    }
+
     // ========== 評估指標 ==========
 
     /**
@@ -353,6 +690,63 @@ public class RAGMetricsService {
         return activeQueries.get();
     }
 
+    /**
+     * 獲取 Embedding 快取命中率（百分比，L1 + L2）
+     */
+    public double getEmbeddingCacheHitRate() {
+        double hits = embeddingCacheL1HitCounter.count() + embeddingCacheL2HitCounter.count();
+        double total = hits + embeddingCacheMissCounter.count();
+        if (total == 0) {
+            return 0.0;
+        }
+        return (hits / total) * 100;
+    }
+
+    /**
+     * 獲取語義答案快取命中率（百分比）
+     */
+    public double getSemanticCacheHitRate() {
+        double hits = semanticCacheHitCounter.count();
+        double total = hits + semanticCacheMissCounter.count();
+        if (total == 0) {
+            return 0.0;
+        }
+        return (hits / total) * 100;
+    }
+
+    /**
+     * 獲取語義答案快取累計節省的時間（毫秒）
+     */
+    public double getSemanticCacheSavedTime() {
+        return semanticCacheSavedTimer.totalTime(java.util.concurrent.TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 獲取 Re-ranking 結果快取命中率（百分比，L1 + L2）
+     */
+    public double getRerankCacheHitRate() {
+        double hits = rerankCacheL1HitCounter.count() + rerankCacheL2HitCounter.count();
+        double total = hits + rerankCacheMissCounter.count();
+        if (total == 0) {
+            return 0.0;
+        }
+        return (hits / total) * 100;
+    }
+
+    /**
+     * 獲取 Re-ranking 結果快取累計避免的提供者調用耗時（毫秒）
+     */
+    public double getRerankCacheAvoidedTime() {
+        return rerankCacheAvoidedTimer.totalTime(java.util.concurrent.TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 獲取上下文壓縮累計節省的 token 數
+     */
+    public double getContextTokensSaved() {
+        return contextTokensSavedDistribution.totalAmount();
+    }
+
     /**
      * 獲取平均響應時間（毫秒）
      */
@@ -0,0 +1,184 @@
+package com.example.advancedrag.service;
+
+import com.example.advancedrag.properties.RAGProperties;
+import com.example.advancedrag.reranking.RerankFeatures;
+import com.example.advancedrag.util.MetadataJson;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Re-ranking 特徵回填服務
+ *
+ * 為寫入時尚未計算特徵（或特徵版本過舊）的 PgVector 既有文檔補寫 {@link RerankFeatures} 元數據區塊：
+ * - 按 id 鍵集分頁掃描，每批 featureBackfillBatchSize 行，批次更新
+ * - 只合併特徵鍵（jsonb ||），不覆蓋其他元數據
+ * - 同一時間只執行一個回填任務
+ *
+ * 未回填的文檔在查詢時即時計算特徵，回填只影響延遲，不影響結果。
+ */
+@Slf4j
+@Service
+public class RerankFeatureBackfillService {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private static final String MIN_UUID = "00000000-0000-0000-0000-000000000000";
+
+    private final RAGProperties ragProperties;
+    private final ObjectProvider<JdbcTemplate> jdbcTemplateProvider;
+    private final String vectorTableName;
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private volatile Map<String, Object> lastResult = Map.of();
+
+    public RerankFeatureBackfillService(RAGProperties ragProperties,
+                                        ObjectProvider<JdbcTemplate> jdbcTemplateProvider,
+                                        @Value("${spring.ai.vectorstore.pgvector.table-name:vector_store}") String vectorTableName) {
+        this.ragProperties = ragProperties;
+        this.jdbcTemplateProvider = jdbcTemplateProvider;
+        this.vectorTableName = vectorTableName;
+    }
+
+    /**
+     * 應用啟動後回填（需開啟 featureBackfillOnStartup）
+     */
+    @Async("taskExecutor")
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfillOnStartup() {
+        if (ragProperties.getReranking().getFeatureBackfillOnStartup()) {
+            runBackfill();
+        }
+    }
+
+    /**
+     * 非同步執行回填
+     */
+    @Async("taskExecutor")
+    public void backfill() {
+        runBackfill();
+    }
+
+    /**
+     * 是否正在回填
+     */
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    /**
+     * 回填狀態
+     *
+     * @return 是否執行中與最近一次回填結果
+     */
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("running", running.get());
+        status.put("featureVersion", RerankFeatures.VERSION);
+        status.put("lastResult", lastResult);
+        return status;
+    }
+
+    /**
+     * 執行回填
+     *
+     * @return 更新的行數，已在執行或無法執行時返回 -1
+     */
+    int runBackfill() {
+        JdbcTemplate jdbcTemplate = jdbcTemplateProvider.getIfAvailable();
+        if (jdbcTemplate == null) {
+            log.warn("未找到 JdbcTemplate，跳過 Re-ranking 特徵回填");
+            return -1;
+        }
+        if (!running.compareAndSet(false, true)) {
+            log.info("Re-ranking 特徵回填已在執行中");
+            return -1;
+        }
+
+        LocalDateTime startedAt = LocalDateTime.now();
+        long startTime = System.currentTimeMillis();
+        int batchSize = Math.max(1, ragProperties.getReranking().getFeatureBackfillBatchSize());
+        int updated = 0;
+        String error = null;
+        try {
+            String selectSql = "SELECT id::text AS id, content, metadata::text AS metadata FROM " + vectorTableName
+                    + " WHERE id > ?::uuid AND (metadata IS NULL OR metadata::jsonb -> '" + RerankFeatures.METADATA_KEY
+                    + "' ->> 'v' IS DISTINCT FROM ?)"
+                    + " ORDER BY id LIMIT ?";
+            String updateSql = "UPDATE " + vectorTableName
+                    + " SET metadata = (COALESCE(metadata::jsonb, '{}'::jsonb) || jsonb_build_object('"
+                    + RerankFeatures.METADATA_KEY + "', ?::jsonb))::json"
+                    + " WHERE id = ?::uuid";
+
+            String lastId = MIN_UUID;
+            while (true) {
+                List<Object[]> updates = new ArrayList<>(batchSize);
+                List<String> ids = jdbcTemplate.query(selectSql, (rs, rowNum) -> {
+                    String id = rs.getString("id");
+                    String content = rs.getString("content");
+                    if (content != null) {
+                        RerankFeatures features = RerankFeatures.extract(content,
+                                MetadataJson.parse(rs.getString("metadata")));
+                        updates.add(new Object[]{toJson(features), id});
+                    }
+                    return id;
+                }, lastId, String.valueOf(RerankFeatures.VERSION), batchSize);
+
+                if (ids.isEmpty()) {
+                    break;
+                }
+                if (!updates.isEmpty()) {
+                    jdbcTemplate.batchUpdate(updateSql, updates);
+                    updated += updates.size();
+                }
+                lastId = ids.get(ids.size() - 1);
+                log.debug("Re-ranking 特徵回填進度，已更新: {}，最後 ID: {}", updated, lastId);
+
+                if (ids.size() < batchSize) {
+                    break;
+                }
+            }
+
+            log.info("Re-ranking 特徵回填完成，更新: {} 行，耗時: {}ms",
+                    updated, System.currentTimeMillis() - startTime);
+            return updated;
+
+        } catch (Exception e) {
+            error = e.getMessage();
+            log.error("Re-ranking 特徵回填失敗，已更新: {} 行", updated, e);
+            return updated;
+
+        } finally {
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("startedAt", startedAt);
+            result.put("updatedRows", updated);
+            result.put("durationMs", System.currentTimeMillis() - startTime);
+            if (error != null) {
+                result.put("error", error);
+            }
+            lastResult = result;
+            running.set(false);
+        }
+    }
+
+    private String toJson(RerankFeatures features) {
+        try {
+            return OBJECT_MAPPER.writeValueAsString(features.toMetadataValue());
+        } catch (Exception e) {
+            throw new IllegalStateException("Re-ranking 特徵序列化失敗", e);
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package com.example.advancedrag.service;
+
+import com.example.advancedrag.properties.RAGProperties;
+import com.example.advancedrag.reranking.RerankResult;
+import com.example.advancedrag.util.DocumentVersions;
+import com.example.advancedrag.util.TextUtil;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.springframework.ai.document.Document;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.stereotype.Service;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Re-ranking 結果快取
+ *
+ * 鍵為「正規化查詢 + 有序候選 ID 指紋 + 提供者 / 模型 + topK」，值只保存名次對應的候選下標與分數，
+ * 命中時以本次的候選文檔重建 {@link RerankResult}（文檔內容永遠是本次檢索到的版本）。
+ *
+ * - L1：進程內 Guava 快取，按條目數限制容量
+ * - L2：Redis（可選），跨實例共享，條目以固定格式位元組存儲
+ *
+ * 失效：文檔變更時 L1 以版本號判斷（同 {@link SemanticAnswerCache}，管線執行期間的變更也能發現），
+ * L2 在 Redis 中記錄該文檔的變更時間，命中時以一次 MGET 檢查所有候選的變更時間是否晚於條目寫入時間。
+ * 其他實例的 L1 不會收到變更通知，由 TTL 控制其影響時間。
+ * 本地版本記錄只保留 TTL 內的變更：更早的變更所影響的 L1 條目都已過期，記錄可以丟棄。
+ */
+@Slf4j
+@Service
+public class RerankResultCache {
+
+    private static final String KEY_PREFIX = "rag:rerank:";
+    private static final String DOCUMENT_PREFIX = "rag:rerank:doc:";
+
+    private final RAGProperties.RerankCache properties;
+    private final RedisTemplate<String, byte[]> redisTemplate;
+    private final RAGMetricsService metricsService;
+    private final Cache<String, Entry> l1Cache;
+
+    private final DocumentVersions documentVersions;
+
+    public RerankResultCache(RAGProperties ragProperties,
+                             RedisTemplate<String, byte[]> embeddingRedisTemplate,
+                             RAGMetricsService metricsService) {
+        this.properties = ragProperties.getRerankCache();
+        this.redisTemplate = embeddingRedisTemplate;
+        this.metricsService = metricsService;
+        this.documentVersions = new DocumentVersions(properties.getTtl());
+        this.l1Cache = CacheBuilder.newBuilder()
+                .maximumSize(Math.max(1, properties.getMaxEntries()))
+                .expireAfterWrite(properties.getTtl())
+                .build();
+    }
+
+    /**
+     * 是否啟用
+     */
+    public boolean isEnabled() {
+        return Boolean.TRUE.equals(properties.getEnabled());
+    }
+
+    /**
+     * 當前版本號（在調用提供者之前取得，寫入快取時傳回）
+     */
+    public long currentGeneration() {
+        return documentVersions.current();
+    }
+
+    /**
+     * 生成快取鍵
+     *
+     * @param query 查詢文本
+     * @param provider 提供者名稱
+     * @param model 模型名稱
+     * @param topK 返回數量
+     * @param candidates 候選文檔（順序有意義）
+     * @return 快取鍵
+     */
+    public String key(String query, String provider, String model, int topK, List<Document> candidates) {
+        StringBuilder builder = new StringBuilder(64 + candidates.size() * 40)
+                .append(provider).append('\n')
+                .append(model).append('\n')
+                .append(topK).append('\n')
+                .append(TextUtil.normalizeWhitespace(query).toLowerCase(Locale.ROOT)).append('\n');
+        for (Document candidate : candidates) {
+            builder.append(candidate.getId()).append(',');
+        }
+        return KEY_PREFIX + DigestUtils.sha256Hex(builder.toString());
+    }
+
+    /**
+     * 查找快取的 Re-ranking 結果
+     *
+     * @param key 快取鍵
+     * @param candidates 本次的候選文檔（與生成鍵時相同）
+     * @param providerName 提供者名稱
+     * @return 以本次候選重建的結果，未命中返回 null
+     */
+    public List<RerankResult> get(String key, List<Document> candidates, String providerName) {
+        if (!isEnabled()) {
+            return null;
+        }
+
+        Entry entry = l1Cache.getIfPresent(key);
+        if (entry != null && isCurrent(entry, candidates)) {
+            metricsService.recordRerankCacheHit("l1", entry.latencyMs());
+            return toResults(entry, candidates, providerName);
+        }
+
+        entry = getL2(key, candidates);
+        if (entry != null) {
+            // 回填 L1：本實例之後的變更仍以版本號判斷
+            l1Cache.put(key, new Entry(entry.indexes(), entry.scores(), entry.latencyMs(),
+                    currentGeneration(), entry.writtenAt()));
+            metricsService.recordRerankCacheHit("l2", entry.latencyMs());
+            return toResults(entry, candidates, providerName);
+        }
+
+        metricsService.recordRerankCacheMiss();
+        return null;
+    }
+
+    /**
+     * 寫入快取
+     *
+     * @param key 快取鍵
+     * @param candidates 候選文檔
+     * @param results 提供者返回的結果
+     * @param startGeneration 調用提供者前取得的版本號
+     * @param startedAt 調用提供者前的時間（毫秒）
+     * @param latencyMs 提供者調用耗時（毫秒）
+     */
+    public void put(String key, List<Document> candidates, List<RerankResult> results,
+                    long startGeneration, long startedAt, long latencyMs) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        int[] indexes = new int[results.size()];
+        double[] scores = new double[results.size()];
+        for (int i = 0; i < results.size(); i++) {
+            RerankResult result = results.get(i);
+            Integer index = result.getOriginalIndex();
+            if (index == null || index < 0 || index >= candidates.size()
+                    || !candidates.get(index).getId().equals(result.getDocument().getId())) {
+                log.debug("Re-ranking 結果缺少有效的原始下標，不寫入快取");
+                return;
+            }
+            indexes[i] = index;
+            scores[i] = result.getRelevanceScore() != null ? result.getRelevanceScore() : 0.0;
+        }
+
+        Entry entry = new Entry(indexes, scores, latencyMs, startGeneration, startedAt);
+        if (!isCurrent(entry, candidates)) {
+            log.debug("候選文檔已在 Re-ranking 期間變更，不寫入快取");
+            return;
+        }
+        l1Cache.put(key, entry);
+
+        if (Boolean.TRUE.equals(properties.getL2Enabled())) {
+            try {
+                redisTemplate.opsForValue().set(key, encode(entry), properties.getTtl());
+            } catch (Exception e) {
+                log.warn("Re-ranking L2 快取寫入失敗: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 文檔已新增、更新或刪除：遞增版本號，並在 L2 記錄變更時間
+     *
+     * @param documentIds 變更的文檔 ID
+     */
+    public void invalidateDocuments(Collection<String> documentIds) {
+        if (documentIds.isEmpty()) {
+            return;
+        }
+        documentVersions.recordChange(documentIds);
+
+        if (!Boolean.TRUE.equals(properties.getL2Enabled())) {
+            return;
+        }
+        byte[] changedAt = ByteBuffer.allocate(Long.BYTES).putLong(System.currentTimeMillis()).array();
+        Duration ttl = properties.getTtl();
+        try {
+            redisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public <K, V> Object execute(RedisOperations<K, V> operations) {
+                    RedisOperations<String, byte[]> ops = (RedisOperations<String, byte[]>) operations;
+                    documentIds.forEach(id -> ops.opsForValue().set(DOCUMENT_PREFIX + id, changedAt, ttl));
+                    return null;
+                }
+            });
+        } catch (Exception e) {
+            log.warn("Re-ranking L2 快取失效標記寫入失敗: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 清空 L1
+     */
+    public void clear() {
+        l1Cache.invalidateAll();
+    }
+
+    /**
+     * L1 條目數
+     */
+    public long size() {
+        return l1Cache.size();
+    }
+
+    /**
+     * 所有候選在條目寫入後都未變更
+     */
+    private boolean isCurrent(Entry entry, List<Document> candidates) {
+        return !documentVersions.changedSince(candidates.stream().map(Document::getId).toList(), entry.generation());
+    }
+
+    private Entry getL2(String key, List<Document> candidates) {
+        if (!Boolean.TRUE.equals(properties.getL2Enabled())) {
+            return null;
+        }
+        try {
+            byte[] bytes = redisTemplate.opsForValue().get(key);
+            if (bytes == null) {
+                return null;
+            }
+            Entry entry = decode(bytes);
+
+            // 任一候選的變更時間不早於條目寫入時間（調用提供者之前）即視為過期
+            List<String> markerKeys = new ArrayList<>(candidates.size());
+            for (Document candidate : candidates) {
+                markerKeys.add(DOCUMENT_PREFIX + candidate.getId());
+            }
+            List<byte[]> markers = redisTemplate.opsForValue().multiGet(markerKeys);
+            if (markers != null) {
+                for (byte[] marker : markers) {
+                    if (marker != null && ByteBuffer.wrap(marker).getLong() >= entry.writtenAt()) {
+                        return null;
+                    }
+                }
+            }
+            return entry;
+        } catch (Exception e) {
+            log.warn("Re-ranking L2 快取查詢失敗，僅使用 L1: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private List<RerankResult> toResults(Entry entry, List<Document> candidates, String providerName) {
+        List<RerankResult> results = new ArrayList<>(entry.indexes().length);
+        for (int rank = 0; rank < entry.indexes().length; rank++) {
+            Document document = candidates.get(entry.indexes()[rank]);
+            results.add(RerankResult.builder()
+                    .document(document)
+                    .originalIndex(entry.indexes()[rank])
+                    .newIndex(rank)
+                    .relevanceScore(entry.scores()[rank])
+                    .providerName(providerName)
+                    .content(document.getText())
+                    .build());
+        }
+        return results;
+    }
+
+    /**
+     * 編碼：writtenAt(long) latencyMs(long) n(int) [index(int) score(double)] * n
+     */
+    static byte[] encode(Entry entry) {
+        int n = entry.indexes().length;
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES * 2 + Integer.BYTES + n * (Integer.BYTES + Double.BYTES));
+        buffer.putLong(entry.writtenAt()).putLong(entry.latencyMs()).putInt(n);
+        for (int i = 0; i < n; i++) {
+            buffer.putInt(entry.indexes()[i]).putDouble(entry.scores()[i]);
+        }
+        return buffer.array();
+    }
+
+    static Entry decode(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        long writtenAt = buffer.getLong();
+        long latencyMs = buffer.getLong();
+        int n = buffer.getInt();
+        int[] indexes = new int[n];
+        double[] scores = new double[n];
+        for (int i = 0; i < n; i++) {
+            indexes[i] = buffer.getInt();
+            scores[i] = buffer.getDouble();
+        }
+        return new Entry(indexes, scores, latencyMs, -1, writtenAt);
+    }
+
+    /**
+     * 快取條目
+     *
+     * @param indexes 各名次對應的候選下標
+     * @param scores 各名次的相關性分數
+     * @param latencyMs 寫入時的提供者調用耗時（命中時計為避免的耗時）
+     * @param generation 調用提供者前的本地版本號（來自 L2 時為 -1）
+     * @param writtenAt 調用提供者前的時間（毫秒）
+     */
+    record Entry(int[] indexes, double[] scores, long latencyMs, long generation, long writtenAt) {
+    }
+}
@@ -2,8 +2,10 @@ package com.example.advancedrag.service;
 
 import com.example.advancedrag.model.RAGQueryOptions;
 import com.example.advancedrag.model.RerankingCandidate;
+import com.example.advancedrag.model.RetrievalContext;
 import com.example.advancedrag.model.ScoredDocument;
 import com.example.advancedrag.properties.RAGProperties;
+import com.example.advancedrag.reranking.RerankFeatures;
 import com.example.advancedrag.util.TextUtil;
 import com.example.advancedrag.util.VectorUtil;
 import lombok.RequiredArgsConstructor;
@@ -11,11 +13,10 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.document.Document;
 import org.springframework.stereotype.Service;
 
-import java.time.LocalDateTime;
-import java.time.temporal.ChronoUnit;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
 
 /**
  * Re-ranking 服務
@@ -48,8 +49,12 @@ import java.util.Map;
 @RequiredArgsConstructor
 public class RerankingService {
 
+    private static final Set<String> STOP_WORDS = Set.of("的", "了", "是", "在", "我", "有", "和", "就",
+            "不", "人", "都", "一", "個", "上", "也", "為", "能", "對", "會");
+
     private final RAGProperties ragProperties;
     private final SmartEmbeddingService embeddingService;
+    private final BM25Service bm25Service;
 
     /**
      * Re-rank 候選文檔
@@ -60,6 +65,22 @@ public class RerankingService {
      * @return Re-ranking 後的文檔列表
      */
     public List<ScoredDocument> rerank(String query, List<ScoredDocument> candidates, RAGQueryOptions options) {
+        return rerank(query, candidates, options, null);
+    }
+
+    /**
+     * Re-rank 候選文檔（共享檢索上下文）
+     *
+     * 上下文中有查詢向量與文檔向量時，語義分數直接以餘弦相似度計算，無需再生成 Embedding。
+     *
+     * @param query 查詢文本
+     * @param candidates 候選文檔列表
+     * @param options 查詢選項
+     * @param context 檢索上下文（可為 null）
+     * @return Re-ranking 後的文檔列表
+     */
+    public List<ScoredDocument> rerank(String query, List<ScoredDocument> candidates, RAGQueryOptions options,
+                                       RetrievalContext context) {
         long startTime = System.currentTimeMillis();
 
         try {
@@ -71,9 +92,11 @@ public class RerankingService {
             // 2. 提取查詢關鍵詞
             List<String> queryKeywords = extractKeywords(query);
 
-            // 3. 計算多維度分數
+            // 3. 計算多維度分數（查詢詞與 BM25 正規化上限只計算一次）
+            BM25Service.PreparedQuery bm25Query = bm25Service.prepareQuery(query, queryKeywords);
+            long now = Instant.now().getEpochSecond();
             for (RerankingCandidate candidate : rerankingCandidates) {
-                calculateMultiFactorScore(candidate, query, queryKeywords);
+                calculateMultiFactorScore(candidate, query, queryKeywords, bm25Query, now, context);
             }
 
             // 4. 按最終分數排序
@@ -114,26 +137,32 @@ public class RerankingService {
      * @param candidate 候選文檔
      * @param query 查詢文本
      * @param queryKeywords 查詢關鍵詞
+     * @param bm25Query 預處理後的 BM25 查詢
+     * @param now 當前時間（epoch 秒）
+     * @param context 檢索上下文（可為 null）
      */
-    private void calculateMultiFactorScore(RerankingCandidate candidate, String query,
-                                           List<String> queryKeywords) {
+    private void calculateMultiFactorScore(RerankingCandidate candidate, String query, List<String> queryKeywords,
+                                           BM25Service.PreparedQuery bm25Query, long now,
+                                           RetrievalContext context) {
         Document doc = candidate.getDocument();
 
-        // 1. 語義相似度分數（40%）
-        double semanticScore = candidate.getSemanticScore() != null ?
-                candidate.getSemanticScore() : candidate.getOriginalScore();
+        // 1. 語義相似度分數（40%）：優先使用已有向量的餘弦相似度
+        Double cosine = context != null ? context.querySimilarity(query, doc.getId()) : null;
+        double semanticScore = cosine != null ? cosine :
+                candidate.getSemanticScore() != null ? candidate.getSemanticScore() : candidate.getOriginalScore();
         candidate.setSemanticScore(semanticScore);
 
         // 2. BM25 分數（30%）
-        double bm25Score = calculateBM25Score(doc.getText(), query, queryKeywords);
+        double bm25Score = bm25Service.calculateBM25Score(doc, bm25Query);
         candidate.setBm25Score(bm25Score);
 
-        // 3. 文檔品質分數（20%）
-        double qualityScore = calculateQualityScore(doc);
+        // 3. 文檔品質分數（20%）：優先讀取寫入時預先計算的特徵
+        RerankFeatures features = RerankFeatures.of(doc);
+        double qualityScore = features.quality();
         candidate.setQualityScore(qualityScore);
 
         // 4. 新鮮度分數（10%）
-        double freshnessScore = calculateFreshnessScore(doc);
+        double freshnessScore = features.freshness(now);
         candidate.setFreshnessScore(freshnessScore);
 
         // 5. 計算最終綜合分數
@@ -149,169 +178,6 @@ public class RerankingService {
                 candidate.getFinalScore());
     }
 
-    /**
-     * 計算 BM25 分數（關鍵詞匹配）
-     *
-     * @param content 文檔內容
-     * @param query 查詢文本
-     * @param keywords 關鍵詞列表
-     * @return BM25 分數（0-1）
-     */
-    private double calculateBM25Score(String content, String query, List<String> keywords) {
-        if (keywords.isEmpty()) {
-            return 0.5; // 無關鍵詞時返回中等分數
-        }
-
-        String lowerContent = content.toLowerCase();
-        String lowerQuery = query.toLowerCase();
-
-        // 簡化版 BM25：基於關鍵詞匹配和詞頻
-        double score = 0.0;
-        int totalMatches = 0;
-
-        for (String keyword : keywords) {
-            String lowerKeyword = keyword.toLowerCase();
-            int termFreq = TextUtil.termFrequency(lowerContent, lowerKeyword);
-
-            if (termFreq > 0) {
-                totalMatches++;
-
-                // TF 部分（詞頻）
-                double tf = (double) termFreq / (termFreq + 1.0); // 飽和函數
-                score += tf;
-            }
-        }
-
-        // 正規化分數
-        if (!keywords.isEmpty()) {
-            score = score / keywords.size();
-        }
-
-        // 額外加分：查詢完整匹配
-        if (lowerContent.contains(lowerQuery)) {
-            score = Math.min(1.0, score + 0.2);
-        }
-
-        return Math.min(1.0, score);
-    }
-
-    /**
-     * 計算文檔品質分數
-     *
-     * @param doc 文檔
-     * @return 品質分數（0-1）
-     */
-    private double calculateQualityScore(Document doc) {
-        double score = 0.5; // 基礎分數
-
-        String content = doc.getText();
-        Map<String, Object> metadata = doc.getMetadata();
-
-        // 因素1：內容長度（適中為好）
-        int length = content.length();
-        if (length >= 200 && length <= 2000) {
-            score += 0.2;
-        } else if (length > 2000 && length <= 5000) {
-            score += 0.1;
-        }
-
-        // 因素2：內容結構性（檢查是否有標點、段落等）
-        long punctuationCount = content.chars()
-                .filter(c -> ",.!?;:，。！？；：".indexOf(c) >= 0)
-                .count();
-        if (punctuationCount > 5) {
-            score += 0.1;
-        }
-
-        // 因素3：元數據豐富度
-        if (metadata.containsKey("title") && metadata.get("title") != null) {
-            score += 0.1;
-        }
-        if (metadata.containsKey("author") && metadata.get("author") != null) {
-            score += 0.05;
-        }
-        if (metadata.containsKey("source") && metadata.get("source") != null) {
-            score += 0.05;
-        }
-
-        return Math.min(1.0, score);
-    }
-
-    /**
-     * 計算新鮮度分數
-     *
-     * @param doc 文檔
-     * @return 新鮮度分數（0-1）
-     */
-    private double calculateFreshnessScore(Document doc) {
-        Map<String, Object> metadata = doc.getMetadata();
-
-        // 嘗試從元數據中獲取時間戳
-        Object createdAtObj = metadata.get("created_at");
-        Object updatedAtObj = metadata.get("updated_at");
-        Object timestampObj = metadata.get("timestamp");
-
-        LocalDateTime documentTime = null;
-
-        // 解析時間戳
-        if (updatedAtObj != null) {
-            documentTime = parseTimestamp(updatedAtObj);
-        } else if (createdAtObj != null) {
-            documentTime = parseTimestamp(createdAtObj);
-        } else if (timestampObj != null) {
-            documentTime = parseTimestamp(timestampObj);
-        }
-
-        // 沒有時間信息，返回中等分數
-        if (documentTime == null) {
-            return 0.7;
-        }
-
-        // 計算時間差（天數）
-        LocalDateTime now = LocalDateTime.now();
-        long daysDiff = ChronoUnit.DAYS.between(documentTime, now);
-
-        // 新鮮度評分規則
-        if (daysDiff <= 7) {
-            return 1.0; // 一週內：最高分
-        } else if (daysDiff <= 30) {
-            return 0.9; // 一個月內：高分
-        } else if (daysDiff <= 90) {
-            return 0.8; // 三個月內：較高分
-        } else if (daysDiff <= 180) {
-            return 0.7; // 半年內：中等分
-        } else if (daysDiff <= 365) {
-            return 0.6; // 一年內：較低分
-        } else {
-            return 0.5; // 超過一年：基礎分
-        }
-    }
-
-    /**
-     * 解析時間戳
-     *
-     * @param timestampObj 時間戳對象
-     * @return LocalDateTime
-     */
-    private LocalDateTime parseTimestamp(Object timestampObj) {
-        try {
-            if (timestampObj instanceof LocalDateTime) {
-                return (LocalDateTime) timestampObj;
-            } else if (timestampObj instanceof String) {
-                return LocalDateTime.parse((String) timestampObj);
-            } else if (timestampObj instanceof Long) {
-                // Unix 時間戳（秒）
-                long timestamp = (Long) timestampObj;
-                return LocalDateTime.ofEpochSecond(timestamp, 0,
-                        java.time.ZoneOffset.systemDefault().getRules().getOffset(
-                                java.time.Instant.ofEpochSecond(timestamp)));
-            }
-        } catch (Exception e) {
-            log.debug("時間戳解析失敗: {}", timestampObj, e);
-        }
-        return null;
-    }
-
     /**
      * 提取查詢關鍵詞（簡化版）
      *
@@ -337,10 +203,7 @@ public class RerankingService {
      * @return 是否為停用詞
      */
     private boolean isStopWord(String word) {
-        String lowerWord = word.toLowerCase();
-        List<String> stopWords = List.of("的", "了", "是", "在", "我", "有", "和", "就",
-                "不", "人", "都", "一", "個", "上", "也", "為", "能", "對", "會");
-        return stopWords.contains(lowerWord);
+        return STOP_WORDS.contains(word.toLowerCase());
     }
 
     /**
@@ -0,0 +1,142 @@
+package com.example.advancedrag.service;
+
+import com.example.advancedrag.util.RollingHistogram;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 滑動窗口指標存儲
+ *
+ * RAGMetricsService 的計時器是自啟動以來的累計值，服務運行一天後平均值幾乎不再變化，回歸會被完全掩蓋。
+ * 本存儲以 {@link RollingHistogram} 保存 1 分鐘、5 分鐘、1 小時三個滑動窗口，按「指標 + 維度」分組：
+ * - query.latency：RAG 查詢總耗時（維度：執行模式）
+ * - retrieval.latency：檢索耗時
+ * - rerank.latency：Re-ranking 耗時（維度：提供者）
+ * - generation.tokens：每次生成消耗的 token 數
+ * - endpoint.latency：HTTP 端點耗時（維度：方法 + 路徑模板）
+ *
+ * 記錄路徑只有一次 ConcurrentHashMap 查找與一次 wait-free 寫入。
+ */
+@Slf4j
+@Service
+public class RollingMetricsStore {
+
+    public static final String QUERY_LATENCY = "query.latency";
+    public static final String RETRIEVAL_LATENCY = "retrieval.latency";
+    public static final String RERANK_LATENCY = "rerank.latency";
+    public static final String GENERATION_TOKENS = "generation.tokens";
+    public static final String ENDPOINT_LATENCY = "endpoint.latency";
+
+    /**
+     * 不分維度時使用的維度值
+     */
+    public static final String ALL = "all";
+
+    /**
+     * 支援的窗口：1 小時窗口以 1 分鐘為槽位，其餘以 tick 為槽位
+     */
+    private static final List<RollingHistogram.WindowSpec> WINDOWS = List.of(
+            new RollingHistogram.WindowSpec(Duration.ofMinutes(1), RollingHistogram.TICK),
+            new RollingHistogram.WindowSpec(Duration.ofMinutes(5), Duration.ofSeconds(30)),
+            new RollingHistogram.WindowSpec(Duration.ofHours(1), Duration.ofMinutes(1))
+    );
+
+    private final Map<String, Map<String, RollingHistogram>> series = new ConcurrentHashMap<>();
+
+    /**
+     * 記錄一個值
+     *
+     * @param metric 指標名稱
+     * @param dimension 維度值（端點、提供者等，不分維度時用 {@link #ALL}）
+     * @param value 值（耗時為毫秒）
+     */
+    public void record(String metric, String dimension, long value) {
+        series.computeIfAbsent(metric, key -> new ConcurrentHashMap<>())
+                .computeIfAbsent(dimension, key -> new RollingHistogram(WINDOWS))
+                .record(value);
+    }
+
+    /**
+     * 旋轉所有直方圖（每個 tick 一次）
+     */
+    @Scheduled(fixedRate = 10, timeUnit = TimeUnit.SECONDS)
+    public void rotate() {
+        for (Map<String, RollingHistogram> dimensions : series.values()) {
+            for (RollingHistogram histogram : dimensions.values()) {
+                histogram.rotate();
+            }
+        }
+    }
+
+    /**
+     * 獲取某指標在窗口內各維度的統計
+     *
+     * @param metric 指標名稱
+     * @param window 窗口長度
+     * @return 維度值到統計快照（按維度排序）
+     */
+    public Map<String, RollingHistogram.Snapshot> snapshot(String metric, Duration window) {
+        Map<String, RollingHistogram.Snapshot> result = new TreeMap<>();
+        series.getOrDefault(metric, Map.of())
+                .forEach((dimension, histogram) -> result.put(dimension, histogram.snapshot(window)));
+        return result;
+    }
+
+    /**
+     * 獲取某指標某維度在窗口內的統計
+     *
+     * @param metric 指標名稱
+     * @param dimension 維度值
+     * @param window 窗口長度
+     * @return 統計快照（沒有記錄時各值為 0）
+     */
+    public RollingHistogram.Snapshot snapshot(String metric, String dimension, Duration window) {
+        RollingHistogram histogram = series.getOrDefault(metric, Map.of()).get(dimension);
+        return histogram != null ? histogram.snapshot(window) : RollingHistogram.Snapshot.of(null);
+    }
+
+    /**
+     * 獲取所有指標在窗口內的統計
+     *
+     * @param window 窗口長度
+     * @return 指標名稱到各維度統計
+     */
+    public Map<String, Map<String, RollingHistogram.Snapshot>> snapshotAll(Duration window) {
+        Map<String, Map<String, RollingHistogram.Snapshot>> result = new TreeMap<>();
+        for (String metric : series.keySet()) {
+            result.put(metric, snapshot(metric, window));
+        }
+        return result;
+    }
+
+    /**
+     * 清空所有窗口
+     */
+    public void reset() {
+        series.values().forEach(dimensions -> dimensions.values().forEach(RollingHistogram::reset));
+        log.info("滑動窗口指標已清空");
+    }
+
+    /**
+     * 解析窗口參數（1m / 5m / 1h）
+     *
+     * @param window 窗口參數
+     * @return 窗口長度
+     */
+    public static Duration parseWindow(String window) {
+        return switch (window) {
+            case "1m" -> Duration.ofMinutes(1);
+            case "5m" -> Duration.ofMinutes(5);
+            case "1h" -> Duration.ofHours(1);
+            default -> throw new IllegalArgumentException("不支援的窗口: " + window + "（可用：1m, 5m, 1h）");
+        };
+    }
+}
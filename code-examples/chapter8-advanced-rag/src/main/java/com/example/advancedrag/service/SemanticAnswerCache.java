@@ -0,0 +1,192 @@
+package com.example.advancedrag.service;
+
+import com.example.advancedrag.dto.AdvancedRAGResponse;
+import com.example.advancedrag.index.FlatVectorIndex;
+import com.example.advancedrag.properties.RAGProperties;
+import com.example.advancedrag.util.DocumentVersions;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 語義答案快取
+ *
+ * 以查詢向量為鍵保存完整的 RAG 響應：新查詢與已快取查詢的餘弦相似度不低於閾值時直接返回先前的答案，
+ * 省去重寫、檢索、Re-ranking 與生成。
+ *
+ * 來源新鮮度：每次文檔變更都會遞增全局版本號並記錄到該文檔 ID 上。
+ * 條目保存生成答案前取得的版本號，命中時若任一來源文檔的版本更新，該條目即視為過期
+ * （管線執行期間發生的變更也能被發現）。文檔變更時亦會主動移除引用它的條目。
+ * 版本記錄只保留 TTL 內的變更（見 {@link DocumentVersions}），不隨文檔歷史無限增長。
+ *
+ * 新增的文檔（ID 從未出現過）不會使既有條目失效，由 TTL 控制其影響時間。
+ */
+@Slf4j
+@Service
+public class SemanticAnswerCache {
+
+    private final RAGProperties.SemanticCache properties;
+    private final FlatVectorIndex<Entry> index;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final DocumentVersions documentVersions;
+
+    public SemanticAnswerCache(RAGProperties ragProperties, RAGMetricsService metricsService) {
+        this.properties = ragProperties.getSemanticCache();
+        this.documentVersions = new DocumentVersions(properties.getTtl());
+        this.index = new FlatVectorIndex<>(Math.max(1, properties.getMaxEntries()));
+        metricsService.registerSemanticCacheSize(this::size);
+    }
+
+    /**
+     * 是否啟用
+     */
+    public boolean isEnabled() {
+        return Boolean.TRUE.equals(properties.getEnabled());
+    }
+
+    /**
+     * 當前版本號（在執行管線之前取得，寫入快取時傳回）
+     */
+    public long currentGeneration() {
+        return documentVersions.current();
+    }
+
+    /**
+     * 查找語義相同的已快取答案
+     *
+     * @param queryVector 查詢向量
+     * @param variant 請求變體（影響答案的選項，必須完全相同才可命中）
+     * @return 命中結果，未命中返回 null
+     */
+    public Hit lookup(float[] queryVector, Object variant) {
+        if (!isEnabled() || queryVector == null) {
+            return null;
+        }
+
+        long now = System.currentTimeMillis();
+        FlatVectorIndex.Match<Entry> match;
+        lock.readLock().lock();
+        try {
+            match = index.nearest(queryVector, entry ->
+                    entry.expiresAt() > now && entry.variant().equals(variant) && isCurrent(entry));
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        if (match == null || match.similarity() < properties.getSimilarityThreshold()) {
+            return null;
+        }
+
+        Entry entry = match.value();
+        log.debug("語義快取命中，相似度: {}，快取查詢: [{}]", String.format("%.4f", match.similarity()), entry.query());
+        return new Hit(entry.query(), entry.response(), match.similarity());
+    }
+
+    /**
+     * 寫入快取
+     *
+     * @param query 查詢文本
+     * @param queryVector 查詢向量
+     * @param variant 請求變體
+     * @param response 完整響應
+     * @param sourceDocumentIds 答案引用的文檔 ID
+     * @param startGeneration 執行管線前取得的版本號
+     */
+    public void put(String query, float[] queryVector, Object variant, AdvancedRAGResponse response,
+                    Collection<String> sourceDocumentIds, long startGeneration) {
+        if (!isEnabled() || queryVector == null) {
+            return;
+        }
+
+        Entry entry = new Entry(query, variant, response, Set.copyOf(sourceDocumentIds), startGeneration,
+                System.currentTimeMillis() + properties.getTtl().toMillis());
+        if (!isCurrent(entry)) {
+            log.debug("來源文檔已在管線執行期間變更，不寫入語義快取: [{}]", query);
+            return;
+        }
+
+        lock.writeLock().lock();
+        try {
+            index.add(queryVector, entry);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 文檔已新增、更新或刪除：遞增版本號並移除引用這些文檔的條目
+     *
+     * @param documentIds 變更的文檔 ID
+     */
+    public void invalidateDocuments(Collection<String> documentIds) {
+        if (documentIds.isEmpty()) {
+            return;
+        }
+
+        documentVersions.recordChange(documentIds);
+
+        int removed;
+        lock.writeLock().lock();
+        try {
+            removed = index.removeIf(entry -> documentIds.stream().anyMatch(entry.sourceDocumentIds()::contains));
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (removed > 0) {
+            log.info("文檔變更，移除 {} 條語義快取", removed);
+        }
+    }
+
+    /**
+     * 清空快取
+     */
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            index.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 當前條目數
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return index.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 條目的所有來源文檔在生成後都未變更
+     */
+    private boolean isCurrent(Entry entry) {
+        return !documentVersions.changedSince(entry.sourceDocumentIds(), entry.generation());
+    }
+
+    /**
+     * 快取條目
+     */
+    private record Entry(String query, Object variant, AdvancedRAGResponse response,
+                         Set<String> sourceDocumentIds, long generation, long expiresAt) {
+    }
+
+    /**
+     * 命中結果
+     *
+     * @param cachedQuery 已快取的原始查詢
+     * @param response 已快取的響應（只讀，返回前需複製）
+     * @param similarity 查詢向量相似度
+     */
+    public record Hit(String cachedQuery, AdvancedRAGResponse response, double similarity) {
+    }
+}
@@ -8,15 +8,15 @@ import com.example.advancedrag.util.CacheKeyGenerator;
 import com.example.advancedrag.util.TextUtil;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.ai.embedding.EmbeddingModel;
-import org.springframework.ai.embedding.EmbeddingRequest;
-import org.springframework.ai.embedding.EmbeddingResponse;
-import org.springframework.cache.annotation.Cacheable;
+import org.apache.commons.lang3.StringUtils;
 import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -25,8 +25,8 @@ import java.util.concurrent.ConcurrentHashMap;
  * 功能：
  * 1. 智能模型選擇（基於上下文自動選擇最佳模型）
  * 2. 文本預處理（清理、標準化）
- * 3. Embedding 快取（Redis）
- * 4. 批次處理優化
+ * 3. Embedding 二級快取（L1 內存 float[] + L2 Redis，見 {@link EmbeddingCacheService}）
+ * 4. 批次處理優化（快取批次查詢；未命中文本經 {@link EmbeddingBatcher} 跨線程合併為單次模型調用）
  * 5. 性能統計收集
  */
 @Slf4j
@@ -34,8 +34,9 @@ import java.util.concurrent.ConcurrentHashMap;
 @RequiredArgsConstructor
 public class SmartEmbeddingService {
 
-    private final EmbeddingModel embeddingModel;
     private final EmbeddingProperties embeddingProperties;
+    private final EmbeddingCacheService embeddingCacheService;
+    private final EmbeddingBatcher embeddingBatcher;
 
     /**
      * 模型統計數據（內存存儲）
@@ -48,30 +49,11 @@ public class SmartEmbeddingService {
      * @param text 文本
      * @param context Embedding 上下文
      * @return Embedding 向量
+     * @deprecated 每個分量都會裝箱（1536 維約 24KB 垃圾），請改用 {@link #embed(String, EmbeddingContext)}
      */
+    @Deprecated
     public List<Double> generateEmbedding(String text, EmbeddingContext context) {
-        long startTime = System.currentTimeMillis();
-
-        // 1. 文本預處理
-        String processedText = preprocessText(text, PreprocessingOptions.defaultOptions());
-
-        // 2. 檢查快取
-        String cacheKey = CacheKeyGenerator.generateEmbeddingKey(
-                processedText,
-                embeddingProperties.getPrimaryModel(),
-                embeddingProperties.getDefaultDimensions()
-        );
-
-        // 3. 生成 Embedding（帶快取）
-        List<Double> embedding = generateEmbeddingWithCache(processedText, context);
-
-        // 4. 記錄統計
-        long processingTime = System.currentTimeMillis() - startTime;
-        recordStats(embeddingProperties.getPrimaryModel(), processingTime, text.length(), true);
-
-        log.debug("生成 Embedding 完成，耗時: {}ms，文本長度: {}", processingTime, text.length());
-
-        return embedding;
+        return toDoubleList(embed(text, context));
     }
 
     /**
@@ -80,60 +62,129 @@ public class SmartEmbeddingService {
      * @param texts 文本列表
      * @param context Embedding 上下文
      * @return Embedding 向量列表
+     * @deprecated 每個分量都會裝箱，請改用 {@link #embedAll(List, EmbeddingContext)}
      */
+    @Deprecated
     public List<List<Double>> generateEmbeddings(List<String> texts, EmbeddingContext context) {
-        long startTime = System.currentTimeMillis();
-
-        log.info("開始批次生成 Embedding，數量: {}", texts.size());
-
-        // 使用並行流處理批次請求（提升性能）
-        List<List<Double>> embeddings = texts.parallelStream()
-                .map(text -> generateEmbedding(text, context))
+        return embedAll(texts, context).stream()
+                .map(this::toDoubleList)
                 .toList();
-
-        long processingTime = System.currentTimeMillis() - startTime;
-        log.info("批次生成 Embedding 完成，數量: {}，總耗時: {}ms，平均: {}ms",
-                texts.size(), processingTime, processingTime / texts.size());
-
-        return embeddings;
     }
 
     /**
-     * 生成 Embedding（帶快取）
+     * 生成 Embedding 向量（float[]，快取中的共享實例，不可修改）
      *
      * @param text 文本
      * @param context Embedding 上下文
      * @return Embedding 向量
      */
-    @Cacheable(value = "embeddings", key = "#text", unless = "#result == null")
-    public List<Double> generateEmbeddingWithCache(String text, EmbeddingContext context) {
-        try {
-            // 使用 Spring AI EmbeddingModel 生成 Embedding
-            EmbeddingResponse response = embeddingModel.call(
-                    new EmbeddingRequest(List.of(text), null)
-            );
+    public float[] embed(String text, EmbeddingContext context) {
+        return embedAll(List.of(text), context).get(0);
+    }
 
-            if (response.getResults().isEmpty()) {
-                log.error("Embedding 生成失敗：無結果返回");
-                return List.of();
+    /**
+     * 批次生成 Embedding 向量
+     *
+     * 流程：預處理 → L1 / L2 快取批次查詢 → 未命中的文本（去重後）以一次模型調用生成 → 回寫快取
+     *
+     * @param texts 文本列表
+     * @param context Embedding 上下文
+     * @return Embedding 向量列表（順序與輸入一致）
+     */
+    public List<float[]> embedAll(List<String> texts, EmbeddingContext context) {
+        long startTime = System.currentTimeMillis();
+        String model = embeddingProperties.getPrimaryModel();
+
+        // 1. 文本預處理與快取鍵
+        List<String> processedTexts = new ArrayList<>(texts.size());
+        List<String> cacheKeys = new ArrayList<>(texts.size());
+        for (String text : texts) {
+            String processed = preprocessText(text, PreprocessingOptions.defaultOptions());
+            processedTexts.add(processed);
+            cacheKeys.add(StringUtils.isBlank(processed) ? null : CacheKeyGenerator.generateEmbeddingKey(
+                    embeddingProperties.getCacheKeyPrefix(),
+                    processed,
+                    model,
+                    embeddingProperties.getDefaultDimensions()
+            ));
+        }
+
+        // 2. 檢查快取
+        Map<String, float[]> cached = embeddingCacheService.getAll(
+                cacheKeys.stream().filter(Objects::nonNull).distinct().toList());
+
+        // 3. 未命中的文本去重後批次生成
+        Map<String, Integer> missIndexByText = new LinkedHashMap<>();
+        for (int i = 0; i < processedTexts.size(); i++) {
+            String key = cacheKeys.get(i);
+            if (key == null || !cached.containsKey(key)) {
+                missIndexByText.putIfAbsent(processedTexts.get(i), missIndexByText.size());
             }
+        }
 
-            // 轉換 float[] 為 List<Double>
-            float[] floatArray = response.getResults().get(0).getOutput();
-            List<Double> doubleList = new ArrayList<>();
-            for (float f : floatArray) {
-                doubleList.add((double) f);
+        List<float[]> generated = List.of();
+        if (!missIndexByText.isEmpty()) {
+            long loadStartTime = System.currentTimeMillis();
+            generated = callEmbeddingModel(new ArrayList<>(missIndexByText.keySet()));
+            embeddingCacheService.recordLoad(System.currentTimeMillis() - loadStartTime);
+        }
+
+        // 4. 組裝結果並回寫快取
+        List<float[]> embeddings = new ArrayList<>(texts.size());
+        Map<String, float[]> toCache = new HashMap<>();
+        for (int i = 0; i < processedTexts.size(); i++) {
+            String key = cacheKeys.get(i);
+            float[] vector = key != null ? cached.get(key) : null;
+            if (vector == null) {
+                vector = generated.get(missIndexByText.get(processedTexts.get(i)));
+                if (key != null) {
+                    toCache.put(key, vector);
+                }
             }
+            embeddings.add(vector);
+        }
+        embeddingCacheService.putAll(toCache);
+
+        // 5. 記錄統計
+        long processingTime = System.currentTimeMillis() - startTime;
+        int totalLength = texts.stream().mapToInt(text -> text != null ? text.length() : 0).sum();
+        recordStats(model, processingTime, totalLength, true);
+
+        log.debug("生成 Embedding 完成，數量: {}，快取命中: {}，模型調用: {}，耗時: {}ms",
+                texts.size(), texts.size() - missIndexByText.size(), missIndexByText.size(), processingTime);
 
-            return doubleList;
+        return embeddings;
+    }
+
+    /**
+     * 調用 Embedding 模型（經由微批次合併器，與其他線程的請求合併為單次調用）
+     *
+     * @param texts 文本列表
+     * @return 向量列表
+     */
+    private List<float[]> callEmbeddingModel(List<String> texts) {
+        try {
+            return embeddingBatcher.embed(
+                    embeddingProperties.getPrimaryModel(),
+                    embeddingProperties.getDefaultDimensions(),
+                    texts
+            );
 
         } catch (Exception e) {
             log.error("Embedding 生成失敗", e);
-            recordStats(embeddingProperties.getPrimaryModel(), 0, text.length(), false);
+            recordStats(embeddingProperties.getPrimaryModel(), 0, 0, false);
             throw new RuntimeException("Embedding 生成失敗: " + e.getMessage(), e);
         }
     }
 
+    private List<Double> toDoubleList(float[] vector) {
+        List<Double> doubleList = new ArrayList<>(vector.length);
+        for (float f : vector) {
+            doubleList.add((double) f);
+        }
+        return doubleList;
+    }
+
     /**
      * 文本預處理
      *
@@ -0,0 +1,146 @@
+package com.example.advancedrag.service;
+
+import com.example.advancedrag.dto.ModerationResult;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * 串流答案的增量審核器
+ *
+ * 答案邊生成邊以滑動窗口審核，不等待完整答案：
+ * - 每累積 stride 個新字符，非同步審核一個窗口（窗口大小 window），
+ *   相鄰窗口重疊 window - stride 個字符，避免不當內容恰好跨越窗口邊界而漏審
+ * - 同一時間最多一個審核進行中；審核較慢時下一個窗口向前延伸，覆蓋期間累積的所有新內容
+ * - 任一窗口未通過即標記為攔截，調用方應停止串流
+ * - 串流結束時等待進行中的審核，並同步審核尚未覆蓋的尾部
+ *
+ * 非同步審核期間已送出的內容無法撤回，因此攔截後由調用方通知客戶端撤回已顯示的答案。
+ * 非線程安全：由消費串流的單一線程調用。
+ */
+@Slf4j
+class StreamingAnswerModerator {
+
+    private final Function<String, ModerationResult> moderation;
+    private final ExecutorService executor;
+    private final int window;
+    private final int stride;
+
+    /**
+     * 已提交審核的內容終點（字符下標）
+     */
+    private int checkedUpTo;
+    private Future<ModerationResult> pending;
+    private ModerationResult lastResult;
+    private ModerationResult blocked;
+    private int checks;
+
+    /**
+     * @param moderation 審核函數
+     * @param executor 非同步審核的執行器
+     * @param window 窗口大小（字符數）
+     * @param stride 觸發審核的新增字符數（不大於窗口大小）
+     */
+    StreamingAnswerModerator(Function<String, ModerationResult> moderation, ExecutorService executor,
+                             int window, int stride) {
+        this.moderation = moderation;
+        this.executor = executor;
+        this.window = Math.max(1, window);
+        this.stride = Math.max(1, Math.min(stride, this.window));
+    }
+
+    /**
+     * 收到新內容後調用
+     *
+     * @param answer 目前為止的完整答案
+     * @return 是否已被攔截
+     */
+    boolean offer(CharSequence answer) {
+        collect(false);
+        if (blocked == null && pending == null && answer.length() - checkedUpTo >= stride) {
+            String segment = segment(answer);
+            checkedUpTo = answer.length();
+            pending = executor.submit(() -> moderation.apply(segment));
+        }
+        return blocked != null;
+    }
+
+    /**
+     * 串流結束時調用：等待進行中的審核，並審核尚未覆蓋的尾部
+     *
+     * @param answer 完整答案
+     * @return 攔截的審核結果；未攔截時為最後一次審核結果（答案為空時為 null）
+     */
+    ModerationResult finish(CharSequence answer) {
+        collect(true);
+        if (blocked == null && answer.length() > checkedUpTo) {
+            String segment = segment(answer);
+            checkedUpTo = answer.length();
+            accept(moderation.apply(segment));
+        }
+        return blocked != null ? blocked : lastResult;
+    }
+
+    /**
+     * 攔截的審核結果（未攔截為 null）
+     */
+    ModerationResult getBlocked() {
+        return blocked;
+    }
+
+    /**
+     * 已完成的審核次數
+     */
+    int getChecks() {
+        return checks;
+    }
+
+    /**
+     * 取消進行中的審核（客戶端斷線或串流失敗時）
+     */
+    void cancel() {
+        if (pending != null) {
+            pending.cancel(true);
+            pending = null;
+        }
+    }
+
+    /**
+     * 下一個審核窗口：與上一窗口重疊 window - stride 個字符，並覆蓋之後的所有新內容
+     */
+    private String segment(CharSequence answer) {
+        int start = Math.max(0, checkedUpTo - (window - stride));
+        return answer.subSequence(start, answer.length()).toString();
+    }
+
+    private void collect(boolean wait) {
+        if (pending == null || (!wait && !pending.isDone())) {
+            return;
+        }
+        try {
+            accept(pending.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("等待增量答案審核時被中斷");
+        } catch (ExecutionException e) {
+            // 審核失敗時不攔截（與完整答案審核一致，避免誤攔截）
+            log.error("增量答案審核失敗", e.getCause());
+        } finally {
+            pending = null;
+        }
+    }
+
+    private void accept(ModerationResult result) {
+        if (result == null) {
+            return;
+        }
+        checks++;
+        lastResult = result;
+        if (Boolean.FALSE.equals(result.getPassed())) {
+            blocked = result;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.advancedrag.service;
+
+import com.example.advancedrag.properties.RAGProperties;
+import com.example.advancedrag.util.TextUtil;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingType;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.stereotype.Component;
+
+/**
+ * Token 計數器
+ *
+ * 以 JTokkit（與 OpenAI 相同的 BPE 編碼）計算真實 token 數：
+ * - 編碼表只載入一次，所有調用共用
+ * - 文檔 token 數按「文檔 ID + 內容長度 + 內容雜湊」快取，同一分塊重複出現在不同查詢中時不重複編碼
+ * - 編碼不可用時退回 {@link TextUtil#estimateTokens(String)} 估算
+ */
+@Slf4j
+@Component
+public class TokenCounter {
+
+    private final Encoding encoding;
+    private final Cache<String, Integer> documentTokens;
+
+    public TokenCounter(RAGProperties ragProperties) {
+        RAGProperties.ContextPacking config = ragProperties.getContextPacking();
+        this.encoding = loadEncoding(config.getEncoding());
+        this.documentTokens = CacheBuilder.newBuilder()
+                .maximumSize(Math.max(1, config.getTokenCacheSize()))
+                .build();
+    }
+
+    /**
+     * 計算文本 token 數（不快取）
+     *
+     * @param text 文本
+     * @return token 數
+     */
+    public int count(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        return encoding != null ? encoding.countTokensOrdinary(text) : TextUtil.estimateTokens(text);
+    }
+
+    /**
+     * 計算文檔內容 token 數（按分塊快取）
+     *
+     * @param document 文檔
+     * @return token 數
+     */
+    public int count(Document document) {
+        String text = document.getText();
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        if (document.getId() == null) {
+            return count(text);
+        }
+        String key = document.getId() + ':' + text.length() + ':' + text.hashCode();
+        Integer cached = documentTokens.getIfPresent(key);
+        if (cached != null) {
+            return cached;
+        }
+        int tokens = count(text);
+        documentTokens.put(key, tokens);
+        return tokens;
+    }
+
+    /**
+     * 快取的文檔數
+     */
+    public long cacheSize() {
+        return documentTokens.size();
+    }
+
+    private static Encoding loadEncoding(String name) {
+        try {
+            EncodingType type = EncodingType.fromName(name)
+                    .orElseThrow(() -> new IllegalArgumentException("未知的 tokenizer 編碼: " + name));
+            return Encodings.newLazyEncodingRegistry().getEncoding(type);
+        } catch (Exception e) {
+            log.error("Tokenizer 載入失敗，改用估算: {}", name, e);
+            return null;
+        }
+    }
+}
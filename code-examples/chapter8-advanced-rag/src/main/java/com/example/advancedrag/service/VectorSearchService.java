@@ -0,0 +1,233 @@
+package com.example.advancedrag.service;
+
+import com.example.advancedrag.model.RetrievalContext;
+import com.example.advancedrag.properties.RAGProperties;
+import com.example.advancedrag.util.MetadataJson;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.pgvector.PgVectorFilterExpressionConverter;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 預計算向量檢索服務
+ *
+ * Spring AI 的 {@code VectorStore.similaritySearch} 每次都會重新生成查詢向量，且不接受預計算向量。
+ * 本服務直接以已生成的查詢向量查詢 PgVector 資料表（餘弦距離 {@code <=>}），
+ * 文檔向量不隨每頁候選讀出（每列都是完整維度的文本），而是在 {@link RetrievalContext} 登記載入函數，
+ * Re-ranking 與去重需要時才按 ID 一次批量讀取實際用到的文檔。
+ *
+ * 返回的 Document 與 PgVectorStore 一致：metadata 含 distance，score 為 1 - distance。
+ *
+ * 元數據過濾表達式以 PgVectorStore 相同的轉換規則轉為 jsonpath，與向量距離條件在同一查詢中執行
+ * （{@code metadata::jsonb @@ ?::jsonpath}），以參數綁定傳入；啟動時為 metadata 建立 GIN 索引。
+ */
+@Slf4j
+@Service
+public class VectorSearchService {
+
+    private final ObjectProvider<JdbcTemplate> jdbcTemplateProvider;
+    private final RAGProperties ragProperties;
+    private final String vectorTableName;
+
+    public VectorSearchService(ObjectProvider<JdbcTemplate> jdbcTemplateProvider,
+                               RAGProperties ragProperties,
+                               @Value("${spring.ai.vectorstore.pgvector.table-name:vector_store}") String vectorTableName) {
+        this.jdbcTemplateProvider = jdbcTemplateProvider;
+        this.ragProperties = ragProperties;
+        this.vectorTableName = vectorTableName;
+    }
+
+    /**
+     * 應用啟動後為 metadata 欄位建立 GIN 索引（jsonb_path_ops 支援 jsonpath 的 @@ 查詢）
+     */
+    @Async("taskExecutor")
+    @EventListener(ApplicationReadyEvent.class)
+    public void createMetadataIndexOnStartup() {
+        if (!ragProperties.getMetadataFilter().getCreateIndex()) {
+            return;
+        }
+        JdbcTemplate jdbcTemplate = jdbcTemplateProvider.getIfAvailable();
+        if (jdbcTemplate == null) {
+            return;
+        }
+        try {
+            jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS " + vectorTableName + "_metadata_path_idx ON "
+                    + vectorTableName + " USING gin ((metadata::jsonb) jsonb_path_ops)");
+            log.info("元數據過濾索引已就緒: {}_metadata_path_idx", vectorTableName);
+        } catch (Exception e) {
+            log.warn("元數據過濾索引建立失敗，過濾仍可執行但需掃描: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 是否可用（需要 JdbcTemplate）
+     */
+    public boolean isAvailable() {
+        return jdbcTemplateProvider.getIfAvailable() != null;
+    }
+
+    /**
+     * 以預計算的查詢向量檢索
+     *
+     * @param queryVector 查詢向量
+     * @param topK 返回數量
+     * @param similarityThreshold 相似度閾值（0-1）
+     * @param context 檢索上下文（用於存放文檔向量，可為 null）
+     * @return 文檔列表（按距離升序）
+     */
+    public List<Document> search(float[] queryVector, int topK, double similarityThreshold,
+                                 RetrievalContext context) {
+        return search(queryVector, topK, similarityThreshold, context != null ? context.getFilterExpression() : null,
+                context);
+    }
+
+    /**
+     * 以預計算的查詢向量檢索，並在同一查詢中套用元數據過濾
+     *
+     * @param queryVector 查詢向量
+     * @param topK 返回數量
+     * @param similarityThreshold 相似度閾值（0-1）
+     * @param filterExpression 元數據過濾表達式（已驗證，可為 null）
+     * @param context 檢索上下文（用於存放文檔向量，可為 null）
+     * @return 符合過濾條件的文檔列表（按距離升序）
+     */
+    public List<Document> search(float[] queryVector, int topK, double similarityThreshold,
+                                 Filter.Expression filterExpression, RetrievalContext context) {
+        return search(queryVector, 0, topK, similarityThreshold, filterExpression, context);
+    }
+
+    /**
+     * 分頁檢索（自適應檢索深度逐頁取回候選）
+     *
+     * @param queryVector 查詢向量
+     * @param offset 跳過的文檔數
+     * @param limit 本頁返回數量
+     * @param similarityThreshold 相似度閾值（0-1）
+     * @param filterExpression 元數據過濾表達式（已驗證，可為 null）
+     * @param context 檢索上下文（用於存放文檔向量，可為 null）
+     * @return 符合過濾條件的文檔列表（按距離升序）
+     */
+    public List<Document> search(float[] queryVector, int offset, int limit, double similarityThreshold,
+                                 Filter.Expression filterExpression, RetrievalContext context) {
+        JdbcTemplate jdbcTemplate = jdbcTemplateProvider.getIfAvailable();
+        if (jdbcTemplate == null) {
+            throw new IllegalStateException("未找到 JdbcTemplate，無法執行預計算向量檢索");
+        }
+
+        String vector = toVectorLiteral(queryVector);
+        List<Object> args = new ArrayList<>(List.of(vector, vector, 1.0 - similarityThreshold));
+        StringBuilder sql = new StringBuilder("SELECT id, content, metadata, ")
+                .append("embedding <=> ?::vector AS distance FROM ").append(vectorTableName)
+                .append(" WHERE embedding <=> ?::vector < ?");
+        if (filterExpression != null) {
+            sql.append(" AND metadata::jsonb @@ ?::jsonpath");
+            args.add(toJsonPath(filterExpression));
+        }
+        sql.append(" ORDER BY distance LIMIT ?");
+        args.add(limit);
+        if (offset > 0) {
+            sql.append(" OFFSET ?");
+            args.add(offset);
+        }
+
+        if (context != null) {
+            context.setDocumentVectorLoader(this::loadDocumentVectors);
+        }
+        return jdbcTemplate.query(sql.toString(), (rs, rowNum) -> {
+            String id = rs.getString("id");
+            double distance = rs.getDouble("distance");
+
+            Map<String, Object> metadata = MetadataJson.parse(rs.getString("metadata"));
+            metadata.put("distance", distance);
+
+            return Document.builder()
+                    .id(id)
+                    .text(rs.getString("content"))
+                    .metadata(metadata)
+                    .score(1.0 - distance)
+                    .build();
+        }, args.toArray());
+    }
+
+    /**
+     * 按 ID 批量讀取文檔向量
+     *
+     * @param documentIds 文檔 ID
+     * @return 文檔 ID 到向量的映射；讀取失敗時返回空映射（調用方以缺少向量處理）
+     */
+    public Map<String, float[]> loadDocumentVectors(Collection<String> documentIds) {
+        JdbcTemplate jdbcTemplate = jdbcTemplateProvider.getIfAvailable();
+        if (jdbcTemplate == null || documentIds.isEmpty()) {
+            return Map.of();
+        }
+
+        String placeholders = String.join(", ", Collections.nCopies(documentIds.size(), "?::uuid"));
+        String sql = "SELECT id, embedding::text AS embedding FROM " + vectorTableName
+                + " WHERE id IN (" + placeholders + ")";
+        try {
+            Map<String, float[]> vectors = new HashMap<>();
+            jdbcTemplate.query(sql, (rs, rowNum) -> {
+                String embedding = rs.getString("embedding");
+                if (embedding != null) {
+                    vectors.put(rs.getString("id"), parseVectorLiteral(embedding));
+                }
+                return null;
+            }, documentIds.toArray());
+            return vectors;
+        } catch (Exception e) {
+            log.warn("文檔向量讀取失敗，Re-ranking 與去重不使用向量: {}", e.getMessage());
+            return Map.of();
+        }
+    }
+
+    /**
+     * 過濾表達式轉為 jsonpath（與 PgVectorStore 相同的轉換規則）
+     */
+    static String toJsonPath(Filter.Expression filterExpression) {
+        return new PgVectorFilterExpressionConverter().convertExpression(filterExpression);
+    }
+
+    /**
+     * 向量轉為 pgvector 文本格式：[x1,x2,...]
+     */
+    static String toVectorLiteral(float[] vector) {
+        StringBuilder builder = new StringBuilder(vector.length * 12).append('[');
+        for (int i = 0; i < vector.length; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(vector[i]);
+        }
+        return builder.append(']').toString();
+    }
+
+    /**
+     * 解析 pgvector 文本格式
+     */
+    static float[] parseVectorLiteral(String literal) {
+        String body = literal.substring(literal.indexOf('[') + 1, literal.lastIndexOf(']'));
+        if (body.isBlank()) {
+            return new float[0];
+        }
+        String[] parts = body.split(",");
+        float[] vector = new float[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            vector[i] = Float.parseFloat(parts[i].trim());
+        }
+        return vector;
+    }
+}
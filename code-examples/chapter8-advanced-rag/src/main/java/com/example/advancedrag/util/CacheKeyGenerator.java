@@ -24,6 +24,19 @@ public class CacheKeyGenerator {
      * @return 快取鍵
      */
     public static String generateEmbeddingKey(String text, String model, Integer dimensions) {
+        return generateEmbeddingKey(EMBEDDING_PREFIX, text, model, dimensions);
+    }
+
+    /**
+     * 生成 Embedding 快取鍵（自定義前綴）
+     *
+     * @param prefix 鍵前綴
+     * @param text 文本內容
+     * @param model 模型名稱
+     * @param dimensions 向量維度
+     * @return 快取鍵
+     */
+    public static String generateEmbeddingKey(String prefix, String text, String model, Integer dimensions) {
         if (StringUtils.isBlank(text)) {
             throw new IllegalArgumentException("文本不能為空");
         }
@@ -31,7 +44,7 @@ public class CacheKeyGenerator {
         // 使用 MD5 生成文本的唯一標識
         String textHash = DigestUtils.md5Hex(text);
 
-        return EMBEDDING_PREFIX + model + ":" + dimensions + ":" + textHash;
+        return prefix + model + ":" + dimensions + ":" + textHash;
     }
 
     /**
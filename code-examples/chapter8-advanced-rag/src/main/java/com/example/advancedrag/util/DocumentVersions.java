@@ -0,0 +1,105 @@
+package com.example.advancedrag.util;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * 文檔版本記錄
+ *
+ * 每次文檔變更都會遞增全局版本號並記錄到該文檔 ID 上；快取條目保存生成前取得的版本號，
+ * 任一來源文檔的版本更新即表示條目已過期（生成期間發生的變更也能被發現）。
+ *
+ * 只保留 retention（快取 TTL）內的變更記錄：更早的變更所影響的條目都已過期，記錄不再有用。
+ * 修剪時把被修剪的最大版本號記為下限，版本號低於下限的條目（開始時間早於 retention 的生成結果）
+ * 一律視為過期，避免記錄修剪後漏判。
+ */
+public class DocumentVersions {
+
+    private final Duration retention;
+    private final LongSupplier clockMillis;
+
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong prunedGeneration = new AtomicLong();
+    private final Map<String, Version> versions = new ConcurrentHashMap<>();
+
+    public DocumentVersions(Duration retention) {
+        this(retention, System::currentTimeMillis);
+    }
+
+    /**
+     * @param retention 變更記錄的保留時間（不短於快取 TTL）
+     * @param clockMillis 毫秒時鐘（測試時可注入）
+     */
+    public DocumentVersions(Duration retention, LongSupplier clockMillis) {
+        this.retention = retention;
+        this.clockMillis = clockMillis;
+    }
+
+    /**
+     * 當前版本號（在生成快取內容之前取得）
+     */
+    public long current() {
+        return generation.get();
+    }
+
+    /**
+     * 記錄文檔變更，並修剪超過保留時間的記錄
+     *
+     * @param documentIds 變更的文檔 ID
+     * @return 本次變更的版本號
+     */
+    public long recordChange(Iterable<String> documentIds) {
+        long now = clockMillis.getAsLong();
+        long version = generation.incrementAndGet();
+        for (String documentId : documentIds) {
+            versions.put(documentId, new Version(version, now));
+        }
+        prune(now - retention.toMillis());
+        return version;
+    }
+
+    /**
+     * 任一文檔在指定版本號之後是否變更
+     *
+     * @param documentIds 文檔 ID
+     * @param since 生成快取內容之前取得的版本號
+     * @return 已變更（或版本號早於已修剪的記錄而無法判斷）時返回 true
+     */
+    public boolean changedSince(Iterable<String> documentIds, long since) {
+        if (since < prunedGeneration.get()) {
+            return true;
+        }
+        for (String documentId : documentIds) {
+            Version version = versions.get(documentId);
+            if (version != null && version.generation() > since) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 保留中的記錄數
+     */
+    public int size() {
+        return versions.size();
+    }
+
+    private void prune(long cutoff) {
+        versions.entrySet().removeIf(entry -> {
+            Version version = entry.getValue();
+            if (version.recordedAt() >= cutoff) {
+                return false;
+            }
+            // 先提高下限再移除，並發的判斷不會在兩者之間漏判
+            prunedGeneration.accumulateAndGet(version.generation(), Math::max);
+            return true;
+        });
+    }
+
+    private record Version(long generation, long recordedAt) {
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.advancedrag.util;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 文檔元數據 JSON 工具類
+ *
+ * 解析向量表 metadata 欄位（jsonb 的文本形式）為 {@link org.springframework.ai.document.Document} 可用的元數據
+ */
+@Slf4j
+public class MetadataJson {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final TypeReference<Map<String, Object>> MAP_TYPE = new TypeReference<>() {};
+
+    /**
+     * 解析元數據
+     *
+     * @param json metadata 欄位文本（可為 null）
+     * @return 可修改的元數據（已移除 null 值，Document 不接受 null 值）；空白或格式錯誤時返回空 Map
+     */
+    public static Map<String, Object> parse(String json) {
+        if (json == null || json.isBlank()) {
+            return new HashMap<>();
+        }
+        try {
+            Map<String, Object> metadata = OBJECT_MAPPER.readValue(json, MAP_TYPE);
+            metadata.values().removeIf(value -> value == null);
+            return metadata;
+        } catch (Exception e) {
+            log.debug("元數據解析失敗: {}", json, e);
+            return new HashMap<>();
+        }
+    }
+}
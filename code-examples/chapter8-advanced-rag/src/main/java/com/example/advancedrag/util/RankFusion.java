@@ -0,0 +1,92 @@
+package com.example.advancedrag.util;
+
+import com.example.advancedrag.model.ScoredDocument;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 加權倒數排名融合（Reciprocal Rank Fusion）
+ *
+ * 各檢索來源的分數尺度不可比（餘弦相似度、BM25），RRF 只使用名次：
+ * <pre>
+ * fused(d) = Σ weight(source) / (k + rank(source, d))      rank 從 1 開始
+ * </pre>
+ * 融合分數再除以理論最大值（所有來源都排第一），落在 0-1 之間，可與下游的分數閾值、排序共用。
+ */
+public final class RankFusion {
+
+    /**
+     * 常用的平滑常數（Cormack et al.）
+     */
+    public static final int DEFAULT_K = 60;
+
+    private RankFusion() {
+    }
+
+    /**
+     * 融合多個排序結果
+     *
+     * 同一文檔在多個來源出現時，保留最高的語義分數與 BM25 分數；名次相同時按首次出現的順序排列。
+     *
+     * @param rankings 各來源的排序結果
+     * @param k 平滑常數（越大越平滑，名次差異的影響越小）
+     * @param limit 返回數量
+     * @return 融合後的文檔（新實例，score 為正規化的融合分數）
+     */
+    public static List<ScoredDocument> reciprocalRankFusion(List<Ranking> rankings, int k, int limit) {
+        Map<String, ScoredDocument> fused = new LinkedHashMap<>();
+        Map<String, Double> scores = new LinkedHashMap<>();
+        double maxScore = 0;
+
+        for (Ranking ranking : rankings) {
+            maxScore += ranking.weight() / (k + 1.0);
+            List<ScoredDocument> documents = ranking.documents();
+            for (int rank = 1; rank <= documents.size(); rank++) {
+                ScoredDocument document = documents.get(rank - 1);
+                String id = document.getDocument().getId();
+
+                scores.merge(id, ranking.weight() / (k + rank), Double::sum);
+                ScoredDocument merged = fused.get(id);
+                if (merged == null) {
+                    fused.put(id, ScoredDocument.builder()
+                            .document(document.getDocument())
+                            .semanticScore(document.getSemanticScore())
+                            .bm25Score(document.getBm25Score())
+                            .qualityScore(document.getQualityScore())
+                            .freshnessScore(document.getFreshnessScore())
+                            .build());
+                } else {
+                    merged.setSemanticScore(max(merged.getSemanticScore(), document.getSemanticScore()));
+                    merged.setBm25Score(max(merged.getBm25Score(), document.getBm25Score()));
+                }
+            }
+        }
+
+        double normalizer = maxScore > 0 ? maxScore : 1.0;
+        List<ScoredDocument> results = new ArrayList<>(fused.values());
+        results.forEach(document -> document.setScore(scores.get(document.getDocument().getId()) / normalizer));
+        results.sort(Comparator.comparingDouble(ScoredDocument::getScore).reversed());
+        return results.size() > limit ? new ArrayList<>(results.subList(0, limit)) : results;
+    }
+
+    private static Double max(Double a, Double b) {
+        if (a == null) {
+            return b;
+        }
+        return b == null ? a : Math.max(a, b);
+    }
+
+    /**
+     * 單一來源的排序結果
+     *
+     * @param source 來源名稱
+     * @param weight 來源權重
+     * @param documents 按相關性降序排列的文檔
+     */
+    public record Ranking(String source, double weight, List<ScoredDocument> documents) {
+    }
+}
@@ -0,0 +1,194 @@
+package com.example.advancedrag.util;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 滑動窗口百分位直方圖（HdrHistogram）
+ *
+ * 寫入路徑：{@link Recorder#recordValue(long)} 為 wait-free，不加鎖、不配置物件。
+ * 每個 {@link #TICK} 由調度線程呼叫 {@link #rotate()}，取出這段時間的區間直方圖並推入各窗口的環形槽位：
+ * 窗口維護「槽位總和」直方圖，新槽位加入、過期槽位扣除（add / subtract 皆為 O(桶數)），
+ * 旋轉後發布一份唯讀副本，查詢百分位只需 O(桶數)，與記錄筆數無關。
+ *
+ * 精度為 2 位有效數字（相對誤差約 1%）。窗口內容為最近完整的若干個槽位，最多落後一個槽位。
+ */
+public class RollingHistogram {
+
+    /**
+     * 旋轉間隔
+     */
+    public static final Duration TICK = Duration.ofSeconds(10);
+
+    private static final int SIGNIFICANT_DIGITS = 2;
+
+    private final Recorder recorder = new Recorder(SIGNIFICANT_DIGITS);
+    private final Map<Duration, Window> windows = new LinkedHashMap<>();
+    private Histogram recycle;
+
+    /**
+     * @param specs 窗口定義
+     */
+    public RollingHistogram(List<WindowSpec> specs) {
+        for (WindowSpec spec : specs) {
+            windows.put(spec.span(), new Window(spec));
+        }
+    }
+
+    /**
+     * 記錄一個值（負數忽略）
+     *
+     * @param value 值
+     */
+    public void record(long value) {
+        if (value >= 0) {
+            recorder.recordValue(value);
+        }
+    }
+
+    /**
+     * 結束當前 tick，將區間直方圖推入各窗口
+     */
+    public synchronized void rotate() {
+        Histogram interval = recorder.getIntervalHistogram(recycle);
+        if (interval.getTotalCount() == 0) {
+            recycle = interval;
+            interval = null;
+        } else {
+            // 區間直方圖被窗口引用，不可回收重用
+            recycle = null;
+        }
+        for (Window window : windows.values()) {
+            window.push(interval);
+        }
+    }
+
+    /**
+     * 獲取窗口統計
+     *
+     * @param span 窗口長度（必須是建構時定義的窗口之一）
+     * @return 統計快照
+     */
+    public Snapshot snapshot(Duration span) {
+        Window window = windows.get(span);
+        if (window == null) {
+            throw new IllegalArgumentException("未定義的窗口: " + span);
+        }
+        return Snapshot.of(window.published);
+    }
+
+    /**
+     * 清空所有窗口與未旋轉的記錄
+     */
+    public synchronized void reset() {
+        recorder.reset();
+        for (Window window : windows.values()) {
+            window.clear();
+        }
+    }
+
+    /**
+     * 窗口定義
+     *
+     * @param span 窗口長度
+     * @param slot 槽位長度（TICK 的整數倍；長窗口用較粗的槽位以節省記憶體）
+     */
+    public record WindowSpec(Duration span, Duration slot) {
+
+        int slots() {
+            return (int) Math.max(1, span.toMillis() / slot.toMillis());
+        }
+
+        int ticksPerSlot() {
+            return (int) Math.max(1, slot.toMillis() / TICK.toMillis());
+        }
+    }
+
+    /**
+     * 窗口統計快照
+     *
+     * @param count 記錄數
+     * @param mean 平均值
+     * @param p50 中位數
+     * @param p90 P90
+     * @param p95 P95
+     * @param p99 P99
+     * @param max 最大值
+     */
+    public record Snapshot(long count, double mean, long p50, long p90, long p95, long p99, long max) {
+
+        public static Snapshot of(Histogram histogram) {
+            if (histogram == null || histogram.getTotalCount() == 0) {
+                return new Snapshot(0, 0, 0, 0, 0, 0, 0);
+            }
+            return new Snapshot(histogram.getTotalCount(), histogram.getMean(),
+                    histogram.getValueAtPercentile(50), histogram.getValueAtPercentile(90),
+                    histogram.getValueAtPercentile(95), histogram.getValueAtPercentile(99),
+                    histogram.getMaxValue());
+        }
+    }
+
+    /**
+     * 單個窗口：環形槽位 + 槽位總和（只由旋轉線程修改）
+     */
+    private static class Window {
+
+        private final Histogram[] slots;
+        private final int ticksPerSlot;
+        private final Histogram sum = new Histogram(SIGNIFICANT_DIGITS);
+        private Histogram pending;
+        private int pendingTicks;
+        private int next;
+
+        private volatile Histogram published;
+
+        Window(WindowSpec spec) {
+            this.slots = new Histogram[spec.slots()];
+            this.ticksPerSlot = spec.ticksPerSlot();
+        }
+
+        void push(Histogram interval) {
+            if (interval != null) {
+                if (ticksPerSlot == 1) {
+                    pending = interval;
+                } else {
+                    if (pending == null) {
+                        pending = new Histogram(SIGNIFICANT_DIGITS);
+                    }
+                    pending.add(interval);
+                }
+            }
+
+            if (++pendingTicks < ticksPerSlot) {
+                return;
+            }
+
+            Histogram evicted = slots[next];
+            slots[next] = pending;
+            next = (next + 1) % slots.length;
+            if (evicted != null) {
+                sum.subtract(evicted);
+            }
+            if (pending != null) {
+                sum.add(pending);
+            }
+            pending = null;
+            pendingTicks = 0;
+            published = sum.copy();
+        }
+
+        void clear() {
+            Arrays.fill(slots, null);
+            sum.reset();
+            pending = null;
+            pendingTicks = 0;
+            published = null;
+        }
+    }
+}
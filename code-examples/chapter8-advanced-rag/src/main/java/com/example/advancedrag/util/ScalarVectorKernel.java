@@ -0,0 +1,58 @@
+package com.example.advancedrag.util;
+
+/**
+ * 標量向量計算核心（jdk.incubator.vector 不可用時的後備實現）
+ *
+ * 同時作為 SIMD 實現的正確性基準，累加一律以 double 進行，避免長向量的 float 捨入誤差。
+ */
+final class ScalarVectorKernel implements VectorKernel {
+
+    @Override
+    public float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        double sum = 0.0;
+        for (int i = 0; i < length; i++) {
+            sum += (double) a[aOffset + i] * b[bOffset + i];
+        }
+        return (float) sum;
+    }
+
+    @Override
+    public double cosine(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        double dot = 0.0;
+        double normA = 0.0;
+        double normB = 0.0;
+        for (int i = 0; i < length; i++) {
+            double x = a[aOffset + i];
+            double y = b[bOffset + i];
+            dot += x * y;
+            normA += x * x;
+            normB += y * y;
+        }
+        if (normA == 0.0 || normB == 0.0) {
+            return 0.0;
+        }
+        return dot / (Math.sqrt(normA) * Math.sqrt(normB));
+    }
+
+    @Override
+    public float squaredDistance(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        double sum = 0.0;
+        for (int i = 0; i < length; i++) {
+            double diff = (double) a[aOffset + i] - b[bOffset + i];
+            sum += diff * diff;
+        }
+        return (float) sum;
+    }
+
+    @Override
+    public void scale(float[] a, int offset, int length, float factor) {
+        for (int i = 0; i < length; i++) {
+            a[offset + i] *= factor;
+        }
+    }
+
+    @Override
+    public String name() {
+        return "scalar";
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.advancedrag.util;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD 向量計算核心（jdk.incubator.vector）
+ *
+ * 以平台首選寬度（AVX2 為 8 lanes、AVX-512 為 16 lanes）做 FMA 累加，尾段以標量處理。
+ * 僅在 jdk.incubator.vector 模組已載入時由 {@link VectorUtil} 以反射建立，
+ * 因此其他類不可直接引用本類。
+ */
+final class SimdVectorKernel implements VectorKernel {
+
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    @Override
+    public float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        FloatVector acc = FloatVector.zero(SPECIES);
+        int i = 0;
+        int bound = SPECIES.loopBound(length);
+        for (; i < bound; i += SPECIES.length()) {
+            FloatVector va = FloatVector.fromArray(SPECIES, a, aOffset + i);
+            FloatVector vb = FloatVector.fromArray(SPECIES, b, bOffset + i);
+            acc = va.fma(vb, acc);
+        }
+        float sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public double cosine(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        FloatVector dotAcc = FloatVector.zero(SPECIES);
+        FloatVector normAAcc = FloatVector.zero(SPECIES);
+        FloatVector normBAcc = FloatVector.zero(SPECIES);
+        int i = 0;
+        int bound = SPECIES.loopBound(length);
+        for (; i < bound; i += SPECIES.length()) {
+            FloatVector va = FloatVector.fromArray(SPECIES, a, aOffset + i);
+            FloatVector vb = FloatVector.fromArray(SPECIES, b, bOffset + i);
+            dotAcc = va.fma(vb, dotAcc);
+            normAAcc = va.fma(va, normAAcc);
+            normBAcc = vb.fma(vb, normBAcc);
+        }
+        float dot = dotAcc.reduceLanes(VectorOperators.ADD);
+        float normA = normAAcc.reduceLanes(VectorOperators.ADD);
+        float normB = normBAcc.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            float x = a[aOffset + i];
+            float y = b[bOffset + i];
+            dot += x * y;
+            normA += x * x;
+            normB += y * y;
+        }
+        if (normA == 0f || normB == 0f) {
+            return 0.0;
+        }
+        return dot / (Math.sqrt(normA) * Math.sqrt(normB));
+    }
+
+    @Override
+    public float squaredDistance(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        FloatVector acc = FloatVector.zero(SPECIES);
+        int i = 0;
+        int bound = SPECIES.loopBound(length);
+        for (; i < bound; i += SPECIES.length()) {
+            FloatVector diff = FloatVector.fromArray(SPECIES, a, aOffset + i)
+                    .sub(FloatVector.fromArray(SPECIES, b, bOffset + i));
+            acc = diff.fma(diff, acc);
+        }
+        float sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            float diff = a[aOffset + i] - b[bOffset + i];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    @Override
+    public void scale(float[] a, int offset, int length, float factor) {
+        int i = 0;
+        int bound = SPECIES.loopBound(length);
+        for (; i < bound; i += SPECIES.length()) {
+            FloatVector.fromArray(SPECIES, a, offset + i).mul(factor).intoArray(a, offset + i);
+        }
+        for (; i < length; i++) {
+            a[offset + i] *= factor;
+        }
+    }
+
+    @Override
+    public String name() {
+        return "simd-" + SPECIES.length() + "x" + Float.SIZE;
+    }
+}
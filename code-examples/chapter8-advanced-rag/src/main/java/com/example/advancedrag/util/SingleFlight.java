@@ -0,0 +1,105 @@
+package com.example.advancedrag.util;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Single-flight 請求合併
+ *
+ * 同一個鍵同時只有一個調用在執行（leader），期間到達的相同請求（follower）等待 leader 的結果，
+ * 而不是各自發出一次下游調用。leader 完成後立即移除該鍵，之後的請求重新執行（結果快取由調用方負責）。
+ *
+ * follower 最多等待 timeout；leader 失敗或等待逾時時改用 fallback 的結果。
+ *
+ * @param <K> 鍵類型
+ * @param <V> 結果類型（會被多個調用方共用，應為不可變或由調用方複製）
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * 執行（或加入進行中的）調用
+     *
+     * @param key 合併鍵
+     * @param call 實際調用（只由 leader 在當前線程執行）
+     * @param timeout follower 等待 leader 的最長時間
+     * @param fallback leader 失敗或逾時時 follower 的降級結果（參數為失敗原因）
+     * @return 結果與當前調用方的角色
+     */
+    public Result<V> execute(K key, Supplier<V> call, Duration timeout, Function<Throwable, V> fallback) {
+        CompletableFuture<V> created = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, created);
+
+        if (existing == null) {
+            try {
+                V value = call.get();
+                created.complete(value);
+                return new Result<>(value, Role.LEADER);
+            } catch (RuntimeException | Error e) {
+                created.completeExceptionally(e);
+                throw e;
+            } finally {
+                inFlight.remove(key, created);
+            }
+        }
+
+        try {
+            return new Result<>(existing.get(timeout.toMillis(), TimeUnit.MILLISECONDS), Role.FOLLOWER);
+        } catch (ExecutionException e) {
+            return new Result<>(fallback.apply(e.getCause()), Role.FALLBACK);
+        } catch (TimeoutException e) {
+            return new Result<>(fallback.apply(e), Role.FALLBACK);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new Result<>(fallback.apply(e), Role.FALLBACK);
+        }
+    }
+
+    /**
+     * 進行中的調用數
+     */
+    public int inFlight() {
+        return inFlight.size();
+    }
+
+    /**
+     * 調用方角色
+     */
+    public enum Role {
+        /**
+         * 實際執行調用
+         */
+        LEADER,
+        /**
+         * 共用 leader 的結果
+         */
+        FOLLOWER,
+        /**
+         * leader 失敗或逾時，使用降級結果
+         */
+        FALLBACK
+    }
+
+    /**
+     * 執行結果
+     *
+     * @param value 結果
+     * @param role 當前調用方的角色
+     */
+    public record Result<V>(V value, Role role) {
+
+        /**
+         * 是否共用了 leader 的結果
+         */
+        public boolean shared() {
+            return role == Role.FOLLOWER;
+        }
+    }
+}
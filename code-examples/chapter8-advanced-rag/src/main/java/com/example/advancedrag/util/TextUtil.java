@@ -2,6 +2,7 @@ package com.example.advancedrag.util;
 
 import org.apache.commons.lang3.StringUtils;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.regex.Pattern;
@@ -110,6 +111,72 @@ public class TextUtil {
         return count;
     }
 
+    /**
+     * 估算 token 數量（保守估算：中日韓字符每字 1 token，其餘字符每 4 個 1 token）
+     *
+     * @param text 文本
+     * @return 估算的 token 數
+     */
+    public static int estimateTokens(String text) {
+        if (StringUtils.isEmpty(text)) {
+            return 0;
+        }
+
+        int cjkChars = 0;
+        int otherChars = 0;
+        for (int i = 0; i < text.length(); i++) {
+            Character.UnicodeScript script = Character.UnicodeScript.of(text.charAt(i));
+            if (script == Character.UnicodeScript.HAN || script == Character.UnicodeScript.HIRAGANA
+                    || script == Character.UnicodeScript.KATAKANA || script == Character.UnicodeScript.HANGUL) {
+                cjkChars++;
+            } else {
+                otherChars++;
+            }
+        }
+        return cjkChars + (otherChars + 3) / 4;
+    }
+
+    /**
+     * 按句子邊界切分（中文句末標點、換行，以及其後接空白的英文句點）
+     *
+     * 切分結果保留原始字符（含標點與空白），依序拼接即為原文。
+     *
+     * @param text 文本
+     * @return 句子列表
+     */
+    public static List<String> splitSentences(String text) {
+        if (StringUtils.isEmpty(text)) {
+            return List.of();
+        }
+
+        List<String> sentences = new ArrayList<>();
+        int start = 0;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            boolean boundary = switch (c) {
+                case '。', '！', '？', '；', '!', '?', ';', '\n' -> true;
+                case '.' -> i + 1 < length && Character.isWhitespace(text.charAt(i + 1));
+                default -> false;
+            };
+            if (!boundary) {
+                continue;
+            }
+            // 邊界後的空白歸入前一句
+            int end = i + 1;
+            while (end < length && text.charAt(end) != '\n' && Character.isWhitespace(text.charAt(end))) {
+                end++;
+            }
+            sentences.add(text.substring(start, end));
+            start = end;
+            i = end - 1;
+        }
+        if (start < length) {
+            sentences.add(text.substring(start));
+        }
+        return sentences;
+    }
+
     /**
      * 計算文本長度（字符數）
      *
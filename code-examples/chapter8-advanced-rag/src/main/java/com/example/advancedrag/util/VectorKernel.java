@@ -0,0 +1,36 @@
+package com.example.advancedrag.util;
+
+/**
+ * 向量計算核心（陣列 + 偏移量形式，無裝箱、無配置）
+ *
+ * 由 {@link VectorUtil} 在啟動時選擇實現：
+ * - {@link SimdVectorKernel}：jdk.incubator.vector（需 --add-modules jdk.incubator.vector）
+ * - {@link ScalarVectorKernel}：純標量迴圈（後備）
+ */
+interface VectorKernel {
+
+    /**
+     * 內積
+     */
+    float dot(float[] a, int aOffset, float[] b, int bOffset, int length);
+
+    /**
+     * 餘弦相似度（任一向量為零向量時返回 0）
+     */
+    double cosine(float[] a, int aOffset, float[] b, int bOffset, int length);
+
+    /**
+     * 歐幾里得距離的平方
+     */
+    float squaredDistance(float[] a, int aOffset, float[] b, int bOffset, int length);
+
+    /**
+     * 原地縮放：a[i] *= factor
+     */
+    void scale(float[] a, int offset, int length, float factor);
+
+    /**
+     * 實現名稱
+     */
+    String name();
+}
@@ -1,21 +1,63 @@
 package com.example.advancedrag.util;
 
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
  * 向量計算工具類
  *
- * 提供向量相關的數學計算功能
+ * 提供向量相關的數學計算功能。
+ *
+ * float[] / FloatBuffer 版本不產生任何裝箱或中間物件，計算委派給 {@link VectorKernel}：
+ * 啟動時若 jdk.incubator.vector 模組可用（--add-modules jdk.incubator.vector）使用 SIMD 實現，
+ * 否則使用標量實現。List&lt;Double&gt; 版本保留供舊代碼使用。
  */
+@Slf4j
 public class VectorUtil {
 
+    private static final VectorKernel KERNEL = selectKernel();
+
+    /**
+     * 選擇計算核心：SIMD 以反射建立，避免模組未載入時發生 NoClassDefFoundError
+     */
+    private static VectorKernel selectKernel() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                VectorKernel kernel = (VectorKernel) Class.forName("com.example.advancedrag.util.SimdVectorKernel")
+                        .getDeclaredConstructor()
+                        .newInstance();
+                log.info("向量計算使用 SIMD 核心: {}", kernel.name());
+                return kernel;
+            } catch (Throwable e) {
+                log.warn("SIMD 向量核心初始化失敗，改用標量實現: {}", e.getMessage());
+            }
+        } else {
+            log.info("未載入 jdk.incubator.vector 模組，向量計算使用標量實現");
+        }
+        return new ScalarVectorKernel();
+    }
+
+    /**
+     * 當前使用的計算核心名稱
+     *
+     * @return 核心名稱（simd-NxM 或 scalar）
+     */
+    public static String kernelName() {
+        return KERNEL.name();
+    }
+
     /**
      * 計算兩個向量的餘弦相似度
      *
      * @param vec1 向量1
      * @param vec2 向量2
      * @return 餘弦相似度（-1 到 1 之間）
+     * @deprecated 會對每個分量裝箱，請改用 {@link #cosineSimilarity(float[], float[])}
      */
+    @Deprecated
     public static double cosineSimilarity(List<Double> vec1, List<Double> vec2) {
         if (vec1 == null || vec2 == null || vec1.size() != vec2.size()) {
             throw new IllegalArgumentException("向量不能為空且維度必須相同");
@@ -46,25 +88,33 @@ public class VectorUtil {
      * @return 餘弦相似度（-1 到 1 之間）
      */
     public static double cosineSimilarity(float[] vec1, float[] vec2) {
-        if (vec1 == null || vec2 == null || vec1.length != vec2.length) {
-            throw new IllegalArgumentException("向量不能為空且維度必須相同");
-        }
-
-        double dotProduct = 0.0;
-        double norm1 = 0.0;
-        double norm2 = 0.0;
+        checkDimensions(vec1, vec2);
+        return KERNEL.cosine(vec1, 0, vec2, 0, vec1.length);
+    }
 
-        for (int i = 0; i < vec1.length; i++) {
-            dotProduct += vec1[i] * vec2[i];
-            norm1 += vec1[i] * vec1[i];
-            norm2 += vec2[i] * vec2[i];
-        }
+    /**
+     * 計算兩個向量的內積
+     *
+     * @param vec1 向量1
+     * @param vec2 向量2
+     * @return 內積（兩者皆為單位向量時即為餘弦相似度）
+     */
+    public static float dot(float[] vec1, float[] vec2) {
+        checkDimensions(vec1, vec2);
+        return KERNEL.dot(vec1, 0, vec2, 0, vec1.length);
+    }
 
-        if (norm1 == 0.0 || norm2 == 0.0) {
-            return 0.0;
+    /**
+     * 計算向量的 L2 範數
+     *
+     * @param vector 向量
+     * @return L2 範數
+     */
+    public static float norm(float[] vector) {
+        if (vector == null) {
+            throw new IllegalArgumentException("向量不能為空");
         }
-
-        return dotProduct / (Math.sqrt(norm1) * Math.sqrt(norm2));
+        return (float) Math.sqrt(KERNEL.dot(vector, 0, vector, 0, vector.length));
     }
 
     /**
@@ -73,7 +123,9 @@ public class VectorUtil {
      * @param vec1 向量1
      * @param vec2 向量2
      * @return 歐幾里得距離
+     * @deprecated 會對每個分量裝箱，請改用 {@link #euclideanDistance(float[], float[])}
      */
+    @Deprecated
     public static double euclideanDistance(List<Double> vec1, List<Double> vec2) {
         if (vec1 == null || vec2 == null || vec1.size() != vec2.size()) {
             throw new IllegalArgumentException("向量不能為空且維度必須相同");
@@ -88,12 +140,26 @@ public class VectorUtil {
         return Math.sqrt(sum);
     }
 
+    /**
+     * 計算向量的歐幾里得距離（float[] 版本）
+     *
+     * @param vec1 向量1
+     * @param vec2 向量2
+     * @return 歐幾里得距離
+     */
+    public static double euclideanDistance(float[] vec1, float[] vec2) {
+        checkDimensions(vec1, vec2);
+        return Math.sqrt(KERNEL.squaredDistance(vec1, 0, vec2, 0, vec1.length));
+    }
+
     /**
      * 正規化向量（L2 正規化）
      *
      * @param vector 原始向量
      * @return 正規化後的向量
+     * @deprecated 會對每個分量裝箱，請改用 {@link #normalizeInPlace(float[])}
      */
+    @Deprecated
     public static List<Double> normalize(List<Double> vector) {
         if (vector == null || vector.isEmpty()) {
             throw new IllegalArgumentException("向量不能為空");
@@ -109,10 +175,111 @@ public class VectorUtil {
             return vector;
         }
 
-        // 創建 final 副本供 lambda 使用
-        final double finalNorm = norm;
-        return vector.stream()
-                .map(v -> v / finalNorm)
-                .toList();
+        List<Double> normalized = new ArrayList<>(vector.size());
+        for (Double v : vector) {
+            normalized.add(v / norm);
+        }
+        return normalized;
+    }
+
+    /**
+     * 原地正規化向量（L2 正規化，零向量保持不變）
+     *
+     * 注意：會修改傳入的陣列，不可用於快取中的共享向量。
+     *
+     * @param vector 向量
+     * @return 同一個陣列（方便鏈式調用）
+     */
+    public static float[] normalizeInPlace(float[] vector) {
+        float norm = norm(vector);
+        if (norm != 0f) {
+            KERNEL.scale(vector, 0, vector.length, 1f / norm);
+        }
+        return vector;
+    }
+
+    /**
+     * 批次計算查詢向量與多個候選向量的餘弦相似度（一對多）
+     *
+     * 查詢向量的範數只計算一次；結果寫入調用方預先配置的陣列，不產生新物件。
+     * 候選為 null 或維度不符時對應位置寫入 {@link Float#NaN}。
+     *
+     * @param query 查詢向量
+     * @param candidates 候選向量列表
+     * @param scores 結果陣列（長度不小於候選數量）
+     */
+    public static void cosineSimilarities(float[] query, List<float[]> candidates, float[] scores) {
+        if (query == null || candidates == null || scores == null || scores.length < candidates.size()) {
+            throw new IllegalArgumentException("向量不能為空且結果陣列長度必須足夠");
+        }
+
+        float queryNorm = norm(query);
+        for (int i = 0; i < candidates.size(); i++) {
+            float[] candidate = candidates.get(i);
+            if (candidate == null || candidate.length != query.length) {
+                scores[i] = Float.NaN;
+                continue;
+            }
+            float candidateNorm = (float) Math.sqrt(KERNEL.dot(candidate, 0, candidate, 0, candidate.length));
+            scores[i] = queryNorm == 0f || candidateNorm == 0f ? 0f
+                    : KERNEL.dot(query, 0, candidate, 0, query.length) / (queryNorm * candidateNorm);
+        }
+    }
+
+    /**
+     * 計算兩個向量的內積（FloatBuffer 版本，範圍為 position 到 limit，不改變 position）
+     *
+     * @param vec1 向量1
+     * @param vec2 向量2
+     * @return 內積
+     */
+    public static float dot(FloatBuffer vec1, FloatBuffer vec2) {
+        checkDimensions(vec1, vec2);
+        int length = vec1.remaining();
+        if (vec1.hasArray() && vec2.hasArray()) {
+            return KERNEL.dot(vec1.array(), vec1.arrayOffset() + vec1.position(),
+                    vec2.array(), vec2.arrayOffset() + vec2.position(), length);
+        }
+
+        // 直接緩衝區：逐個讀取（incubator API 在 JDK 21 只能以 MemorySegment 載入直接記憶體）
+        float sum = 0f;
+        for (int i = 0; i < length; i++) {
+            sum += vec1.get(vec1.position() + i) * vec2.get(vec2.position() + i);
+        }
+        return sum;
+    }
+
+    /**
+     * 計算兩個向量的餘弦相似度（FloatBuffer 版本，範圍為 position 到 limit，不改變 position）
+     *
+     * @param vec1 向量1
+     * @param vec2 向量2
+     * @return 餘弦相似度（-1 到 1 之間）
+     */
+    public static double cosineSimilarity(FloatBuffer vec1, FloatBuffer vec2) {
+        checkDimensions(vec1, vec2);
+        if (vec1.hasArray() && vec2.hasArray()) {
+            return KERNEL.cosine(vec1.array(), vec1.arrayOffset() + vec1.position(),
+                    vec2.array(), vec2.arrayOffset() + vec2.position(), vec1.remaining());
+        }
+
+        double norm1 = Math.sqrt(dot(vec1, vec1));
+        double norm2 = Math.sqrt(dot(vec2, vec2));
+        if (norm1 == 0.0 || norm2 == 0.0) {
+            return 0.0;
+        }
+        return dot(vec1, vec2) / (norm1 * norm2);
+    }
+
+    private static void checkDimensions(float[] vec1, float[] vec2) {
+        if (vec1 == null || vec2 == null || vec1.length != vec2.length) {
+            throw new IllegalArgumentException("向量不能為空且維度必須相同");
+        }
+    }
+
+    private static void checkDimensions(FloatBuffer vec1, FloatBuffer vec2) {
+        if (vec1 == null || vec2 == null || vec1.remaining() != vec2.remaining()) {
+            throw new IllegalArgumentException("向量不能為空且維度必須相同");
+        }
     }
 }
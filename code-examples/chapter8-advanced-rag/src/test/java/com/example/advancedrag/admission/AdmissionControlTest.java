@@ -0,0 +1,125 @@
+package com.example.advancedrag.admission;
+
+import com.example.advancedrag.exception.OverloadException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 准入控制測試
+ *
+ * 不依賴 Spring Boot 上下文，驗證：
+ * 1. AIMD：延遲目標內加性增長，超過目標或過載時乘性收縮
+ * 2. 超過上限的請求排隊超過延遲預算後被拒絕
+ * 3. 下游隔艙已滿時拋出過載異常
+ * 4. 串流請求的耗時不作為延遲樣本，只有過載時收縮
+ */
+@DisplayName("准入控制測試")
+class AdmissionControlTest {
+
+    private static final Duration TARGET = Duration.ofSeconds(1);
+
+    @Test
+    @DisplayName("延遲目標內加性增長，超過目標時乘性收縮")
+    void testAimd() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 2, 100, TARGET, 0.5);
+
+        // 用滿上限後逐個以低延遲完成：每個完整窗口 +1
+        for (int round = 0; round < 10; round++) {
+            while (limiter.tryAcquire(Duration.ZERO)) {
+                // 佔滿所有許可
+            }
+            int inFlight = limiter.getInFlight();
+            for (int i = 0; i < inFlight; i++) {
+                limiter.release(TimeUnit.MILLISECONDS.toNanos(100), false);
+            }
+        }
+        int grown = limiter.getLimit();
+        assertTrue(grown > 10, "上限應增長，實際: " + grown);
+
+        assertTrue(limiter.tryAcquire(Duration.ZERO));
+        limiter.release(TARGET.toNanos() * 2, false);
+        assertEquals(grown / 2, limiter.getLimit(), 1);
+
+        assertTrue(limiter.tryAcquire(Duration.ZERO));
+        limiter.release(0, true);
+        assertTrue(limiter.getLimit() < grown / 2 + 1);
+    }
+
+    @Test
+    @DisplayName("串流請求的耗時不作為延遲樣本")
+    void testUnsampledRelease() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 2, 100, TARGET, 0.5);
+
+        // 長串流佔滿上限後結束：不收縮，也不以長連線推動增長
+        for (int round = 0; round < 10; round++) {
+            while (limiter.tryAcquire(Duration.ZERO)) {
+                // 佔滿所有許可
+            }
+            int inFlight = limiter.getInFlight();
+            for (int i = 0; i < inFlight; i++) {
+                limiter.releaseUnsampled(false);
+            }
+        }
+        assertEquals(10, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+
+        assertTrue(limiter.tryAcquire(Duration.ZERO));
+        limiter.releaseUnsampled(true);
+        assertEquals(5, limiter.getLimit());
+    }
+
+    @Test
+    @DisplayName("排隊超過延遲預算被拒絕，許可釋放後排隊者獲得許可")
+    void testQueueDelayBudget() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1, 1, TARGET, 0.9);
+        assertTrue(limiter.tryAcquire(Duration.ZERO));
+
+        long start = System.nanoTime();
+        assertFalse(limiter.tryAcquire(Duration.ofMillis(50)));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+
+        CountDownLatch admitted = new CountDownLatch(1);
+        Thread waiter = Thread.ofVirtual().start(() -> {
+            try {
+                if (limiter.tryAcquire(Duration.ofSeconds(5))) {
+                    admitted.countDown();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        while (limiter.getWaiting() == 0) {
+            Thread.onSpinWait();
+        }
+
+        // 排隊數已達上限時直接拒絕
+        assertFalse(limiter.tryAcquire(Duration.ofSeconds(5)));
+
+        limiter.release(0, false);
+        assertTrue(admitted.await(5, TimeUnit.SECONDS));
+        waiter.join();
+        assertEquals(1, limiter.getInFlight());
+    }
+
+    @Test
+    @DisplayName("隔艙已滿時拋出過載異常並計數")
+    void testBulkhead() {
+        Bulkhead bulkhead = new Bulkhead("chat", 1, Duration.ofMillis(20));
+        bulkhead.acquire();
+        assertEquals(1, bulkhead.getActive());
+
+        OverloadException exception = assertThrows(OverloadException.class, () -> bulkhead.call(() -> "x"));
+        assertEquals("chat", exception.getResource());
+        assertEquals(1, bulkhead.getRejected());
+
+        bulkhead.release();
+        assertEquals("ok", bulkhead.call(() -> "ok"));
+        assertEquals(0, bulkhead.getActive());
+    }
+}
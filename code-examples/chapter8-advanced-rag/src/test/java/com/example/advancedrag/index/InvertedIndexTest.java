@@ -0,0 +1,136 @@
+package com.example.advancedrag.index;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * InvertedIndex 測試
+ *
+ * 不依賴 Spring Boot 上下文，驗證：
+ * 1. 中日韓二元組分詞
+ * 2. BM25 排序與增量新增 / 刪除，重複更新同 ID 時墓碑數有上限
+ * 3. WAND Top-K 結果與暴力評分一致
+ */
+@DisplayName("倒排索引測試")
+class InvertedIndexTest {
+
+    @Test
+    @DisplayName("分詞：中文切成二元組，英文轉小寫")
+    void testAnalyzer() {
+        assertEquals(List.of("向量", "量檢", "檢索", "spring", "ai"),
+                CjkBigramAnalyzer.analyze("向量檢索 Spring AI"));
+        assertEquals(List.of("rag", "是", "bm25"), CjkBigramAnalyzer.analyze("RAG，是 the BM25"));
+    }
+
+    @Test
+    @DisplayName("BM25 排序：詞頻高且罕見的詞排前面")
+    void testRanking() {
+        InvertedIndex index = new InvertedIndex();
+        index.add(doc("1", "Spring AI 支援向量檢索與重排序"));
+        index.add(doc("2", "向量資料庫 PgVector 提供向量檢索"));
+        index.add(doc("3", "今天天氣很好"));
+
+        List<InvertedIndex.Hit> hits = index.search(CjkBigramAnalyzer.analyze("向量檢索"), 10);
+
+        assertEquals(2, hits.size());
+        assertEquals("2", hits.get(0).document().getId());
+        assertEquals(3, index.stats().documentCount());
+    }
+
+    @Test
+    @DisplayName("增量更新：刪除與覆蓋後統計正確")
+    void testIncrementalUpdate() {
+        InvertedIndex index = new InvertedIndex();
+        index.add(doc("1", "alpha beta"));
+        index.add(doc("2", "alpha gamma"));
+
+        assertTrue(index.delete("1"));
+        assertFalse(index.delete("1"));
+        assertTrue(index.search(List.of("beta"), 5).isEmpty());
+
+        index.add(doc("2", "delta"));
+        assertTrue(index.search(List.of("alpha"), 5).isEmpty());
+        assertEquals(1, index.search(List.of("delta"), 5).size());
+        assertEquals(1, index.stats().documentCount());
+    }
+
+    @Test
+    @DisplayName("重複更新同一文檔：墓碑觸發壓縮，數量有上限")
+    void testRepeatedUpdateCompacts() {
+        InvertedIndex index = new InvertedIndex();
+        index.add(doc("other", "gamma delta"));
+        int maxDeleted = 0;
+        for (int i = 0; i < 1000; i++) {
+            index.add(doc("1", "alpha beta 版本 " + i));
+            maxDeleted = Math.max(maxDeleted, index.stats().deletedCount());
+        }
+
+        assertTrue(maxDeleted < 64, "墓碑數: " + maxDeleted);
+        assertEquals(2, index.stats().documentCount());
+        List<InvertedIndex.Hit> hits = index.search(List.of("alpha"), 5);
+        assertEquals(1, hits.size());
+        assertEquals("alpha beta 版本 999", hits.get(0).document().getText());
+    }
+
+    @Test
+    @DisplayName("WAND Top-K 與暴力評分一致")
+    void testWandMatchesExhaustive() {
+        Random random = new Random(42);
+        String[] vocabulary = new String[200];
+        for (int i = 0; i < vocabulary.length; i++) {
+            vocabulary[i] = "w" + i;
+        }
+
+        InvertedIndex index = new InvertedIndex();
+        List<String> ids = new ArrayList<>();
+        for (int d = 0; d < 2000; d++) {
+            StringBuilder text = new StringBuilder();
+            int length = 5 + random.nextInt(60);
+            for (int t = 0; t < length; t++) {
+                // 偏態分布，模擬常見詞與罕見詞
+                int term = (int) (Math.pow(random.nextDouble(), 2) * vocabulary.length);
+                text.append(vocabulary[term]).append(' ');
+            }
+            index.add(doc("d" + d, text.toString()));
+            ids.add("d" + d);
+        }
+        for (int d = 0; d < 300; d++) {
+            index.delete("d" + (d * 5));
+        }
+
+        for (int q = 0; q < 50; q++) {
+            List<String> query = List.of(
+                    vocabulary[random.nextInt(vocabulary.length)],
+                    vocabulary[random.nextInt(vocabulary.length)],
+                    vocabulary[random.nextInt(vocabulary.length)]);
+
+            List<InvertedIndex.Hit> wand = index.search(query, 10);
+
+            List<double[]> exhaustive = new ArrayList<>();
+            for (int d = 0; d < ids.size(); d++) {
+                double score = index.score(ids.get(d), query);
+                if (score > 0) {
+                    exhaustive.add(new double[]{d, score});
+                }
+            }
+            exhaustive.sort(Comparator.comparingDouble((double[] e) -> e[1]).reversed());
+
+            assertEquals(Math.min(10, exhaustive.size()), wand.size());
+            for (int i = 0; i < wand.size(); i++) {
+                assertEquals(exhaustive.get(i)[1], wand.get(i).score(), 1e-9);
+            }
+        }
+    }
+
+    private static Document doc(String id, String text) {
+        return Document.builder().id(id).text(text).build();
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.advancedrag.index;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * SimHash 近似重複檢測測試
+ *
+ * 不依賴 Spring Boot 上下文，驗證：
+ * 1. 開頭不同的近似重複文本仍能檢出（舊的前綴比較會漏掉）
+ * 2. 分段桶查找結果與暴力兩兩比較一致
+ * 3. 元數據中的指紋優先於即時計算
+ */
+@DisplayName("近似重複檢測測試")
+class NearDuplicateDetectorTest {
+
+    private static final String ENGLISH = "Spring AI provides a portable API for vector stores such as PgVector, "
+            + "and the advisor chain lets us plug retrieval and reranking into every chat call. "
+            + "Hybrid retrieval combines dense vectors with BM25 keyword scores to improve recall "
+            + "on queries that mention product names, error codes or other rare identifiers.";
+
+    private static final String CHINESE = "檢索增強生成先從向量資料庫找出相關文檔，再把文檔放進提示詞讓模型回答。"
+            + "混合檢索同時使用向量相似度與關鍵詞分數，對專有名詞與錯誤代碼的查詢召回率更高。"
+            + "重排序階段以更精確的模型對候選文檔重新評分，只保留最相關的幾個片段。";
+
+    @Test
+    @DisplayName("開頭不同的近似重複文本可檢出，無關文本不誤判")
+    void testNearDuplicates() {
+        NearDuplicateDetector detector = NearDuplicateDetector.withSimilarity(0.9);
+        assertTrue(detector.addIfNotDuplicate(SimHash.fingerprint(ENGLISH)));
+        assertTrue(detector.addIfNotDuplicate(SimHash.fingerprint(CHINESE)));
+
+        assertFalse(detector.addIfNotDuplicate(SimHash.fingerprint("Overview: " + ENGLISH)));
+        assertFalse(detector.addIfNotDuplicate(SimHash.fingerprint("【摘要】" + CHINESE)));
+        assertFalse(detector.addIfNotDuplicate(SimHash.fingerprint(ENGLISH)));
+
+        assertTrue(detector.addIfNotDuplicate(SimHash.fingerprint(
+                "The weather in Taipei is humid in summer, so bring an umbrella and drink plenty of water.")));
+    }
+
+    @Test
+    @DisplayName("分段桶查找與暴力比較結果一致")
+    void testMatchesBruteForce() {
+        Random random = new Random(7);
+        for (int maxDistance : new int[]{0, 3, 6, 15}) {
+            NearDuplicateDetector detector = new NearDuplicateDetector(maxDistance);
+            List<Long> kept = new ArrayList<>();
+
+            for (int i = 0; i < 2000; i++) {
+                long fingerprint = kept.isEmpty() || random.nextBoolean()
+                        ? random.nextLong()
+                        : flipBits(kept.get(random.nextInt(kept.size())), random.nextInt(20), random);
+
+                boolean expected = kept.stream().anyMatch(k -> SimHash.distance(k, fingerprint) <= maxDistance);
+                assertEquals(expected, detector.isDuplicate(fingerprint), "maxDistance=" + maxDistance);
+                if (!expected) {
+                    detector.add(fingerprint);
+                    kept.add(fingerprint);
+                }
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("相似度閾值換算與元數據指紋")
+    void testThresholdAndMetadata() {
+        assertEquals(3, SimHash.maxDistance(0.95));
+        assertEquals(0, SimHash.maxDistance(1.0));
+        assertEquals(0L, SimHash.fingerprint(""));
+
+        long fingerprint = SimHash.fingerprint(ENGLISH);
+        Document stored = new Document("1", "other text",
+                Map.of(SimHash.METADATA_KEY, SimHash.toMetadataValue(fingerprint)));
+        assertEquals(fingerprint, SimHash.fingerprint(stored));
+
+        Document malformed = new Document("2", ENGLISH, Map.of(SimHash.METADATA_KEY, "not-hex"));
+        assertEquals(fingerprint, SimHash.fingerprint(malformed));
+    }
+
+    private long flipBits(long value, int count, Random random) {
+        for (int i = 0; i < count; i++) {
+            value ^= 1L << random.nextInt(64);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.advancedrag.model;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 檢索上下文測試
+ *
+ * 不依賴 Spring Boot 上下文，驗證：
+ * 1. 同一查詢的向量只生成一次，批次寫入不覆蓋已有向量
+ * 2. 文檔向量存入時正規化，文檔間相似度直接取內積
+ * 3. 批次查詢相似度：缺少文檔向量的位置為 NaN，缺少查詢向量時不寫入結果
+ */
+@DisplayName("檢索上下文測試")
+class RetrievalContextTest {
+
+    @Test
+    @DisplayName("查詢向量只生成一次")
+    void testQueryVectorCached() {
+        RetrievalContext context = new RetrievalContext();
+        AtomicInteger loads = new AtomicInteger();
+
+        float[] first = context.queryVector("什麼是 RAG", query -> {
+            loads.incrementAndGet();
+            return new float[]{1f, 0f};
+        });
+        float[] second = context.queryVector("什麼是 RAG", query -> {
+            loads.incrementAndGet();
+            return new float[]{0f, 1f};
+        });
+
+        assertSame(first, second);
+        assertEquals(1, loads.get());
+
+        context.putQueryVector("什麼是 RAG", new float[]{0f, 1f});
+        assertSame(first, context.getQueryVector("什麼是 RAG"), "已存在的向量不應被覆蓋");
+        context.putQueryVector("另一個查詢", new float[]{0f, 1f});
+        assertArrayEquals(new float[]{0f, 1f}, context.getQueryVector("另一個查詢"));
+        assertNull(context.getQueryVector("未生成"));
+        assertNull(context.getQueryVector(null));
+    }
+
+    @Test
+    @DisplayName("文檔向量存入時正規化")
+    void testDocumentVectorsNormalized() {
+        RetrievalContext context = new RetrievalContext();
+        context.putDocumentVector("doc-1", new float[]{3f, 4f});
+        context.putDocumentVector("doc-2", new float[]{0f, 2f});
+
+        assertArrayEquals(new float[]{0.6f, 0.8f}, context.getDocumentVector("doc-1"), 1e-6f);
+        assertEquals(0.8, context.documentSimilarity("doc-1", "doc-2"), 1e-6);
+        assertNull(context.documentSimilarity("doc-1", "missing"));
+        assertNull(context.querySimilarity("未生成", "doc-1"));
+    }
+
+    @Test
+    @DisplayName("批次計算查詢相似度")
+    void testQuerySimilarities() {
+        RetrievalContext context = new RetrievalContext();
+        context.putQueryVector("q", new float[]{2f, 0f});
+        context.putDocumentVector("same", new float[]{5f, 0f});
+        context.putDocumentVector("orthogonal", new float[]{0f, 1f});
+        context.putDocumentVector("diagonal", new float[]{1f, 1f});
+        context.putDocumentVector("other-dimensions", new float[]{1f, 0f, 0f});
+
+        float[] scores = new float[5];
+        assertTrue(context.querySimilarities("q",
+                List.of("same", "orthogonal", "diagonal", "missing", "other-dimensions"), scores));
+
+        assertEquals(1f, scores[0], 1e-6f);
+        assertEquals(0f, scores[1], 1e-6f);
+        assertEquals((float) Math.sqrt(0.5), scores[2], 1e-6f);
+        assertTrue(Float.isNaN(scores[3]));
+        assertTrue(Float.isNaN(scores[4]));
+        assertEquals(scores[2], context.querySimilarity("q", "diagonal"), 1e-6);
+
+        float[] untouched = {-1f};
+        assertFalse(context.querySimilarities("未生成", List.of("same"), untouched));
+        assertEquals(-1f, untouched[0]);
+    }
+}
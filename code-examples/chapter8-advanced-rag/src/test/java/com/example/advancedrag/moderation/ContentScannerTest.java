@@ -0,0 +1,114 @@
+package com.example.advancedrag.moderation;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 敏感詞自動機與單次掃描測試
+ *
+ * 不依賴 Spring Boot 上下文，驗證：
+ * 1. Aho-Corasick 匹配結果與逐詞 contains 一致（含重疊詞、後綴詞）
+ * 2. 全形/半形與大小寫正規化
+ * 3. 字符統計與重複片段檢測與舊算法一致
+ */
+@DisplayName("內容掃描測試")
+class ContentScannerTest {
+
+    @Test
+    @DisplayName("重疊詞與後綴詞都能匹配，結果不重複")
+    void testOverlappingTerms() {
+        AhoCorasickAutomaton automaton = AhoCorasickAutomaton.build(List.of("he", "she", "his", "hers", "賭博", "博彩"));
+
+        ContentScanner.ScanResult result = ContentScanner.scan("ushers 在線賭博彩票 she", automaton);
+
+        assertEquals(Set.of("he", "she", "hers", "賭博", "博彩"), Set.copyOf(result.matchedTerms()));
+        assertEquals(5, result.matchedTerms().size());
+    }
+
+    @Test
+    @DisplayName("全形與大小寫正規化")
+    void testFolding() {
+        AhoCorasickAutomaton automaton = AhoCorasickAutomaton.build(List.of("Casino", "ＶＩＰ"));
+
+        ContentScanner.ScanResult result = ContentScanner.scan("歡迎來到ＣＡＳＩＮＯ，vip 專區", automaton);
+
+        assertEquals(List.of("Casino", "ＶＩＰ"), result.matchedTerms());
+        assertEquals(1, AhoCorasickAutomaton.build(List.of("abc", "ＡＢＣ", " ")).size());
+    }
+
+    @Test
+    @DisplayName("隨機詞典：與逐詞 contains 結果一致")
+    void testMatchesNaiveContains() {
+        Random random = new Random(11);
+        String alphabet = "abc向量檢";
+        for (int round = 0; round < 200; round++) {
+            Set<String> terms = new LinkedHashSet<>();
+            for (int i = 0; i < 30; i++) {
+                terms.add(randomString(random, alphabet, 1 + random.nextInt(4)));
+            }
+            String text = randomString(random, alphabet, 80);
+
+            List<String> expected = new ArrayList<>();
+            for (String term : terms) {
+                if (text.contains(term)) {
+                    expected.add(term);
+                }
+            }
+
+            AhoCorasickAutomaton automaton = AhoCorasickAutomaton.build(terms);
+            assertEquals(Set.copyOf(expected), Set.copyOf(ContentScanner.scan(text, automaton).matchedTerms()));
+        }
+    }
+
+    @Test
+    @DisplayName("字符統計與重複片段：與逐位置 substring 算法一致")
+    void testStatisticsMatchLegacy() {
+        ContentScanner.ScanResult result = ContentScanner.scan(
+                "請聯絡 a@b.com 或訪問 https://example.com/x !!!", AhoCorasickAutomaton.empty());
+        assertEquals(1, result.atSignCount());
+        assertEquals(1, result.schemeSeparatorCount());
+        assertEquals(countSpecial("請聯絡 a@b.com 或訪問 https://example.com/x !!!"), result.specialCharCount());
+
+        Random random = new Random(5);
+        for (int round = 0; round < 500; round++) {
+            String text = randomString(random, "ab向", 20 + random.nextInt(60));
+            ContentScanner.ScanResult scan = ContentScanner.scan(text, AhoCorasickAutomaton.empty());
+            assertEquals(legacyMaxRepetition(text), scan.maxRepetitionLength(), text);
+        }
+    }
+
+    /**
+     * 舊版 checkRepetition 的算法
+     */
+    private int legacyMaxRepetition(String content) {
+        int maxRepetitionLength = 0;
+        int windowSize = Math.min(10, content.length() / 4);
+        for (int i = 0; i <= content.length() - windowSize * 2; i++) {
+            String window = content.substring(i, i + windowSize);
+            if (content.substring(i + windowSize).contains(window)) {
+                maxRepetitionLength = Math.max(maxRepetitionLength, windowSize);
+            }
+        }
+        return maxRepetitionLength;
+    }
+
+    private long countSpecial(String content) {
+        return content.chars().filter(c -> !Character.isLetterOrDigit(c) && !Character.isWhitespace(c)).count();
+    }
+
+    private String randomString(Random random, String alphabet, int length) {
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return builder.toString();
+    }
+}
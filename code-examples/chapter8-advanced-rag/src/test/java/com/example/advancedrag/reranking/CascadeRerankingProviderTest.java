@@ -0,0 +1,271 @@
+package com.example.advancedrag.reranking;
+
+import com.example.advancedrag.admission.CircuitBreaker;
+import com.example.advancedrag.properties.RAGProperties;
+import com.example.advancedrag.service.BM25Service;
+import com.example.advancedrag.service.RAGMetricsService;
+import com.example.advancedrag.service.RollingMetricsStore;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.web.client.RestClient;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 級聯 Re-ranking 測試
+ *
+ * 不依賴 Spring Boot 上下文，以本地 HTTP 替身模擬 Voyage AI 的延遲分佈，驗證：
+ * 1. 只有本地剪枝後的短名單送往遠端，遠端結果換算回原始下標
+ * 2. 遠端超過延遲預算時在預算內返回本地結果
+ * 3. 遠端持續失敗時熔斷，不再調用；熔斷期滿後放行探測調用並恢復
+ * 4. 探測調用被中斷時釋放探測名額，下一個調用可重新探測
+ */
+@DisplayName("級聯 Re-ranking 測試")
+class CascadeRerankingProviderTest {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private SimpleMeterRegistry meterRegistry;
+    private RAGMetricsService metricsService;
+
+    private final AtomicInteger requests = new AtomicInteger();
+    private final List<Integer> receivedDocuments = new ArrayList<>();
+    private volatile LongSupplier latencyMs = () -> 0;
+    private volatile int status = 200;
+
+    /**
+     * 熔斷器時鐘（納秒），熔斷期以推進時鐘模擬
+     */
+    private final AtomicLong clockNanos = new AtomicLong();
+
+    private List<Document> documents;
+    private LocalRerankingProvider localProvider;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/v1/rerank", this::handle);
+        server.start();
+
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        meterRegistry = new SimpleMeterRegistry();
+        metricsService = new RAGMetricsService(meterRegistry, new RollingMetricsStore());
+
+        documents = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            documents.add(Document.builder()
+                    .id("doc-" + i)
+                    .text("第 " + i + " 篇。" + "向量檢索與重排序。".repeat(i % 5))
+                    .metadata(Map.of("distance", (i * 37 % 100) / 100.0))
+                    .build());
+        }
+        BM25Service bm25Service = new BM25Service(new RAGProperties(),
+                new StaticListableBeanFactory().getBeanProvider(JdbcTemplate.class), "vector_store");
+        bm25Service.indexDocuments(documents);
+        localProvider = new LocalRerankingProvider(bm25Service, new RAGProperties());
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+        executor.close();
+    }
+
+    @Test
+    @DisplayName("只送出短名單，遠端結果換算回原始下標")
+    void testShortlistAndIndexMapping() {
+        // Voyage 典型延遲：50-150ms
+        Random random = new Random(7);
+        latencyMs = () -> 50 + random.nextInt(100);
+        CascadeRerankingProvider provider = provider(cascade(8, Duration.ofSeconds(2)));
+
+        List<RerankResult> local = localProvider.rerank("向量 重排序", documents, 8);
+        List<RerankResult> results = provider.rerank("向量 重排序", documents, 3);
+
+        assertEquals(List.of(8), receivedDocuments);
+        assertEquals(3, results.size());
+        // 替身按短名單逆序返回
+        for (int rank = 0; rank < results.size(); rank++) {
+            RerankResult expected = local.get(local.size() - 1 - rank);
+            assertEquals(expected.getOriginalIndex(), results.get(rank).getOriginalIndex());
+            assertSame(documents.get(results.get(rank).getOriginalIndex()), results.get(rank).getDocument());
+            assertEquals(rank, results.get(rank).getNewIndex());
+            assertEquals("cascade-voyage-ai", results.get(rank).getProviderName());
+        }
+        assertEquals(1.0, meterRegistry.counter("rag.rerank.cascade", "outcome", "remote").count());
+    }
+
+    @Test
+    @DisplayName("遠端超過預算時在預算內返回本地結果")
+    void testHedgedOnDeadline() {
+        // 長尾延遲：2s
+        latencyMs = () -> 2000;
+        CascadeRerankingProvider provider = provider(cascade(8, Duration.ofMillis(200)));
+
+        long startTime = System.nanoTime();
+        List<RerankResult> results = provider.rerank("向量 重排序", documents, 3);
+        long elapsedMs = (System.nanoTime() - startTime) / 1_000_000;
+
+        assertTrue(elapsedMs < 1000, "應在預算附近返回，實際: " + elapsedMs + "ms");
+        assertEquals(localProvider.rerank("向量 重排序", documents, 3).stream().map(RerankResult::getOriginalIndex).toList(),
+                results.stream().map(RerankResult::getOriginalIndex).toList());
+        assertTrue(results.stream().allMatch(r -> "local".equals(r.getProviderName())));
+        assertEquals(1.0, meterRegistry.counter("rag.rerank.cascade", "outcome", "hedged_timeout").count());
+    }
+
+    @Test
+    @DisplayName("持續失敗時熔斷，期滿後探測恢復")
+    void testCircuitBreaker() {
+        status = 503;
+        RAGProperties.RerankCascade properties = cascade(8, Duration.ofSeconds(2));
+        properties.setMinimumCalls(2);
+        properties.setSlidingWindowSize(4);
+        properties.setOpenDuration(Duration.ofMillis(300));
+        CascadeRerankingProvider provider = provider(properties);
+
+        provider.rerank("向量", documents, 3);
+        provider.rerank("向量", documents, 3);
+        assertEquals(CircuitBreaker.State.OPEN, provider.getCircuitState());
+
+        List<RerankResult> results = provider.rerank("向量", documents, 3);
+        assertEquals(2, requests.get(), "熔斷期間不應調用遠端");
+        assertEquals(3, results.size());
+        assertEquals(1.0, meterRegistry.counter("rag.rerank.cascade", "outcome", "circuit_open").count());
+
+        status = 200;
+        clockNanos.addAndGet(Duration.ofMillis(400).toNanos());
+        results = provider.rerank("向量", documents, 3);
+        assertEquals(3, requests.get());
+        assertEquals("cascade-voyage-ai", results.get(0).getProviderName());
+        assertEquals(CircuitBreaker.State.CLOSED, provider.getCircuitState());
+    }
+
+    @Test
+    @DisplayName("探測調用被中斷時釋放探測名額")
+    void testInterruptedProbeReleasesCircuit() throws InterruptedException {
+        status = 503;
+        RAGProperties.RerankCascade properties = cascade(8, Duration.ofSeconds(5));
+        properties.setMinimumCalls(2);
+        properties.setSlidingWindowSize(4);
+        properties.setOpenDuration(Duration.ofMillis(300));
+        CascadeRerankingProvider provider = provider(properties);
+        provider.rerank("向量", documents, 3);
+        provider.rerank("向量", documents, 3);
+        assertEquals(CircuitBreaker.State.OPEN, provider.getCircuitState());
+
+        // 熔斷期滿，探測調用在等待遠端時被中斷
+        status = 200;
+        latencyMs = () -> 2000;
+        clockNanos.addAndGet(Duration.ofMillis(400).toNanos());
+        AtomicReference<List<RerankResult>> probeResults = new AtomicReference<>();
+        AtomicBoolean interruptFlagKept = new AtomicBoolean();
+        Thread caller = Thread.ofVirtual().start(() -> {
+            probeResults.set(provider.rerank("向量", documents, 3));
+            interruptFlagKept.set(Thread.currentThread().isInterrupted());
+        });
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (requests.get() < 3 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        caller.interrupt();
+        caller.join(5000);
+
+        assertEquals(3, probeResults.get().size());
+        assertTrue(probeResults.get().stream().allMatch(r -> "local".equals(r.getProviderName())));
+        assertTrue(interruptFlagKept.get(), "應保留調用方的中斷狀態");
+        assertEquals(CircuitBreaker.State.HALF_OPEN, provider.getCircuitState());
+        assertEquals(1.0, meterRegistry.counter("rag.rerank.cascade", "outcome", "interrupted").count());
+
+        // 探測名額已釋放：下一個調用成為新的探測並恢復
+        latencyMs = () -> 0;
+        List<RerankResult> results = provider.rerank("向量", documents, 3);
+        assertEquals(4, requests.get());
+        assertEquals("cascade-voyage-ai", results.get(0).getProviderName());
+        assertEquals(CircuitBreaker.State.CLOSED, provider.getCircuitState());
+    }
+
+    private CascadeRerankingProvider provider(RAGProperties.RerankCascade properties) {
+        VoyageRerankingProvider remote = new VoyageRerankingProvider(RestClient.builder().build(), "test-key",
+                "rerank-2.5", "http://127.0.0.1:" + server.getAddress().getPort() + "/v1/rerank");
+        CircuitBreaker circuitBreaker = new CircuitBreaker(remote.getProviderName(),
+                properties.getFailureRateThreshold(), properties.getMinimumCalls(),
+                properties.getSlidingWindowSize(), properties.getOpenDuration(), clockNanos::get);
+        return new CascadeRerankingProvider(localProvider, remote, executor, circuitBreaker, metricsService, properties);
+    }
+
+    private RAGProperties.RerankCascade cascade(int shortlistSize, Duration remoteBudget) {
+        RAGProperties.RerankCascade properties = new RAGProperties.RerankCascade();
+        properties.setEnabled(true);
+        properties.setShortlistSize(shortlistSize);
+        properties.setRemoteBudget(remoteBudget);
+        return properties;
+    }
+
+    /**
+     * Voyage AI 替身：延遲後按收到文檔的逆序返回 top_k 個結果
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        JsonNode request = OBJECT_MAPPER.readTree(exchange.getRequestBody());
+        int count = request.get("documents").size();
+        int topK = request.get("top_k").asInt();
+        synchronized (receivedDocuments) {
+            receivedDocuments.add(count);
+        }
+
+        try {
+            Thread.sleep(latencyMs.getAsLong());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        StringBuilder body = new StringBuilder("{\"object\":\"list\",\"model\":\"rerank-2.5\",\"data\":[");
+        for (int rank = 0; rank < topK; rank++) {
+            if (rank > 0) {
+                body.append(',');
+            }
+            body.append("{\"index\":").append(count - 1 - rank)
+                    .append(",\"relevance_score\":").append(1.0 - rank * 0.1).append('}');
+        }
+        body.append("]}");
+
+        byte[] bytes = status == 200
+                ? body.toString().getBytes(StandardCharsets.UTF_8)
+                : "{\"detail\":\"unavailable\"}".getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
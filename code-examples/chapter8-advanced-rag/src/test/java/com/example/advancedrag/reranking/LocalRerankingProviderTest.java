@@ -0,0 +1,138 @@
+package com.example.advancedrag.reranking;
+
+import com.example.advancedrag.properties.RAGProperties;
+import com.example.advancedrag.service.BM25Service;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 本地 Re-ranking 評分引擎測試
+ *
+ * 不依賴 Spring Boot 上下文，驗證：
+ * 1. 最小堆選出的前 K 名與完整排序一致（同分保持原始順序）
+ * 2. 並行與串行評分結果一致，名次與原始下標正確
+ * 3. 文檔特徵快取在時間戳變更後重新計算
+ * 4. 寫入時預先計算的特徵優先讀取，版本不符時即時計算
+ */
+@DisplayName("本地 Re-ranking 評分引擎測試")
+class LocalRerankingProviderTest {
+
+    @Test
+    @DisplayName("最小堆前 K 名與完整排序一致")
+    void testSelectTopK() {
+        Random random = new Random(42);
+        double[] scores = new double[200];
+        for (int i = 0; i < scores.length; i++) {
+            // 量化到 0.05 以製造大量同分
+            scores[i] = Math.round(random.nextDouble() * 20) / 20.0;
+        }
+
+        for (int k : new int[]{0, 1, 5, 50, 200}) {
+            int[] expected = IntStream.range(0, scores.length).boxed()
+                    .sorted(Comparator.comparingDouble((Integer i) -> scores[i]).reversed())
+                    .limit(k)
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+            assertArrayEquals(expected, LocalRerankingProvider.selectTopK(scores, k), "k=" + k);
+        }
+    }
+
+    @Test
+    @DisplayName("並行與串行評分結果一致")
+    void testParallelMatchesSequential() {
+        List<Document> documents = new ArrayList<>();
+        for (int i = 0; i < 150; i++) {
+            documents.add(Document.builder()
+                    .id("doc-" + i)
+                    .text("Spring AI 檢索增強生成，第 " + i + " 篇。" + "向量資料庫與重排序。".repeat(i % 7))
+                    .metadata(Map.of("distance", (i * 37 % 100) / 100.0))
+                    .build());
+        }
+        BM25Service bm25Service = bm25Service(documents);
+
+        List<RerankResult> sequential = provider(bm25Service, 1000).rerank("向量 重排序", documents, 10);
+        List<RerankResult> parallel = provider(bm25Service, 1).rerank("向量 重排序", documents, 10);
+
+        assertEquals(10, sequential.size());
+        assertEquals(sequential.stream().map(RerankResult::getOriginalIndex).toList(),
+                parallel.stream().map(RerankResult::getOriginalIndex).toList());
+        for (int rank = 0; rank < sequential.size(); rank++) {
+            RerankResult result = sequential.get(rank);
+            assertEquals(rank, result.getNewIndex());
+            assertSame(documents.get(result.getOriginalIndex()), result.getDocument());
+            assertEquals(result.getRelevanceScore(), parallel.get(rank).getRelevanceScore(), 1e-12);
+            if (rank > 0) {
+                assertTrue(sequential.get(rank - 1).getRelevanceScore() >= result.getRelevanceScore());
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("時間戳變更後重新計算新鮮度")
+    void testFeatureCacheInvalidation() {
+        Document stale = Document.builder().id("doc-1").text("內容")
+                .metadata(Map.of("updated_at", LocalDateTime.now().minusYears(2).toString()))
+                .build();
+        Document fresh = Document.builder().id("doc-1").text("內容")
+                .metadata(Map.of("updated_at", LocalDateTime.now().minusDays(1).toString()))
+                .build();
+        LocalRerankingProvider provider = provider(bm25Service(List.of()), 64);
+
+        double staleScore = provider.rerank("查詢", List.of(stale), 1).get(0).getRelevanceScore();
+        double freshScore = provider.rerank("查詢", List.of(fresh), 1).get(0).getRelevanceScore();
+
+        // 新鮮度 0.5 -> 1.0，權重 0.1
+        assertEquals(0.05, freshScore - staleScore, 1e-9);
+    }
+
+    @Test
+    @DisplayName("優先讀取預先計算的特徵，版本不符時即時計算")
+    void testPrecomputedFeatures() {
+        Map<String, Object> metadata = Map.of("title", "標題", "created_at", LocalDateTime.now().toString());
+        RerankFeatures extracted = RerankFeatures.extract("短內容", metadata);
+        assertEquals(0.6, extracted.quality(), 1e-9);
+        assertEquals(extracted, RerankFeatures.fromMetadata(
+                Map.of(RerankFeatures.METADATA_KEY, extracted.toMetadataValue())));
+        assertNull(RerankFeatures.fromMetadata(
+                Map.of(RerankFeatures.METADATA_KEY, Map.of("v", RerankFeatures.VERSION + 1, "q", 1.0))));
+
+        // 預先計算的品質分數（1.0）與即時計算（0.5）不同，以此判斷讀取來源
+        Document precomputed = Document.builder().id("doc-1").text("內容")
+                .metadata(Map.of(RerankFeatures.METADATA_KEY, Map.of("v", RerankFeatures.VERSION, "q", 1.0)))
+                .build();
+        Document legacy = Document.builder().id("doc-2").text("內容")
+                .metadata(Map.of(RerankFeatures.METADATA_KEY, Map.of("v", 0, "q", 1.0)))
+                .build();
+        List<RerankResult> results = provider(bm25Service(List.of()), 64).rerank("查詢", List.of(legacy, precomputed), 2);
+
+        assertEquals("doc-1", results.get(0).getDocument().getId());
+        // 品質 1.0 -> 0.5，權重 0.2
+        assertEquals(0.1, results.get(0).getRelevanceScore() - results.get(1).getRelevanceScore(), 1e-9);
+    }
+
+    private LocalRerankingProvider provider(BM25Service bm25Service, int parallelThreshold) {
+        RAGProperties properties = new RAGProperties();
+        properties.getReranking().setLocalParallelThreshold(parallelThreshold);
+        return new LocalRerankingProvider(bm25Service, properties);
+    }
+
+    private BM25Service bm25Service(List<Document> documents) {
+        BM25Service service = new BM25Service(new RAGProperties(),
+                new StaticListableBeanFactory().getBeanProvider(JdbcTemplate.class), "vector_store");
+        service.indexDocuments(documents);
+        return service;
+    }
+}
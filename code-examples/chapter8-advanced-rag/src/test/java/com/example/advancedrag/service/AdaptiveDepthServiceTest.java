@@ -0,0 +1,189 @@
+package com.example.advancedrag.service;
+
+import com.example.advancedrag.model.DepthDecision;
+import com.example.advancedrag.properties.RAGProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntToDoubleFunction;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 自適應檢索深度測試
+ *
+ * 不依賴 Spring Boot 上下文（以分數已知的候選列表代替向量庫），驗證：
+ * 1. 分數斷崖、取盡時在第一頁停止
+ * 2. 分數平坦時逐頁取回，直到頁尾落出相關分數帶
+ * 3. 路由學習第一頁深度，困難查詢一次取足，流量變簡單後回落
+ * 4. 分數分佈熵與候選沒有分數時的處理
+ * 5. 默認最大深度不超過 coarseTopK，不支援偏移的數據源只取一次
+ */
+@DisplayName("自適應檢索深度測試")
+class AdaptiveDepthServiceTest {
+
+    private static final int FINAL_TOP_K = 5;
+    private static final int COARSE_TOP_K = 30;
+
+    /**
+     * 前兩個候選明顯領先，之後分數斷崖
+     */
+    private static final IntToDoubleFunction EASY = i -> i < 2 ? 0.92 - i * 0.02 : 0.80 - i * 0.002;
+
+    /**
+     * 分數緩慢下降，第 34 個候選起落出相關分數帶
+     */
+    private static final IntToDoubleFunction HARD = i -> 0.90 - i * 0.003;
+
+    private RAGProperties properties;
+    private SimpleMeterRegistry meterRegistry;
+    private AdaptiveDepthService service;
+    private final List<int[]> fetches = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        properties = new RAGProperties();
+        // 允許加深到 coarseTopK 以上，驗證逐頁取回與路由學習
+        properties.getAdaptiveDepth().setMaxDepth(60);
+        meterRegistry = new SimpleMeterRegistry();
+        service = new AdaptiveDepthService(properties, new RAGMetricsService(meterRegistry, new RollingMetricsStore()));
+    }
+
+    @Test
+    @DisplayName("分數斷崖與取盡時在第一頁停止")
+    void testStopsAtFirstPage() {
+        AdaptiveDepthService.Result result = retrieve("standard", corpus(80, EASY));
+
+        DepthDecision decision = result.decision();
+        assertEquals(AdaptiveDepthService.STOP_SCORE_GAP, decision.getStopReason());
+        assertEquals(10, decision.getDepth());
+        assertEquals(1, decision.getPages());
+        assertEquals(0.104, decision.getMaxGap(), 1e-9);
+        assertEquals(1, fetches.size());
+
+        fetches.clear();
+        decision = retrieve("standard", corpus(6, HARD)).decision();
+        assertEquals(AdaptiveDepthService.STOP_EXHAUSTED, decision.getStopReason());
+        assertEquals(6, decision.getDepth());
+
+        assertEquals(2, meterRegistry.find("rag.retrieval.depth").tag("route", "standard")
+                .summaries().stream().mapToLong(summary -> summary.count()).sum());
+    }
+
+    @Test
+    @DisplayName("分數平坦時逐頁取回")
+    void testFetchesFurtherPages() {
+        AdaptiveDepthService.Result result = retrieve("hybrid", corpus(80, HARD));
+
+        DepthDecision decision = result.decision();
+        assertEquals(AdaptiveDepthService.STOP_THRESHOLD_COVERAGE, decision.getStopReason());
+        assertEquals(40, decision.getDepth());
+        assertEquals(4, decision.getPages());
+        assertTrue(decision.getCoverage() < 1);
+        assertEquals(List.of(0, 10, 20, 30), fetches.stream().map(fetch -> fetch[0]).toList());
+        // 候選不重複且保持相似度順序
+        List<String> ids = result.documents().stream().map(Document::getId).toList();
+        assertEquals(40, ids.stream().distinct().count());
+        assertEquals("doc-39", ids.get(39));
+
+        // 最大深度不低於請求的 coarseTopK
+        properties.getAdaptiveDepth().setMaxDepth(20);
+        properties.getAdaptiveDepth().setRelevanceMargin(1.0);
+        fetches.clear();
+        decision = retrieve("hybrid", corpus(80, HARD)).decision();
+        assertEquals(AdaptiveDepthService.STOP_MAX_DEPTH, decision.getStopReason());
+        assertEquals(COARSE_TOP_K, decision.getDepth());
+    }
+
+    @Test
+    @DisplayName("按路由學習第一頁深度")
+    void testLearnsRouteDefaults() {
+        int minSamples = properties.getAdaptiveDepth().getMinSamples();
+        for (int i = 0; i < minSamples; i++) {
+            assertFalse(retrieve("multi_query", corpus(80, HARD)).decision().getLearned());
+            retrieve("standard", corpus(80, EASY));
+        }
+
+        // 困難路由一次取足 40 個候選，簡單路由維持最少深度
+        fetches.clear();
+        DepthDecision hard = retrieve("multi_query", corpus(80, HARD)).decision();
+        assertTrue(hard.getLearned());
+        assertEquals(40, hard.getInitialDepth());
+        assertEquals(1, hard.getPages());
+        assertEquals(40, hard.getDepth());
+        DepthDecision easy = retrieve("standard", corpus(80, EASY)).decision();
+        assertEquals(10, easy.getInitialDepth());
+
+        // 流量變簡單後，足夠深度以已取回的分數回推，第一頁深度隨之回落
+        for (int i = 0; i < minSamples * 4; i++) {
+            retrieve("multi_query", corpus(80, EASY));
+        }
+        assertEquals(10, retrieve("multi_query", corpus(80, HARD)).decision().getInitialDepth());
+    }
+
+    @Test
+    @DisplayName("分佈熵與沒有分數的候選")
+    void testEntropyAndMissingScores() {
+        double[] flat = {0.8, 0.8, 0.8, 0.8};
+        assertEquals(1.0, AdaptiveDepthService.normalizedEntropy(flat, 4, 0.05), 1e-9);
+        double[] peaked = {0.95, 0.70, 0.69, 0.68};
+        assertTrue(AdaptiveDepthService.normalizedEntropy(peaked, 4, 0.05) < 0.1);
+        assertEquals(0, AdaptiveDepthService.normalizedEntropy(peaked, 1, 0.05));
+
+        assertEquals(10, AdaptiveDepthService.alignToPage(3, 10, 60, 10));
+        assertEquals(30, AdaptiveDepthService.alignToPage(21, 10, 60, 10));
+        assertEquals(60, AdaptiveDepthService.alignToPage(95, 10, 60, 10));
+
+        // 沒有相似度分數時取到固定深度
+        List<Document> unscored = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            unscored.add(Document.builder().id("doc-" + i).text("文檔 " + i).build());
+        }
+        AdaptiveDepthService.Result result = retrieve("advisor", unscored);
+        assertEquals(AdaptiveDepthService.STOP_NO_SCORES, result.decision().getStopReason());
+        assertEquals(COARSE_TOP_K, result.documents().size());
+    }
+
+    @Test
+    @DisplayName("默認最大深度與一次取足的數據源")
+    void testDefaultMaxDepthAndPrefetching() {
+        service = new AdaptiveDepthService(new RAGProperties(),
+                new RAGMetricsService(meterRegistry, new RollingMetricsStore()));
+        assertEquals(COARSE_TOP_K, service.maxDepth(COARSE_TOP_K), "默認最大深度不應超過 coarseTopK");
+
+        List<Document> corpus = corpus(80, HARD);
+        List<Integer> prefetches = new ArrayList<>();
+        AdaptiveDepthService.Result result = service.retrieve("hybrid", FINAL_TOP_K, COARSE_TOP_K,
+                AdaptiveDepthService.prefetching(service.maxDepth(COARSE_TOP_K), topK -> {
+                    prefetches.add(topK);
+                    return corpus.subList(0, topK);
+                }));
+
+        DepthDecision decision = result.decision();
+        assertEquals(AdaptiveDepthService.STOP_MAX_DEPTH, decision.getStopReason());
+        assertEquals(COARSE_TOP_K, decision.getDepth());
+        assertTrue(decision.getPages() > 1);
+        assertEquals(List.of(COARSE_TOP_K), prefetches, "逐頁評估只應取回一次");
+        assertEquals(corpus.subList(0, COARSE_TOP_K), result.documents());
+    }
+
+    private AdaptiveDepthService.Result retrieve(String route, List<Document> corpus) {
+        return service.retrieve(route, FINAL_TOP_K, COARSE_TOP_K, (offset, limit) -> {
+            fetches.add(new int[]{offset, limit});
+            return corpus.subList(Math.min(offset, corpus.size()), Math.min(offset + limit, corpus.size()));
+        });
+    }
+
+    private List<Document> corpus(int size, IntToDoubleFunction score) {
+        List<Document> documents = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            documents.add(Document.builder().id("doc-" + i).text("文檔 " + i).score(score.applyAsDouble(i)).build());
+        }
+        return documents;
+    }
+}
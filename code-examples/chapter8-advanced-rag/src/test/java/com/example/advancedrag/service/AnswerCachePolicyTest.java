@@ -0,0 +1,75 @@
+package com.example.advancedrag.service;
+
+import com.example.advancedrag.dto.ModerationResult;
+import com.example.advancedrag.model.StageTimeline;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 語義快取寫入條件測試
+ *
+ * 不依賴 Spring Boot 上下文，驗證：
+ * 1. 生成成功、審核通過且沒有階段降級的答案可寫入快取（未啟用審核時同樣可寫入）
+ * 2. 生成失敗的錯誤提示不寫入快取
+ * 3. 未通過審核而被替換的回覆不寫入快取
+ * 4. 有階段逾時降級時不寫入快取
+ */
+@DisplayName("語義快取寫入條件測試")
+class AnswerCachePolicyTest {
+
+    private static final AdvancedRAGService.GeneratedAnswer ANSWER =
+            new AdvancedRAGService.GeneratedAnswer("Spring AI 是 Spring 的 AI 整合框架。", true);
+
+    @Test
+    @DisplayName("正常生成且審核通過的答案可寫入快取")
+    void testCachesGeneratedAndPassedAnswer() {
+        assertTrue(AdvancedRAGService.isCacheable(ANSWER, moderation(true), completedTimeline()));
+        assertTrue(AdvancedRAGService.isCacheable(ANSWER, null, completedTimeline()), "未啟用審核時應可寫入");
+    }
+
+    @Test
+    @DisplayName("生成失敗的錯誤提示不寫入快取")
+    void testSkipsFailedGeneration() {
+        AdvancedRAGService.GeneratedAnswer failed =
+                AdvancedRAGService.GeneratedAnswer.failed("抱歉，生成答案時發生錯誤：連線逾時");
+
+        assertFalse(failed.succeeded());
+        assertFalse(AdvancedRAGService.isCacheable(failed, moderation(true), completedTimeline()));
+        assertFalse(AdvancedRAGService.isCacheable(failed, null, completedTimeline()));
+    }
+
+    @Test
+    @DisplayName("未通過審核的答案不寫入快取")
+    void testSkipsFilteredAnswer() {
+        assertFalse(AdvancedRAGService.isCacheable(ANSWER, moderation(false), completedTimeline()));
+    }
+
+    @Test
+    @DisplayName("有階段降級時不寫入快取")
+    void testSkipsDegradedTimeline() {
+        StageTimeline timeline = completedTimeline();
+        timeline.markStatus("answer_moderation", "timeout");
+
+        assertFalse(AdvancedRAGService.isCacheable(ANSWER, moderation(true), timeline));
+    }
+
+    private static StageTimeline completedTimeline() {
+        StageTimeline timeline = new StageTimeline();
+        timeline.record("generation", List.of(), () -> "ok");
+        timeline.record("answer_moderation", List.of("generation"), () -> "ok");
+        return timeline;
+    }
+
+    private static ModerationResult moderation(boolean passed) {
+        return ModerationResult.builder()
+                .flagged(!passed)
+                .passed(passed)
+                .moderationScore(passed ? 0.0 : 0.9)
+                .reason(passed ? "內容正常" : "答案包含不當內容")
+                .build();
+    }
+}
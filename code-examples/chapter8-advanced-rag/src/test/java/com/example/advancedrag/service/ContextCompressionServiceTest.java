@@ -0,0 +1,113 @@
+package com.example.advancedrag.service;
+
+import com.example.advancedrag.model.ScoredDocument;
+import com.example.advancedrag.properties.RAGProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 上下文壓縮測試
+ *
+ * 不依賴 Spring Boot 上下文（以關鍵詞向量代替 Embedding 模型），驗證：
+ * 1. 保留與查詢最相似的句子及相鄰句，按原文順序拼接
+ * 2. 所有文檔的句子以一次批次生成向量，短文檔不壓縮也不生成向量
+ * 3. 相鄰句窗口與目標 token 數
+ */
+@DisplayName("上下文壓縮測試")
+class ContextCompressionServiceTest {
+
+    private static final float[] QUERY_VECTOR = {1f, 0f};
+
+    private RAGProperties properties;
+    private TokenCounter tokenCounter;
+    private ContextCompressionService service;
+    private final List<List<String>> embedCalls = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        properties = new RAGProperties();
+        properties.getContextCompression().setRatio(0.3);
+        properties.getContextCompression().setMinDocumentTokens(40);
+        tokenCounter = new TokenCounter(properties);
+        service = new ContextCompressionService(properties, null, tokenCounter,
+                new RAGMetricsService(new SimpleMeterRegistry(), new RollingMetricsStore()));
+    }
+
+    @Test
+    @DisplayName("保留相關句子及相鄰句")
+    void testKeepsRelevantSentences() {
+        List<String> sentences = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            sentences.add(i == 6 ? "語義快取以查詢向量判斷相似問題。" : "第 " + i + " 句描述與主題無關的部署細節。");
+        }
+        String text = String.join("", sentences);
+        // 目標約 2.4 句：錨點句連同前後各一句即達標
+        properties.getContextCompression().setRatio(0.2);
+
+        ContextCompressionService.Compression compression = service.compress(QUERY_VECTOR,
+                List.of(scored("doc-1", text)), embedder());
+
+        String compressed = compression.documents().get(0).getDocument().getText();
+        assertEquals(sentences.get(5) + sentences.get(6) + sentences.get(7), compressed);
+        assertTrue(compression.tokensSaved() > 0);
+        assertEquals(tokenCounter.count(text), compression.originalTokens());
+        assertEquals("doc-1", compression.documents().get(0).getDocument().getId());
+    }
+
+    @Test
+    @DisplayName("一次批次生成向量，短文檔不壓縮")
+    void testSingleBatchAndShortDocuments() {
+        String longText = "語義快取命中時直接返回答案。".repeat(3) + "分塊大小影響召回率。".repeat(9);
+        String shortText = "短文檔。";
+        List<ScoredDocument> documents = List.of(scored("long-1", longText), scored("short", shortText),
+                scored("long-2", longText));
+
+        ContextCompressionService.Compression compression = service.compress(QUERY_VECTOR, documents, embedder());
+
+        assertEquals(1, embedCalls.size());
+        assertEquals(24, embedCalls.get(0).size());
+        assertSame(documents.get(1), compression.documents().get(1));
+        assertTrue(compression.compressedTokens() < compression.originalTokens());
+    }
+
+    @Test
+    @DisplayName("相鄰句窗口與目標 token 數")
+    void testSelectSentences() {
+        double[] similarities = {0.1, 0.2, 0.9, 0.3, Double.NEGATIVE_INFINITY, 0.8};
+        int[] tokens = {10, 10, 10, 10, 1, 10};
+
+        assertArrayEquals(new boolean[]{false, true, true, true, false, false},
+                ContextCompressionService.selectSentences(similarities, tokens, 25, 1));
+        assertArrayEquals(new boolean[]{false, false, true, false, false, true},
+                ContextCompressionService.selectSentences(similarities, tokens, 15, 0));
+        // 目標超過總量時全部保留（沒有文字的句子只作為相鄰句保留）
+        assertArrayEquals(new boolean[]{true, true, true, true, true, true},
+                ContextCompressionService.selectSentences(similarities, tokens, 1000, 1));
+    }
+
+    /**
+     * 含「快取」的句子與查詢同向，其餘正交
+     */
+    private Function<List<String>, List<float[]>> embedder() {
+        return texts -> {
+            embedCalls.add(texts);
+            return texts.stream()
+                    .map(text -> text.contains("快取") ? new float[]{1f, 0f} : new float[]{0f, 1f})
+                    .toList();
+        };
+    }
+
+    private ScoredDocument scored(String id, String text) {
+        return ScoredDocument.of(Document.builder().id(id).text(text).metadata(Map.of()).build(), 0.9);
+    }
+}
@@ -0,0 +1,155 @@
+package com.example.advancedrag.service;
+
+import com.example.advancedrag.model.ScoredDocument;
+import com.example.advancedrag.properties.RAGProperties;
+import com.example.advancedrag.util.TextUtil;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 上下文打包測試
+ *
+ * 不依賴 Spring Boot 上下文，驗證：
+ * 1. 中英文內容都以真實 token 數控制在預算內，文檔 token 數按分塊快取
+ * 2. 背包選擇在預算內最大化總相關性，縮放容量時不超出預算
+ * 3. 剩餘預算以句子邊界放入部分文檔
+ */
+@DisplayName("上下文打包測試")
+class ContextOptimizationServiceTest {
+
+    private TokenCounter tokenCounter;
+    private ContextOptimizationService service;
+
+    @BeforeEach
+    void setUp() {
+        RAGProperties properties = new RAGProperties();
+        tokenCounter = new TokenCounter(properties);
+        service = new ContextOptimizationService(properties, tokenCounter, null);
+    }
+
+    @Test
+    @DisplayName("中英文內容都不超出 token 預算")
+    void testTokenBudget() {
+        String chinese = "檢索增強生成將外部知識注入提示詞，降低模型幻覺。".repeat(20);
+        String english = "Retrieval augmented generation injects external knowledge into the prompt. ".repeat(20);
+        // 中文每字符的 token 數明顯高於英文
+        assertTrue((double) tokenCounter.count(chinese) / chinese.length()
+                > 2 * (double) tokenCounter.count(english) / english.length());
+
+        for (String text : List.of(chinese, english)) {
+            List<ScoredDocument> documents = List.of(
+                    scored("a", text, 0.9), scored("b", text, 0.8), scored("c", text, 0.7));
+            List<ScoredDocument> packed = service.packToTokenBudget(documents, 600);
+
+            assertFalse(packed.isEmpty());
+            assertTrue(packedTokens(packed) <= 600, "超出預算: " + packedTokens(packed));
+        }
+
+        long cached = tokenCounter.cacheSize();
+        tokenCounter.count(Document.builder().id("a").text(chinese).build());
+        assertEquals(cached, tokenCounter.cacheSize(), "相同分塊應命中快取");
+    }
+
+    @Test
+    @DisplayName("預算內最大化總相關性")
+    void testKnapsackSelection() {
+        String shortText = "向量資料庫以近似最近鄰索引加速檢索。".repeat(6);
+        String longText = "重排序模型以交叉編碼器計算查詢與文檔的相關性。".repeat(30);
+        List<ScoredDocument> documents = List.of(
+                scored("long", longText, 0.9), scored("short-1", shortText, 0.8), scored("short-2", shortText, 0.7));
+        int budget = tokenCounter.count(shortText) * 2 + 80;
+
+        List<ScoredDocument> packed = service.packToTokenBudget(documents, budget);
+
+        // 兩篇短文檔（0.8 + 0.7）優於一篇長文檔（0.9），並保持排名順序
+        List<String> ids = packed.stream().map(doc -> doc.getDocument().getId()).toList();
+        assertTrue(ids.containsAll(List.of("short-1", "short-2")), ids.toString());
+        assertEquals(shortText, packed.get(ids.indexOf("short-1")).getDocument().getText());
+
+        // 縮放容量時與暴力解比較，且不超出容量
+        Random random = new Random(11);
+        for (int round = 0; round < 50; round++) {
+            int n = 1 + random.nextInt(10);
+            int[] weights = new int[n];
+            double[] values = new double[n];
+            for (int i = 0; i < n; i++) {
+                weights[i] = 1 + random.nextInt(round % 2 == 0 ? 60 : 6000);
+                values[i] = random.nextDouble();
+            }
+            int capacity = round % 2 == 0 ? 150 : 15000;
+            boolean[] selected = ContextOptimizationService.selectKnapsack(weights, values, capacity);
+
+            int weight = 0;
+            double value = 0;
+            for (int i = 0; i < n; i++) {
+                if (selected[i]) {
+                    weight += weights[i];
+                    value += values[i];
+                }
+            }
+            assertTrue(weight <= capacity);
+            if (round % 2 == 0) {
+                assertEquals(bruteForce(weights, values, capacity), value, 1e-9);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("剩餘預算以句子邊界放入部分文檔")
+    void testPartialDocument() {
+        String first = "第一篇文檔介紹語義快取。".repeat(5);
+        String second = "第二篇文檔說明分塊策略。每個分塊保留標題。重疊視窗避免語義斷裂。".repeat(10);
+        List<ScoredDocument> documents = List.of(scored("first", first, 0.9), scored("second", second, 0.8));
+        int budget = tokenCounter.count(first) + tokenCounter.count(second) / 2;
+
+        List<ScoredDocument> packed = service.packToTokenBudget(documents, budget);
+
+        assertEquals(2, packed.size());
+        assertEquals(first, packed.get(0).getDocument().getText());
+        String partial = packed.get(1).getDocument().getText();
+        assertTrue(partial.endsWith("。..."), partial);
+        String prefix = partial.substring(0, partial.length() - 3);
+        assertTrue(second.startsWith(prefix));
+        assertEquals(prefix, String.join("", TextUtil.splitSentences(prefix)));
+        assertTrue(packedTokens(packed) <= budget);
+    }
+
+    private int packedTokens(List<ScoredDocument> packed) {
+        StringBuilder context = new StringBuilder("以下是檢索到的相關文檔：\n\n");
+        for (int i = 0; i < packed.size(); i++) {
+            context.append(String.format("【文檔 %d】", i + 1)).append('\n')
+                    .append(packed.get(i).getDocument().getText()).append("\n\n");
+        }
+        return tokenCounter.count(context.toString());
+    }
+
+    private double bruteForce(int[] weights, double[] values, int capacity) {
+        double best = 0;
+        for (int mask = 0; mask < 1 << weights.length; mask++) {
+            int weight = 0;
+            double value = 0;
+            for (int i = 0; i < weights.length; i++) {
+                if ((mask & 1 << i) != 0) {
+                    weight += weights[i];
+                    value += values[i];
+                }
+            }
+            if (weight <= capacity) {
+                best = Math.max(best, value);
+            }
+        }
+        return best;
+    }
+
+    private ScoredDocument scored(String id, String text, double score) {
+        return ScoredDocument.of(Document.builder().id(id).text(text).metadata(Map.of()).build(), score);
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.advancedrag.service;
+
+import com.example.advancedrag.dto.ModerationResult;
+import com.example.advancedrag.properties.ModerationProperties;
+import com.example.advancedrag.properties.RAGProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 雙重內容審核測試
+ *
+ * 不依賴 Spring Boot 上下文（以記錄請求的 RestTemplate 代替 Moderation API，
+ * 自定義規則以「敏感」開頭的內容判定為違規），驗證：
+ * 1. 兩者都通過時按各 50% 權重計算綜合分數
+ * 2. 任一審核不通過即判定不通過
+ * 3. OpenAI 批次調用失敗時，各請求以自己的自定義規則結果為準
+ */
+@DisplayName("雙重內容審核測試")
+class DualModerationServiceTest {
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final OpenAIModerationClientTest.StubRestTemplate restTemplate =
+            new OpenAIModerationClientTest.StubRestTemplate();
+
+    private ModerationProperties moderationProperties;
+    private OpenAIModerationClient client;
+    private DualModerationService service;
+
+    @BeforeEach
+    void setUp() {
+        moderationProperties = new ModerationProperties();
+        client = new OpenAIModerationClient(new RAGProperties(), moderationProperties, restTemplate, executor);
+        CustomRuleModerationService customRules = new CustomRuleModerationService(
+                new RAGProperties(), moderationProperties, null) {
+            @Override
+            public ModerationResult moderateContent(String content) {
+                boolean flagged = content.startsWith("敏感");
+                return ModerationResult.builder()
+                        .flagged(flagged)
+                        .passed(!flagged)
+                        .moderationScore(flagged ? 0.4 : 0.0)
+                        .reason(flagged ? "內容違反自定義規則：包含敏感詞" : "內容符合自定義規則")
+                        .flaggedCategories(flagged ? List.of("包含敏感詞") : List.of())
+                        .build();
+            }
+        };
+        service = new DualModerationService(
+                new ContentModerationService(client, moderationProperties), customRules, executor);
+    }
+
+    @AfterEach
+    void tearDown() {
+        client.stopDispatcher();
+        executor.close();
+    }
+
+    @Test
+    @DisplayName("兩者都通過時計算綜合分數")
+    void testBothPass() {
+        ModerationResult result = service.moderate("正常內容");
+
+        assertTrue(result.getPassed());
+        assertEquals(0.005, result.getModerationScore(), 1e-9);
+        assertEquals("內容正常", result.getReason());
+    }
+
+    @Test
+    @DisplayName("任一審核不通過即判定不通過")
+    void testEitherRejects() {
+        assertTrue(service.moderate("違規內容").getFlagged());
+
+        ModerationResult customRejected = service.moderate("敏感內容");
+        assertTrue(customRejected.getFlagged());
+        assertTrue(customRejected.getReason().contains("包含敏感詞"));
+    }
+
+    @Test
+    @DisplayName("OpenAI 批次失敗時以自定義規則為準")
+    void testBatchFailureFallsBackToCustomRules() {
+        moderationProperties.getBatch().setMaxWait(Duration.ofMillis(200));
+        client.startDispatcher();
+        restTemplate.failing = true;
+
+        List<String> contents = List.of("正常 1", "敏感 2", "正常 3");
+        List<CompletableFuture<ModerationResult>> futures = new ArrayList<>();
+        for (String content : contents) {
+            futures.add(CompletableFuture.supplyAsync(() -> service.moderate(content), executor));
+        }
+
+        for (int i = 0; i < contents.size(); i++) {
+            ModerationResult result = futures.get(i).join();
+            if (contents.get(i).startsWith("敏感")) {
+                // 自定義規則不通過時可能提前返回，不等待 OpenAI 審核
+                assertTrue(result.getFlagged(), contents.get(i));
+            } else {
+                // 不可用的 OpenAI 結果不會把正常內容判為不通過
+                assertTrue(result.getPassed(), contents.get(i));
+                assertEquals(0.0, result.getModerationScore(), 1e-9);
+                assertEquals(true, result.getDetails().get("openai_unavailable"));
+            }
+        }
+        assertFalse(restTemplate.calls.isEmpty());
+        assertTrue(restTemplate.calls.size() < contents.size(), "並發請求應合併送出");
+    }
+}
@@ -0,0 +1,177 @@
+package com.example.advancedrag.service;
+
+import com.example.advancedrag.properties.EmbeddingProperties;
+import com.example.advancedrag.properties.RAGProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Embedding 微批次合併器測試
+ *
+ * 不依賴 Spring Boot 上下文（以記錄請求的 EmbeddingModel 代替模型，向量由文本決定），驗證：
+ * 1. 輸入數達到上限時立即送出，不等待窗口到期
+ * 2. 窗口到期時送出未滿的批次，窗口內的並發請求合併為一次調用
+ * 3. 各調用方取得自己文本的向量，相同文本只送一次
+ * 4. 批次失敗只讓該批次的請求失敗，後續批次不受影響
+ */
+@DisplayName("Embedding 微批次合併器測試")
+class EmbeddingBatcherTest {
+
+    private static final String MODEL = "text-embedding-3-small";
+    private static final int DIMENSIONS = 1024;
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final StubEmbeddingModel embeddingModel = new StubEmbeddingModel();
+
+    private EmbeddingProperties embeddingProperties;
+    private EmbeddingBatcher batcher;
+
+    @BeforeEach
+    void setUp() {
+        embeddingProperties = new EmbeddingProperties();
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        batcher = new EmbeddingBatcher(embeddingModel, embeddingProperties,
+                new RAGMetricsService(meterRegistry, new RollingMetricsStore()), executor,
+                new AdmissionControlService(new RAGProperties(), meterRegistry));
+    }
+
+    @AfterEach
+    void tearDown() {
+        batcher.shutdown();
+        executor.close();
+    }
+
+    @Test
+    @DisplayName("達到批次上限時立即送出")
+    void testFlushesOnBatchSize() throws Exception {
+        embeddingProperties.getBatch().setMaxBatchSize(4);
+        embeddingProperties.getBatch().setMaxWait(Duration.ofSeconds(30));
+
+        List<String> texts = List.of("t1", "t2", "t3", "t4", "t5", "t6", "t7", "t8");
+        List<float[]> vectors = CompletableFuture.supplyAsync(() -> batcher.embed(MODEL, DIMENSIONS, texts), executor)
+                .get(5, TimeUnit.SECONDS);
+
+        // 批次在執行器上並行送出，調用順序不固定
+        assertEquals(Set.of(List.of("t1", "t2", "t3", "t4"), List.of("t5", "t6", "t7", "t8")),
+                Set.copyOf(embeddingModel.calls));
+        for (int i = 0; i < texts.size(); i++) {
+            assertArrayEquals(StubEmbeddingModel.vectorOf(texts.get(i)), vectors.get(i));
+        }
+    }
+
+    @Test
+    @DisplayName("窗口到期時送出未滿的批次")
+    void testFlushesOnLinger() throws Exception {
+        embeddingProperties.getBatch().setMaxWait(Duration.ofMillis(200));
+
+        long start = System.nanoTime();
+        List<CompletableFuture<List<float[]>>> futures = new ArrayList<>();
+        for (String text : List.of("a", "b", "c")) {
+            futures.add(CompletableFuture.supplyAsync(() -> batcher.embed(MODEL, DIMENSIONS, List.of(text)), executor));
+        }
+        for (CompletableFuture<List<float[]>> future : futures) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(150), "未滿的批次應等待窗口到期");
+        assertEquals(1, embeddingModel.calls.size(), "窗口內的並發請求應合併為一次調用");
+        assertEquals(3, embeddingModel.calls.get(0).size());
+    }
+
+    @Test
+    @DisplayName("各調用方取得自己文本的向量")
+    void testEachCallerReceivesOwnVector() {
+        embeddingProperties.getBatch().setMaxWait(Duration.ofMillis(200));
+
+        List<List<String>> requests = List.of(List.of("甲", "乙"), List.of("丙"), List.of("乙", "丁"));
+        List<CompletableFuture<List<float[]>>> futures = new ArrayList<>();
+        for (List<String> texts : requests) {
+            futures.add(CompletableFuture.supplyAsync(() -> batcher.embed(MODEL, DIMENSIONS, texts), executor));
+        }
+
+        for (int i = 0; i < requests.size(); i++) {
+            List<float[]> vectors = futures.get(i).join();
+            assertEquals(requests.get(i).size(), vectors.size());
+            for (int j = 0; j < vectors.size(); j++) {
+                assertArrayEquals(StubEmbeddingModel.vectorOf(requests.get(i).get(j)), vectors.get(j));
+            }
+        }
+        assertEquals(1, embeddingModel.calls.size());
+        assertEquals(4, embeddingModel.calls.get(0).size(), "相同文本只應送出一次");
+    }
+
+    @Test
+    @DisplayName("批次失敗只影響該批次的請求")
+    void testFailedBatchFailsOnlyItsFutures() throws Exception {
+        embeddingProperties.getBatch().setMaxBatchSize(2);
+        embeddingProperties.getBatch().setMaxWait(Duration.ofSeconds(30));
+
+        CompletableFuture<List<float[]>> failing = CompletableFuture.supplyAsync(
+                () -> batcher.embed(MODEL, DIMENSIONS, List.of("失敗")), executor);
+        CompletableFuture<List<float[]>> sameBatch = CompletableFuture.supplyAsync(
+                () -> batcher.embed(MODEL, DIMENSIONS, List.of("同批次")), executor);
+
+        CompletionException error = assertThrows(CompletionException.class, failing::join);
+        assertTrue(error.getCause().getMessage().contains("模型調用失敗"));
+        assertThrows(CompletionException.class, sameBatch::join);
+
+        List<float[]> next = CompletableFuture.supplyAsync(
+                () -> batcher.embed(MODEL, DIMENSIONS, List.of("下一批 1", "下一批 2")), executor)
+                .get(5, TimeUnit.SECONDS);
+        assertArrayEquals(StubEmbeddingModel.vectorOf("下一批 2"), next.get(1));
+        assertEquals(2, embeddingModel.calls.size());
+    }
+
+    /**
+     * 記錄每次調用的輸入；向量由文本長度與雜湊決定，輸入含「失敗」時整批拋出異常
+     */
+    private static class StubEmbeddingModel implements EmbeddingModel {
+
+        final List<List<String>> calls = new CopyOnWriteArrayList<>();
+
+        static float[] vectorOf(String text) {
+            return new float[]{text.length(), text.hashCode()};
+        }
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            List<String> inputs = request.getInstructions();
+            calls.add(List.copyOf(inputs));
+            if (inputs.stream().anyMatch(text -> text.contains("失敗"))) {
+                throw new IllegalStateException("模型調用失敗");
+            }
+
+            List<Embedding> embeddings = new ArrayList<>();
+            for (int i = 0; i < inputs.size(); i++) {
+                embeddings.add(new Embedding(vectorOf(inputs.get(i)), i));
+            }
+            return new EmbeddingResponse(embeddings);
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            return vectorOf(document.getText());
+        }
+    }
+}
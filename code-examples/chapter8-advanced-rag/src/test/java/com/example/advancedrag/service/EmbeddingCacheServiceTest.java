@@ -0,0 +1,158 @@
+package com.example.advancedrag.service;
+
+import com.example.advancedrag.properties.EmbeddingProperties;
+import com.example.advancedrag.util.CacheKeyGenerator;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Embedding 二級快取測試
+ *
+ * 不依賴 Spring Boot 上下文（以記憶體中的 RedisTemplate 代替 Redis），驗證：
+ * 1. L1 命中不查詢 Redis
+ * 2. L2 命中回填 L1，批次查詢只以一次 MGET 查詢 L1 未命中的鍵
+ * 3. 快取鍵按模型與維度隔離
+ * 4. Redis 不可用時降級為僅 L1，查詢與寫入都不拋出異常
+ */
+@DisplayName("Embedding 二級快取測試")
+class EmbeddingCacheServiceTest {
+
+    private static final float[] VECTOR_A = {0.1f, 0.2f, 0.3f};
+    private static final float[] VECTOR_B = {0.4f, 0.5f, 0.6f};
+
+    private final StubRedisTemplate redisTemplate = new StubRedisTemplate();
+    private SimpleMeterRegistry meterRegistry;
+    private EmbeddingCacheService cacheService;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        cacheService = new EmbeddingCacheService(new EmbeddingProperties(), redisTemplate,
+                new RAGMetricsService(meterRegistry, new RollingMetricsStore()));
+    }
+
+    @Test
+    @DisplayName("L1 命中不查詢 Redis")
+    void testL1Hit() {
+        cacheService.put("k1", VECTOR_A);
+
+        assertSame(VECTOR_A, cacheService.get("k1"));
+        assertTrue(redisTemplate.multiGets.isEmpty());
+        assertArrayEquals(VECTOR_A, EmbeddingCacheService.decode(redisTemplate.store.get("k1")));
+        assertEquals(1.0, hits("l1"));
+    }
+
+    @Test
+    @DisplayName("L2 命中回填 L1")
+    void testL2HitPromotesToL1() {
+        redisTemplate.store.put("k2", EmbeddingCacheService.encode(VECTOR_B));
+        cacheService.put("k1", VECTOR_A);
+
+        Map<String, float[]> found = cacheService.getAll(List.of("k1", "k2", "k3"));
+
+        assertEquals(2, found.size());
+        assertArrayEquals(VECTOR_B, found.get("k2"));
+        assertEquals(List.of(List.of("k2", "k3")), redisTemplate.multiGets, "只應以一次 MGET 查詢 L1 未命中的鍵");
+        assertEquals(1.0, hits("l2"));
+        assertEquals(1.0, meterRegistry.counter("rag.embedding.cache.miss").count());
+
+        // 回填後不再查詢 Redis
+        redisTemplate.multiGets.clear();
+        assertSame(found.get("k2"), cacheService.get("k2"));
+        assertTrue(redisTemplate.multiGets.isEmpty());
+        assertEquals(2.0, hits("l1"));
+    }
+
+    @Test
+    @DisplayName("快取鍵按模型與維度隔離")
+    void testKeyIsolationPerModel() {
+        String small = CacheKeyGenerator.generateEmbeddingKey("emb:", "什麼是 RAG", "text-embedding-3-small", 1024);
+        String large = CacheKeyGenerator.generateEmbeddingKey("emb:", "什麼是 RAG", "text-embedding-3-large", 1024);
+        String smallReduced = CacheKeyGenerator.generateEmbeddingKey("emb:", "什麼是 RAG", "text-embedding-3-small", 512);
+        assertNotEquals(small, large);
+        assertNotEquals(small, smallReduced);
+
+        cacheService.put(small, VECTOR_A);
+
+        Map<String, float[]> found = cacheService.getAll(List.of(small, large, smallReduced));
+        assertEquals(Map.of(small, VECTOR_A), found);
+        assertEquals(List.of(List.of(large, smallReduced)), redisTemplate.multiGets);
+        assertEquals(List.of(small), List.copyOf(redisTemplate.store.keySet()));
+    }
+
+    @Test
+    @DisplayName("Redis 不可用時降級為僅 L1")
+    void testRedisUnavailable() {
+        redisTemplate.available = false;
+
+        assertDoesNotThrow(() -> cacheService.putAll(Map.of("k1", VECTOR_A, "k2", VECTOR_B)));
+        assertTrue(redisTemplate.store.isEmpty());
+
+        Map<String, float[]> found = assertDoesNotThrow(() -> cacheService.getAll(List.of("k1", "k2", "k3")));
+        assertEquals(2, found.size());
+        assertSame(VECTOR_A, found.get("k1"));
+        assertNull(assertDoesNotThrow(() -> cacheService.get("k3")));
+        assertEquals(2.0, meterRegistry.counter("rag.embedding.cache.miss").count());
+    }
+
+    private double hits(String tier) {
+        return meterRegistry.counter("rag.embedding.cache.hit", "tier", tier).count();
+    }
+
+    /**
+     * 以 Map 實現 MGET 與 pipeline 寫入，記錄每次 MGET 的鍵；available 為 false 時模擬連線失敗
+     */
+    static class StubRedisTemplate extends RedisTemplate<String, byte[]> {
+
+        final Map<String, byte[]> store = new ConcurrentHashMap<>();
+        final List<List<String>> multiGets = new CopyOnWriteArrayList<>();
+        volatile boolean available = true;
+
+        @SuppressWarnings("unchecked")
+        private final ValueOperations<String, byte[]> valueOperations = (ValueOperations<String, byte[]>) Proxy.newProxyInstance(
+                ValueOperations.class.getClassLoader(), new Class<?>[]{ValueOperations.class}, (proxy, method, args) -> {
+                    if (!available) {
+                        throw new RedisConnectionFailureException("無法連線到 Redis");
+                    }
+                    return switch (method.getName()) {
+                        case "multiGet" -> {
+                            List<String> keys = new ArrayList<>((Collection<String>) args[0]);
+                            multiGets.add(keys);
+                            yield keys.stream().map(store::get).toList();
+                        }
+                        case "set" -> {
+                            store.put((String) args[0], (byte[]) args[1]);
+                            yield null;
+                        }
+                        default -> throw new UnsupportedOperationException(method.getName());
+                    };
+                });
+
+        @Override
+        public ValueOperations<String, byte[]> opsForValue() {
+            return valueOperations;
+        }
+
+        @Override
+        public List<Object> executePipelined(SessionCallback<?> session) {
+            session.execute(this);
+            return List.of();
+        }
+    }
+}
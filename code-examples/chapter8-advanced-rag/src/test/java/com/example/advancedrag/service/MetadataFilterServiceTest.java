@@ -0,0 +1,127 @@
+package com.example.advancedrag.service;
+
+import com.example.advancedrag.model.RetrievalFilter;
+import com.example.advancedrag.model.ScoredDocument;
+import com.example.advancedrag.properties.RAGProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 檢索元數據過濾測試
+ *
+ * 不依賴 Spring Boot 上下文，驗證：
+ * 1. 結構化條件與表達式編譯為 AND 組合，並轉換為 PgVector 的 jsonpath
+ * 2. 白名單以外的鍵、含引號的值與語法錯誤被拒絕
+ * 3. 記憶體內求值：陣列值任一元素符合，缺少鍵時不符合（NOT 之後仍不符合）
+ * 4. 關鍵詞檢索在索引內過濾，Top-K 以符合條件的文檔填滿
+ */
+@DisplayName("檢索元數據過濾測試")
+class MetadataFilterServiceTest {
+
+    private RAGProperties properties;
+    private MetadataFilterService service;
+
+    @BeforeEach
+    void setUp() {
+        properties = new RAGProperties();
+        service = new MetadataFilterService(properties);
+    }
+
+    @Test
+    @DisplayName("編譯為 AND 組合並轉換為 jsonpath")
+    void testCompile() {
+        RetrievalFilter filter = RetrievalFilter.builder()
+                .sources(List.of("handbook", "handbook", "faq"))
+                .types(List.of("pdf"))
+                .createdAfter(LocalDateTime.of(2025, 1, 1, 0, 0))
+                .expression("author == 'alice' || author == 'bob'")
+                .build();
+
+        Filter.Expression expression = service.compile(filter);
+
+        assertEquals("source IN [\"handbook\",\"faq\"] AND type EQ \"pdf\" AND created_at GTE \"2025-01-01T00:00\""
+                + " AND (author EQ \"alice\" OR author EQ \"bob\")", MetadataFilterService.describe(expression));
+        String jsonPath = VectorSearchService.toJsonPath(expression);
+        assertTrue(jsonPath.contains("$.type == \"pdf\""), jsonPath);
+        assertTrue(jsonPath.contains("($.author == \"alice\" || $.author == \"bob\")"), jsonPath);
+
+        assertNull(service.compile(null));
+        assertNull(service.compile(RetrievalFilter.builder().build()));
+        // 只有表達式時不額外包一層括號
+        assertEquals("type EQ \"pdf\"", MetadataFilterService.describe(
+                service.compile(RetrievalFilter.builder().expression("type == 'pdf'").build())));
+    }
+
+    @Test
+    @DisplayName("拒絕不合法的過濾條件")
+    void testRejectsInvalidFilters() {
+        assertThrows(IllegalArgumentException.class, () -> service.parse("password == 'x'"));
+        assertThrows(IllegalArgumentException.class, () -> service.parse("type == "));
+        assertThrows(IllegalArgumentException.class, () -> service.compile(
+                RetrievalFilter.builder().sources(List.of("a\" || $.x == \"b")).build()));
+
+        properties.getMetadataFilter().setMaxValues(2);
+        assertThrows(IllegalArgumentException.class, () -> service.compile(
+                RetrievalFilter.builder().types(List.of("pdf", "md", "txt")).build()));
+        assertDoesNotThrow(() -> service.compile(RetrievalFilter.builder().types(List.of("pdf", "md")).build()));
+    }
+
+    @Test
+    @DisplayName("記憶體內求值與陣列、缺少鍵")
+    void testMatches() {
+        Map<String, Object> metadata = Map.of("type", "pdf", "tags", List.of("rag", "cache"), "version", 3);
+
+        assertTrue(MetadataFilterService.matches(service.parse("tags == 'cache'"), metadata));
+        assertTrue(MetadataFilterService.matches(service.parse("tags in ['x', 'rag'] && type != 'md'"), metadata));
+        assertFalse(MetadataFilterService.matches(service.parse("tags nin ['rag']"), metadata));
+        // 缺少鍵為未知：本身與 NOT 之後都不符合，但 OR 的另一側可使其符合
+        assertFalse(MetadataFilterService.matches(service.parse("author == 'alice'"), metadata));
+        assertFalse(MetadataFilterService.matches(service.parse("NOT (author == 'alice')"), metadata));
+        assertTrue(MetadataFilterService.matches(service.parse("author == 'alice' || type == 'pdf'"), metadata));
+        // 型別不可比較時不符合
+        assertFalse(MetadataFilterService.matches(service.parse("type > 3"), metadata));
+
+        assertNull(service.predicate(null));
+    }
+
+    @Test
+    @DisplayName("關鍵詞檢索以符合條件的文檔填滿 Top-K")
+    void testKeywordSearchWithFilter() {
+        BM25Service bm25Service = new BM25Service(new RAGProperties(),
+                new StaticListableBeanFactory().getBeanProvider(JdbcTemplate.class), "vector_store");
+        List<Document> documents = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            // 不符合條件的文檔詞頻較高，排名在前
+            String text = i % 3 == 0
+                    ? "semantic cache hit rate tuning guide"
+                    : "semantic cache semantic cache semantic cache overview";
+            documents.add(Document.builder()
+                    .id("doc-" + i)
+                    .text(text)
+                    .metadata(Map.of("source", i % 3 == 0 ? "handbook" : "blog"))
+                    .build());
+        }
+        bm25Service.indexDocuments(documents);
+
+        Filter.Expression expression = service.compile(
+                RetrievalFilter.builder().sources(List.of("handbook")).build());
+        List<ScoredDocument> results = bm25Service.search("semantic cache", List.of(), 5,
+                service.predicate(expression));
+
+        assertEquals(5, results.size());
+        assertTrue(results.stream().allMatch(doc -> "handbook".equals(doc.getDocument().getMetadata().get("source"))));
+        assertEquals(5, bm25Service.search("semantic cache", List.of(), 5, null).size());
+    }
+}
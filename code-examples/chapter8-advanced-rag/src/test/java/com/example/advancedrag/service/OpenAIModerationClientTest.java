@@ -0,0 +1,169 @@
+package com.example.advancedrag.service;
+
+import com.example.advancedrag.dto.ModerationResult;
+import com.example.advancedrag.properties.ModerationProperties;
+import com.example.advancedrag.properties.RAGProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * OpenAI 審核客戶端測試
+ *
+ * 不依賴 Spring Boot 上下文（以記錄請求的 RestTemplate 代替 Moderation API），驗證：
+ * 1. 超過批次上限時按順序分段送出
+ * 2. 並發的單內容請求合併為一次多輸入調用，相同內容只送一次，各請求取得自己的判定
+ * 3. 批次審核只送出未命中快取的內容，判定按位置對回輸入
+ * 4. API 失敗時返回不可用結果且不寫入快取
+ */
+@DisplayName("OpenAI 審核客戶端測試")
+class OpenAIModerationClientTest {
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final StubRestTemplate restTemplate = new StubRestTemplate();
+
+    private ModerationProperties moderationProperties;
+    private OpenAIModerationClient client;
+
+    @BeforeEach
+    void setUp() {
+        moderationProperties = new ModerationProperties();
+        client = new OpenAIModerationClient(new RAGProperties(), moderationProperties, restTemplate, executor);
+    }
+
+    @AfterEach
+    void tearDown() {
+        client.stopDispatcher();
+        executor.close();
+    }
+
+    @Test
+    @DisplayName("超過批次上限時分段送出")
+    void testSplitsByMaxBatchSize() {
+        moderationProperties.getBatch().setMaxBatchSize(2);
+
+        List<OpenAIModerationClient.ApiResult> results = client.moderate(List.of("a", "違規 b", "c", "d", "違規 e"));
+
+        assertEquals(List.of(List.of("a", "違規 b"), List.of("c", "d"), List.of("違規 e")), restTemplate.calls);
+        assertEquals(List.of(false, true, false, false, true),
+                results.stream().map(OpenAIModerationClient.ApiResult::isFlagged).toList());
+    }
+
+    @Test
+    @DisplayName("並發請求合併為一次調用且各自取得判定")
+    void testCoalescesConcurrentRequests() {
+        moderationProperties.getBatch().setMaxWait(Duration.ofMillis(500));
+        client.startDispatcher();
+
+        List<String> contents = List.of("正常 1", "違規 2", "正常 3", "違規 2");
+        CountDownLatch start = new CountDownLatch(1);
+        List<CompletableFuture<OpenAIModerationClient.ApiResult>> futures = new ArrayList<>();
+        for (String content : contents) {
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                awaitQuietly(start);
+                return client.moderate(content);
+            }, executor));
+        }
+        start.countDown();
+
+        for (int i = 0; i < contents.size(); i++) {
+            OpenAIModerationClient.ApiResult result = futures.get(i).join();
+            assertEquals(contents.get(i).startsWith("違規"), result.isFlagged(), contents.get(i));
+        }
+        assertEquals(1, restTemplate.calls.size());
+        assertEquals(3, restTemplate.calls.get(0).size(), "相同內容只應送出一次");
+        assertTrue(restTemplate.calls.get(0).containsAll(contents));
+    }
+
+    @Test
+    @DisplayName("批次審核只送出未命中快取的內容並按位置對回")
+    void testBatchVerdictsMapBackToInputs() {
+        ContentModerationService service = new ContentModerationService(client, moderationProperties);
+        assertTrue(service.moderateContent("違規 A").getFlagged());
+        restTemplate.calls.clear();
+
+        List<ModerationResult> results = service.moderateContents(List.of("正常 B", "違規 A", "違規 C", "正常 D"));
+
+        assertEquals(List.of(List.of("正常 B", "違規 C", "正常 D")), restTemplate.calls);
+        assertEquals(List.of(false, true, true, false), results.stream().map(ModerationResult::getFlagged).toList());
+        assertEquals(0.01, results.get(0).getModerationScore(), 1e-9);
+        assertEquals(0.9, results.get(2).getModerationScore(), 1e-9);
+        assertEquals(List.of("violence"), results.get(2).getFlaggedCategories());
+    }
+
+    @Test
+    @DisplayName("API 失敗時返回不可用結果且不寫入快取")
+    void testFailureIsNotCached() {
+        ContentModerationService service = new ContentModerationService(client, moderationProperties);
+        restTemplate.failing = true;
+
+        assertThrows(RuntimeException.class, () -> client.moderate(List.of("正常 A")));
+        List<ModerationResult> results = service.moderateContents(List.of("正常 A", "正常 B"));
+        assertTrue(results.stream().allMatch(ContentModerationService::isUnavailable));
+        assertTrue(results.stream().allMatch(ModerationResult::getFlagged), "不可用時應保守地標記為不通過");
+
+        restTemplate.failing = false;
+        restTemplate.calls.clear();
+        assertFalse(service.moderateContent("正常 A").getFlagged());
+        assertEquals(1, restTemplate.calls.size(), "失敗的結果不應命中快取");
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 記錄每次調用的輸入，以「違規」開頭的內容判定為不當內容
+     */
+    static class StubRestTemplate extends RestTemplate {
+
+        final List<List<String>> calls = new CopyOnWriteArrayList<>();
+        volatile boolean failing;
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> ResponseEntity<T> postForEntity(String url, Object request, Class<T> responseType,
+                                                   Object... uriVariables) {
+            Map<String, Object> body = (Map<String, Object>) ((HttpEntity<?>) request).getBody();
+            List<String> inputs = (List<String>) body.get("input");
+            calls.add(List.copyOf(inputs));
+            if (failing) {
+                throw new ResourceAccessException("連線逾時");
+            }
+
+            OpenAIModerationClient.ApiResponse response = new OpenAIModerationClient.ApiResponse();
+            response.setResults(inputs.stream().map(StubRestTemplate::verdict).toList());
+            return (ResponseEntity<T>) ResponseEntity.ok(response);
+        }
+
+        private static OpenAIModerationClient.ApiResult verdict(String input) {
+            boolean flagged = input.startsWith("違規");
+            OpenAIModerationClient.ApiResult result = new OpenAIModerationClient.ApiResult();
+            result.setFlagged(flagged);
+            result.setCategories(Map.of("violence", flagged));
+            result.setCategoryScores(Map.of("violence", flagged ? 0.9 : 0.01));
+            return result;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.advancedrag.service;
+
+import com.example.advancedrag.model.QueryProfile;
+import com.example.advancedrag.model.StageTimeline;
+import com.example.advancedrag.properties.RAGProperties;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.observation.DefaultMeterObservationHandler;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 管線耗時剖面測試
+ *
+ * 不依賴 Spring Boot 上下文，驗證：
+ * 1. 階段以 Observation 記錄，帶 stage 標籤
+ * 2. 百分位尾部的關鍵路徑分析
+ * 3. 慢查詢樣本只保留最慢的若干個
+ */
+@DisplayName("管線耗時剖面測試")
+class PipelineProfileRecorderTest {
+
+    @Test
+    @DisplayName("階段以 Observation 記錄為帶 stage 標籤的計時器")
+    void testStageObservation() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        ObservationRegistry observationRegistry = ObservationRegistry.create();
+        observationRegistry.observationConfig().observationHandler(new DefaultMeterObservationHandler(meterRegistry));
+
+        Observation parent = Observation.start("rag.pipeline", observationRegistry);
+        StageTimeline timeline = new StageTimeline(observationRegistry, parent);
+        timeline.record("retrieval", List.of(), () -> "docs");
+        timeline.record("generation", List.of("retrieval"), () -> "answer");
+        parent.stop();
+
+        Timer timer = meterRegistry.find(StageTimeline.STAGE_OBSERVATION).tag("stage", "generation").timer();
+        assertNotNull(timer);
+        assertEquals(1, timer.count());
+        assertEquals(List.of("retrieval", "generation"), timeline.criticalPath());
+    }
+
+    @Test
+    @DisplayName("百分位尾部：p99 的關鍵路徑來自最慢的請求")
+    void testCriticalPathByPercentile() {
+        PipelineProfileRecorder recorder = new PipelineProfileRecorder(new RAGProperties());
+
+        for (int i = 0; i < 99; i++) {
+            recorder.record("fast-" + i, "concurrent", 100 + i, timeline("rerank"));
+        }
+        recorder.record("slow", "concurrent", 9000, timeline("generation"));
+
+        Map<String, Object> result = recorder.criticalPathByPercentile();
+        @SuppressWarnings("unchecked")
+        Map<String, Object> p99 = (Map<String, Object>) result.get("p99");
+        @SuppressWarnings("unchecked")
+        Map<String, Object> p50 = (Map<String, Object>) result.get("p50");
+
+        assertEquals(List.of("retrieval", "generation"), p99.get("critical_path"));
+        assertEquals(List.of("retrieval", "rerank"), p50.get("critical_path"));
+        assertTrue((long) p50.get("threshold_ms") < (long) p99.get("threshold_ms"));
+    }
+
+    @Test
+    @DisplayName("慢查詢樣本只保留最慢的若干個")
+    void testSlowQuerySamples() {
+        RAGProperties properties = new RAGProperties();
+        properties.getPipeline().setSlowQueryThreshold(Duration.ofMillis(1000));
+        properties.getPipeline().setSlowQuerySamples(2);
+        PipelineProfileRecorder recorder = new PipelineProfileRecorder(properties);
+
+        recorder.record("a", "sequential", 500, timeline("rerank"));
+        recorder.record("b", "sequential", 3000, timeline("rerank"));
+        recorder.record("c", "sequential", 2000, timeline("rerank"));
+        recorder.record("d", "sequential", 5000, timeline("rerank"));
+
+        assertEquals(List.of("d", "b"), recorder.slowQueries().stream().map(QueryProfile::queryId).toList());
+    }
+
+    private StageTimeline timeline(String lastStage) {
+        StageTimeline timeline = new StageTimeline();
+        timeline.record("retrieval", List.of(), () -> null);
+        timeline.record(lastStage, List.of("retrieval"), () -> null);
+        return timeline;
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.advancedrag.service;
+
+import com.example.advancedrag.model.StageTimeline;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 管線階段執行器測試
+ *
+ * 不依賴 Spring Boot 上下文，驗證：
+ * 1. 互不依賴的階段並行執行
+ * 2. 依賴的階段等待前置階段完成，關鍵路徑沿依賴追溯
+ * 3. 沒有降級結果時階段失敗向上傳播，有降級結果時使用降級結果
+ * 4. 各階段的耗時與狀態（ok、failed、timeout）記錄到時間線
+ */
+@DisplayName("管線階段執行器測試")
+class PipelineStageRunnerTest {
+
+    private static final Duration DEADLINE = Duration.ofSeconds(5);
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final StageTimeline timeline = new StageTimeline();
+    private final PipelineStageRunner runner = new PipelineStageRunner(executor, timeline);
+
+    @AfterEach
+    void tearDown() {
+        executor.close();
+    }
+
+    @Test
+    @DisplayName("互不依賴的階段並行執行")
+    void testIndependentStagesOverlap() {
+        // 兩個階段都到達柵欄才能完成：依序執行時第一個階段會等到逾時
+        CountDownLatch bothRunning = new CountDownLatch(2);
+        CompletableFuture<Boolean> rewrite = runner.submit("rewrite", List.of(), DEADLINE,
+                () -> arrive(bothRunning), null);
+        CompletableFuture<Boolean> moderation = runner.submit("moderation", List.of(), DEADLINE,
+                () -> arrive(bothRunning), null);
+
+        assertTrue(PipelineStageRunner.await(rewrite));
+        assertTrue(PipelineStageRunner.await(moderation));
+    }
+
+    @Test
+    @DisplayName("依賴的階段等待前置階段完成")
+    void testDependentStageWaits() {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean retrievalDone = new AtomicBoolean(false);
+        CompletableFuture<String> retrieval = runner.submit("retrieval", List.of(), DEADLINE, () -> {
+            await(release);
+            retrievalDone.set(true);
+            return "documents";
+        }, null);
+        CompletableFuture<Boolean> reranking = runner.submit("reranking", List.of("retrieval"), DEADLINE, () -> {
+            String documents = PipelineStageRunner.await(retrieval);
+            return retrievalDone.get() && "documents".equals(documents);
+        }, null);
+
+        assertFalse(reranking.isDone(), "前置階段未完成時不應完成");
+        release.countDown();
+
+        assertTrue(PipelineStageRunner.await(reranking));
+        assertEquals(List.of("retrieval", "reranking"), timeline.criticalPath());
+    }
+
+    @Test
+    @DisplayName("階段失敗向上傳播或使用降級結果")
+    void testFailurePropagates() {
+        CompletableFuture<String> failing = runner.submit("retrieval", List.of(), DEADLINE, () -> {
+            throw new IllegalStateException("向量庫不可用");
+        }, null);
+        CompletableFuture<String> dependent = failing.thenApply(documents -> documents + "-reranked");
+
+        IllegalStateException error = assertThrows(IllegalStateException.class,
+                () -> PipelineStageRunner.await(dependent));
+        assertEquals("向量庫不可用", error.getMessage());
+
+        CompletableFuture<String> degraded = runner.submit("expansion", List.of(), DEADLINE, () -> {
+            throw new IllegalStateException("模型錯誤");
+        }, e -> "fallback:" + e.getMessage());
+        assertEquals("fallback:模型錯誤", PipelineStageRunner.await(degraded));
+    }
+
+    @Test
+    @DisplayName("記錄各階段耗時與狀態")
+    @SuppressWarnings("unchecked")
+    void testRecordsTimings() {
+        PipelineStageRunner.await(runner.submit("rewrite", List.of(), DEADLINE, () -> {
+            sleep(20);
+            return "ok";
+        }, null));
+        assertThrows(IllegalStateException.class, () -> PipelineStageRunner.await(
+                runner.submit("moderation", List.of(), DEADLINE, () -> {
+                    throw new IllegalStateException("失敗");
+                }, null)));
+        CountDownLatch never = new CountDownLatch(1);
+        String timedOut = PipelineStageRunner.await(runner.submit("expansion", List.of("rewrite"),
+                Duration.ofMillis(50), () -> {
+                    await(never);
+                    return "late";
+                }, e -> "timeout"));
+        assertEquals("timeout", timedOut);
+        assertEquals("late", runner.runInline("context", List.of("rewrite"), () -> "late"));
+
+        Map<String, Object> metadata = timeline.toMetadata();
+        assertEquals(List.of("rewrite", "moderation", "expansion", "context"), List.copyOf(metadata.keySet()));
+        Map<String, Object> rewrite = (Map<String, Object>) metadata.get("rewrite");
+        assertEquals("ok", rewrite.get("status"));
+        assertTrue((Long) rewrite.get("duration_ms") >= 20);
+        assertEquals("failed", ((Map<String, Object>) metadata.get("moderation")).get("status"));
+        assertEquals("timeout", ((Map<String, Object>) metadata.get("expansion")).get("status"));
+        assertTrue(timeline.durationMillis("expansion") >= 50);
+        assertTrue(timeline.isDegraded());
+    }
+
+    private static boolean arrive(CountDownLatch latch) {
+        latch.countDown();
+        return await(latch);
+    }
+
+    private static boolean await(CountDownLatch latch) {
+        try {
+            return latch.await(2, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
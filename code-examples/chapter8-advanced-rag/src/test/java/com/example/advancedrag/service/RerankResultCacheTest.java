@@ -0,0 +1,123 @@
+package com.example.advancedrag.service;
+
+import com.example.advancedrag.properties.RAGProperties;
+import com.example.advancedrag.reranking.RerankResult;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Re-ranking 結果快取測試
+ *
+ * 不依賴 Spring Boot 上下文（僅 L1），驗證：
+ * 1. 鍵包含正規化查詢、候選順序與提供者 / 模型，命中時以本次候選重建結果
+ * 2. 候選文檔變更後失效（含 Re-ranking 期間的變更）
+ * 3. 命中率與避免的提供者耗時
+ * 4. L2 條目編碼往返
+ */
+@DisplayName("Re-ranking 結果快取測試")
+class RerankResultCacheTest {
+
+    private RerankResultCache cache;
+    private RAGMetricsService metricsService;
+
+    @BeforeEach
+    void setUp() {
+        metricsService = new RAGMetricsService(new SimpleMeterRegistry(), new RollingMetricsStore());
+        cache = new RerankResultCache(new RAGProperties(), null, metricsService);
+    }
+
+    @Test
+    @DisplayName("相同查詢與候選命中，並以本次候選重建結果")
+    void testKeyAndHit() {
+        List<Document> candidates = documents("a", "b", "c");
+        String key = cache.key("什麼是  RAG", "voyage", "rerank-2.5", 2, candidates);
+        assertEquals(key, cache.key("什麼是 rag", "voyage", "rerank-2.5", 2, candidates), "查詢應正規化");
+        assertNotEquals(key, cache.key("什麼是 RAG", "voyage", "rerank-2.5", 2, documents("b", "a", "c")));
+        assertNotEquals(key, cache.key("什麼是 RAG", "voyage", "rerank-1", 2, candidates));
+
+        assertNull(cache.get(key, candidates, "voyage"));
+        cache.put(key, candidates, List.of(result(candidates, 2, 0.9), result(candidates, 0, 0.4)),
+                cache.currentGeneration(), System.currentTimeMillis(), 800);
+
+        List<Document> refreshed = documents("a", "b", "c");
+        List<RerankResult> hit = cache.get(key, refreshed, "voyage");
+        assertNotNull(hit);
+        assertEquals(List.of("c", "a"), hit.stream().map(r -> r.getDocument().getId()).toList());
+        assertSame(refreshed.get(2), hit.get(0).getDocument());
+        assertEquals(0, hit.get(0).getNewIndex());
+        assertEquals(0.9, hit.get(0).getRelevanceScore());
+    }
+
+    @Test
+    @DisplayName("候選文檔變更後失效")
+    void testInvalidation() {
+        List<Document> candidates = documents("a", "b");
+        String key = cache.key("q", "local", "m", 1, candidates);
+
+        // Re-ranking 期間文檔變更：不寫入
+        long generation = cache.currentGeneration();
+        cache.invalidateDocuments(List.of("b"));
+        cache.put(key, candidates, List.of(result(candidates, 0, 1.0)), generation, System.currentTimeMillis(), 5);
+        assertNull(cache.get(key, candidates, "local"));
+
+        cache.put(key, candidates, List.of(result(candidates, 0, 1.0)),
+                cache.currentGeneration(), System.currentTimeMillis(), 5);
+        assertNotNull(cache.get(key, candidates, "local"));
+
+        cache.invalidateDocuments(List.of("c"));
+        assertNotNull(cache.get(key, candidates, "local"), "無關文檔變更不影響");
+        cache.invalidateDocuments(List.of("a"));
+        assertNull(cache.get(key, candidates, "local"));
+    }
+
+    @Test
+    @DisplayName("命中率與避免的提供者耗時")
+    void testMetrics() {
+        List<Document> candidates = documents("a");
+        String key = cache.key("q", "voyage", "m", 1, candidates);
+
+        cache.get(key, candidates, "voyage");
+        cache.put(key, candidates, List.of(result(candidates, 0, 1.0)),
+                cache.currentGeneration(), System.currentTimeMillis(), 600);
+        cache.get(key, candidates, "voyage");
+        cache.get(key, candidates, "voyage");
+
+        assertEquals(200.0 / 3, metricsService.getRerankCacheHitRate(), 1e-9);
+        assertEquals(1200.0, metricsService.getRerankCacheAvoidedTime(), 1e-9);
+    }
+
+    @Test
+    @DisplayName("L2 條目編碼往返")
+    void testEncoding() {
+        RerankResultCache.Entry entry = new RerankResultCache.Entry(new int[]{3, 0}, new double[]{0.8, 0.25},
+                420, 7, 1_700_000_000_000L);
+        RerankResultCache.Entry decoded = RerankResultCache.decode(RerankResultCache.encode(entry));
+
+        assertArrayEquals(entry.indexes(), decoded.indexes());
+        assertArrayEquals(entry.scores(), decoded.scores());
+        assertEquals(420, decoded.latencyMs());
+        assertEquals(1_700_000_000_000L, decoded.writtenAt());
+    }
+
+    private List<Document> documents(String... ids) {
+        return Arrays.stream(ids)
+                .map(id -> Document.builder().id(id).text("內容 " + id).build())
+                .toList();
+    }
+
+    private RerankResult result(List<Document> candidates, int index, double score) {
+        return RerankResult.builder()
+                .document(candidates.get(index))
+                .originalIndex(index)
+                .relevanceScore(score)
+                .build();
+    }
+}
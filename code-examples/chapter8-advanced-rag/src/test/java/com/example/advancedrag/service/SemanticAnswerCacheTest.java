@@ -0,0 +1,96 @@
+package com.example.advancedrag.service;
+
+import com.example.advancedrag.dto.AdvancedRAGResponse;
+import com.example.advancedrag.index.FlatVectorIndex;
+import com.example.advancedrag.properties.RAGProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 語義答案快取測試
+ *
+ * 不依賴 Spring Boot 上下文，驗證：
+ * 1. 相似度閾值與請求變體
+ * 2. 來源文檔變更後失效（含管線執行期間的變更）
+ * 3. 向量索引的 FIFO 淘汰
+ */
+@DisplayName("語義答案快取測試")
+class SemanticAnswerCacheTest {
+
+    private static final Object VARIANT = List.of("default");
+
+    private SemanticAnswerCache cache;
+
+    @BeforeEach
+    void setUp() {
+        RAGProperties properties = new RAGProperties();
+        properties.getSemanticCache().setSimilarityThreshold(0.95);
+        properties.getSemanticCache().setMaxEntries(16);
+        RAGMetricsService metricsService = new RAGMetricsService(new SimpleMeterRegistry(), new RollingMetricsStore());
+        cache = new SemanticAnswerCache(properties, metricsService);
+    }
+
+    @Test
+    @DisplayName("相似度達到閾值且變體相同時命中")
+    void testLookupThresholdAndVariant() {
+        cache.put("什麼是 RAG", new float[]{1f, 0f, 0f}, VARIANT, response("答案"), List.of("doc-1"),
+                cache.currentGeneration());
+
+        SemanticAnswerCache.Hit hit = cache.lookup(new float[]{0.99f, 0.1f, 0f}, VARIANT);
+        assertNotNull(hit);
+        assertEquals("答案", hit.response().getAnswer());
+        assertEquals("什麼是 RAG", hit.cachedQuery());
+
+        assertNull(cache.lookup(new float[]{0.7f, 0.7f, 0f}, VARIANT), "相似度不足不應命中");
+        assertNull(cache.lookup(new float[]{1f, 0f, 0f}, List.of("other")), "變體不同不應命中");
+    }
+
+    @Test
+    @DisplayName("來源文檔變更後失效")
+    void testInvalidation() {
+        cache.put("q1", new float[]{1f, 0f}, VARIANT, response("a1"), List.of("doc-1"), cache.currentGeneration());
+        cache.put("q2", new float[]{0f, 1f}, VARIANT, response("a2"), List.of("doc-2"), cache.currentGeneration());
+
+        cache.invalidateDocuments(List.of("doc-1"));
+
+        assertNull(cache.lookup(new float[]{1f, 0f}, VARIANT));
+        assertNotNull(cache.lookup(new float[]{0f, 1f}, VARIANT));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    @DisplayName("管線執行期間來源文檔變更時不寫入")
+    void testChangeDuringPipeline() {
+        long generation = cache.currentGeneration();
+        cache.invalidateDocuments(List.of("doc-1"));
+
+        cache.put("q1", new float[]{1f, 0f}, VARIANT, response("stale"), List.of("doc-1"), generation);
+        assertNull(cache.lookup(new float[]{1f, 0f}, VARIANT));
+
+        cache.put("q1", new float[]{1f, 0f}, VARIANT, response("fresh"), List.of("doc-1"), cache.currentGeneration());
+        assertEquals("fresh", cache.lookup(new float[]{1f, 0f}, VARIANT).response().getAnswer());
+    }
+
+    @Test
+    @DisplayName("向量索引寫滿後淘汰最舊條目")
+    void testIndexEviction() {
+        FlatVectorIndex<String> index = new FlatVectorIndex<>(2);
+        assertNull(index.add(new float[]{1f, 0f}, "a"));
+        assertNull(index.add(new float[]{0f, 1f}, "b"));
+        assertEquals("a", index.add(new float[]{1f, 1f}, "c"));
+
+        assertEquals(2, index.size());
+        assertEquals("c", index.nearest(new float[]{1f, 0.1f}, value -> true).value());
+        assertEquals("b", index.nearest(new float[]{1f, 0.1f}, value -> !value.equals("c")).value());
+    }
+
+    private AdvancedRAGResponse response(String answer) {
+        return AdvancedRAGResponse.builder().answer(answer).processingTimeMs(3000L).build();
+    }
+}
@@ -0,0 +1,170 @@
+package com.example.advancedrag.service;
+
+import com.example.advancedrag.dto.ModerationResult;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 串流答案增量審核測試
+ *
+ * 不依賴 Spring Boot 上下文，驗證：
+ * 1. 滑動窗口相互重疊並覆蓋整個答案（審核較慢時窗口向前延伸）
+ * 2. 窗口未通過時攔截串流，之後不再審核
+ * 3. 串流結束時審核尾部，審核失敗不攔截
+ */
+@DisplayName("串流答案增量審核測試")
+class StreamingAnswerModeratorTest {
+
+    private static final int WINDOW = 40;
+    private static final int STRIDE = 20;
+
+    private final List<String> segments = Collections.synchronizedList(new ArrayList<>());
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    @AfterEach
+    void tearDown() {
+        executor.close();
+    }
+
+    @Test
+    @DisplayName("窗口重疊並覆蓋整個答案")
+    void testWindowsOverlapAndCoverAnswer() {
+        // 審核有延遲，期間累積的新內容由下一個窗口覆蓋
+        StreamingAnswerModerator moderator = new StreamingAnswerModerator(
+                moderation(text -> sleep(3)), executor, WINDOW, STRIDE);
+        StringBuilder answer = new StringBuilder();
+        for (int i = 0; i < 120; i++) {
+            answer.append(String.format("%03d,", i));
+            assertFalse(moderator.offer(answer));
+        }
+        ModerationResult result = moderator.finish(answer);
+
+        assertTrue(result.getPassed());
+        assertTrue(segments.size() >= 2);
+        assertEquals(segments.size(), moderator.getChecks());
+        int previousEnd = 0;
+        for (String segment : segments) {
+            int start = answer.indexOf(segment);
+            assertEquals(Math.max(0, previousEnd - (WINDOW - STRIDE)), start, "窗口應與上一窗口重疊");
+            assertTrue(segment.length() >= Math.min(STRIDE, answer.length() - previousEnd));
+            previousEnd = start + segment.length();
+        }
+        assertEquals(answer.length(), previousEnd, "最後一個窗口應覆蓋到答案結尾");
+    }
+
+    @Test
+    @DisplayName("窗口未通過時攔截串流")
+    void testBlocksStream() {
+        StreamingAnswerModerator moderator = new StreamingAnswerModerator(
+                moderation(text -> { }), directExecutor(), WINDOW, STRIDE);
+        StringBuilder answer = new StringBuilder();
+        int blockedAt = -1;
+        for (int i = 0; i < 50 && blockedAt < 0; i++) {
+            answer.append(i == 10 ? "這是違規內容。" : "正常的回答內容。");
+            if (moderator.offer(answer)) {
+                blockedAt = i;
+            }
+        }
+
+        // 違規片段在下一個窗口審核，結果在其後的片段到達時生效
+        assertTrue(blockedAt > 10 && blockedAt <= 14, "攔截位置: " + blockedAt);
+        int checks = segments.size();
+        assertFalse(moderator.finish(answer).getPassed());
+        assertEquals(checks, segments.size(), "攔截後不應再審核");
+        assertEquals("違規", moderator.getBlocked().getReason());
+    }
+
+    @Test
+    @DisplayName("結束時審核尾部，審核失敗不攔截")
+    void testTailAndFailure() {
+        StreamingAnswerModerator moderator = new StreamingAnswerModerator(
+                moderation(text -> { }), executor, WINDOW, STRIDE);
+        String answer = "簡短的違規答案";
+        assertFalse(moderator.offer(answer));
+        assertTrue(segments.isEmpty(), "不足一個步長時不審核");
+        assertFalse(moderator.finish(answer).getPassed());
+        assertEquals(List.of(answer), segments);
+
+        assertNull(new StreamingAnswerModerator(moderation(text -> { }), executor, WINDOW, STRIDE).finish(""));
+
+        StreamingAnswerModerator failing = new StreamingAnswerModerator(text -> {
+            throw new IllegalStateException("審核服務錯誤");
+        }, executor, WINDOW, STRIDE);
+        String longAnswer = "違規".repeat(STRIDE);
+        failing.offer(longAnswer);
+        assertDoesNotThrow(() -> failing.finish(longAnswer.substring(0, STRIDE * 2)));
+        assertNull(failing.getBlocked());
+    }
+
+    /**
+     * 含「違規」的窗口不通過；每次審核前執行 before
+     */
+    private Function<String, ModerationResult> moderation(java.util.function.Consumer<String> before) {
+        return text -> {
+            before.accept(text);
+            segments.add(text);
+            boolean violation = text.contains("違規");
+            return ModerationResult.builder()
+                    .flagged(violation)
+                    .passed(!violation)
+                    .reason(violation ? "違規" : "通過")
+                    .build();
+        };
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 在調用線程上同步執行的執行器（審核結果確定）
+     */
+    private static ExecutorService directExecutor() {
+        return new AbstractExecutorService() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+
+            @Override
+            public void shutdown() {
+            }
+
+            @Override
+            public List<Runnable> shutdownNow() {
+                return List.of();
+            }
+
+            @Override
+            public boolean isShutdown() {
+                return false;
+            }
+
+            @Override
+            public boolean isTerminated() {
+                return false;
+            }
+
+            @Override
+            public boolean awaitTermination(long timeout, TimeUnit unit) {
+                return true;
+            }
+        };
+    }
+}
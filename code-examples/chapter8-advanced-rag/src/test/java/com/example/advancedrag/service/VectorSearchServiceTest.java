@@ -0,0 +1,191 @@
+package com.example.advancedrag.service;
+
+import com.example.advancedrag.model.RetrievalContext;
+import com.example.advancedrag.properties.RAGProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 預計算向量檢索測試
+ *
+ * 不依賴 Spring Boot 上下文（以記錄 SQL 與參數的 JdbcTemplate 代替資料庫），驗證：
+ * 1. 沒有過濾與偏移時的 SQL 與參數綁定（向量字面量、距離上限、LIMIT）
+ * 2. 過濾表達式轉為 jsonpath 並以參數綁定，分頁時附加 OFFSET
+ * 3. 結果映射：score 為 1 - distance，metadata 含 distance；候選不讀出向量
+ * 4. 文檔向量在需要時按 ID 一次批量載入到檢索上下文，同一文檔不重複載入
+ * 5. 沒有 JdbcTemplate 時不可用
+ */
+@DisplayName("預計算向量檢索測試")
+class VectorSearchServiceTest {
+
+    private static final float[] QUERY = {0.5f, -0.25f, 1f};
+    private static final String BASE_SQL = "SELECT id, content, metadata, "
+            + "embedding <=> ?::vector AS distance FROM vector_store WHERE embedding <=> ?::vector < ?";
+
+    private StubJdbcTemplate jdbcTemplate;
+    private VectorSearchService service;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate = new StubJdbcTemplate();
+        service = new VectorSearchService(
+                new StaticListableBeanFactory(Map.of("jdbcTemplate", jdbcTemplate)).getBeanProvider(JdbcTemplate.class),
+                new RAGProperties(), "vector_store");
+    }
+
+    @Test
+    @DisplayName("沒有過濾時的 SQL 與參數")
+    void testSqlWithoutFilter() {
+        service.search(QUERY, 5, 0.7, null);
+
+        assertEquals(BASE_SQL + " ORDER BY distance LIMIT ?", jdbcTemplate.sql);
+        assertEquals(4, jdbcTemplate.args.size());
+        assertEquals("[0.5,-0.25,1.0]", jdbcTemplate.args.get(0));
+        assertEquals("[0.5,-0.25,1.0]", jdbcTemplate.args.get(1));
+        assertEquals(0.3, (Double) jdbcTemplate.args.get(2), 1e-9);
+        assertEquals(5, jdbcTemplate.args.get(3));
+    }
+
+    @Test
+    @DisplayName("過濾表達式與分頁以參數綁定")
+    void testSqlWithFilterAndOffset() {
+        Filter.Expression filter = new FilterExpressionBuilder().eq("category", "tech").build();
+
+        service.search(QUERY, 20, 10, 0.5, filter, null);
+
+        assertEquals(BASE_SQL + " AND metadata::jsonb @@ ?::jsonpath ORDER BY distance LIMIT ? OFFSET ?",
+                jdbcTemplate.sql);
+        assertEquals(6, jdbcTemplate.args.size());
+        assertEquals(VectorSearchService.toJsonPath(filter), jdbcTemplate.args.get(3));
+        assertFalse(jdbcTemplate.sql.contains("tech"), "過濾值不應拼接進 SQL");
+        assertEquals(10, jdbcTemplate.args.get(4));
+        assertEquals(20, jdbcTemplate.args.get(5));
+
+        // 未指定過濾時取檢索上下文的過濾表達式
+        RetrievalContext context = new RetrievalContext();
+        context.setFilterExpression(filter);
+        service.search(QUERY, 5, 0.5, context);
+        assertTrue(jdbcTemplate.sql.contains("@@ ?::jsonpath"));
+        assertEquals(VectorSearchService.toJsonPath(filter), jdbcTemplate.args.get(3));
+    }
+
+    @Test
+    @DisplayName("結果映射與文檔向量")
+    void testRowMapping() {
+        jdbcTemplate.rows.add(Map.of(
+                "id", "doc-1",
+                "content", "RAG 結合檢索與生成",
+                "metadata", "{\"category\":\"tech\",\"author\":null}",
+                "distance", 0.2));
+        jdbcTemplate.rows.add(Map.of(
+                "id", "doc-2",
+                "content", "沒有元數據",
+                "metadata", "",
+                "distance", 0.4));
+        RetrievalContext context = new RetrievalContext();
+
+        List<Document> documents = service.search(QUERY, 5, 0.5, context);
+
+        assertEquals(List.of("doc-1", "doc-2"), documents.stream().map(Document::getId).toList());
+        Document first = documents.get(0);
+        assertEquals("RAG 結合檢索與生成", first.getText());
+        assertEquals(0.8, first.getScore(), 1e-9);
+        assertEquals(Map.of("category", "tech", "distance", 0.2), first.getMetadata());
+        assertEquals(Map.of("distance", 0.4), documents.get(1).getMetadata());
+        assertNull(context.getDocumentVector("doc-1"), "檢索時不應讀出文檔向量");
+
+        // 向量字面量往返
+        assertArrayEquals(QUERY, VectorSearchService.parseVectorLiteral(VectorSearchService.toVectorLiteral(QUERY)));
+        assertEquals(0, VectorSearchService.parseVectorLiteral("[]").length);
+    }
+
+    @Test
+    @DisplayName("文檔向量按需批量載入")
+    void testLoadsDocumentVectorsOnDemand() {
+        RetrievalContext context = new RetrievalContext();
+        context.queryVector("什麼是 RAG", text -> new float[]{1f, 0f, 0f});
+        service.search(QUERY, 5, 0.5, context);
+
+        jdbcTemplate.rows.add(Map.of("id", "doc-1", "embedding", "[3,4,0]"));
+        jdbcTemplate.rows.add(Map.of("id", "doc-2", "embedding", "[0,0,1]"));
+        float[] scores = new float[2];
+        assertTrue(context.querySimilarities("什麼是 RAG", List.of("doc-1", "doc-2"), scores));
+
+        assertEquals("SELECT id, embedding::text AS embedding FROM vector_store WHERE id IN (?::uuid, ?::uuid)",
+                jdbcTemplate.sql);
+        assertEquals(List.of("doc-1", "doc-2"), jdbcTemplate.args);
+        assertArrayEquals(new float[]{0.6f, 0.8f, 0f}, context.getDocumentVector("doc-1"), 1e-6f);
+        assertEquals(0.6f, scores[0], 1e-6f);
+        assertEquals(0f, scores[1], 1e-6f);
+
+        // 已載入（或已查詢過但沒有向量）的文檔不再查詢
+        jdbcTemplate.sql = null;
+        context.loadDocumentVectors(List.of("doc-2", "doc-1", "doc-unknown"));
+        assertEquals(List.of("doc-unknown"), jdbcTemplate.args);
+        jdbcTemplate.sql = null;
+        context.loadDocumentVectors(List.of("doc-unknown"));
+        assertNull(jdbcTemplate.sql);
+    }
+
+    @Test
+    @DisplayName("沒有 JdbcTemplate 時不可用")
+    void testUnavailableWithoutJdbcTemplate() {
+        assertTrue(service.isAvailable());
+
+        VectorSearchService unavailable = new VectorSearchService(
+                new StaticListableBeanFactory().getBeanProvider(JdbcTemplate.class), new RAGProperties(), "vector_store");
+        assertFalse(unavailable.isAvailable());
+        assertThrows(IllegalStateException.class, () -> unavailable.search(QUERY, 5, 0.5, null));
+    }
+
+    /**
+     * 記錄最後一次查詢的 SQL 與參數，並以預設的資料列執行 RowMapper
+     */
+    private static class StubJdbcTemplate extends JdbcTemplate {
+
+        final List<Map<String, Object>> rows = new ArrayList<>();
+        String sql;
+        List<Object> args;
+
+        @Override
+        public <T> List<T> query(String sql, RowMapper<T> rowMapper, Object... args) {
+            this.sql = sql;
+            this.args = Arrays.asList(args);
+            List<T> results = new ArrayList<>();
+            try {
+                for (int i = 0; i < rows.size(); i++) {
+                    results.add(rowMapper.mapRow(resultSet(rows.get(i)), i));
+                }
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+            return results;
+        }
+
+        private static ResultSet resultSet(Map<String, Object> row) {
+            return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+                    (proxy, method, methodArgs) -> switch (method.getName()) {
+                        case "getString" -> (String) row.get((String) methodArgs[0]);
+                        case "getDouble" -> (Double) row.get((String) methodArgs[0]);
+                        default -> throw new UnsupportedOperationException(method.getName());
+                    });
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.advancedrag.util;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 文檔版本記錄測試
+ *
+ * 不依賴 Spring Boot 上下文，驗證：
+ * 1. 只有指定版本號之後變更的文檔才判定為已變更
+ * 2. 超過保留時間的記錄在下次變更時被修剪，記錄數不隨文檔歷史增長
+ * 3. 版本號早於已修剪記錄的條目一律視為已變更
+ */
+@DisplayName("文檔版本記錄測試")
+class DocumentVersionsTest {
+
+    private static final Duration RETENTION = Duration.ofMinutes(10);
+
+    private final AtomicLong clockMillis = new AtomicLong(1_000_000);
+    private final DocumentVersions versions = new DocumentVersions(RETENTION, clockMillis::get);
+
+    @Test
+    @DisplayName("只判定指定版本號之後的變更")
+    void testChangedSince() {
+        long before = versions.current();
+        long version = versions.recordChange(List.of("doc-1"));
+
+        assertEquals(before + 1, version);
+        assertTrue(versions.changedSince(List.of("doc-1", "doc-2"), before));
+        assertFalse(versions.changedSince(List.of("doc-2"), before), "未變更的文檔不應判定為已變更");
+        assertFalse(versions.changedSince(List.of("doc-1"), version), "變更之後取得的版本號不應判定為已變更");
+    }
+
+    @Test
+    @DisplayName("超過保留時間的記錄被修剪")
+    void testPrunesExpiredVersions() {
+        for (int i = 0; i < 100; i++) {
+            versions.recordChange(List.of("doc-" + i));
+        }
+        assertEquals(100, versions.size());
+
+        clockMillis.addAndGet(RETENTION.toMillis() + 1);
+        long current = versions.recordChange(List.of("doc-new"));
+
+        assertEquals(1, versions.size(), "保留時間外的記錄應被修剪");
+        assertFalse(versions.changedSince(List.of("doc-new"), current));
+    }
+
+    @Test
+    @DisplayName("早於已修剪記錄的版本號視為已變更")
+    void testGenerationBeforePrunedIsStale() {
+        long started = versions.current();
+        versions.recordChange(List.of("doc-1"));
+        long afterChange = versions.current();
+
+        clockMillis.addAndGet(RETENTION.toMillis() + 1);
+        versions.recordChange(List.of("doc-2"));
+
+        assertTrue(versions.changedSince(List.of("doc-1"), started), "記錄已修剪，不可漏判");
+        assertTrue(versions.changedSince(List.of("doc-3"), started));
+        assertFalse(versions.changedSince(List.of("doc-1"), afterChange));
+    }
+}
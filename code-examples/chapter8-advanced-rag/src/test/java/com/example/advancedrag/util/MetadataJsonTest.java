@@ -0,0 +1,41 @@
+package com.example.advancedrag.util;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 文檔元數據 JSON 工具類測試
+ *
+ * 不依賴 Spring Boot 上下文，驗證：
+ * 1. 巢狀值原樣解析，null 值被移除
+ * 2. 空白或格式錯誤時返回可修改的空 Map
+ */
+@DisplayName("文檔元數據 JSON 工具類測試")
+class MetadataJsonTest {
+
+    @Test
+    @DisplayName("解析元數據並移除 null 值")
+    void testParse() {
+        Map<String, Object> metadata = MetadataJson.parse(
+                "{\"source\":\"guide.md\",\"page\":3,\"tags\":[\"rag\",\"spring\"],\"author\":null}");
+
+        assertEquals(Map.of("source", "guide.md", "page", 3, "tags", List.of("rag", "spring")), metadata);
+        metadata.put("distance", 0.12);
+        assertEquals(0.12, metadata.get("distance"));
+    }
+
+    @Test
+    @DisplayName("空白或格式錯誤時返回空 Map")
+    void testBlankOrMalformed() {
+        for (String json : new String[]{null, " ", "{not json"}) {
+            Map<String, Object> metadata = MetadataJson.parse(json);
+            assertTrue(metadata.isEmpty());
+            metadata.put("distance", 0.5);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.advancedrag.util;
+
+import com.example.advancedrag.model.ScoredDocument;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 倒數排名融合測試
+ *
+ * 不依賴 Spring Boot 上下文，驗證：
+ * 1. 多個來源都靠前的文檔排在最前，與原始分數尺度無關
+ * 2. 來源權重影響名次
+ * 3. 融合分數正規化到 0-1，並保留各來源的最高分數
+ */
+@DisplayName("倒數排名融合測試")
+class RankFusionTest {
+
+    @Test
+    @DisplayName("多個來源都靠前的文檔排在最前")
+    void testConsensusWins() {
+        // 向量分數接近 1、BM25 分數可能大於 10，尺度不可比
+        List<ScoredDocument> vector = documents(0.92, "a", "b", "c");
+        List<ScoredDocument> keyword = documents(15.0, "b", "d", "e");
+
+        List<ScoredDocument> fused = RankFusion.reciprocalRankFusion(List.of(
+                new RankFusion.Ranking("vector", 1.0, vector),
+                new RankFusion.Ranking("keyword", 1.0, keyword)), RankFusion.DEFAULT_K, 10);
+
+        assertEquals(List.of("b", "a", "d", "c", "e"), ids(fused));
+        assertTrue(fused.stream().allMatch(doc -> doc.getScore() > 0 && doc.getScore() <= 1.0));
+    }
+
+    @Test
+    @DisplayName("來源權重影響名次，並限制返回數量")
+    void testWeights() {
+        List<ScoredDocument> primary = documents(0.9, "a", "b");
+        List<ScoredDocument> expansion = documents(0.9, "b", "a");
+
+        List<ScoredDocument> fused = RankFusion.reciprocalRankFusion(List.of(
+                new RankFusion.Ranking("primary", 1.0, primary),
+                new RankFusion.Ranking("expansion-1", 0.5, expansion)), RankFusion.DEFAULT_K, 1);
+
+        assertEquals(List.of("a"), ids(fused));
+    }
+
+    @Test
+    @DisplayName("同時排第一的文檔融合分數為 1，並保留最高的語義分數")
+    void testNormalizationAndScores() {
+        ScoredDocument low = ScoredDocument.builder().document(new Document("a", "text", new HashMap<>()))
+                .semanticScore(0.6).build();
+        ScoredDocument high = ScoredDocument.builder().document(new Document("a", "text", new HashMap<>()))
+                .semanticScore(0.8).bm25Score(3.0).build();
+
+        List<ScoredDocument> fused = RankFusion.reciprocalRankFusion(List.of(
+                new RankFusion.Ranking("primary", 1.0, List.of(low)),
+                new RankFusion.Ranking("expansion-1", 0.7, List.of(high))), RankFusion.DEFAULT_K, 10);
+
+        assertEquals(1, fused.size());
+        assertEquals(1.0, fused.get(0).getScore(), 1e-9);
+        assertEquals(0.8, fused.get(0).getSemanticScore());
+        assertEquals(3.0, fused.get(0).getBm25Score());
+        assertEquals(0.6, low.getSemanticScore(), "原始文檔不應被修改");
+    }
+
+    private List<ScoredDocument> documents(double topScore, String... ids) {
+        return Arrays.stream(ids)
+                .map(id -> ScoredDocument.builder()
+                        .document(new Document(id, "content " + id, new HashMap<>()))
+                        .score(topScore)
+                        .build())
+                .toList();
+    }
+
+    private List<String> ids(List<ScoredDocument> documents) {
+        return documents.stream().map(doc -> doc.getDocument().getId()).toList();
+    }
+}
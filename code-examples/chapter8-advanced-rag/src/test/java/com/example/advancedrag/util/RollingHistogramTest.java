@@ -0,0 +1,97 @@
+package com.example.advancedrag.util;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 滑動窗口直方圖測試
+ *
+ * 驗證：
+ * 1. 百分位精度（2 位有效數字）
+ * 2. 過期槽位從窗口扣除
+ * 3. 粗槽位窗口在湊滿一個槽位後才更新
+ * 4. 多線程並發記錄不丟失
+ */
+@DisplayName("滑動窗口直方圖測試")
+class RollingHistogramTest {
+
+    private static final Duration ONE_MINUTE = Duration.ofMinutes(1);
+    private static final Duration FIVE_MINUTES = Duration.ofMinutes(5);
+
+    private RollingHistogram histogram() {
+        return new RollingHistogram(List.of(
+                new RollingHistogram.WindowSpec(ONE_MINUTE, RollingHistogram.TICK),
+                new RollingHistogram.WindowSpec(FIVE_MINUTES, Duration.ofSeconds(30))
+        ));
+    }
+
+    @Test
+    @DisplayName("百分位誤差在 1% 以內")
+    void testPercentiles() {
+        RollingHistogram histogram = histogram();
+        for (int value = 1; value <= 10_000; value++) {
+            histogram.record(value);
+        }
+        histogram.rotate();
+
+        RollingHistogram.Snapshot snapshot = histogram.snapshot(ONE_MINUTE);
+        assertEquals(10_000, snapshot.count());
+        assertEquals(5_000, snapshot.p50(), 50);
+        assertEquals(9_900, snapshot.p99(), 99);
+        assertEquals(10_000, snapshot.max(), 100);
+    }
+
+    @Test
+    @DisplayName("超過窗口長度的記錄被扣除，粗槽位窗口湊滿槽位才更新")
+    void testSliding() {
+        RollingHistogram histogram = histogram();
+        histogram.record(1_000);
+        histogram.rotate();
+
+        assertEquals(1, histogram.snapshot(ONE_MINUTE).count());
+        assertEquals(0, histogram.snapshot(FIVE_MINUTES).count(), "30 秒槽位尚未湊滿");
+
+        histogram.rotate();
+        histogram.rotate();
+        assertEquals(1, histogram.snapshot(FIVE_MINUTES).count());
+
+        // 1 分鐘窗口 = 6 個 tick，第 7 個 tick 後最早的記錄過期
+        for (int i = 0; i < 4; i++) {
+            histogram.rotate();
+        }
+        assertEquals(0, histogram.snapshot(ONE_MINUTE).count());
+        assertEquals(1, histogram.snapshot(FIVE_MINUTES).count());
+
+        histogram.reset();
+        assertEquals(0, histogram.snapshot(FIVE_MINUTES).count());
+    }
+
+    @Test
+    @DisplayName("多線程並發記錄與旋轉不丟失")
+    void testConcurrentRecording() throws InterruptedException {
+        RollingHistogram histogram = histogram();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            threads.add(Thread.ofVirtual().start(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    histogram.record(i % 500);
+                }
+            }));
+        }
+        for (int i = 0; i < 3; i++) {
+            histogram.rotate();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        histogram.rotate();
+
+        assertEquals(80_000, histogram.snapshot(ONE_MINUTE).count());
+    }
+}
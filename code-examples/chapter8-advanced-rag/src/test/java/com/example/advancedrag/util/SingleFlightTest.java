@@ -0,0 +1,138 @@
+package com.example.advancedrag.util;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Single-flight 請求合併測試
+ *
+ * 不依賴 Spring Boot 上下文，驗證：
+ * 1. 相同鍵的並發調用只執行一次
+ * 2. leader 失敗時 follower 使用降級結果，leader 自身拋出原始異常
+ * 3. follower 等待逾時使用降級結果
+ */
+@DisplayName("Single-flight 請求合併測試")
+class SingleFlightTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    @Test
+    @DisplayName("相同鍵的並發調用只執行一次")
+    void testCoalescing() throws InterruptedException {
+        SingleFlight<String, String> flight = new SingleFlight<>();
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        List<SingleFlight.Result<String>> results = new ArrayList<>();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            threads.add(Thread.ofVirtual().start(() -> {
+                SingleFlight.Result<String> result = flight.execute("q", () -> {
+                    calls.incrementAndGet();
+                    await(release);
+                    return "answer";
+                }, TIMEOUT, error -> "fallback");
+                synchronized (results) {
+                    results.add(result);
+                }
+            }));
+        }
+        while (calls.get() == 0) {
+            Thread.onSpinWait();
+        }
+        // 讓其他線程進入等待
+        Thread.sleep(100);
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1, calls.get());
+        assertEquals(1, results.stream().filter(result -> result.role() == SingleFlight.Role.LEADER).count());
+        assertTrue(results.stream().allMatch(result -> result.value().equals("answer")));
+        assertEquals(0, flight.inFlight());
+
+        // 完成後再次調用會重新執行
+        flight.execute("q", () -> {
+            calls.incrementAndGet();
+            return "again";
+        }, TIMEOUT, error -> "fallback");
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    @DisplayName("leader 失敗時 follower 使用降級結果")
+    void testLeaderFailure() throws InterruptedException {
+        SingleFlight<String, String> flight = new SingleFlight<>();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Thread leader = Thread.ofVirtual().start(() -> assertThrows(IllegalStateException.class,
+                () -> flight.execute("q", () -> {
+                    started.countDown();
+                    await(release);
+                    throw new IllegalStateException("LLM 失敗");
+                }, TIMEOUT, error -> "unused")));
+        started.await();
+
+        Thread releaser = Thread.ofVirtual().start(() -> {
+            sleep(100);
+            release.countDown();
+        });
+        SingleFlight.Result<String> result = flight.execute("q", () -> "own", TIMEOUT,
+                error -> "fallback:" + error.getMessage());
+        leader.join();
+        releaser.join();
+
+        assertEquals(SingleFlight.Role.FALLBACK, result.role());
+        assertEquals("fallback:LLM 失敗", result.value());
+    }
+
+    @Test
+    @DisplayName("follower 等待逾時使用降級結果")
+    void testFollowerTimeout() throws InterruptedException {
+        SingleFlight<String, String> flight = new SingleFlight<>();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Thread leader = Thread.ofVirtual().start(() -> flight.execute("q", () -> {
+            started.countDown();
+            await(release);
+            return "late";
+        }, TIMEOUT, error -> "unused"));
+        started.await();
+
+        SingleFlight.Result<String> result = flight.execute("q", () -> "own", Duration.ofMillis(50),
+                error -> "timeout");
+        release.countDown();
+        leader.join();
+
+        assertEquals(SingleFlight.Role.FALLBACK, result.role());
+        assertEquals("timeout", result.value());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.example.advancedrag.util;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * VectorUtil 測試
+ *
+ * 不依賴 Spring Boot 上下文，驗證：
+ * 1. SIMD 核心與標量核心結果一致（含非整倍數長度的尾段），標量核心以 double 累加
+ * 2. 原地正規化與一對多批次評分
+ * 3. FloatBuffer 版本（堆內與直接緩衝區）
+ */
+@DisplayName("向量計算工具測試")
+class VectorUtilTest {
+
+    /**
+     * 與 PgVector 資料表的向量維度一致（app.embedding.default-dimensions）
+     */
+    private static final int DIMENSIONS = 1024;
+
+    private final Random random = new Random(42);
+
+    @Test
+    @DisplayName("SIMD 與標量核心結果一致")
+    void testKernelsAgree() {
+        VectorKernel scalar = new ScalarVectorKernel();
+        VectorKernel simd = new SimdVectorKernel();
+
+        for (int length : new int[]{1, 7, 16, 33, DIMENSIONS}) {
+            float[] a = randomVector(length);
+            float[] b = randomVector(length);
+
+            assertEquals(scalar.dot(a, 0, b, 0, length), simd.dot(a, 0, b, 0, length), 1e-3);
+            assertEquals(scalar.cosine(a, 0, b, 0, length), simd.cosine(a, 0, b, 0, length), 1e-5);
+            assertEquals(scalar.squaredDistance(a, 0, b, 0, length),
+                    simd.squaredDistance(a, 0, b, 0, length), 1e-2);
+
+            float[] scaledScalar = a.clone();
+            float[] scaledSimd = a.clone();
+            scalar.scale(scaledScalar, 0, length, 0.5f);
+            simd.scale(scaledSimd, 0, length, 0.5f);
+            assertArrayEquals(scaledScalar, scaledSimd);
+        }
+    }
+
+    @Test
+    @DisplayName("標量核心以 double 累加")
+    void testScalarKernelAccumulatesInDouble() {
+        VectorKernel scalar = new ScalarVectorKernel();
+        // float 累加時 1e8 + 1 捨入為 1e8，結果會是 0
+        float[] a = {1e8f, 1f, -1e8f};
+        float[] ones = {1f, 1f, 1f};
+        float[] zeros = {0f, 0f, 0f};
+
+        assertEquals(1f, scalar.dot(a, 0, ones, 0, 3));
+        assertEquals(2e16f + 1f, scalar.squaredDistance(a, 0, zeros, 0, 3));
+        assertEquals(1.0 / (Math.sqrt(2e16 + 1) * Math.sqrt(3)), scalar.cosine(a, 0, ones, 0, 3), 1e-15);
+    }
+
+    @Test
+    @DisplayName("float[] 版本與舊 List<Double> 版本結果一致")
+    @SuppressWarnings("deprecation")
+    void testMatchesLegacyListApi() {
+        float[] a = randomVector(DIMENSIONS);
+        float[] b = randomVector(DIMENSIONS);
+
+        assertEquals(VectorUtil.cosineSimilarity(box(a), box(b)), VectorUtil.cosineSimilarity(a, b), 1e-5);
+        assertEquals(VectorUtil.euclideanDistance(box(a), box(b)), VectorUtil.euclideanDistance(a, b), 1e-3);
+        assertEquals(0.0, VectorUtil.cosineSimilarity(new float[3], new float[]{1, 2, 3}));
+        assertThrows(IllegalArgumentException.class, () -> VectorUtil.cosineSimilarity(new float[2], new float[3]));
+    }
+
+    @Test
+    @DisplayName("原地正規化後範數為 1，零向量保持不變")
+    void testNormalizeInPlace() {
+        float[] vector = randomVector(DIMENSIONS);
+        assertSame(vector, VectorUtil.normalizeInPlace(vector));
+        assertEquals(1.0f, VectorUtil.norm(vector), 1e-5);
+
+        float[] zero = new float[8];
+        VectorUtil.normalizeInPlace(zero);
+        assertArrayEquals(new float[8], zero);
+    }
+
+    @Test
+    @DisplayName("一對多批次評分：與逐一計算一致，缺失向量為 NaN")
+    void testCosineSimilarities() {
+        float[] query = randomVector(DIMENSIONS);
+        List<float[]> candidates = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            candidates.add(randomVector(DIMENSIONS));
+        }
+        candidates.add(null);
+        candidates.add(new float[3]);
+
+        float[] scores = new float[candidates.size()];
+        VectorUtil.cosineSimilarities(query, candidates, scores);
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(VectorUtil.cosineSimilarity(query, candidates.get(i)), scores[i], 1e-5);
+        }
+        assertTrue(Float.isNaN(scores[10]));
+        assertTrue(Float.isNaN(scores[11]));
+    }
+
+    @Test
+    @DisplayName("FloatBuffer 版本：堆內、切片與直接緩衝區")
+    void testFloatBuffer() {
+        float[] a = randomVector(100);
+        float[] b = randomVector(100);
+        double expected = VectorUtil.cosineSimilarity(a, b);
+
+        assertEquals(expected, VectorUtil.cosineSimilarity(FloatBuffer.wrap(a), FloatBuffer.wrap(b)), 1e-5);
+
+        // 帶偏移量的切片
+        float[] padded = new float[104];
+        System.arraycopy(a, 0, padded, 4, 100);
+        FloatBuffer slice = FloatBuffer.wrap(padded, 4, 100).slice();
+        assertEquals(expected, VectorUtil.cosineSimilarity(slice, FloatBuffer.wrap(b)), 1e-5);
+
+        // 直接緩衝區
+        FloatBuffer direct = ByteBuffer.allocateDirect(100 * Float.BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        direct.put(a).flip();
+        assertEquals(expected, VectorUtil.cosineSimilarity(direct, FloatBuffer.wrap(b)), 1e-5);
+        assertEquals(VectorUtil.dot(a, b), VectorUtil.dot(direct, FloatBuffer.wrap(b)), 1e-3);
+        assertEquals(0, direct.position());
+    }
+
+    private float[] randomVector(int length) {
+        float[] vector = new float[length];
+        for (int i = 0; i < length; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+
+    private List<Double> box(float[] vector) {
+        List<Double> boxed = new ArrayList<>(vector.length);
+        for (float v : vector) {
+            boxed.add((double) v);
+        }
+        return boxed;
+    }
+}